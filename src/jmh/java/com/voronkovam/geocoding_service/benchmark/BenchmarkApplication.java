@@ -0,0 +1,40 @@
+package com.voronkovam.geocoding_service.benchmark;
+
+import com.voronkovam.geocoding_service.GeocodingServiceApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Запускает приложение для бенчмарков на H2 (профиль {@code test}) с заглушкой вместо Nominatim.
+ * Лимит частоты запросов к внешнему API снят, логирование SQL и запросов отключено, чтобы
+ * не искажать замеры.
+ */
+final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    static ConfigurableApplicationContext start(WebApplicationType type, String upstreamUrl,
+                                                Map<String, String> overrides) {
+        List<String> properties = new ArrayList<>(List.of(
+                "external.api.url=" + upstreamUrl,
+                "server.port=0",
+                "geocoding.upstream.http-version=HTTP_1_1",
+                "spring.jpa.show-sql=false",
+                "logging.level.root=WARN",
+                "geocoding.upstream.rate-limit.permits-per-second=1000000",
+                "geocoding.upstream.rate-limit.burst=10000",
+                "geocoding.upstream.queue.capacity=100000"));
+        overrides.forEach((name, value) -> properties.add(name + "=" + value));
+        // Аргументы командной строки, в отличие от properties(), перекрывают application-test.properties
+        return new SpringApplicationBuilder(GeocodingServiceApplication.class)
+                .profiles("test")
+                .web(type)
+                .run(properties.stream().map(property -> "--" + property).toArray(String[]::new));
+    }
+}
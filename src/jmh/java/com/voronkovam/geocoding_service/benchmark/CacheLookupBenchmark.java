@@ -0,0 +1,81 @@
+package com.voronkovam.geocoding_service.benchmark;
+
+import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import com.voronkovam.geocoding_service.repository.CachedLocationRepository;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import com.voronkovam.geocoding_service.service.GeocodingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Попадания в кэш через {@link GeocodingService}: при {@code l1=true} запрос обслуживается из памяти,
+ * при {@code l1=false} — запросом к БД H2 по индексу ключа адреса.
+ * <p>
+ * Кэш в памяти прогревается в {@link #setup()}, иначе замер большей частью состоит из первых обращений к БД.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class CacheLookupBenchmark {
+
+    private static final int ADDRESSES = 1_000;
+
+    @Param({ "true", "false" })
+    public boolean l1;
+
+    private StubNominatim upstream;
+    private ConfigurableApplicationContext context;
+    private GeocodingService service;
+    private String[] addresses;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        upstream = new StubNominatim();
+        context = BenchmarkApplication.start(WebApplicationType.NONE, upstream.url(),
+                Map.of("geocoding.cache.l1.enabled", String.valueOf(l1)));
+        service = context.getBean(GeocodingService.class);
+        AddressNormalizer normalizer = context.getBean(AddressNormalizer.class);
+        CachedLocationRepository repository = context.getBean(CachedLocationRepository.class);
+        addresses = new String[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = "Москва, Тверская улица, " + i;
+            repository.insertIfAbsent(addresses[i], normalizer.key(addresses[i]), null, 55.75, 37.61);
+        }
+        for (String address : addresses) {
+            service.geocode(address);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        upstream.close();
+    }
+
+    @Benchmark
+    public GeocodingResponse geocodeHit() {
+        return service.geocode(addresses[ThreadLocalRandom.current().nextInt(ADDRESSES)]);
+    }
+}
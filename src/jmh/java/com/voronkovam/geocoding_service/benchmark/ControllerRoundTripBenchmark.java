@@ -0,0 +1,84 @@
+package com.voronkovam.geocoding_service.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Полный HTTP-цикл {@code POST /api/geocode/direct}: сериализация, контроллер, сервис, кэш и,
+ * для промахов, заглушка Nominatim и запись в H2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ControllerRoundTripBenchmark {
+
+    private final AtomicLong missCounter = new AtomicLong();
+    private StubNominatim upstream;
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private URI directUri;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        upstream = new StubNominatim();
+        context = BenchmarkApplication.start(WebApplicationType.SERVLET, upstream.url(), Map.of());
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        directUri = URI.create("http://127.0.0.1:" + port + "/api/geocode/direct");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        post("Москва");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        upstream.close();
+    }
+
+    @Benchmark
+    public String directCacheHit() throws Exception {
+        return post("Москва");
+    }
+
+    @Benchmark
+    public String directUpstreamMiss() throws Exception {
+        return post("Москва, Тверская улица, " + missCounter.incrementAndGet());
+    }
+
+    private String post(String address) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(directUri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"address\":\"" + address + "\"}"))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected status " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+}
@@ -0,0 +1,92 @@
+package com.voronkovam.geocoding_service.benchmark;
+
+import com.voronkovam.geocoding_service.gazetteer.GazetteerIndex;
+import com.voronkovam.geocoding_service.gazetteer.GazetteerIndexBuilder;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск в локальном справочнике: прямой (нормализация адреса и двоичный поиск) и обратный
+ * (просмотр ячеек сетки вокруг точки) по синтетическому индексу из {@code size} адресов.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GazetteerBenchmark {
+
+    /** Улиц в сетке; на каждой улице {@code size / STREETS} домов с шагом около 20 м. */
+    private static final int STREETS = 1_000;
+
+    @Param({ "1000000" })
+    private int size;
+
+    private final AddressNormalizer normalizer = new AddressNormalizer();
+    private Path directory;
+    private GazetteerIndex index;
+    private String[] addresses;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("gazetteer-benchmark");
+        Path source = directory.resolve("addresses.csv");
+        try (BufferedWriter out = Files.newBufferedWriter(source)) {
+            for (int i = 0; i < size; i++) {
+                out.write(String.format(Locale.ROOT, "\"Москва, улица %d, %d\",%.5f,%.5f%n",
+                        i % STREETS, i / STREETS, 55.5 + (i % STREETS) * 0.0005, 37.3 + (i / STREETS) * 0.0003));
+            }
+        }
+        Path file = directory.resolve("gazetteer.idx");
+        GazetteerIndexBuilder.build(source, file, normalizer, 0.001);
+        index = GazetteerIndex.open(file);
+        addresses = new String[1_000];
+        for (int i = 0; i < addresses.length; i++) {
+            int n = ThreadLocalRandom.current().nextInt(size);
+            addresses[i] = "Москва, ул. " + (n % STREETS) + ", " + (n / STREETS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Optional<GazetteerIndex.Match> search() {
+        return index.search(normalizer.canonical(addresses[ThreadLocalRandom.current().nextInt(addresses.length)]));
+    }
+
+    @Benchmark
+    public Optional<GazetteerIndex.Match> nearest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return index.nearest(55.5 + random.nextDouble(0.5), 37.3 + random.nextDouble(0.3), 100);
+    }
+}
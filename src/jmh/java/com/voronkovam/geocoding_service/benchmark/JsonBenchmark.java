@@ -0,0 +1,71 @@
+package com.voronkovam.geocoding_service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import com.voronkovam.geocoding_service.model.MatchType;
+import com.voronkovam.geocoding_service.model.NominatimResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализация ответа сервиса и разбор ответов Nominatim.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    /** Типичный ответ /search: поля, которые сервис не использует, тоже приходят и пропускаются. */
+    private static final byte[] SEARCH_RESPONSE = """
+            [{"place_id":123456,"licence":"Data © OpenStreetMap contributors, ODbL 1.0. http://osm.org/copyright",\
+            "osm_type":"relation","osm_id":2555133,"lat":"55.7504461","lon":"37.6174943","class":"boundary",\
+            "type":"administrative","place_rank":8,"importance":0.8,"addresstype":"city","name":"Москва",\
+            "display_name":"Москва, Центральный федеральный округ, Россия",\
+            "boundingbox":["55.4913076","56.0097511","37.3193289","37.9674277"]}]"""
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private GeocodingResponse response;
+    private byte[] serializedResponse;
+
+    @Setup
+    public void setup() throws IOException {
+        response = new GeocodingResponse();
+        response.setAddress("Москва, Центральный федеральный округ, Россия");
+        response.setLat(55.75045);
+        response.setLon(37.61749);
+        response.setMatchType(MatchType.EXACT);
+        response.setDistanceMeters(0.0);
+        serializedResponse = objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] writeGeocodingResponse() throws IOException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public GeocodingResponse readGeocodingResponse() throws IOException {
+        return objectMapper.readValue(serializedResponse, GeocodingResponse.class);
+    }
+
+    @Benchmark
+    public NominatimResponse[] readNominatimSearch() throws IOException {
+        return objectMapper.readValue(SEARCH_RESPONSE, NominatimResponse[].class);
+    }
+}
@@ -0,0 +1,49 @@
+package com.voronkovam.geocoding_service.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Локальная заглушка Nominatim для бенчмарков: на любой запрос /search и /reverse сразу отвечает
+ * фиксированным результатом, чтобы в замеры не попадали сеть и внешний сервис.
+ */
+final class StubNominatim implements AutoCloseable {
+
+    private static final byte[] SEARCH = """
+            [{"display_name":"Москва, Россия","lat":"55.7504461","lon":"37.6174943"}]"""
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REVERSE = """
+            {"display_name":"Москва, Россия","lat":"55.7504461","lon":"37.6174943"}"""
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    StubNominatim() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = exchange.getRequestURI().getPath().startsWith("/search") ? SEARCH : REVERSE;
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
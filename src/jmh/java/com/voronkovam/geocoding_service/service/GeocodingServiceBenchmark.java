@@ -0,0 +1,48 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.voronkovam.geocoding_service.cache.LocationEntry;
+import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Микробенчмарки чистых функций горячего пути {@link GeocodingService}: округление координат,
+ * преобразование записи кэша в ответ и построение ключа адреса.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeocodingServiceBenchmark {
+
+    private final AddressNormalizer normalizer = new AddressNormalizer();
+    private final LocationEntry entry = LocationEntry.exact("Москва, Тверская улица, 1", 55.75722, 37.61333);
+    private double lat = 55.757223456;
+
+    @Benchmark
+    public double round() {
+        lat += 1e-9;
+        return GeocodingService.round(lat, 5);
+    }
+
+    @Benchmark
+    public GeocodingResponse toResponse() {
+        return GeocodingService.toResponse(entry);
+    }
+
+    @Benchmark
+    public String addressKey() {
+        return normalizer.key("Москва, ул. Тверская, д. 1");
+    }
+}
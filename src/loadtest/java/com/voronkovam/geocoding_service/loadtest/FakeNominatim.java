@@ -0,0 +1,99 @@
+package com.voronkovam.geocoding_service.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальная замена Nominatim для нагрузочного теста. Отвечает на /search и /reverse с заданной задержкой,
+ * а заданная доля ответов — ошибки 503 или пустые результаты.
+ * <p>
+ * Задержка выдерживается планировщиком, а не сном в обработчике, поэтому число одновременно
+ * «висящих» запросов не ограничено числом потоков заглушки.
+ */
+final class FakeNominatim implements AutoCloseable {
+
+    private static final byte[] SEARCH = """
+            [{"display_name":"Москва, Россия","lat":"55.7504461","lon":"37.6174943"}]"""
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REVERSE = """
+            {"display_name":"Москва, Россия","lat":"55.7504461","lon":"37.6174943"}"""
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEARCH_NOT_FOUND = "[]".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REVERSE_NOT_FOUND = """
+            {"error":"Unable to geocode"}""".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newFixedThreadPool(4);
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    private final long latencyMicros;
+    private final long jitterMicros;
+    private final double errorRate;
+    private final double notFoundRate;
+    private final AtomicLong requests = new AtomicLong();
+
+    FakeNominatim(Duration latency, Duration jitter, double errorRate, double notFoundRate) throws IOException {
+        this.latencyMicros = latency.toNanos() / 1_000;
+        this.jitterMicros = jitter.toNanos() / 1_000;
+        this.errorRate = errorRate;
+        this.notFoundRate = notFoundRate;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            long delay = latencyMicros + (jitterMicros > 0 ? ThreadLocalRandom.current().nextLong(jitterMicros + 1) : 0);
+            scheduler.schedule(() -> respond(exchange), delay, TimeUnit.MICROSECONDS);
+        });
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return число запросов, дошедших до заглушки
+     */
+    long requests() {
+        return requests.get();
+    }
+
+    private void respond(HttpExchange exchange) {
+        try {
+            double dice = ThreadLocalRandom.current().nextDouble();
+            if (dice < errorRate) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            boolean search = exchange.getRequestURI().getPath().startsWith("/search");
+            boolean notFound = dice < errorRate + notFoundRate;
+            byte[] body = search
+                    ? (notFound ? SEARCH_NOT_FOUND : SEARCH)
+                    : (notFound ? REVERSE_NOT_FOUND : REVERSE);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            // клиент уже закрыл соединение по таймауту — для заглушки это не ошибка
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        handlers.shutdownNow();
+    }
+}
@@ -0,0 +1,134 @@
+package com.voronkovam.geocoding_service.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Результаты одного прогона нагрузки: распределение задержек (HdrHistogram, в микросекундах)
+ * и коды ответов отдельно для каждого эндпоинта.
+ * <p>
+ * Задержка отсчитывается от момента, когда запрос должен был уйти по расписанию, а не от фактической
+ * отправки: если генератор или сервис отстают, ожидание в очереди попадает в замер (без coordinated omission).
+ */
+final class LatencyReport {
+
+    /** Запрос не отправлен: превышен предел одновременно ожидающих ответа запросов. */
+    static final int DROPPED = -1;
+    /** Запрос не получил HTTP-ответа (таймаут, обрыв соединения). */
+    static final int NO_RESPONSE = 0;
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(2);
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final Map<Endpoint, Stats> stats = new EnumMap<>(Endpoint.class);
+    private long elapsedNanos;
+
+    LatencyReport() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            stats.put(endpoint, new Stats());
+        }
+    }
+
+    void record(Endpoint endpoint, long latencyNanos, int status) {
+        Stats s = stats.get(endpoint);
+        s.statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        if (status != DROPPED) {
+            s.latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_MICROS));
+        }
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    void print(PrintStream out, LoadTestConfig config, long upstreamRequests) {
+        double seconds = elapsedNanos / 1e9;
+        out.printf("%nЦелевая нагрузка: %d rps, попадания в кэш: %.0f%%, доля /reverse: %.0f%%, длительность: %.1f с%n",
+                config.rps(), config.hitRatio() * 100, config.reverseShare() * 100, seconds);
+        out.printf("Запросов к заглушке Nominatim: %d%n", upstreamRequests);
+        for (Map.Entry<Endpoint, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            long total = s.count();
+            long ok = s.count(200);
+            out.printf("%n%s: запросов %d, успешных %d (%.1f rps), ошибок %d, отброшено %d%n",
+                    entry.getKey().path(), total, ok, ok / seconds, total - ok - s.count(DROPPED), s.count(DROPPED));
+            if (s.latency.getTotalCount() > 0) {
+                StringBuilder line = new StringBuilder("  задержка, мс:");
+                for (double percentile : PERCENTILES) {
+                    line.append(String.format(" p%s=%.2f", format(percentile), s.latency.getValueAtPercentile(percentile) / 1000.0));
+                }
+                line.append(String.format(" max=%.2f", s.latency.getMaxValue() / 1000.0));
+                out.println(line);
+            }
+            out.println("  коды ответов: " + s.statusSummary());
+        }
+    }
+
+    /**
+     * Сохраняет полные распределения задержек в формате {@code .hgrm} (в миллисекундах),
+     * который открывается HdrHistogram Plotter.
+     */
+    void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (Map.Entry<Endpoint, Stats> entry : stats.entrySet()) {
+            Path file = directory.resolve(entry.getKey().name().toLowerCase() + ".hgrm");
+            try (PrintStream out = new PrintStream(Files.newOutputStream(file), true, "UTF-8")) {
+                entry.getValue().latency.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    enum Endpoint {
+        DIRECT("/api/geocode/direct"),
+        REVERSE("/api/geocode/reverse");
+
+        private final String path;
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+
+        String path() {
+            return path;
+        }
+    }
+
+    private static final class Stats {
+        private final Histogram latency = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        long count() {
+            return statuses.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        long count(int status) {
+            LongAdder adder = statuses.get(status);
+            return adder == null ? 0 : adder.sum();
+        }
+
+        String statusSummary() {
+            Map<String, Long> summary = new TreeMap<>();
+            statuses.forEach((status, adder) -> summary.put(switch (status) {
+                case DROPPED -> "отброшено";
+                case NO_RESPONSE -> "нет ответа";
+                default -> String.valueOf(status);
+            }, adder.sum()));
+            return summary.toString();
+        }
+    }
+}
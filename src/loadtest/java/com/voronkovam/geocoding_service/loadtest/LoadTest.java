@@ -0,0 +1,187 @@
+package com.voronkovam.geocoding_service.loadtest;
+
+import com.voronkovam.geocoding_service.GeocodingServiceApplication;
+import com.voronkovam.geocoding_service.loadtest.LatencyReport.Endpoint;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Нагрузочный тест сервиса целиком: поднимает приложение (H2 или PostgreSQL) и {@link FakeNominatim},
+ * прогревает набор «горячих» адресов и координат, затем подает смешанный поток {@code /direct}
+ * и {@code /reverse} с постоянной частотой и заданной долей попаданий в кэш.
+ * <p>
+ * Нагрузка открытая: запросы отправляются по расписанию независимо от того, успел ли сервис
+ * ответить на предыдущие, поэтому замедление сервиса видно в задержках, а не маскируется
+ * снижением частоты.
+ */
+public final class LoadTest {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final int WARM_CONCURRENCY = 64;
+    private static final double HOT_LON = 37.0;
+
+    private final LoadTestConfig config;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final URI directUri;
+    private final URI reverseUri;
+    private long missCounter;
+
+    private LoadTest(LoadTestConfig config, int port) {
+        this.config = config;
+        this.directUri = URI.create("http://127.0.0.1:" + port + Endpoint.DIRECT.path());
+        this.reverseUri = URI.create("http://127.0.0.1:" + port + Endpoint.REVERSE.path());
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        try (FakeNominatim upstream = new FakeNominatim(config.upstreamLatency(), config.upstreamJitter(),
+                config.upstreamErrorRate(), config.upstreamNotFoundRate());
+             ConfigurableApplicationContext context = startApplication(config, upstream.url())) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            LoadTest test = new LoadTest(config, port);
+
+            System.out.printf("Прогрев кэша: %d адресов и %d координат%n", config.hotKeys(), config.hotKeys());
+            test.warmHotKeys();
+            System.out.printf("Прогрев нагрузкой: %s%n", config.warmup());
+            test.run(config.warmup());
+            System.out.printf("Замер: %s%n", config.duration());
+            long upstreamBefore = upstream.requests();
+            LatencyReport report = test.run(config.duration());
+
+            report.print(System.out, config, upstream.requests() - upstreamBefore);
+            Path reportDir = Path.of(config.reportDir());
+            report.write(reportDir);
+            System.out.printf("%nРаспределения задержек сохранены в %s%n", reportDir.toAbsolutePath());
+        }
+    }
+
+    private static ConfigurableApplicationContext startApplication(LoadTestConfig config, String upstreamUrl) {
+        List<String> args = new ArrayList<>(List.of(
+                "--external.api.url=" + upstreamUrl,
+                "--server.port=0",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--geocoding.upstream.http-version=HTTP_1_1",
+                "--geocoding.upstream.rate-limit.permits-per-second=1000000",
+                "--geocoding.upstream.rate-limit.burst=10000",
+                "--geocoding.upstream.queue.capacity=100000",
+                "--geocoding.cache.snapshot.enabled=false"));
+        // devtools перезапускает приложение из main-потока, что для замеров не нужно
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(GeocodingServiceApplication.class);
+        if (config.dbUrl() == null) {
+            builder.profiles("test");
+        } else {
+            args.add("--spring.datasource.url=" + config.dbUrl());
+            args.add("--spring.datasource.username=" + config.dbUser());
+            args.add("--spring.datasource.password=" + config.dbPassword());
+        }
+        // параметры приложения из командной строки идут последними и перекрывают значения выше
+        args.addAll(config.applicationArgs());
+        return builder.run(args.toArray(String[]::new));
+    }
+
+    /**
+     * Запрашивает каждый «горячий» адрес и координату по одному разу, чтобы дальше они отдавались из кэша.
+     */
+    private void warmHotKeys() throws InterruptedException {
+        Semaphore permits = new Semaphore(WARM_CONCURRENCY);
+        for (int i = 0; i < config.hotKeys(); i++) {
+            for (HttpRequest request : List.of(direct(hotAddress(i)), reverse(hotLat(i), HOT_LON))) {
+                permits.acquire();
+                client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((response, error) -> permits.release());
+            }
+        }
+        permits.acquire(WARM_CONCURRENCY);
+    }
+
+    /**
+     * Подает нагрузку в течение {@code duration} и дожидается ответов на все отправленные запросы.
+     */
+    private LatencyReport run(Duration duration) throws InterruptedException {
+        LatencyReport report = new LatencyReport();
+        Semaphore inFlight = new Semaphore(config.maxInFlight());
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.rps();
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * intervalNanos;
+            if (scheduled >= end) {
+                break;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Endpoint endpoint = random.nextDouble() < config.reverseShare() ? Endpoint.REVERSE : Endpoint.DIRECT;
+            HttpRequest request = nextRequest(endpoint, random.nextDouble() < config.hitRatio(), random);
+            if (!inFlight.tryAcquire()) {
+                report.record(endpoint, 0, LatencyReport.DROPPED);
+                continue;
+            }
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                report.record(endpoint, System.nanoTime() - scheduled,
+                        response != null ? response.statusCode() : LatencyReport.NO_RESPONSE);
+                inFlight.release();
+            });
+        }
+        if (!inFlight.tryAcquire(config.maxInFlight(), REQUEST_TIMEOUT.toSeconds() * 2, TimeUnit.SECONDS)) {
+            System.out.println("Не дождались ответов на часть запросов");
+        }
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    private HttpRequest nextRequest(Endpoint endpoint, boolean hit, ThreadLocalRandom random) {
+        if (hit) {
+            int i = random.nextInt(config.hotKeys());
+            return endpoint == Endpoint.DIRECT ? direct(hotAddress(i)) : reverse(hotLat(i), HOT_LON);
+        }
+        long n = missCounter++;
+        // для промахов координаты берутся из сетки с шагом в сотни метров, чтобы не сработал поиск ближайшей точки
+        return endpoint == Endpoint.DIRECT
+                ? direct("Нагрузочный тест, дом " + n)
+                : reverse(-60 + (n / 50_000) * 0.001, -150 + (n % 50_000) * 0.005);
+    }
+
+    private HttpRequest direct(String address) {
+        return post(directUri, "{\"address\":\"" + address + "\"}");
+    }
+
+    private HttpRequest reverse(double lat, double lon) {
+        return post(reverseUri, String.format(Locale.ROOT, "{\"lat\":%.6f,\"lon\":%.6f}", lat, lon));
+    }
+
+    private static HttpRequest post(URI uri, String body) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static String hotAddress(int i) {
+        return "Москва, Тверская улица, " + i;
+    }
+
+    private static double hotLat(int i) {
+        return 55.0 + i * 0.001;
+    }
+}
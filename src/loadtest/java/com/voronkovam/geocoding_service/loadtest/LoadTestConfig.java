@@ -0,0 +1,87 @@
+package com.voronkovam.geocoding_service.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Параметры нагрузочного теста. Передаются аргументами вида {@code --имя=значение}; аргументы,
+ * которые тест не знает (например {@code --geocoding.cache.l1.enabled=false}), передаются приложению.
+ *
+ * @param rps                  целевое число запросов в секунду
+ * @param warmup               длительность прогрева, результаты которого отбрасываются
+ * @param duration             длительность замера
+ * @param hitRatio             доля запросов по адресам и координатам, уже лежащим в кэше
+ * @param reverseShare         доля запросов {@code /reverse} в общем потоке
+ * @param hotKeys              число «горячих» адресов и координат, прогреваемых перед тестом
+ * @param maxInFlight          предел одновременно ожидающих ответа запросов; сверх него запросы отбрасываются
+ * @param upstreamLatency      задержка ответа заглушки Nominatim
+ * @param upstreamJitter       случайная добавка к задержке заглушки (от 0 до указанного значения)
+ * @param upstreamErrorRate    доля ответов заглушки с кодом 503
+ * @param upstreamNotFoundRate доля пустых ответов заглушки («ничего не найдено»)
+ * @param dbUrl                JDBC URL PostgreSQL; если не задан, используется H2 профиля {@code test}
+ * @param dbUser               пользователь БД
+ * @param dbPassword           пароль БД
+ * @param reportDir            каталог для отчетов
+ * @param applicationArgs      аргументы, передаваемые приложению
+ */
+record LoadTestConfig(int rps, Duration warmup, Duration duration, double hitRatio, double reverseShare,
+                      int hotKeys, int maxInFlight, Duration upstreamLatency, Duration upstreamJitter,
+                      double upstreamErrorRate, double upstreamNotFoundRate, String dbUrl, String dbUser,
+                      String dbPassword, String reportDir, List<String> applicationArgs) {
+
+    static LoadTestConfig parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Некорректный аргумент '" + arg + "', ожидается --имя=значение");
+            }
+            String name = arg.substring(2, separator);
+            if (name.contains(".")) {
+                applicationArgs.add(arg);
+            } else {
+                options.put(name, arg.substring(separator + 1));
+            }
+        }
+        LoadTestConfig config = new LoadTestConfig(
+                Integer.parseInt(take(options, "rps", "1000")),
+                DurationStyle.detectAndParse(take(options, "warmup", "10s")),
+                DurationStyle.detectAndParse(take(options, "duration", "30s")),
+                ratio(take(options, "hit-ratio", "0.9")),
+                ratio(take(options, "reverse-share", "0.3")),
+                Integer.parseInt(take(options, "hot-keys", "1000")),
+                Integer.parseInt(take(options, "max-in-flight", "10000")),
+                DurationStyle.detectAndParse(take(options, "upstream-latency", "50ms")),
+                DurationStyle.detectAndParse(take(options, "upstream-jitter", "20ms")),
+                ratio(take(options, "upstream-error-rate", "0")),
+                ratio(take(options, "upstream-not-found-rate", "0")),
+                take(options, "db-url", null),
+                take(options, "db-user", "postgres"),
+                take(options, "db-password", "postgres"),
+                take(options, "report-dir", "target/loadtest"),
+                List.copyOf(applicationArgs));
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Неизвестные параметры: " + options.keySet());
+        }
+        return config;
+    }
+
+    private static String take(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static double ratio(String value) {
+        double ratio = Double.parseDouble(value);
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("Доля должна быть в диапазоне [0, 1]: " + ratio);
+        }
+        return ratio;
+    }
+}
@@ -0,0 +1,361 @@
+package com.voronkovam.geocoding_service.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Ограниченный кэш в памяти процесса.
+ * <p>
+ * Записи вытесняются в порядке LRU при превышении лимита количества записей или их суммарного веса,
+ * а также по истечении TTL с момента записи и времени простоя с момента последнего обращения.
+ * Ключи распределяются по независимым сегментам со своей блокировкой, чтобы конкурентные
+ * обращения к разным ключам не ждали друг друга.
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class BoundedCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final ToLongBiFunction<K, V> weigher;
+    private final long ttlNanos;
+    private final long idleNanos;
+    private final LongSupplier ticker;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries  Максимальное количество записей.
+     * @param maxWeight   Максимальный суммарный вес записей.
+     * @param ttl         Время жизни записи с момента записи ({@link Duration#ZERO} - без ограничения).
+     * @param idleTimeout Время жизни записи с момента последнего обращения ({@link Duration#ZERO} - без ограничения).
+     * @param weigher     Функция оценки веса записи.
+     */
+    public BoundedCache(long maxEntries, long maxWeight, Duration ttl, Duration idleTimeout,
+                        ToLongBiFunction<K, V> weigher) {
+        this(maxEntries, maxWeight, ttl, idleTimeout, weigher, System::nanoTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    BoundedCache(long maxEntries, long maxWeight, Duration ttl, Duration idleTimeout,
+                 ToLongBiFunction<K, V> weigher, LongSupplier ticker) {
+        if (maxEntries <= 0 || maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache limits must be > 0");
+        }
+        int segmentCount = (int) Math.min(MAX_SEGMENTS, maxEntries);
+        this.segments = new Segment[segmentCount];
+        long entriesPerSegment = ceilDiv(maxEntries, segmentCount);
+        long weightPerSegment = ceilDiv(maxWeight, segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(entriesPerSegment, weightPerSegment);
+        }
+        this.weigher = weigher;
+        this.ttlNanos = ttl.toNanos();
+        this.idleNanos = idleTimeout.toNanos();
+        this.ticker = ticker;
+    }
+
+    /**
+     * Возвращает значение по ключу или {@code null}, если записи нет или она устарела.
+     *
+     * @param key Ключ.
+     * @return Значение или {@code null}.
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        long now = ticker.getAsLong();
+        segment.lock.lock();
+        try {
+            Entry<V> entry = segment.map.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            if (isExpired(entry, now)) {
+                segment.remove(key);
+                evictions.increment();
+                misses.increment();
+                return null;
+            }
+            entry.accessedAt = now;
+            hits.increment();
+            return entry.value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Сохраняет значение, при необходимости вытесняя наименее востребованные записи.
+     * Значения тяжелее лимита сегмента не кэшируются.
+     *
+     * @param key   Ключ.
+     * @param value Значение.
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        long weight = weigher.applyAsLong(key, value);
+        if (weight > segment.maxWeight) {
+            return;
+        }
+        long now = ticker.getAsLong();
+        segment.lock.lock();
+        try {
+            segment.remove(key);
+            segment.map.put(key, new Entry<>(value, weight, now, ttlNanos));
+            segment.weight += weight;
+            evictExcess(segment, now);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Сохраняет значение, только если по ключу нет актуальной записи. Запись живет не дольше
+     * {@code expiresIn} и не дольше TTL кэша.
+     *
+     * @param key       Ключ.
+     * @param value     Значение.
+     * @param expiresIn Сколько записи осталось жить; при неположительном значении она не сохраняется.
+     * @return Текущее значение или {@code null}, если по ключу ничего не было.
+     */
+    public V putIfAbsent(K key, V value, Duration expiresIn) {
+        Segment<K, V> segment = segmentFor(key);
+        long weight = weigher.applyAsLong(key, value);
+        long lifeNanos = ttlNanos > 0 ? Math.min(ttlNanos, expiresIn.toNanos()) : expiresIn.toNanos();
+        long now = ticker.getAsLong();
+        segment.lock.lock();
+        try {
+            Entry<V> current = segment.map.get(key);
+            if (current != null && !isExpired(current, now)) {
+                current.accessedAt = now;
+                return current.value;
+            }
+            if (current != null) {
+                segment.remove(key);
+                evictions.increment();
+            }
+            if (weight <= segment.maxWeight && lifeNanos > 0) {
+                segment.map.put(key, new Entry<>(value, weight, now, lifeNanos));
+                segment.weight += weight;
+                evictExcess(segment, now);
+            }
+            return null;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Удаляет запись по ключу.
+     *
+     * @param key Ключ.
+     */
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.remove(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Удаляет запись по ключу, только если в ней все еще хранится {@code value}.
+     *
+     * @param key   Ключ.
+     * @param value Ожидаемое значение (сравнивается по ссылке).
+     */
+    public void invalidate(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Entry<V> current = segment.map.get(key);
+            if (current != null && current.value == value) {
+                segment.remove(key);
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Удаляет все записи.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.map.clear();
+                segment.weight = 0;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Возвращает записи, к которым обращались последними; устаревшие записи пропускаются.
+     *
+     * @param limit Максимальное количество записей.
+     * @return Записи по убыванию времени последнего обращения.
+     */
+    public List<Hot<K, V>> hottest(int limit) {
+        long now = ticker.getAsLong();
+        List<Candidate<K, V>> all = new ArrayList<>();
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                for (Map.Entry<K, Entry<V>> e : segment.map.entrySet()) {
+                    Entry<V> entry = e.getValue();
+                    if (!isExpired(entry, now)) {
+                        Duration expiresIn = entry.lifeNanos > 0
+                                ? Duration.ofNanos(entry.lifeNanos - (now - entry.writtenAt)) : null;
+                        all.add(new Candidate<>(new Hot<>(e.getKey(), entry.value, expiresIn), entry.accessedAt));
+                    }
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        // время тикера сравнивается разностью: System.nanoTime() может быть отрицательным
+        all.sort((a, b) -> Long.signum(b.accessedAt() - a.accessedAt()));
+        List<Hot<K, V>> result = new ArrayList<>(Math.min(limit, all.size()));
+        for (Candidate<K, V> candidate : all.subList(0, Math.min(limit, all.size()))) {
+            result.add(candidate.hot());
+        }
+        return result;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.map.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                weight += segment.weight;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return weight;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private void evictExcess(Segment<K, V> segment, long now) {
+        Iterator<Map.Entry<K, Entry<V>>> it = segment.map.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<V> eldest = it.next().getValue();
+            boolean overLimit = segment.map.size() > segment.maxEntries || segment.weight > segment.maxWeight;
+            if (!overLimit && !isExpired(eldest, now)) {
+                break;
+            }
+            it.remove();
+            segment.weight -= eldest.weight;
+            evictions.increment();
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return (entry.lifeNanos > 0 && now - entry.writtenAt >= entry.lifeNanos)
+                || (idleNanos > 0 && now - entry.accessedAt >= idleNanos);
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        return segments[Math.floorMod(h ^ (h >>> 16), segments.length)];
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return (x + y - 1) / y;
+    }
+
+    private static final class Segment<K, V> {
+        private final ReentrantLock lock = new ReentrantLock();
+        // accessOrder = true: первой при обходе идет наименее востребованная запись
+        private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxEntries;
+        private final long maxWeight;
+        private long weight;
+
+        private Segment(long maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+
+        private void remove(K key) {
+            Entry<V> removed = map.remove(key);
+            if (removed != null) {
+                weight -= removed.weight;
+            }
+        }
+    }
+
+    /**
+     * Запись из {@link #hottest(int)}.
+     *
+     * @param key       Ключ.
+     * @param value     Значение.
+     * @param expiresIn Сколько записи осталось до истечения TTL; {@code null}, если TTL не ограничен.
+     * @param <K>       Тип ключа.
+     * @param <V>       Тип значения.
+     */
+    public record Hot<K, V>(K key, V value, Duration expiresIn) {
+    }
+
+    private record Candidate<K, V>(Hot<K, V> hot, long accessedAt) {
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long weight;
+        private final long writtenAt;
+        /** Время жизни с момента записи, {@code 0} - без ограничения. */
+        private final long lifeNanos;
+        private long accessedAt;
+
+        private Entry(V value, long weight, long now, long lifeNanos) {
+            this.value = value;
+            this.weight = weight;
+            this.writtenAt = now;
+            this.lifeNanos = lifeNanos;
+            this.accessedAt = now;
+        }
+    }
+}
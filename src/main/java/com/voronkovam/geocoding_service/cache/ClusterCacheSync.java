@@ -0,0 +1,398 @@
+package com.voronkovam.geocoding_service.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Согласование кэшей в памяти ({@link LocationCache}) между узлами через Postgres {@code LISTEN/NOTIFY}.
+ * <p>
+ * Новые и обновленные результаты геокодирования и удаления записей узел публикует в канал
+ * {@value #CHANNEL}, остальные узлы применяют их к своему L1, поэтому результат, полученный от внешнего API
+ * на одном узле, на всех узлах отдается из памяти. Для прослушивания открывается отдельное соединение
+ * с БД в обход пула; через него же отправляются исходящие события, упакованные в уведомления
+ * не больше {@value #MAX_PAYLOAD_BYTES} байт.
+ * <p>
+ * Уведомления каждого узла пронумерованы. Если после разрыва соединения или пропуска номера
+ * часть событий потеряна, строки, полученные от внешнего API за это время (по {@code fetched_at}),
+ * заново читаются из БД. Если таких строк больше {@code geocoding.cache.cluster.resync-max-rows},
+ * L1 очищается целиком. Пропущенные удаления так восстановить нельзя: такие записи живут в L1
+ * до истечения {@code geocoding.cache.l1.ttl}.
+ * <p>
+ * Узел, которому нечего отправить, раз в {@code geocoding.cache.cluster.heartbeat-interval} отправляет
+ * пустое уведомление. Узел, от которого не было уведомлений дольше {@value #PEER_TIMEOUT_HEARTBEATS}
+ * таких интервалов, считается остановленным и забывается, поэтому перезапуски узлов не накапливаются в памяти.
+ * <p>
+ * Включается {@code geocoding.cache.cluster.enabled=true}; требует PostgreSQL.
+ */
+@Component
+@ConditionalOnProperty(name = "geocoding.cache.cluster.enabled", havingValue = "true")
+public class ClusterCacheSync implements MeterBinder, InitializingBean, DisposableBean {
+
+    static final String CHANNEL = "geocoding_cache";
+    /** Postgres ограничивает уведомление 8000 байтами; остаток - запас на служебные поля. */
+    static final int MAX_PAYLOAD_BYTES = 7000;
+    /** Запас на расхождение часов узлов и задержку отложенной записи при досинхронизации. */
+    static final Duration RESYNC_MARGIN = Duration.ofSeconds(10);
+    /** Сколько пропущенных пустых уведомлений подряд означают, что узел остановлен. */
+    static final int PEER_TIMEOUT_HEARTBEATS = 3;
+
+    private final DataSourceProperties dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final LocationCache locationCache;
+    private final ObjectMapper objectMapper;
+    private final Duration pollInterval;
+    private final Duration reconnectDelay;
+    private final Duration heartbeatInterval;
+    private final int resyncMaxRows;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final BlockingQueue<Event> outgoing;
+    private final AtomicLong sequence = new AtomicLong();
+    /** Последнее уведомление от каждого узла; изменяется только потоком синхронизации. */
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+    private final Logger logger = LoggerFactory.getLogger(ClusterCacheSync.class);
+    private volatile boolean running;
+    private volatile boolean connected;
+    private Thread worker;
+
+    public ClusterCacheSync(DataSourceProperties dataSource, JdbcTemplate jdbcTemplate, LocationCache locationCache,
+                            ObjectMapper objectMapper,
+                            @Value("${geocoding.cache.cluster.poll-interval}") Duration pollInterval,
+                            @Value("${geocoding.cache.cluster.reconnect-delay}") Duration reconnectDelay,
+                            @Value("${geocoding.cache.cluster.heartbeat-interval}") Duration heartbeatInterval,
+                            @Value("${geocoding.cache.cluster.queue-capacity}") int queueCapacity,
+                            @Value("${geocoding.cache.cluster.resync-max-rows}") int resyncMaxRows) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.locationCache = locationCache;
+        this.objectMapper = objectMapper;
+        this.pollInterval = pollInterval;
+        this.reconnectDelay = reconnectDelay;
+        this.heartbeatInterval = heartbeatInterval;
+        this.outgoing = new ArrayBlockingQueue<>(queueCapacity);
+        this.resyncMaxRows = resyncMaxRows;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        running = true;
+        worker = new Thread(this::syncLoop, "geocoding-cache-sync");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            worker.join(pollInterval.toMillis() + TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    /**
+     * Сообщает остальным узлам новый или обновленный результат геокодирования.
+     *
+     * @param loc Локация с {@code addressKey} (прямое геокодирование) или {@code coordKey} (обратное).
+     */
+    public void publishPut(CachedLocation loc) {
+        enqueue(new Event(Op.PUT, loc.getAddressKey(), loc.getCoordKey(), loc.getAddress(), loc.getLat(),
+                loc.getLon(), loc.getFetchedAt()));
+    }
+
+    /**
+     * Сообщает остальным узлам, что запись удалена из кэша.
+     *
+     * @param addressKey Ключ адреса или {@code null}.
+     * @param coordKey   Упакованные координаты или {@code null}.
+     */
+    public void publishEvict(String addressKey, Long coordKey) {
+        enqueue(new Event(Op.EVICT, addressKey, coordKey, null, null, null, null));
+    }
+
+    /**
+     * @return {@code true}, если соединение для прослушивания канала установлено.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    private void enqueue(Event event) {
+        if (!outgoing.offer(event)) {
+            dropped.increment();
+            // пропуск номера заставит остальные узлы досинхронизироваться из БД
+            sequence.incrementAndGet();
+        }
+    }
+
+    private void syncLoop() {
+        Instant lastHealthy = null;
+        Instant lastSent = Instant.EPOCH;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSource.determineUrl(),
+                    dataSource.determineUsername(), dataSource.determinePassword())) {
+                PGConnection pg = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                connected = true;
+                if (lastHealthy != null) {
+                    logger.info("Соединение для синхронизации кэша восстановлено");
+                    resync(lastHealthy.minus(RESYNC_MARGIN));
+                }
+                while (running) {
+                    Instant polledAt = Instant.now();
+                    List<String> payloads = drainPayloads();
+                    if (payloads.isEmpty() && !polledAt.isBefore(lastSent.plus(heartbeatInterval))) {
+                        payloads = List.of(encode(List.of()));
+                    }
+                    if (!payloads.isEmpty()) {
+                        lastSent = polledAt;
+                    }
+                    try (PreparedStatement notify = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+                        for (String payload : payloads) {
+                            notify.setString(1, CHANNEL);
+                            notify.setString(2, payload);
+                            notify.execute();
+                        }
+                    }
+                    PGNotification[] notifications = pg.getNotifications((int) Math.max(1, pollInterval.toMillis()));
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            receive(notification.getParameter());
+                        }
+                    }
+                    expirePeers(polledAt);
+                    lastHealthy = polledAt;
+                }
+            } catch (SQLException | RuntimeException e) {
+                connected = false;
+                if (lastHealthy == null) {
+                    lastHealthy = Instant.now();
+                }
+                logger.warn("Соединение для синхронизации кэша потеряно, повтор через {}: {}",
+                        reconnectDelay, e.getMessage());
+                try {
+                    Thread.sleep(reconnectDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        connected = false;
+    }
+
+    /**
+     * Забирает исходящие события и упаковывает их в уведомления с очередными номерами.
+     */
+    List<String> drainPayloads() {
+        List<Event> events = new ArrayList<>();
+        outgoing.drainTo(events);
+        List<String> payloads = new ArrayList<>();
+        List<Event> chunk = new ArrayList<>();
+        int chunkBytes = 0;
+        for (Event event : events) {
+            int size = sizeOf(event);
+            if (size > MAX_PAYLOAD_BYTES) {
+                dropped.increment();
+                sequence.incrementAndGet();
+                continue;
+            }
+            if (chunkBytes + size > MAX_PAYLOAD_BYTES) {
+                payloads.add(encode(chunk));
+                chunk = new ArrayList<>();
+                chunkBytes = 0;
+            }
+            chunk.add(event);
+            chunkBytes += size + 1;
+        }
+        if (!chunk.isEmpty()) {
+            payloads.add(encode(chunk));
+        }
+        published.add(events.size());
+        return payloads;
+    }
+
+    /**
+     * Применяет уведомление другого узла к L1; собственные уведомления пропускаются.
+     */
+    void receive(String payload) {
+        Message message;
+        try {
+            message = objectMapper.readValue(payload, Message.class);
+        } catch (JsonProcessingException e) {
+            logger.warn("Не удалось разобрать уведомление синхронизации кэша: {}", e.getMessage());
+            return;
+        }
+        if (nodeId.equals(message.node())) {
+            return;
+        }
+        Instant now = Instant.now();
+        Peer peer = peers.get(message.node());
+        if (peer != null && message.seq() != peer.seq + 1) {
+            logger.info("Пропущены уведомления узла {} ({} -> {}), досинхронизация из БД",
+                    message.node(), peer.seq, message.seq());
+            resync(peer.seenAt.minus(RESYNC_MARGIN));
+        }
+        peers.put(message.node(), new Peer(message.seq(), now));
+        message.events().forEach(this::apply);
+        received.add(message.events().size());
+    }
+
+    /**
+     * Забывает узлы, от которых давно не было уведомлений, даже пустых.
+     */
+    void expirePeers(Instant now) {
+        Instant deadline = now.minus(heartbeatInterval.multipliedBy(PEER_TIMEOUT_HEARTBEATS));
+        peers.entrySet().removeIf(peer -> {
+            if (peer.getValue().seenAt.isBefore(deadline)) {
+                logger.info("Узел {} не отвечает с {}, считается остановленным", peer.getKey(), peer.getValue().seenAt);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @return Количество узлов, от которых приходят уведомления.
+     */
+    int peerCount() {
+        return peers.size();
+    }
+
+    /**
+     * Перечитывает из БД строки, полученные от внешнего API начиная с {@code since}.
+     */
+    void resync(Instant since) {
+        resyncs.increment();
+        try {
+            List<Event> changed = jdbcTemplate.query(
+                    "SELECT address, address_key, coord_key, lat, lon, fetched_at FROM cached_location "
+                            + "WHERE fetched_at >= ? ORDER BY fetched_at LIMIT ?",
+                    (rs, rowNum) -> new Event(Op.PUT, rs.getString("address_key"),
+                            rs.getObject("coord_key") == null ? null : rs.getLong("coord_key"),
+                            rs.getString("address"), rs.getDouble("lat"), rs.getDouble("lon"),
+                            rs.getTimestamp("fetched_at").toInstant()),
+                    Timestamp.from(since), resyncMaxRows + 1);
+            if (changed.size() > resyncMaxRows) {
+                logger.warn("Изменений с {} больше {}, L1 очищен", since, resyncMaxRows);
+                locationCache.clear();
+                return;
+            }
+            changed.forEach(this::apply);
+            logger.info("Досинхронизация кэша: {} строк с {}", changed.size(), since);
+        } catch (RuntimeException e) {
+            logger.warn("Не удалось досинхронизировать кэш, L1 очищен: {}", e.getMessage());
+            locationCache.clear();
+        }
+    }
+
+    private void apply(Event event) {
+        if (event.op() == Op.EVICT) {
+            if (event.addressKey() != null) {
+                locationCache.invalidateForward(event.addressKey());
+            }
+            if (event.coordKey() != null) {
+                locationCache.invalidateReverse(CoordinateKey.unpack(event.coordKey()));
+            }
+            return;
+        }
+        if (event.addressKey() != null) {
+            locationCache.putForward(event.addressKey(),
+                    new LocationEntry(event.address(), event.lat(), event.lon(), event.fetchedAt()));
+        } else if (event.coordKey() != null) {
+            locationCache.putReverse(CoordinateKey.unpack(event.coordKey()),
+                    LocationEntry.exact(event.address(), event.lat(), event.lon(), event.fetchedAt()));
+        }
+    }
+
+    private String encode(List<Event> events) {
+        try {
+            return objectMapper.writeValueAsString(new Message(nodeId, sequence.incrementAndGet(), events));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int sizeOf(Event event) {
+        try {
+            return objectMapper.writeValueAsString(event).getBytes(StandardCharsets.UTF_8).length;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "published", published);
+        bind(registry, "received", received);
+        bind(registry, "dropped", dropped);
+        FunctionCounter.builder("geocoding.cache.cluster.resyncs", resyncs, LongAdder::sum)
+                .description("Досинхронизации L1 из БД после пропуска уведомлений")
+                .register(registry);
+        Gauge.builder("geocoding.cache.cluster.peers", this, ClusterCacheSync::peerCount)
+                .description("Узлы, от которых приходят уведомления синхронизации кэша")
+                .register(registry);
+        Gauge.builder("geocoding.cache.cluster.connected", this, sync -> sync.connected ? 1 : 0)
+                .description("Установлено ли соединение для синхронизации кэша")
+                .register(registry);
+    }
+
+    private static void bind(MeterRegistry registry, String outcome, LongAdder counter) {
+        FunctionCounter.builder("geocoding.cache.cluster.events", counter, LongAdder::sum)
+                .description("События синхронизации L1 между узлами")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    enum Op { PUT, EVICT }
+
+    record Event(Op op, String addressKey, Long coordKey, String address, Double lat, Double lon,
+                 Instant fetchedAt) {
+    }
+
+    record Message(String node, long seq, List<Event> events) {
+    }
+
+    private record Peer(long seq, Instant seenAt) {
+    }
+}
@@ -0,0 +1,36 @@
+package com.voronkovam.geocoding_service.cache;
+
+/**
+ * Ключ обратного геокодирования: координаты, округленные до точности кэша.
+ *
+ * @param lat Округленная широта.
+ * @param lon Округленная долгота.
+ */
+public record CoordinateKey(double lat, double lon) {
+
+    private static final double SCALE = 1e5;
+
+    /**
+     * Упаковывает координаты в одно число для хранения в индексе {@code coord_key}:
+     * старшие 32 бита - широта, младшие - долгота, обе в единицах 1e-5 градуса.
+     *
+     * @return Упакованный ключ.
+     */
+    public long packed() {
+        long latUnits = Math.round(lat * SCALE);
+        long lonUnits = Math.round(lon * SCALE);
+        return (latUnits << 32) | (lonUnits & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Восстанавливает координаты из ключа, построенного {@link #packed()}.
+     *
+     * @param packed Упакованный ключ.
+     * @return Ключ с координатами.
+     */
+    public static CoordinateKey unpack(long packed) {
+        int latUnits = (int) (packed >> 32);
+        int lonUnits = (int) packed;
+        return new CoordinateKey(latUnits / SCALE, lonUnits / SCALE);
+    }
+}
@@ -0,0 +1,422 @@
+package com.voronkovam.geocoding_service.cache;
+
+import com.voronkovam.geocoding_service.model.MatchType;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Файл снимка горячих записей L1 и поиск по нему без загрузки в кучу.
+ * <p>
+ * Формат (порядок байт little-endian):
+ * <pre>
+ * заголовок, 48 байт: magic (8), версия (4), число ячеек прямой и обратной таблиц (4 + 4),
+ *                     число записей в них (4 + 4), резерв (4), время создания в мс (8), длина файла (8)
+ * прямая таблица:     ячейки по 56 байт — ключ адреса (16), lat (8), lon (8), fetchedAt в мс (8),
+ *                     срок годности в мс (8), смещение адреса (4), длина адреса (2), резерв (2)
+ * обратная таблица:   ячейки по 56 байт — упакованные координаты (8), lat (8), lon (8), fetchedAt (8),
+ *                     расстояние (8), срок годности (8), смещение адреса (4), длина адреса (2),
+ *                     способ сопоставления (1), резерв (1)
+ * адреса:             строки UTF-8 подряд
+ * </pre>
+ * Срок годности каждой записи переносится из L1 и при перезаписи снимка не продлевается.
+ * Таблицы — хэш-таблицы с открытой адресацией и линейным пробированием, ячеек в них степень двойки не меньше
+ * двойного числа записей. Пустая ячейка имеет нулевое смещение адреса. Файл отображается в память целиком,
+ * поэтому открытие не зависит от его размера, а поиск читает только нужные ячейки и строку адреса.
+ * При открытии проверяется только заголовок; поиск не выходит за пределы таблицы и файла, и поврежденная
+ * ячейка считается отсутствующей записью.
+ */
+public final class HotSetFile {
+
+    private static final long MAGIC = 0x3130544F484F4547L; // "GEOHOT01"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 48;
+    private static final int RECORD_BYTES = 56;
+    private static final int MAX_ADDRESS_BYTES = 0xFFFF;
+    private static final long NO_TIME = Long.MIN_VALUE;
+    /** Положение смещения и длины адреса в ячейке обеих таблиц. */
+    private static final int ADDRESS_OFFSET = 48;
+    private static final int ADDRESS_LENGTH = 52;
+
+    private final MappedByteBuffer buffer;
+    private final int forwardSlots;
+    private final int reverseSlots;
+    private final int forwardCount;
+    private final int reverseCount;
+    private final int stringsOffset;
+    private final Instant createdAt;
+
+    private HotSetFile(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.forwardSlots = buffer.getInt(12);
+        this.reverseSlots = buffer.getInt(16);
+        this.forwardCount = buffer.getInt(20);
+        this.reverseCount = buffer.getInt(24);
+        this.stringsOffset = HEADER_BYTES + (forwardSlots + reverseSlots) * RECORD_BYTES;
+        this.createdAt = Instant.ofEpochMilli(buffer.getLong(32));
+    }
+
+    /**
+     * Отображает файл снимка в память.
+     *
+     * @param path Путь к файлу.
+     * @return Снимок, готовый к поиску.
+     * @throws IOException если файл не читается или его формат не совпадает с ожидаемым.
+     */
+    public static HotSetFile open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Некорректный размер снимка " + path + ": " + size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION || buffer.getLong(40) != buffer.capacity()) {
+            throw new IOException("Файл " + path + " не является снимком версии " + VERSION);
+        }
+        int forwardSlots = buffer.getInt(12);
+        int reverseSlots = buffer.getInt(16);
+        if (Integer.bitCount(forwardSlots) != 1 || Integer.bitCount(reverseSlots) != 1
+                || buffer.getInt(20) * 2L > forwardSlots || buffer.getInt(24) * 2L > reverseSlots
+                || HEADER_BYTES + (long) (forwardSlots + reverseSlots) * RECORD_BYTES > buffer.capacity()) {
+            throw new IOException("Поврежден заголовок снимка " + path);
+        }
+        return new HotSetFile(buffer);
+    }
+
+    /**
+     * Записывает снимок: сначала во временный файл рядом, затем атомарно подменяет им прежний, поэтому
+     * уже отображенный в память прежний снимок и одновременный старт другого процесса не видят полузаписанный файл.
+     *
+     * @param path    Путь к файлу.
+     * @param forward Записи прямого геокодирования по ключу адреса.
+     * @param reverse Записи обратного геокодирования по округленным координатам.
+     * @return Количество записанных записей (ключи не в формате {@code AddressNormalizer} и слишком длинные
+     * адреса пропускаются).
+     * @throws IOException при ошибке записи.
+     */
+    public static int write(Path path, List<Item<String>> forward, List<Item<CoordinateKey>> reverse)
+            throws IOException {
+        List<long[]> forwardKeys = new ArrayList<>(forward.size());
+        List<Item<String>> forwardEntries = new ArrayList<>(forward.size());
+        List<byte[]> forwardAddresses = new ArrayList<>(forward.size());
+        long addressBytes = 0;
+        for (Item<String> e : forward) {
+            long[] key = parseKey(e.key());
+            byte[] address = encode(e.entry());
+            if (key != null && address != null) {
+                forwardKeys.add(key);
+                forwardEntries.add(e);
+                forwardAddresses.add(address);
+                addressBytes += address.length;
+            }
+        }
+        List<Item<CoordinateKey>> reverseEntries = new ArrayList<>(reverse.size());
+        List<byte[]> reverseAddresses = new ArrayList<>(reverse.size());
+        for (Item<CoordinateKey> e : reverse) {
+            byte[] address = encode(e.entry());
+            if (address != null) {
+                reverseEntries.add(e);
+                reverseAddresses.add(address);
+                addressBytes += address.length;
+            }
+        }
+        int forwardSlots = slots(forwardEntries.size());
+        int reverseSlots = slots(reverseEntries.size());
+        long stringsOffset = HEADER_BYTES + (long) (forwardSlots + reverseSlots) * RECORD_BYTES;
+        long size = stringsOffset + addressBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Снимок больше 2 ГБ: уменьшите geocoding.cache.snapshot.max-entries");
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putLong(0, MAGIC);
+            out.putInt(8, VERSION);
+            out.putInt(12, forwardSlots);
+            out.putInt(16, reverseSlots);
+            out.putInt(20, forwardEntries.size());
+            out.putInt(24, reverseEntries.size());
+            out.putLong(32, System.currentTimeMillis());
+            out.putLong(40, size);
+            int stringPosition = (int) stringsOffset;
+            for (int i = 0; i < forwardEntries.size(); i++) {
+                long[] key = forwardKeys.get(i);
+                Item<String> item = forwardEntries.get(i);
+                byte[] address = forwardAddresses.get(i);
+                int at = forwardRecord(findSlot(out, HEADER_BYTES, forwardSlots, key[0], key[1], true));
+                out.putLong(at, key[0]);
+                out.putLong(at + 8, key[1]);
+                putLocation(out, at + 16, item.entry());
+                out.putLong(at + 40, millis(item.expiresAt()));
+                out.putInt(at + ADDRESS_OFFSET, stringPosition);
+                out.putShort(at + ADDRESS_LENGTH, (short) address.length);
+                out.put(stringPosition, address);
+                stringPosition += address.length;
+            }
+            int reverseOffset = HEADER_BYTES + forwardSlots * RECORD_BYTES;
+            for (int i = 0; i < reverseEntries.size(); i++) {
+                long packed = reverseEntries.get(i).key().packed();
+                LocationEntry entry = reverseEntries.get(i).entry();
+                byte[] address = reverseAddresses.get(i);
+                int at = reverseOffset + findSlot(out, reverseOffset, reverseSlots, packed, 0, false) * RECORD_BYTES;
+                out.putLong(at, packed);
+                putLocation(out, at + 8, entry);
+                out.putDouble(at + 32, entry.distanceMeters() == null ? Double.NaN : entry.distanceMeters());
+                out.putLong(at + 40, millis(reverseEntries.get(i).expiresAt()));
+                out.putInt(at + ADDRESS_OFFSET, stringPosition);
+                out.putShort(at + ADDRESS_LENGTH, (short) address.length);
+                out.put(at + 54, (byte) (entry.matchType() == null ? 0 : entry.matchType().ordinal() + 1));
+                out.put(stringPosition, address);
+                stringPosition += address.length;
+            }
+            out.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return forwardEntries.size() + reverseEntries.size();
+    }
+
+    /**
+     * Ищет результат прямого геокодирования.
+     *
+     * @param addressKey Ключ адреса.
+     * @return Запись со сроком годности или {@code null}, если ее нет в снимке.
+     */
+    public Item<String> findForward(String addressKey) {
+        long[] key = parseKey(addressKey);
+        if (key == null || forwardCount == 0) {
+            return null;
+        }
+        int mask = forwardSlots - 1;
+        int slot = (int) mix(key[0] ^ key[1]) & mask;
+        // в исправном файле пустая ячейка есть всегда, в поврежденном обход ограничен размером таблицы
+        for (int probes = 0; probes < forwardSlots; probes++, slot = (slot + 1) & mask) {
+            int at = forwardRecord(slot);
+            int addressOffset = buffer.getInt(at + ADDRESS_OFFSET);
+            if (addressOffset == 0) {
+                return null;
+            }
+            if (buffer.getLong(at) == key[0] && buffer.getLong(at + 8) == key[1]) {
+                if (!validAddress(addressOffset, buffer.getShort(at + ADDRESS_LENGTH))) {
+                    return null;
+                }
+                LocationEntry entry = new LocationEntry(address(addressOffset, buffer.getShort(at + ADDRESS_LENGTH)),
+                        buffer.getDouble(at + 16), buffer.getDouble(at + 24), null, null, time(buffer.getLong(at + 32)));
+                return new Item<>(addressKey, entry, time(buffer.getLong(at + 40)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ищет результат обратного геокодирования.
+     *
+     * @param key Округленные координаты.
+     * @return Запись со сроком годности или {@code null}, если ее нет в снимке.
+     */
+    public Item<CoordinateKey> findReverse(CoordinateKey key) {
+        if (reverseCount == 0) {
+            return null;
+        }
+        long packed = key.packed();
+        int reverseOffset = HEADER_BYTES + forwardSlots * RECORD_BYTES;
+        int mask = reverseSlots - 1;
+        int slot = (int) mix(packed) & mask;
+        for (int probes = 0; probes < reverseSlots; probes++, slot = (slot + 1) & mask) {
+            int at = reverseOffset + slot * RECORD_BYTES;
+            int addressOffset = buffer.getInt(at + ADDRESS_OFFSET);
+            if (addressOffset == 0) {
+                return null;
+            }
+            if (buffer.getLong(at) == packed) {
+                int matchType = buffer.get(at + 54);
+                if (!validAddress(addressOffset, buffer.getShort(at + ADDRESS_LENGTH))
+                        || matchType < 0 || matchType > MatchType.values().length) {
+                    return null;
+                }
+                double distance = buffer.getDouble(at + 32);
+                LocationEntry entry = new LocationEntry(address(addressOffset, buffer.getShort(at + ADDRESS_LENGTH)),
+                        buffer.getDouble(at + 8), buffer.getDouble(at + 16),
+                        matchType == 0 ? null : MatchType.values()[matchType - 1],
+                        Double.isNaN(distance) ? null : distance, time(buffer.getLong(at + 24)));
+                return new Item<>(key, entry, time(buffer.getLong(at + 40)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Читает все записи прямого геокодирования; нужен при записи следующего снимка.
+     *
+     * @return Записи по ключу адреса в порядке ячеек.
+     */
+    public List<Item<String>> forwardEntries() {
+        List<Item<String>> result = new ArrayList<>(forwardCount);
+        HexFormat hex = HexFormat.of();
+        for (int slot = 0; slot < forwardSlots; slot++) {
+            int at = forwardRecord(slot);
+            if (buffer.getInt(at + ADDRESS_OFFSET) != 0) {
+                String key = hex.toHexDigits(buffer.getLong(at)) + hex.toHexDigits(buffer.getLong(at + 8));
+                Item<String> item = findForward(key);
+                if (item != null) {
+                    result.add(item);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Читает все записи обратного геокодирования; нужен при записи следующего снимка.
+     *
+     * @return Записи по округленным координатам в порядке ячеек.
+     */
+    public List<Item<CoordinateKey>> reverseEntries() {
+        List<Item<CoordinateKey>> result = new ArrayList<>(reverseCount);
+        int reverseOffset = HEADER_BYTES + forwardSlots * RECORD_BYTES;
+        for (int slot = 0; slot < reverseSlots; slot++) {
+            int at = reverseOffset + slot * RECORD_BYTES;
+            if (buffer.getInt(at + ADDRESS_OFFSET) != 0) {
+                Item<CoordinateKey> item = findReverse(CoordinateKey.unpack(buffer.getLong(at)));
+                if (item != null) {
+                    result.add(item);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Количество записей прямого геокодирования.
+     */
+    public int forwardCount() {
+        return forwardCount;
+    }
+
+    /**
+     * @return Количество записей обратного геокодирования.
+     */
+    public int reverseCount() {
+        return reverseCount;
+    }
+
+    /**
+     * @return Когда снимок записан.
+     */
+    public Instant createdAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return {@code true}, если строка адреса лежит в области строк файла.
+     */
+    private boolean validAddress(int offset, short length) {
+        return offset >= stringsOffset && (long) offset + Short.toUnsignedInt(length) <= buffer.capacity();
+    }
+
+    private String address(int offset, short length) {
+        byte[] bytes = new byte[Short.toUnsignedInt(length)];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Находит ячейку для новой записи: первую пустую, начиная с хэша ключа.
+     */
+    private static int findSlot(MappedByteBuffer out, int tableOffset, int slots, long key0, long key1, boolean forward) {
+        int mask = slots - 1;
+        int slot = (int) mix(forward ? key0 ^ key1 : key0) & mask;
+        while (out.getInt(tableOffset + slot * RECORD_BYTES + ADDRESS_OFFSET) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int forwardRecord(int slot) {
+        return HEADER_BYTES + slot * RECORD_BYTES;
+    }
+
+    private static void putLocation(MappedByteBuffer out, int at, LocationEntry entry) {
+        out.putDouble(at, entry.lat());
+        out.putDouble(at + 8, entry.lon());
+        out.putLong(at + 16, entry.fetchedAt() == null ? NO_TIME : entry.fetchedAt().toEpochMilli());
+    }
+
+    private static Instant time(long millis) {
+        return millis == NO_TIME ? null : Instant.ofEpochMilli(millis);
+    }
+
+    private static long millis(Instant time) {
+        return time == null ? NO_TIME : time.toEpochMilli();
+    }
+
+    /**
+     * @return Адрес в UTF-8 или {@code null}, если его нет или он не помещается в поле длины.
+     */
+    private static byte[] encode(LocationEntry entry) {
+        if (entry.address() == null) {
+            return null;
+        }
+        byte[] bytes = entry.address().getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= MAX_ADDRESS_BYTES ? bytes : null;
+    }
+
+    /**
+     * Ключ адреса — 32 hex-символа ({@code AddressNormalizer#KEY_LENGTH}), то есть два {@code long}.
+     */
+    private static long[] parseKey(String addressKey) {
+        if (addressKey == null || addressKey.length() != 32) {
+            return null;
+        }
+        try {
+            return new long[] {HexFormat.fromHexDigitsToLong(addressKey, 0, 16),
+                    HexFormat.fromHexDigitsToLong(addressKey, 16, 32)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int slots(int count) {
+        return Math.max(2, Integer.highestOneBit(Math.max(1, count * 2 - 1)) << 1);
+    }
+
+    /**
+     * Запись снимка.
+     *
+     * @param key       Ключ адреса или округленные координаты.
+     * @param entry     Запись.
+     * @param expiresAt До какого момента записью можно пользоваться; {@code null} — пока действует весь снимок.
+     * @param <K>       Тип ключа.
+     */
+    public record Item<K>(K key, LocationEntry entry, Instant expiresAt) {
+    }
+
+    /** Перемешивание битов ключа (финализатор MurmurHash3). */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
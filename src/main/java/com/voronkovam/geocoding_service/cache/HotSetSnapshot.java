@@ -0,0 +1,165 @@
+package com.voronkovam.geocoding_service.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Снимок горячих записей L1 на диске для быстрого прогрева после перезапуска.
+ * <p>
+ * Раз в {@code geocoding.cache.snapshot.interval} и при остановке приложения не больше
+ * {@code geocoding.cache.snapshot.max-entries} записей прямого и столько же обратного геокодирования,
+ * к которым обращались последними, записываются в файл {@link HotSetFile}. При старте файл отображается
+ * в память и подключается к {@link LocationCache} еще до приема запросов: горячие ключи находятся сразу,
+ * без обращения к БД и без построчной загрузки. Снимок старше {@code geocoding.cache.snapshot.max-age}
+ * не используется — столько же живут записи L1.
+ * <p>
+ * Если включено согласование кэшей между узлами ({@link ClusterCacheSync}), после подключения снимка
+ * из БД перечитываются строки, полученные другими узлами после его записи: их версии в снимке устарели.
+ * <p>
+ * Включается {@code geocoding.cache.snapshot.enabled=true}; ошибки чтения и записи файла только логируются.
+ */
+@Component
+public class HotSetSnapshot implements MeterBinder, InitializingBean, DisposableBean {
+
+    private final LocationCache locationCache;
+    private final Optional<ClusterCacheSync> clusterSync;
+    private final boolean enabled;
+    private final Path path;
+    private final Duration interval;
+    private final int maxEntries;
+    private final Duration maxAge;
+    private final LongAdder failures = new LongAdder();
+    private final Logger logger = LoggerFactory.getLogger(HotSetSnapshot.class);
+    private volatile Timer writeTimer;
+    private Thread writer;
+
+    public HotSetSnapshot(LocationCache locationCache,
+                          Optional<ClusterCacheSync> clusterSync,
+                          @Value("${geocoding.cache.snapshot.enabled}") boolean enabled,
+                          @Value("${geocoding.cache.snapshot.path}") String path,
+                          @Value("${geocoding.cache.snapshot.interval}") Duration interval,
+                          @Value("${geocoding.cache.snapshot.max-entries}") int maxEntries,
+                          @Value("${geocoding.cache.snapshot.max-age}") Duration maxAge) {
+        this.locationCache = locationCache;
+        this.clusterSync = clusterSync;
+        this.enabled = enabled;
+        this.path = Path.of(path);
+        this.interval = interval;
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        load();
+        writer = new Thread(this::writeLoop, "geocoding-hot-set");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+        write();
+    }
+
+    /**
+     * Отображает снимок в память и подключает его к L1.
+     *
+     * @return {@code true}, если снимок подключен.
+     */
+    boolean load() {
+        long start = System.nanoTime();
+        HotSetFile file;
+        try {
+            file = HotSetFile.open(path);
+        } catch (NoSuchFileException e) {
+            logger.info("Снимка горячих записей {} нет, L1 прогревается запросами", path);
+            return false;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Не удалось открыть снимок горячих записей {}: {}", path, e.getMessage());
+            return false;
+        }
+        if (file.createdAt().plus(maxAge).isBefore(Instant.now())) {
+            logger.info("Снимок горячих записей {} записан {} и устарел", path, file.createdAt());
+            return false;
+        }
+        locationCache.attachSnapshot(file, maxAge);
+        clusterSync.ifPresent(sync -> sync.resync(file.createdAt().minus(ClusterCacheSync.RESYNC_MARGIN)));
+        logger.info("Подключен снимок горячих записей {}: {} прямых и {} обратных за {} мкс", path,
+                file.forwardCount(), file.reverseCount(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        return true;
+    }
+
+    /**
+     * Записывает снимок текущих горячих записей.
+     *
+     * @return Количество записанных записей или {@code -1} при ошибке.
+     */
+    int write() {
+        long start = System.nanoTime();
+        try {
+            List<HotSetFile.Item<String>> forward = locationCache.hottestForward(maxEntries);
+            List<HotSetFile.Item<CoordinateKey>> reverse = locationCache.hottestReverse(maxEntries);
+            int written = HotSetFile.write(path, forward, reverse);
+            long elapsed = System.nanoTime() - start;
+            Timer timer = writeTimer;
+            if (timer != null) {
+                timer.record(elapsed, TimeUnit.NANOSECONDS);
+            }
+            logger.debug("Снимок горячих записей {}: {} записей за {} мс", path, written,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+            return written;
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            logger.warn("Не удалось записать снимок горячих записей {}: {}", path, e.getMessage());
+            return -1;
+        }
+    }
+
+    private void writeLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(interval.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+            write();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        writeTimer = Timer.builder("geocoding.cache.snapshot.writes")
+                .description("Время записи снимка горячих записей")
+                .register(registry);
+        FunctionCounter.builder("geocoding.cache.snapshot.failures", failures, LongAdder::sum)
+                .description("Ошибки записи снимка горячих записей")
+                .register(registry);
+    }
+}
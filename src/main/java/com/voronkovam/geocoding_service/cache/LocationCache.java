@@ -0,0 +1,293 @@
+package com.voronkovam.geocoding_service.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Кэш первого уровня (L1) в памяти процесса перед {@code CachedLocationRepository}.
+ * Прямое и обратное геокодирование хранятся в отдельных картах с одинаковыми лимитами.
+ * <p>
+ * После перезапуска к кэшу подключается отображенный в память снимок горячих записей ({@link HotSetSnapshot}):
+ * промах L1 проверяется по снимку, найденная запись переносится в L1. Записи, удаленные или замененные после
+ * подключения снимка, из него больше не берутся. Снимок отключается по истечении {@code max-age} с момента
+ * записи и при полной очистке кэша. Запись из снимка живет в L1 и переносится в следующий снимок не дольше
+ * своего срока годности и срока подключенного снимка, поэтому перезапуски его не продлевают.
+ */
+@Component
+public class LocationCache implements MeterBinder {
+
+    /** Приблизительные накладные расходы на запись: заголовки объектов, ссылки, узел LinkedHashMap. */
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private final boolean enabled;
+    private final BoundedCache<String, LocationEntry> forward;
+    private final BoundedCache<CoordinateKey, LocationEntry> reverse;
+    private final Set<Object> replacedInSnapshot = ConcurrentHashMap.newKeySet();
+    private final LongAdder forwardSnapshotHits = new LongAdder();
+    private final LongAdder reverseSnapshotHits = new LongAdder();
+    private volatile HotSetFile snapshot;
+    private volatile Instant snapshotExpiresAt;
+
+    public LocationCache(@Value("${geocoding.cache.l1.enabled}") boolean enabled,
+                         @Value("${geocoding.cache.l1.max-entries}") long maxEntries,
+                         @Value("${geocoding.cache.l1.max-weight-bytes}") long maxWeightBytes,
+                         @Value("${geocoding.cache.l1.ttl}") Duration ttl,
+                         @Value("${geocoding.cache.l1.idle-timeout}") Duration idleTimeout) {
+        this.enabled = enabled;
+        this.forward = new BoundedCache<>(maxEntries, maxWeightBytes, ttl, idleTimeout,
+                (key, value) -> ENTRY_OVERHEAD_BYTES + 2L * key.length() + weightOf(value));
+        this.reverse = new BoundedCache<>(maxEntries, maxWeightBytes, ttl, idleTimeout,
+                (key, value) -> ENTRY_OVERHEAD_BYTES + weightOf(value));
+    }
+
+    /**
+     * Ищет результат прямого геокодирования.
+     *
+     * @param address Адрес.
+     * @return Запись или {@code null}, если ее нет в кэше.
+     */
+    public LocationEntry getForward(String address) {
+        if (!enabled) {
+            return null;
+        }
+        LocationEntry entry = forward.get(address);
+        return entry != null ? entry : fromSnapshot(address, forward, HotSetFile::findForward, forwardSnapshotHits);
+    }
+
+    public void putForward(String address, LocationEntry entry) {
+        if (enabled) {
+            replaced(address);
+            forward.put(address, entry);
+        }
+    }
+
+    /**
+     * Удаляет результат прямого геокодирования.
+     *
+     * @param address Адрес.
+     */
+    public void invalidateForward(String address) {
+        replaced(address);
+        forward.invalidate(address);
+    }
+
+    /**
+     * Ищет результат обратного геокодирования.
+     *
+     * @param key Округленные координаты.
+     * @return Запись или {@code null}, если ее нет в кэше.
+     */
+    public LocationEntry getReverse(CoordinateKey key) {
+        if (!enabled) {
+            return null;
+        }
+        LocationEntry entry = reverse.get(key);
+        return entry != null ? entry : fromSnapshot(key, reverse, HotSetFile::findReverse, reverseSnapshotHits);
+    }
+
+    public void putReverse(CoordinateKey key, LocationEntry entry) {
+        if (enabled) {
+            replaced(key);
+            reverse.put(key, entry);
+        }
+    }
+
+    /**
+     * Удаляет результат обратного геокодирования.
+     *
+     * @param key Округленные координаты.
+     */
+    public void invalidateReverse(CoordinateKey key) {
+        replaced(key);
+        reverse.invalidate(key);
+    }
+
+    /**
+     * Полностью очищает обе карты и отключает снимок.
+     */
+    public void clear() {
+        detachSnapshot();
+        forward.clear();
+        reverse.clear();
+    }
+
+    /**
+     * Подключает снимок горячих записей для промахов L1.
+     *
+     * @param file   Отображенный в память снимок.
+     * @param maxAge Сколько после записи снимка им можно пользоваться.
+     */
+    public void attachSnapshot(HotSetFile file, Duration maxAge) {
+        if (!enabled) {
+            return;
+        }
+        replacedInSnapshot.clear();
+        snapshotExpiresAt = file.createdAt().plus(maxAge);
+        snapshot = file;
+    }
+
+    /**
+     * Отключает снимок.
+     */
+    public void detachSnapshot() {
+        snapshot = null;
+        replacedInSnapshot.clear();
+    }
+
+    /**
+     * Записи прямого геокодирования для следующего снимка: сначала L1 по убыванию времени последнего обращения,
+     * затем записи подключенного снимка, которых нет в L1 и которые не заменены и не устарели.
+     * Срок годности каждой записи сохраняется: у записей L1 — до истечения TTL, у записей снимка — прежний.
+     *
+     * @param limit Максимальное количество записей.
+     * @return Записи по ключу адреса.
+     */
+    public List<HotSetFile.Item<String>> hottestForward(int limit) {
+        HotSetFile file = activeSnapshot();
+        return hottest(forward, limit, file == null ? List.of() : file.forwardEntries());
+    }
+
+    /**
+     * Записи обратного геокодирования для следующего снимка, в том же порядке, что и {@link #hottestForward}.
+     *
+     * @param limit Максимальное количество записей.
+     * @return Записи по округленным координатам.
+     */
+    public List<HotSetFile.Item<CoordinateKey>> hottestReverse(int limit) {
+        HotSetFile file = activeSnapshot();
+        return hottest(reverse, limit, file == null ? List.of() : file.reverseEntries());
+    }
+
+    private <K> List<HotSetFile.Item<K>> hottest(BoundedCache<K, LocationEntry> map, int limit,
+                                                 List<HotSetFile.Item<K>> fromSnapshot) {
+        Instant now = Instant.now();
+        List<HotSetFile.Item<K>> result = new ArrayList<>();
+        Set<K> seen = new HashSet<>();
+        for (BoundedCache.Hot<K, LocationEntry> hot : map.hottest(limit)) {
+            result.add(new HotSetFile.Item<>(hot.key(), hot.value(),
+                    hot.expiresIn() == null ? null : now.plus(hot.expiresIn())));
+            seen.add(hot.key());
+        }
+        Instant snapshotExpiry = snapshotExpiresAt;
+        for (HotSetFile.Item<K> item : fromSnapshot) {
+            if (result.size() >= limit) {
+                break;
+            }
+            Instant expiresAt = expiresAt(item, snapshotExpiry);
+            if (expiresAt.isAfter(now) && !replacedInSnapshot.contains(item.key()) && seen.add(item.key())) {
+                result.add(new HotSetFile.Item<>(item.key(), item.entry(), expiresAt));
+            }
+        }
+        return result;
+    }
+
+    private <K> LocationEntry fromSnapshot(K key, BoundedCache<K, LocationEntry> map,
+                                           BiFunction<HotSetFile, K, HotSetFile.Item<K>> lookup, LongAdder hits) {
+        HotSetFile file = activeSnapshot();
+        if (file == null || replacedInSnapshot.contains(key)) {
+            return null;
+        }
+        HotSetFile.Item<K> item = lookup.apply(file, key);
+        if (item == null) {
+            return null;
+        }
+        Duration expiresIn = Duration.between(Instant.now(), expiresAt(item, snapshotExpiresAt));
+        if (expiresIn.isNegative() || expiresIn.isZero()) {
+            return null;
+        }
+        LocationEntry entry = item.entry();
+        LocationEntry current = map.putIfAbsent(key, entry, expiresIn);
+        if (current != null) {
+            return current;
+        }
+        // ключ могли заменить, удалить или очистить кэш между проверкой и вставкой: версия из снимка устарела
+        if (snapshot != file || replacedInSnapshot.contains(key)) {
+            map.invalidate(key, entry);
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    /**
+     * @return Срок годности записи снимка, не позже срока самого снимка.
+     */
+    private static Instant expiresAt(HotSetFile.Item<?> item, Instant snapshotExpiry) {
+        return item.expiresAt() == null || item.expiresAt().isAfter(snapshotExpiry) ? snapshotExpiry : item.expiresAt();
+    }
+
+    /**
+     * @return Подключенный снимок или {@code null}, если его нет или он устарел (тогда он отключается).
+     */
+    private HotSetFile activeSnapshot() {
+        HotSetFile file = snapshot;
+        if (file != null && Instant.now().isAfter(snapshotExpiresAt)) {
+            detachSnapshot();
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Запоминает, что версия ключа в снимке больше не актуальна.
+     */
+    private void replaced(Object key) {
+        if (snapshot != null) {
+            replacedInSnapshot.add(key);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "forward", forward);
+        bind(registry, "reverse", reverse);
+        FunctionCounter.builder("geocoding.cache.snapshot.hits", forwardSnapshotHits, LongAdder::sum)
+                .tag("map", "forward")
+                .description("Промахи L1, найденные в снимке горячих записей")
+                .register(registry);
+        FunctionCounter.builder("geocoding.cache.snapshot.hits", reverseSnapshotHits, LongAdder::sum)
+                .tag("map", "reverse")
+                .description("Промахи L1, найденные в снимке горячих записей")
+                .register(registry);
+    }
+
+    private static void bind(MeterRegistry registry, String map, BoundedCache<?, ?> cache) {
+        FunctionCounter.builder("geocoding.cache.l1.requests", cache, BoundedCache::hitCount)
+                .tag("map", map).tag("result", "hit")
+                .description("Обращения к L1-кэшу")
+                .register(registry);
+        FunctionCounter.builder("geocoding.cache.l1.requests", cache, BoundedCache::missCount)
+                .tag("map", map).tag("result", "miss")
+                .description("Обращения к L1-кэшу")
+                .register(registry);
+        FunctionCounter.builder("geocoding.cache.l1.evictions", cache, BoundedCache::evictionCount)
+                .tag("map", map)
+                .description("Записи, вытесненные из L1-кэша")
+                .register(registry);
+        Gauge.builder("geocoding.cache.l1.size", cache, BoundedCache::size)
+                .tag("map", map)
+                .register(registry);
+        Gauge.builder("geocoding.cache.l1.weight", cache, BoundedCache::weight)
+                .tag("map", map)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private static long weightOf(LocationEntry entry) {
+        return entry.address() == null ? 0 : 2L * entry.address().length();
+    }
+}
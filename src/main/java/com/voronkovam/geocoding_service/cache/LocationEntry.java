@@ -0,0 +1,50 @@
+package com.voronkovam.geocoding_service.cache;
+
+import com.voronkovam.geocoding_service.model.MatchType;
+
+import java.time.Instant;
+
+/**
+ * Неизменяемый снимок закэшированной локации, который безопасно разделять между потоками.
+ *
+ * @param address        Адрес.
+ * @param lat            Широта.
+ * @param lon            Долгота.
+ * @param matchType      Способ сопоставления для обратного геокодирования, {@code null} для прямого.
+ * @param distanceMeters Расстояние от запрошенных координат в метрах, {@code null} для прямого.
+ * @param fetchedAt      Когда результат получен от внешнего API; {@code null}, если неизвестно
+ *                       (такая запись не устаревает).
+ */
+public record LocationEntry(String address, double lat, double lon, MatchType matchType, Double distanceMeters,
+                            Instant fetchedAt) {
+
+    public LocationEntry(String address, double lat, double lon) {
+        this(address, lat, lon, null);
+    }
+
+    public LocationEntry(String address, double lat, double lon, Instant fetchedAt) {
+        this(address, lat, lon, null, null, fetchedAt);
+    }
+
+    /**
+     * Результат обратного геокодирования для тех же координат.
+     */
+    public static LocationEntry exact(String address, double lat, double lon) {
+        return exact(address, lat, lon, null);
+    }
+
+    /**
+     * Результат обратного геокодирования для тех же координат с временем получения.
+     */
+    public static LocationEntry exact(String address, double lat, double lon, Instant fetchedAt) {
+        return new LocationEntry(address, lat, lon, MatchType.EXACT, 0.0, fetchedAt);
+    }
+
+    /**
+     * Результат обратного геокодирования по ближайшей известной точке.
+     * Такая запись не обновляется в фоне: устаревшую строку обновит точный запрос по ее координатам.
+     */
+    public static LocationEntry nearest(String address, double lat, double lon, double distanceMeters) {
+        return new LocationEntry(address, lat, lon, MatchType.NEAREST, distanceMeters, null);
+    }
+}
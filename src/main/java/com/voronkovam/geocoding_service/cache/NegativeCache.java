@@ -0,0 +1,94 @@
+package com.voronkovam.geocoding_service.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Кэш отрицательных результатов: адреса и координаты, по которым внешний API ничего не нашел.
+ * <p>
+ * Повторный запрос такого адреса или точки отклоняется без обращения к внешнему API, пока не истечет
+ * отдельный, обычно более короткий, чем у {@link LocationCache}, TTL. Хранится только факт промаха,
+ * поэтому запись весит немного, а лимит задается количеством записей. Метрики публикуются под
+ * собственным префиксом {@code geocoding.cache.negative.*}, чтобы не смешиваться с L1.
+ */
+@Component
+public class NegativeCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final BoundedCache<String, Boolean> forward;
+    private final BoundedCache<CoordinateKey, Boolean> reverse;
+
+    public NegativeCache(@Value("${geocoding.cache.negative.enabled}") boolean enabled,
+                         @Value("${geocoding.cache.negative.max-entries}") long maxEntries,
+                         @Value("${geocoding.cache.negative.ttl}") Duration ttl) {
+        this.enabled = enabled;
+        this.forward = new BoundedCache<>(maxEntries, maxEntries, ttl, Duration.ZERO, (key, value) -> 1);
+        this.reverse = new BoundedCache<>(maxEntries, maxEntries, ttl, Duration.ZERO, (key, value) -> 1);
+    }
+
+    /**
+     * @param address Нормализованный ключ адреса.
+     * @return {@code true}, если адрес недавно не был найден внешним API.
+     */
+    public boolean isForwardMiss(String address) {
+        return enabled && forward.get(address) != null;
+    }
+
+    public void putForwardMiss(String address) {
+        if (enabled) {
+            forward.put(address, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @param key Округленные координаты.
+     * @return {@code true}, если по координатам недавно ничего не было найдено внешним API.
+     */
+    public boolean isReverseMiss(CoordinateKey key) {
+        return enabled && reverse.get(key) != null;
+    }
+
+    public void putReverseMiss(CoordinateKey key) {
+        if (enabled) {
+            reverse.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Полностью очищает обе карты.
+     */
+    public void clear() {
+        forward.clear();
+        reverse.clear();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "forward", forward);
+        bind(registry, "reverse", reverse);
+    }
+
+    private static void bind(MeterRegistry registry, String map, BoundedCache<?, ?> cache) {
+        FunctionCounter.builder("geocoding.cache.negative.requests", cache, BoundedCache::hitCount)
+                .tag("map", map).tag("result", "hit")
+                .description("Обращения к кэшу отрицательных результатов")
+                .register(registry);
+        FunctionCounter.builder("geocoding.cache.negative.requests", cache, BoundedCache::missCount)
+                .tag("map", map).tag("result", "miss")
+                .description("Обращения к кэшу отрицательных результатов")
+                .register(registry);
+        FunctionCounter.builder("geocoding.cache.negative.evictions", cache, BoundedCache::evictionCount)
+                .tag("map", map)
+                .description("Записи, вытесненные из кэша отрицательных результатов")
+                .register(registry);
+        Gauge.builder("geocoding.cache.negative.size", cache, BoundedCache::size)
+                .tag("map", map)
+                .register(registry);
+    }
+}
@@ -0,0 +1,266 @@
+package com.voronkovam.geocoding_service.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Предохранитель обращений к внешнему API.
+ * <p>
+ * В замкнутом состоянии ({@code CLOSED}) учитывает исходы последних {@code window-size} обращений. Когда их
+ * набралось не меньше {@code minimum-calls} и доля ошибок достигла {@code failure-rate-threshold}, предохранитель
+ * размыкается ({@code OPEN}) на {@code open-duration}: запросы к внешнему API не отправляются, а сразу
+ * отклоняются. По истечении этого времени он переходит в полуоткрытое состояние ({@code HALF_OPEN}) и пропускает
+ * {@code half-open-probes} пробных обращений: если все успешны, предохранитель замыкается, если хоть одно
+ * неудачно — снова размыкается.
+ * <p>
+ * Режим только кэша ({@code FORCED_OPEN}) включается свойством {@code geocoding.upstream.cached-only} или
+ * во время работы через {@link #setCachedOnly(boolean)}: внешний API не вызывается, пока режим не выключат.
+ * <p>
+ * Ошибкой считается только отказ самого внешнего API (таймаут, сетевая ошибка, неуспешный статус);
+ * пустой ответ — это успех. Вызовы синхронизированы: обращений к внешнему API немного, они ограничены
+ * лимитом частоты.
+ */
+@Component
+public class CircuitBreaker implements MeterBinder {
+
+    /** Состояние предохранителя. */
+    public enum State { CLOSED, OPEN, HALF_OPEN, FORCED_OPEN }
+
+    private final boolean enabled;
+    private final boolean[] window;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final Duration openDuration;
+    private final int halfOpenProbes;
+    private final LongSupplier ticker;
+    private final LongAdder opened = new LongAdder();
+    private final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+    private State state = State.CLOSED;
+    private int windowCalls;
+    private int windowFailures;
+    private int windowPosition;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+    private volatile boolean cachedOnly;
+
+    @Autowired
+    public CircuitBreaker(@Value("${geocoding.upstream.circuit-breaker.enabled}") boolean enabled,
+                          @Value("${geocoding.upstream.circuit-breaker.window-size}") int windowSize,
+                          @Value("${geocoding.upstream.circuit-breaker.minimum-calls}") int minimumCalls,
+                          @Value("${geocoding.upstream.circuit-breaker.failure-rate-threshold}") double failureRateThreshold,
+                          @Value("${geocoding.upstream.circuit-breaker.open-duration}") Duration openDuration,
+                          @Value("${geocoding.upstream.circuit-breaker.half-open-probes}") int halfOpenProbes,
+                          @Value("${geocoding.upstream.cached-only}") boolean cachedOnly) {
+        this(enabled, windowSize, minimumCalls, failureRateThreshold, openDuration, halfOpenProbes, cachedOnly,
+                System::nanoTime);
+    }
+
+    CircuitBreaker(boolean enabled, int windowSize, int minimumCalls, double failureRateThreshold,
+                   Duration openDuration, int halfOpenProbes, boolean cachedOnly, LongSupplier ticker) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || halfOpenProbes < 1) {
+            throw new IllegalArgumentException("windowSize >= minimumCalls >= 1 and halfOpenProbes >= 1 are required");
+        }
+        this.enabled = enabled;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDuration = openDuration;
+        this.halfOpenProbes = halfOpenProbes;
+        this.cachedOnly = cachedOnly;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Проверяет, стоит ли ставить запрос в очередь к внешнему API; разрешение при этом не забирается.
+     *
+     * @return {@code false}, если предохранитель разомкнут и время размыкания еще не истекло
+     * или включен режим только кэша.
+     */
+    public synchronized boolean isCallPermitted() {
+        if (cachedOnly) {
+            return false;
+        }
+        return state != State.OPEN || openRemaining() <= 0;
+    }
+
+    /**
+     * Забирает разрешение на обращение к внешнему API непосредственно перед отправкой.
+     * Каждое полученное разрешение нужно завершить вызовом {@link #onSuccess()} или {@link #onFailure()}.
+     *
+     * @return {@code true}, если обращение разрешено.
+     */
+    public synchronized boolean tryAcquire() {
+        if (cachedOnly) {
+            return false;
+        }
+        if (state == State.OPEN) {
+            if (openRemaining() > 0) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+            probeSuccesses = 0;
+            logger.info("Предохранитель внешнего API полуоткрыт: пробные запросы");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+                return false;
+            }
+            probesInFlight++;
+        }
+        return true;
+    }
+
+    /**
+     * Возвращает разрешение, полученное {@link #tryAcquire()}, если обращение так и не было отправлено.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+        }
+    }
+
+    /**
+     * Учитывает успешное обращение.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+            if (++probeSuccesses >= halfOpenProbes) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Учитывает отказ внешнего API.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (enabled && windowCalls >= minimumCalls && failureRate() >= failureRateThreshold) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * @return Текущее состояние; {@code FORCED_OPEN}, если включен режим только кэша.
+     */
+    public synchronized State state() {
+        if (cachedOnly) {
+            return State.FORCED_OPEN;
+        }
+        return state == State.OPEN && openRemaining() <= 0 ? State.HALF_OPEN : state;
+    }
+
+    /**
+     * @return Время до следующей пробы, если предохранитель разомкнут; {@code null} в остальных случаях.
+     */
+    public synchronized Duration retryAfter() {
+        if (cachedOnly || state != State.OPEN) {
+            return null;
+        }
+        return Duration.ofNanos(Math.max(0, openRemaining()));
+    }
+
+    /**
+     * @return Доля ошибок среди обращений в окне.
+     */
+    public synchronized double failureRate() {
+        return windowCalls == 0 ? 0 : (double) windowFailures / windowCalls;
+    }
+
+    /**
+     * @return Количество обращений в окне.
+     */
+    public synchronized int windowCalls() {
+        return windowCalls;
+    }
+
+    /**
+     * Включает или выключает режим только кэша.
+     */
+    public void setCachedOnly(boolean cachedOnly) {
+        if (this.cachedOnly != cachedOnly) {
+            logger.warn("Режим только кэша {}", cachedOnly ? "включен" : "выключен");
+        }
+        this.cachedOnly = cachedOnly;
+    }
+
+    /**
+     * @return {@code true}, если включен режим только кэша.
+     */
+    public boolean isCachedOnly() {
+        return cachedOnly;
+    }
+
+    private void record(boolean failure) {
+        if (windowCalls == window.length) {
+            if (window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCalls++;
+        }
+        window[windowPosition] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPosition = (windowPosition + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = ticker.getAsLong();
+        opened.increment();
+        logger.warn("Предохранитель внешнего API разомкнут на {} (ошибок в окне: {} из {})",
+                openDuration, windowFailures, windowCalls);
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowCalls = 0;
+        windowFailures = 0;
+        windowPosition = 0;
+        logger.info("Предохранитель внешнего API замкнут");
+    }
+
+    private long openRemaining() {
+        return openedAt + openDuration.toNanos() - ticker.getAsLong();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (State value : State.values()) {
+            Gauge.builder("geocoding.upstream.circuit-breaker.state", this, breaker -> breaker.state() == value ? 1 : 0)
+                    .tag("state", value.name().toLowerCase())
+                    .description("Текущее состояние предохранителя внешнего API (1 — текущее)")
+                    .register(registry);
+        }
+        Gauge.builder("geocoding.upstream.circuit-breaker.failure-rate", this, CircuitBreaker::failureRate)
+                .description("Доля ошибок внешнего API в окне предохранителя")
+                .register(registry);
+        FunctionCounter.builder("geocoding.upstream.circuit-breaker.opened", opened, LongAdder::sum)
+                .description("Размыкания предохранителя")
+                .register(registry);
+    }
+}
@@ -0,0 +1,71 @@
+package com.voronkovam.geocoding_service.client;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Общий для всех узлов лимит запросов к внешнему API, хранимый в БД.
+ * <p>
+ * Время делится на секундные окна; для каждого окна в таблице {@code upstream_rate_window} хранится
+ * число выданных разрешений. Разрешение выдается атомарным {@code UPDATE ... WHERE permits < limit}
+ * (или вставкой строки окна), поэтому узлы не могут вместе превысить лимит. Окна определяются по
+ * часам узла, так что расхождение часов между узлами должно быть заметно меньше секунды.
+ * <p>
+ * Включается {@code geocoding.upstream.rate-limit.cluster.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "geocoding.upstream.rate-limit.cluster.enabled", havingValue = "true")
+public class ClusterRateLimiter {
+
+    private static final long WINDOW_MILLIS = 1000;
+    /** Сколько хранить старые окна перед удалением. */
+    private static final long RETENTION_MILLIS = 60_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int permitsPerSecond;
+
+    public ClusterRateLimiter(JdbcTemplate jdbcTemplate,
+                              @Value("${geocoding.upstream.rate-limit.cluster.permits-per-second}") int permitsPerSecond) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    /**
+     * Пытается получить разрешение в текущем окне.
+     *
+     * @return {@code 0}, если разрешение получено, иначе время в миллисекундах до начала следующего окна.
+     */
+    public long tryAcquire() {
+        return tryAcquire(System.currentTimeMillis());
+    }
+
+    long tryAcquire(long nowMillis) {
+        long window = nowMillis - nowMillis % WINDOW_MILLIS;
+        if (increment(window) || insert(window) || increment(window)) {
+            return 0;
+        }
+        return window + WINDOW_MILLIS - nowMillis;
+    }
+
+    private boolean increment(long window) {
+        return jdbcTemplate.update(
+                "UPDATE upstream_rate_window SET permits = permits + 1 WHERE window_start = ? AND permits < ?",
+                window, permitsPerSecond) > 0;
+    }
+
+    private boolean insert(long window) {
+        if (permitsPerSecond < 1) {
+            return false;
+        }
+        int inserted = jdbcTemplate.update(
+                "INSERT INTO upstream_rate_window (window_start, permits) VALUES (?, 1) ON CONFLICT DO NOTHING",
+                window);
+        if (inserted > 0) {
+            // новое окно открывается раз в секунду, заодно убираем устаревшие
+            jdbcTemplate.update("DELETE FROM upstream_rate_window WHERE window_start < ?", window - RETENTION_MILLIS);
+        }
+        return inserted > 0;
+    }
+}
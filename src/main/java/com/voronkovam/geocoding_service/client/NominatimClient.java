@@ -0,0 +1,412 @@
+package com.voronkovam.geocoding_service.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voronkovam.geocoding_service.exception.UpstreamException;
+import com.voronkovam.geocoding_service.metrics.GeocodingMetrics;
+import com.voronkovam.geocoding_service.model.NominatimResponse;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Неблокирующий клиент внешнего API Nominatim.
+ * <p>
+ * Работает поверх общего {@link HttpClient} ({@code upstreamHttpClient}), который держит пул
+ * keep-alive соединений (HTTP/2 там, где сервер его поддерживает) и ограничивает время установки
+ * соединения. Время ожидания ответа задается для каждого запроса. Запросы не занимают поток
+ * вызывающего: результат завершается в пуле {@code upstreamExecutor}.
+ * <p>
+ * {@code external.api.url} может содержать несколько экземпляров через запятую (например, свои
+ * экземпляры Nominatim и публичный в качестве запасного). Экземпляр для запроса выбирается случайно
+ * с весом, пропорциональным доле его успешных ответов и обратно пропорциональным медиане задержки
+ * ({@link UpstreamEndpoint}). Если он не ответил за {@code geocoding.upstream.hedge.percentile}-й
+ * перцентиль своих задержек, тот же запрос отправляется на следующий по весу экземпляр; первый
+ * ответ завершает результат, второй запрос отменяется. Дублирующие запросы ограничены бюджетом
+ * {@code geocoding.upstream.hedge.max-ratio} от числа запросов. При отказе экземпляра запрос сразу
+ * повторяется на следующем без учета бюджета. Всего на один запрос приходится не больше двух обращений.
+ * Дублирующее обращение и повтор расходуют лимит частоты {@link UpstreamScheduler} наравне с основным
+ * запросом; если лимит исчерпан, они не выполняются. Время обращения, отмененного после ответа другого
+ * экземпляра, учитывается в задержках экземпляра как нижняя граница.
+ * <p>
+ * Таймауты, сетевые ошибки и неуспешные HTTP-статусы завершают результат исключением
+ * {@link UpstreamException}; пустой ответ означает, что внешний API ничего не нашел.
+ * Время и исход каждого обращения, а также время разбора ответа пишутся в {@link GeocodingMetrics}.
+ */
+@Component
+public class NominatimClient implements MeterBinder {
+
+    /** Сколько обращений к разным экземплярам допускается на один запрос. */
+    private static final int MAX_ATTEMPTS = 2;
+
+    /** Сколько неизрасходованных дублирующих запросов может накопиться в бюджете. */
+    private static final double HEDGE_BURST = 10;
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final List<UpstreamEndpoint> endpoints;
+    private final Duration readTimeout;
+    private final String userAgent;
+    private final GeocodingMetrics metrics;
+    private final boolean hedgeEnabled;
+    private final double hedgePercentile;
+    private final Duration hedgeInitialDelay;
+    private final Duration hedgeMinDelay;
+    private final double hedgeMaxRatio;
+    private final DoubleSupplier random;
+    private final BooleanSupplier extraPermits;
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder extraThrottled = new LongAdder();
+    private double hedgeBudget;
+
+    @Autowired
+    public NominatimClient(@Qualifier("upstreamHttpClient") HttpClient httpClient, ObjectMapper objectMapper,
+                           GeocodingMetrics metrics,
+                           @Value("${external.api.url}") List<String> baseUrls,
+                           @Value("${geocoding.upstream.read-timeout}") Duration readTimeout,
+                           @Value("${geocoding.upstream.user-agent}") String userAgent,
+                           @Value("${geocoding.upstream.hedge.enabled}") boolean hedgeEnabled,
+                           @Value("${geocoding.upstream.hedge.percentile}") double hedgePercentile,
+                           @Value("${geocoding.upstream.hedge.initial-delay}") Duration hedgeInitialDelay,
+                           @Value("${geocoding.upstream.hedge.min-delay}") Duration hedgeMinDelay,
+                           @Value("${geocoding.upstream.hedge.max-ratio}") double hedgeMaxRatio,
+                           @Value("${geocoding.upstream.latency-window}") int latencyWindow,
+                           UpstreamScheduler upstreamScheduler) {
+        this(httpClient, objectMapper, metrics, baseUrls, readTimeout, userAgent, hedgeEnabled, hedgePercentile,
+                hedgeInitialDelay, hedgeMinDelay, hedgeMaxRatio, latencyWindow,
+                () -> ThreadLocalRandom.current().nextDouble(), upstreamScheduler::tryAcquireExtra);
+    }
+
+    NominatimClient(HttpClient httpClient, ObjectMapper objectMapper, GeocodingMetrics metrics,
+                    List<String> baseUrls, Duration readTimeout, String userAgent, boolean hedgeEnabled,
+                    double hedgePercentile, Duration hedgeInitialDelay, Duration hedgeMinDelay,
+                    double hedgeMaxRatio, int latencyWindow, DoubleSupplier random, BooleanSupplier extraPermits) {
+        List<UpstreamEndpoint> parsed = baseUrls.stream()
+                .map(String::strip)
+                .filter(url -> !url.isEmpty())
+                .map(url -> new UpstreamEndpoint(url.endsWith("/") ? url.substring(0, url.length() - 1) : url,
+                        latencyWindow))
+                .toList();
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("external.api.url must contain at least one URL");
+        }
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.endpoints = parsed;
+        this.readTimeout = readTimeout;
+        this.userAgent = userAgent;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeInitialDelay = hedgeInitialDelay;
+        this.hedgeMinDelay = hedgeMinDelay;
+        this.hedgeMaxRatio = hedgeMaxRatio;
+        this.random = random;
+        this.extraPermits = extraPermits;
+    }
+
+    /**
+     * Ищет координаты по адресу.
+     *
+     * @param address Адрес.
+     * @return Первый найденный результат или пустое значение, если адрес не найден.
+     */
+    public CompletableFuture<Optional<NominatimResponse>> searchAsync(String address) {
+        String query = "/search?q=" + URLEncoder.encode(address, StandardCharsets.UTF_8) + "&format=json&limit=1";
+        return new Hedged("search", query, (uri, body) -> {
+            NominatimResponse[] results = parse(uri, body, NominatimResponse[].class);
+            return results != null && results.length > 0 ? Optional.of(results[0]) : Optional.empty();
+        }).start();
+    }
+
+    /**
+     * Ищет адрес по координатам.
+     *
+     * @param lat Широта.
+     * @param lon Долгота.
+     * @return Найденный адрес или пустое значение, если по координатам ничего нет.
+     */
+    public CompletableFuture<Optional<NominatimResponse>> reverseAsync(double lat, double lon) {
+        String query = "/reverse?lat=" + lat + "&lon=" + lon + "&format=json";
+        return new Hedged("reverse", query, (uri, body) -> {
+            NominatimResponse result = parse(uri, body, NominatimResponse.class);
+            // на точки без адреса Nominatim отвечает 200 с полем error вместо display_name
+            return result != null && result.getDisplay_name() != null ? Optional.of(result) : Optional.empty();
+        }).start();
+    }
+
+    /**
+     * Упорядочивает экземпляры для запроса: первый выбирается случайно с учетом веса, остальные идут
+     * по убыванию веса.
+     */
+    private List<UpstreamEndpoint> order() {
+        if (endpoints.size() == 1) {
+            return endpoints;
+        }
+        long defaultLatency = hedgeInitialDelay.toNanos();
+        double[] weights = new double[endpoints.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = endpoints.get(i).weight(defaultLatency);
+            total += weights[i];
+        }
+        double point = random.getAsDouble() * total;
+        int primary = weights.length - 1;
+        for (int i = 0; i < weights.length; i++) {
+            point -= weights[i];
+            if (point < 0) {
+                primary = i;
+                break;
+            }
+        }
+        List<UpstreamEndpoint> order = new ArrayList<>(endpoints);
+        UpstreamEndpoint first = order.remove(primary);
+        order.sort(Comparator.comparingDouble((UpstreamEndpoint endpoint) -> endpoint.weight(defaultLatency)).reversed());
+        order.add(0, first);
+        return order;
+    }
+
+    /**
+     * @return Задержка дублирующего запроса для экземпляра: перцентиль его задержек, пока их мало —
+     * {@code geocoding.upstream.hedge.initial-delay}, не меньше {@code geocoding.upstream.hedge.min-delay}.
+     */
+    Duration hedgeDelay(UpstreamEndpoint endpoint) {
+        long latency = endpoint.latency(hedgePercentile);
+        Duration delay = latency < 0 ? hedgeInitialDelay : Duration.ofNanos(latency);
+        return delay.compareTo(hedgeMinDelay) < 0 ? hedgeMinDelay : delay;
+    }
+
+    /**
+     * Начисляет бюджет дублирующих запросов за новый запрос.
+     */
+    private synchronized void earnHedge() {
+        hedgeBudget = Math.min(HEDGE_BURST, hedgeBudget + hedgeMaxRatio);
+    }
+
+    private synchronized boolean trySpendHedge() {
+        if (hedgeBudget < 1) {
+            return false;
+        }
+        hedgeBudget--;
+        return true;
+    }
+
+    private synchronized void refundHedge() {
+        hedgeBudget = Math.min(HEDGE_BURST, hedgeBudget + 1);
+    }
+
+    /**
+     * Берет у планировщика разрешение на дублирующее обращение или повтор.
+     */
+    private boolean tryAcquireExtra() {
+        if (extraPermits.getAsBoolean()) {
+            return true;
+        }
+        extraThrottled.increment();
+        return false;
+    }
+
+    private CompletableFuture<Optional<NominatimResponse>> send(UpstreamEndpoint upstream, String endpoint, URI uri,
+                                                                Function<byte[], Optional<NominatimResponse>> parser,
+                                                                List<CompletableFuture<?>> exchanges) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header("User-Agent", userAgent)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        Timer.Sample sample = metrics.upstreamStarted();
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<byte[]>> exchange = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        exchanges.add(exchange);
+        return exchange.handle((response, error) -> {
+                    if (error != null) {
+                        if (error instanceof CancellationException) {
+                            upstream.recordCancelled(System.nanoTime() - start);
+                            metrics.upstreamFinished(sample, endpoint, GeocodingMetrics.NO_STATUS, "cancelled");
+                            throw (CancellationException) error;
+                        }
+                        UpstreamException e = toUpstreamException(uri, error);
+                        upstream.recordFailure();
+                        metrics.upstreamFinished(sample, endpoint, GeocodingMetrics.NO_STATUS,
+                                e.getCause() instanceof HttpTimeoutException ? "timeout" : "io_error");
+                        throw e;
+                    }
+                    String status = String.valueOf(response.statusCode());
+                    if (response.statusCode() / 100 != 2) {
+                        upstream.recordFailure();
+                        metrics.upstreamFinished(sample, endpoint, status, "http_error");
+                        throw new UpstreamException("Внешний API вернул статус " + response.statusCode()
+                                + " для " + uri.getPath());
+                    }
+                    Optional<NominatimResponse> result;
+                    try {
+                        result = metrics.parse(endpoint, () -> parser.apply(response.body()));
+                    } catch (UpstreamException e) {
+                        upstream.recordFailure();
+                        metrics.upstreamFinished(sample, endpoint, status, "invalid_response");
+                        throw e;
+                    }
+                    upstream.recordSuccess(System.nanoTime() - start);
+                    metrics.upstreamFinished(sample, endpoint, status, result.isPresent() ? "success" : "not_found");
+                    return result;
+                });
+    }
+
+    private <T> T parse(URI uri, byte[] body, Class<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new UpstreamException("Некорректный ответ внешнего API для " + uri.getPath(), e);
+        }
+    }
+
+    private static UpstreamException toUpstreamException(URI uri, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof HttpTimeoutException) {
+            return new UpstreamException("Превышено время ожидания внешнего API для " + uri.getPath(), cause);
+        }
+        return new UpstreamException("Ошибка обращения к внешнему API для " + uri.getPath(), cause);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("geocoding.upstream.hedge", hedgesSent, LongAdder::sum)
+                .description("Дублирующие запросы к другому экземпляру внешнего API")
+                .tag("outcome", "sent")
+                .register(registry);
+        FunctionCounter.builder("geocoding.upstream.hedge", hedgesWon, LongAdder::sum)
+                .description("Дублирующие запросы к другому экземпляру внешнего API")
+                .tag("outcome", "won")
+                .register(registry);
+        FunctionCounter.builder("geocoding.upstream.hedge", extraThrottled, LongAdder::sum)
+                .description("Дублирующие запросы к другому экземпляру внешнего API")
+                .tag("outcome", "throttled")
+                .register(registry);
+        for (UpstreamEndpoint endpoint : endpoints) {
+            Gauge.builder("geocoding.upstream.endpoint.hedge-delay", endpoint, e -> hedgeDelay(e).toNanos() / 1e9)
+                    .description("Задержка дублирующего запроса для экземпляра внешнего API, с")
+                    .tag("url", endpoint.baseUrl())
+                    .register(registry);
+            Gauge.builder("geocoding.upstream.endpoint.error-rate", endpoint, UpstreamEndpoint::errorRate)
+                    .description("Сглаженная доля ошибок экземпляра внешнего API")
+                    .tag("url", endpoint.baseUrl())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Один запрос к внешнему API: обращение к выбранному экземпляру, дублирующее обращение к следующему
+     * по таймеру или сразу при отказе. Первый ответ завершает результат, незавершенные обращения отменяются.
+     */
+    private final class Hedged {
+
+        private final String endpoint;
+        private final String query;
+        private final ResponseParser parser;
+        private final List<UpstreamEndpoint> order = order();
+        private final List<CompletableFuture<?>> exchanges = new ArrayList<>(MAX_ATTEMPTS);
+        private final CompletableFuture<Optional<NominatimResponse>> result = new CompletableFuture<>();
+        private int started;
+        private int pending;
+        private boolean hedged;
+
+        private Hedged(String endpoint, String query, ResponseParser parser) {
+            this.endpoint = endpoint;
+            this.query = query;
+            this.parser = parser;
+        }
+
+        CompletableFuture<Optional<NominatimResponse>> start() {
+            earnHedge();
+            synchronized (this) {
+                attempt();
+            }
+            if (hedgeEnabled && order.size() > 1 && !result.isDone()) {
+                Duration delay = hedgeDelay(order.get(0));
+                CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS).execute(this::hedge);
+            }
+            return result;
+        }
+
+        private synchronized void hedge() {
+            if (result.isDone() || started != 1 || !trySpendHedge()) {
+                return;
+            }
+            if (!tryAcquireExtra()) {
+                refundHedge();
+                return;
+            }
+            hedged = true;
+            hedgesSent.increment();
+            attempt();
+        }
+
+        private void attempt() {
+            int index = started++;
+            pending++;
+            UpstreamEndpoint upstream = order.get(index);
+            URI uri = URI.create(upstream.baseUrl() + query);
+            send(upstream, endpoint, uri, body -> parser.parse(uri, body), exchanges)
+                    .whenComplete((response, error) -> completed(index, response, error));
+        }
+
+        private synchronized void completed(int index, Optional<NominatimResponse> response, Throwable error) {
+            pending--;
+            if (result.isDone()) {
+                return;
+            }
+            if (error == null) {
+                if (index > 0 && hedged) {
+                    hedgesWon.increment();
+                }
+                result.complete(response);
+                exchanges.forEach(exchange -> exchange.cancel(true));
+                return;
+            }
+            if (pending > 0) {
+                return;
+            }
+            if (started < Math.min(MAX_ATTEMPTS, order.size()) && tryAcquireExtra()) {
+                attempt();
+            } else {
+                result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseParser {
+        Optional<NominatimResponse> parse(URI uri, byte[] body);
+    }
+}
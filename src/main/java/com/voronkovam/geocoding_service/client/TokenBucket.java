@@ -0,0 +1,54 @@
+package com.voronkovam.geocoding_service.client;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Корзина токенов: {@code permitsPerSecond} разрешений в секунду с накоплением не более {@code burst}.
+ * <p>
+ * Токены берет поток-диспетчер {@link UpstreamScheduler} и клиент для дублирующих и повторных обращений,
+ * поэтому методы синхронизированы.
+ */
+final class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private final LongSupplier ticker;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double permitsPerSecond, int burst, LongSupplier ticker) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be > 0 and burst >= 1");
+        }
+        this.permitsPerNano = permitsPerSecond / NANOS_PER_SECOND;
+        this.capacity = burst;
+        this.ticker = ticker;
+        this.tokens = burst;
+        this.lastRefill = ticker.getAsLong();
+    }
+
+    /**
+     * Забирает токен, если он есть.
+     *
+     * @return {@code 0}, если токен получен, иначе время в наносекундах до появления следующего токена.
+     */
+    synchronized long tryAcquire() {
+        long now = ticker.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / permitsPerNano));
+    }
+
+    /**
+     * Возвращает токен, полученный {@link #tryAcquire()}, если запрос так и не был отправлен.
+     */
+    synchronized void release() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+}
@@ -0,0 +1,117 @@
+package com.voronkovam.geocoding_service.client;
+
+import java.util.Arrays;
+
+/**
+ * Экземпляр внешнего API и статистика обращений к нему.
+ * <p>
+ * Хранит задержки последних ответов и отмененных обращений (кольцевой буфер на {@code window} значений) и
+ * экспоненциально сглаженную долю ошибок. По медиане задержки и доле ошибок {@link NominatimClient}
+ * выбирает экземпляр для запроса, а по заданному перцентилю задержки решает, когда отправить
+ * дублирующий запрос на другой экземпляр.
+ */
+final class UpstreamEndpoint {
+
+    /** Сколько ответов нужно, чтобы задержке можно было доверять. */
+    static final int MIN_SAMPLES = 10;
+
+    /** Вес последнего исхода в сглаженной доле ошибок. */
+    private static final double ERROR_DECAY = 0.2;
+
+    /** Нижняя граница здоровья: неисправный экземпляр изредка получает запросы и может восстановиться. */
+    private static final double MIN_HEALTH = 0.01;
+
+    private final String baseUrl;
+    private final long[] latencies;
+    private long[] sorted = new long[0];
+    private int count;
+    private int position;
+    private boolean dirty;
+    private double errorRate;
+
+    UpstreamEndpoint(String baseUrl, int window) {
+        if (window < MIN_SAMPLES) {
+            throw new IllegalArgumentException("window >= " + MIN_SAMPLES + " is required");
+        }
+        this.baseUrl = baseUrl;
+        this.latencies = new long[window];
+    }
+
+    String baseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Учитывает ответ экземпляра, в том числе пустой.
+     *
+     * @param nanos Время ответа.
+     */
+    synchronized void recordSuccess(long nanos) {
+        recordLatency(nanos);
+        errorRate *= 1 - ERROR_DECAY;
+    }
+
+    /**
+     * Учитывает обращение, отмененное до ответа (проигравшее дублирующему): прошедшее время — нижняя
+     * граница задержки. Без него медленные ответы не попадали бы в статистику, и перцентиль занижался бы.
+     *
+     * @param nanos Время от отправки до отмены.
+     */
+    synchronized void recordCancelled(long nanos) {
+        recordLatency(nanos);
+    }
+
+    private void recordLatency(long nanos) {
+        latencies[position] = nanos;
+        position = (position + 1) % latencies.length;
+        count = Math.min(count + 1, latencies.length);
+        dirty = true;
+    }
+
+    /**
+     * Учитывает отказ экземпляра: таймаут, сетевую ошибку, неуспешный статус или некорректный ответ.
+     */
+    synchronized void recordFailure() {
+        errorRate = errorRate * (1 - ERROR_DECAY) + ERROR_DECAY;
+    }
+
+    /**
+     * @param percentile Перцентиль от 0 до 1.
+     * @return Задержка ответа на этом перцентиле в наносекундах или {@code -1}, если ответов меньше
+     * {@link #MIN_SAMPLES}.
+     */
+    synchronized long latency(double percentile) {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        if (dirty) {
+            sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            dirty = false;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * @param defaultLatency Задержка в наносекундах, которая предполагается, пока ответов мало.
+     * @return Вес экземпляра при выборе: доля успешных обращений, деленная на медиану задержки.
+     */
+    synchronized double weight(long defaultLatency) {
+        long median = latency(0.5);
+        double health = Math.max(MIN_HEALTH, 1 - errorRate);
+        return health / Math.max(1_000, median < 0 ? defaultLatency : median);
+    }
+
+    /**
+     * @return Сглаженная доля ошибок.
+     */
+    synchronized double errorRate() {
+        return errorRate;
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
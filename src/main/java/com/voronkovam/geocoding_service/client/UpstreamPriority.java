@@ -0,0 +1,14 @@
+package com.voronkovam.geocoding_service.client;
+
+/**
+ * Приоритет запроса к внешнему API в очереди {@link UpstreamScheduler}.
+ * Запросы с более высоким приоритетом (раньше в перечислении) отправляются первыми.
+ */
+public enum UpstreamPriority {
+    /** Одиночный запрос клиента, который ждет ответа. */
+    INTERACTIVE,
+    /** Элемент пакетного или потокового запроса. */
+    BATCH,
+    /** Фоновая работа сервиса, которую никто не ждет. */
+    BACKGROUND
+}
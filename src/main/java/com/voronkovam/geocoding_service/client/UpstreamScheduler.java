@@ -0,0 +1,314 @@
+package com.voronkovam.geocoding_service.client;
+
+import com.voronkovam.geocoding_service.exception.UpstreamException;
+import com.voronkovam.geocoding_service.exception.UpstreamThrottledException;
+import com.voronkovam.geocoding_service.exception.UpstreamUnavailableException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Планировщик запросов к внешнему API с ограничением частоты.
+ * <p>
+ * Запросы ставятся в ограниченную очередь с приоритетами ({@link UpstreamPriority}) и отправляются
+ * одним потоком-диспетчером не чаще, чем позволяет корзина токенов узла, а при наличии
+ * {@link ClusterRateLimiter} — и общий лимит всех узлов. Одиночные запросы клиентов обгоняют пакетные,
+ * внутри одного приоритета порядок сохраняется.
+ * <p>
+ * Если очередь заполнена, запрос сразу отклоняется; если он ждал в очереди дольше таймаута своего
+ * приоритета, он снимается с очереди. В обоих случаях результат завершается
+ * {@link UpstreamThrottledException}. Сам HTTP-запрос асинхронный, поэтому диспетчер его не ждет.
+ * <p>
+ * Дублирующие запросы и повторы на другом экземпляре внешнего API ({@link NominatimClient}) тоже
+ * расходуют лимит: перед ними клиент берет разрешение через {@link #tryAcquireExtra()}.
+ * <p>
+ * Исходы запросов передаются в {@link CircuitBreaker}. Пока он разомкнут, запросы не ставятся в очередь
+ * и не расходуют токены, а сразу завершаются {@link UpstreamUnavailableException}.
+ */
+@Component
+public class UpstreamScheduler implements MeterBinder, InitializingBean, DisposableBean {
+
+    private final TokenBucket bucket;
+    private final ClusterRateLimiter clusterLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final int capacity;
+    private final Map<UpstreamPriority, Duration> queueTimeouts = new EnumMap<>(UpstreamPriority.class);
+    private final LongSupplier ticker;
+    private final PriorityBlockingQueue<Ticket<?>> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder rejectedFull = new LongAdder();
+    private final LongAdder rejectedTimeout = new LongAdder();
+    private final LongAdder rejectedUnavailable = new LongAdder();
+    private final Logger logger = LoggerFactory.getLogger(UpstreamScheduler.class);
+    private volatile Map<UpstreamPriority, Timer> waitTimers = Map.of();
+    private Thread dispatcher;
+
+    @Autowired
+    public UpstreamScheduler(@Value("${geocoding.upstream.rate-limit.permits-per-second}") double permitsPerSecond,
+                             @Value("${geocoding.upstream.rate-limit.burst}") int burst,
+                             @Value("${geocoding.upstream.queue.capacity}") int capacity,
+                             @Value("${geocoding.upstream.queue.interactive-timeout}") Duration interactiveTimeout,
+                             @Value("${geocoding.upstream.queue.batch-timeout}") Duration batchTimeout,
+                             Optional<ClusterRateLimiter> clusterLimiter, CircuitBreaker circuitBreaker) {
+        this(permitsPerSecond, burst, capacity, interactiveTimeout, batchTimeout, clusterLimiter.orElse(null),
+                circuitBreaker, System::nanoTime);
+    }
+
+    UpstreamScheduler(double permitsPerSecond, int burst, int capacity, Duration interactiveTimeout,
+                      Duration batchTimeout, ClusterRateLimiter clusterLimiter, CircuitBreaker circuitBreaker,
+                      LongSupplier ticker) {
+        this.bucket = new TokenBucket(permitsPerSecond, burst, ticker);
+        this.clusterLimiter = clusterLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.capacity = capacity;
+        this.ticker = ticker;
+        queueTimeouts.put(UpstreamPriority.INTERACTIVE, interactiveTimeout);
+        queueTimeouts.put(UpstreamPriority.BATCH, batchTimeout);
+        queueTimeouts.put(UpstreamPriority.BACKGROUND, batchTimeout);
+    }
+
+    /**
+     * Ставит запрос к внешнему API в очередь.
+     *
+     * @param priority Приоритет запроса.
+     * @param call     Запрос; вызывается диспетчером, когда подойдет очередь.
+     * @return Результат запроса, {@link UpstreamThrottledException}, если запрос не дождался отправки,
+     * или {@link UpstreamUnavailableException}, если предохранитель разомкнут.
+     */
+    public <T> CompletableFuture<T> submit(UpstreamPriority priority, Supplier<CompletableFuture<T>> call) {
+        Duration timeout = queueTimeouts.get(priority);
+        Ticket<T> ticket = new Ticket<>(priority, sequence.incrementAndGet(), ticker.getAsLong(),
+                ticker.getAsLong() + timeout.toNanos(), call);
+        if (!circuitBreaker.isCallPermitted()) {
+            reject(ticket);
+            return ticket.result;
+        }
+        // проверка размера и вставка не атомарны, при гонке очередь может немного превысить емкость
+        if (queue.size() >= capacity) {
+            rejectedFull.increment();
+            ticket.result.completeExceptionally(new UpstreamThrottledException("Очередь запросов к внешнему API переполнена"));
+            return ticket.result;
+        }
+        queue.add(ticket);
+        CompletableFuture.delayedExecutor(timeout.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+            if (queue.remove(ticket)) {
+                expire(ticket);
+            }
+        });
+        return ticket.result;
+    }
+
+    /**
+     * Берет разрешение на дополнительное обращение к внешнему API в рамках уже отправленного запроса
+     * (дублирующий запрос или повтор на другом экземпляре). Не ждет: если лимит узла или общий лимит
+     * исчерпан, дополнительное обращение не выполняется.
+     *
+     * @return {@code true}, если разрешение получено.
+     */
+    public boolean tryAcquireExtra() {
+        if (bucket.tryAcquire() > 0) {
+            return false;
+        }
+        if (clusterDelay() > 0) {
+            bucket.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Количество запросов в очереди.
+     */
+    public int queueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        dispatcher = new Thread(this::dispatchLoop, "geocoding-upstream-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        List<Ticket<?>> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        pending.forEach(ticket -> ticket.result.completeExceptionally(
+                new UpstreamThrottledException("Сервис останавливается")));
+    }
+
+    private void dispatchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Ticket<?> ticket = queue.take();
+                long now = ticker.getAsLong();
+                if (now - ticket.deadline >= 0) {
+                    expire(ticket);
+                    continue;
+                }
+                // предохранитель мог разомкнуться, пока запрос ждал в очереди; проверяем до токенов,
+                // чтобы отклоненные запросы не расходовали лимит
+                if (!circuitBreaker.tryAcquire()) {
+                    reject(ticket);
+                    continue;
+                }
+                long delay = bucket.tryAcquire();
+                if (delay == 0) {
+                    delay = TimeUnit.MILLISECONDS.toNanos(clusterDelay());
+                    if (delay > 0) {
+                        // общий лимит исчерпан: токен узла не потрачен и пригодится следующему запросу
+                        bucket.release();
+                    }
+                }
+                if (delay > 0) {
+                    circuitBreaker.release();
+                    // возвращаем в очередь: пока ждем токен, может прийти запрос с более высоким приоритетом
+                    queue.add(ticket);
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                    continue;
+                }
+                Timer timer = waitTimers.get(ticket.priority);
+                if (timer != null) {
+                    timer.record(now - ticket.enqueuedAt, TimeUnit.NANOSECONDS);
+                }
+                ticket.dispatch(circuitBreaker);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.error("Ошибка диспетчера запросов к внешнему API", e);
+            }
+        }
+    }
+
+    private long clusterDelay() {
+        if (clusterLimiter == null) {
+            return 0;
+        }
+        try {
+            return clusterLimiter.tryAcquire();
+        } catch (DataAccessException e) {
+            // без БД продолжаем работать с лимитом узла, а не останавливаем все промахи
+            logger.warn("Не удалось проверить общий лимит запросов, используется лимит узла: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    private void expire(Ticket<?> ticket) {
+        rejectedTimeout.increment();
+        ticket.result.completeExceptionally(
+                new UpstreamThrottledException("Превышено время ожидания в очереди к внешнему API"));
+    }
+
+    private void reject(Ticket<?> ticket) {
+        rejectedUnavailable.increment();
+        Duration retryAfter = circuitBreaker.retryAfter();
+        ticket.result.completeExceptionally(new UpstreamUnavailableException(circuitBreaker.isCachedOnly()
+                ? "Включен режим только кэша, внешний API не вызывается"
+                : "Внешний API временно недоступен", retryAfter));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("geocoding.upstream.queue.size", queue, PriorityBlockingQueue::size)
+                .description("Запросы к внешнему API, ожидающие отправки")
+                .register(registry);
+        FunctionCounter.builder("geocoding.upstream.queue.rejected", rejectedFull, LongAdder::sum)
+                .tag("reason", "full")
+                .description("Запросы, отклоненные до отправки во внешний API")
+                .register(registry);
+        FunctionCounter.builder("geocoding.upstream.queue.rejected", rejectedTimeout, LongAdder::sum)
+                .tag("reason", "timeout")
+                .description("Запросы, отклоненные до отправки во внешний API")
+                .register(registry);
+        FunctionCounter.builder("geocoding.upstream.queue.rejected", rejectedUnavailable, LongAdder::sum)
+                .tag("reason", "unavailable")
+                .description("Запросы, отклоненные до отправки во внешний API")
+                .register(registry);
+        Map<UpstreamPriority, Timer> timers = new EnumMap<>(UpstreamPriority.class);
+        for (UpstreamPriority priority : UpstreamPriority.values()) {
+            timers.put(priority, Timer.builder("geocoding.upstream.queue.wait")
+                    .tag("priority", priority.name().toLowerCase())
+                    .description("Время ожидания запроса в очереди к внешнему API")
+                    .register(registry));
+        }
+        waitTimers = timers;
+    }
+
+    private static final class Ticket<T> implements Comparable<Ticket<?>> {
+        private final UpstreamPriority priority;
+        private final long sequence;
+        private final long enqueuedAt;
+        private final long deadline;
+        private final Supplier<CompletableFuture<T>> call;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Ticket(UpstreamPriority priority, long sequence, long enqueuedAt, long deadline,
+                       Supplier<CompletableFuture<T>> call) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+            this.deadline = deadline;
+            this.call = call;
+        }
+
+        private void dispatch(CircuitBreaker circuitBreaker) {
+            try {
+                call.get().whenComplete((value, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        if (cause instanceof UpstreamException) {
+                            circuitBreaker.onFailure();
+                        } else {
+                            // внешний API ответил, ошибка на нашей стороне
+                            circuitBreaker.onSuccess();
+                        }
+                        result.completeExceptionally(error);
+                    } else {
+                        circuitBreaker.onSuccess();
+                        result.complete(value);
+                    }
+                });
+            } catch (RuntimeException e) {
+                circuitBreaker.onSuccess();
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Ticket<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
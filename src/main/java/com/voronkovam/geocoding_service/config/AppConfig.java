@@ -1,20 +1,106 @@
 package com.voronkovam.geocoding_service.config;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Конфигурационный класс Spring для определения бинов.
+ * <p>
+ * Пулы потоков создаются в одном из двух вариантов. По умолчанию это пулы платформенных потоков
+ * фиксированного размера. При {@code spring.threads.virtual.enabled=true} на Java 21+ каждая задача
+ * выполняется в отдельном виртуальном потоке; ограничение одновременных запросов пакетов к внешнему API
+ * при этом сохраняется, но задается лимитом параллелизма, а не числом потоков.
  */
 @Configuration
 public class AppConfig {
     /**
-     * Создает и возвращает бин RestTemplate.
+     * Создает пул потоков, в котором завершаются ответы внешнего API.
+     * Потоки сервлет-контейнера не ждут внешний API, они освобождаются сразу после отправки запроса.
+     *
+     * @param threads число потоков
+     * @return пул потоков фиксированного размера
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ExecutorService upstreamExecutor(@Value("${geocoding.upstream.executor-threads}") int threads) {
+        return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("geocoding-upstream-"));
+    }
+
+    /**
+     * Вариант {@code upstreamExecutor} для режима виртуальных потоков: каждый ответ обрабатывается
+     * в новом виртуальном потоке, поэтому блокирующее сохранение в БД не занимает платформенный поток.
+     *
+     * @return исполнитель на виртуальных потоках
+     */
+    @Bean(name = "upstreamExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor virtualUpstreamExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("geocoding-upstream-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+
+    /**
+     * Создает общий HTTP-клиент для внешнего API.
+     * Клиент переиспользует keep-alive соединения и по умолчанию договаривается о HTTP/2, если сервер его поддерживает.
+     * Для серверов без TLS, не понимающих апгрейд до h2c, версию можно зафиксировать как {@code HTTP_1_1}.
      *
-     * @return новый экземпляр RestTemplate
+     * @param upstreamExecutor пул для обработки ответов
+     * @param connectTimeout   максимальное время установки соединения
+     * @param version          версия протокола HTTP
+     * @return HTTP-клиент
      */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public HttpClient upstreamHttpClient(@Qualifier("upstreamExecutor") Executor upstreamExecutor,
+                                         @Value("${geocoding.upstream.connect-timeout}") Duration connectTimeout,
+                                         @Value("${geocoding.upstream.http-version:HTTP_2}") HttpClient.Version version) {
+        return HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(upstreamExecutor)
+                .build();
+    }
+
+    /**
+     * Создает пул потоков для параллельной обработки промахов в пакетных запросах.
+     * Размер пула ограничивает число одновременных запросов к внешнему API со стороны пакетов.
+     *
+     * @param maxConcurrency максимальное число одновременно обрабатываемых элементов
+     * @return пул потоков фиксированного размера
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ExecutorService batchExecutor(@Value("${geocoding.batch.max-concurrency}") int maxConcurrency) {
+        return Executors.newFixedThreadPool(maxConcurrency, new CustomizableThreadFactory("geocoding-batch-"));
+    }
+
+    /**
+     * Вариант {@code batchExecutor} для режима виртуальных потоков.
+     * Когда {@code maxConcurrency} задач уже выполняются, отправка новой задачи ждет освобождения места;
+     * ожидает при этом виртуальный поток запроса, а не платформенный.
+     *
+     * @param maxConcurrency максимальное число одновременно обрабатываемых элементов
+     * @return исполнитель на виртуальных потоках с ограничением параллелизма
+     */
+    @Bean(name = "batchExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor virtualBatchExecutor(@Value("${geocoding.batch.max-concurrency}") int maxConcurrency) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("geocoding-batch-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(maxConcurrency);
+        return executor;
     }
 }
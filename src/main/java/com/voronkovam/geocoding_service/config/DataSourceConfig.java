@@ -0,0 +1,70 @@
+package com.voronkovam.geocoding_service.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Разделение обращений к БД между основным сервером и репликами для чтения.
+ * <p>
+ * Создаются два пула: основной по свойствам {@code spring.datasource.*} и пул реплики по свойствам
+ * {@code geocoding.datasource.replica.*} (адрес реплики или балансировщика перед несколькими репликами).
+ * Приложение получает общий источник, который берет соединение из пула реплики для транзакций
+ * только для чтения ({@code @Transactional(readOnly = true)}) и из основного пула для всего остального:
+ * записей, запросов {@code JdbcTemplate} вне транзакции и миграций Flyway. Физическое соединение берется
+ * при первом запросе, когда признак транзакции уже известен.
+ * <p>
+ * Включается {@code geocoding.datasource.replica.enabled=true}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "geocoding.datasource.replica.enabled", havingValue = "true")
+public class DataSourceConfig {
+
+    /**
+     * @param properties свойства {@code spring.datasource.*}
+     * @return пул соединений с основным сервером
+     */
+    @Bean
+    @FlywayDataSource
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("geocoding-primary");
+        return dataSource;
+    }
+
+    /**
+     * @return пул соединений с репликой; соединения открываются только для чтения
+     */
+    @Bean
+    @ConfigurationProperties("geocoding.datasource.replica")
+    public HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("geocoding-replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    /**
+     * @param primary основной пул
+     * @param replica пул реплики
+     * @return источник, выбирающий пул по признаку транзакции только для чтения
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                 @Qualifier("replicaDataSource") DataSource replica) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+        dataSource.setReadOnlyDataSource(replica);
+        return dataSource;
+    }
+}
@@ -0,0 +1,93 @@
+package com.voronkovam.geocoding_service.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+/**
+ * Диагностика закрепления виртуальных потоков за несущими потоками (pinning).
+ * <p>
+ * Виртуальный поток, который блокируется на вводе-выводе внутри {@code synchronized} или нативного
+ * вызова, не отпускает несущий поток, и при достаточном числе таких блокировок пул несущих потоков
+ * (по числу ядер) простаивает. Монитор подписывается на событие JFR {@code jdk.VirtualThreadPinned},
+ * считает такие блокировки дольше порога в метрике {@code geocoding.virtual-threads.pinned} и пишет
+ * в лог верхние кадры стека, по которым видно место закрепления.
+ * <p>
+ * Работает только в режиме виртуальных потоков; отключается
+ * {@code geocoding.virtual-threads.pinning-diagnostics.enabled=false}.
+ */
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+@ConditionalOnProperty(name = "geocoding.virtual-threads.pinning-diagnostics.enabled", havingValue = "true",
+        matchIfMissing = true)
+public class VirtualThreadPinningMonitor implements InitializingBean, DisposableBean {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 8;
+
+    private final Counter pinned;
+    private final Duration threshold;
+    private final Logger logger = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(MeterRegistry registry,
+                                       @Value("${geocoding.virtual-threads.pinning-diagnostics.threshold}") Duration threshold) {
+        this.pinned = Counter.builder("geocoding.virtual-threads.pinned")
+                .description("Блокировки виртуальных потоков с закреплением за несущим потоком")
+                .register(registry);
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+        stream.startAsync();
+        logger.info("Диагностика закрепления виртуальных потоков включена, порог {} мс", threshold.toMillis());
+    }
+
+    @Override
+    public void destroy() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinned.increment();
+        if (logger.isWarnEnabled()) {
+            logger.warn("Виртуальный поток закреплен за несущим на {} мс:\n{}", event.getDuration().toMillis(),
+                    topFrames(event));
+        }
+    }
+
+    private static String topFrames(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "\t<стек недоступен>";
+        }
+        return event.getStackTrace().getFrames().stream()
+                .limit(LOGGED_FRAMES)
+                .map(VirtualThreadPinningMonitor::format)
+                .collect(Collectors.joining("\n"));
+    }
+
+    private static String format(RecordedFrame frame) {
+        return "\tat " + frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                + ":" + frame.getLineNumber();
+    }
+}
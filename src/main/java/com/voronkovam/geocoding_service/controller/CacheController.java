@@ -0,0 +1,54 @@
+package com.voronkovam.geocoding_service.controller;
+
+import com.voronkovam.geocoding_service.service.GeocodingService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Административные операции: удаление ошибочных результатов из кэша.
+ */
+@RestController
+@RequestMapping("/api/admin/cache")
+@Tag(name = "Cache Controller", description = "Удаление результатов из кэша")
+public class CacheController {
+
+    private final GeocodingService geocodingService;
+
+    public CacheController(GeocodingService geocodingService) {
+        this.geocodingService = geocodingService;
+    }
+
+    /**
+     * Удаляет результат прямого геокодирования из БД и кэшей в памяти всех узлов.
+     *
+     * @param address Адрес.
+     * @return {@code 204}; {@code 404}, если результата не было в БД.
+     */
+    @Operation(summary = "Удаление адреса", description = "Следующий запрос адреса снова обратится к внешнему API")
+    @DeleteMapping("/direct")
+    public ResponseEntity<Void> evictDirect(@RequestParam String address) {
+        return geocodingService.evict(address)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Удаляет результат обратного геокодирования из БД и кэшей в памяти всех узлов.
+     *
+     * @param lat Широта.
+     * @param lon Долгота.
+     * @return {@code 204}; {@code 404}, если результата не было в БД.
+     */
+    @Operation(summary = "Удаление координат", description = "Следующий запрос координат снова обратится к внешнему API")
+    @DeleteMapping("/reverse")
+    public ResponseEntity<Void> evictReverse(@RequestParam double lat, @RequestParam double lon) {
+        return geocodingService.evictReverse(lat, lon)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+}
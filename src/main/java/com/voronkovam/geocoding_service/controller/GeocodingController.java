@@ -1,30 +1,91 @@
 package com.voronkovam.geocoding_service.controller;
 
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.client.UpstreamPriority;
+import com.voronkovam.geocoding_service.model.BatchDirectGeocodingRequest;
+import com.voronkovam.geocoding_service.model.BatchGeocodingResponse;
+import com.voronkovam.geocoding_service.model.BatchReverseGeocodingRequest;
 import com.voronkovam.geocoding_service.model.DirectGeocodingRequest;
 import com.voronkovam.geocoding_service.model.GeocodingResponse;
 import com.voronkovam.geocoding_service.model.ReverseGeocodingRequest;
+import com.voronkovam.geocoding_service.model.Suggestion;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import com.voronkovam.geocoding_service.service.BatchGeocodingService;
 import com.voronkovam.geocoding_service.service.GeocodingService;
+import com.voronkovam.geocoding_service.service.StreamingGeocodingService;
+import com.voronkovam.geocoding_service.service.SuggestIndex;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Контроллер для обработки запросов геокодирования (адрес - координаты).
+ * Одиночные запросы обрабатываются асинхронно: поток сервлет-контейнера освобождается,
+ * пока ожидается ответ внешнего API.
+ * <p>
+ * GET-варианты одиночных запросов рассчитаны на HTTP-кэши (CDN, кэш клиента): URL приводится к каноническому
+ * виду ключа кэша, ответ содержит строгий {@code ETag} и {@code Cache-Control}. {@code ETag} состоит из тега
+ * ресурса (канонического адреса или координат) и тега содержимого. Если результат есть в L1 и {@code ETag}
+ * совпадает целиком, запрос получает 304 без обращения к БД и внешнему API; иначе результат ищется как обычно,
+ * и 304 отдается только при совпадении с найденным ответом. По заголовку
+ * {@code Accept: application/cbor} ответ кодируется в CBOR вместо JSON.
  */
 @RestController
 @RequestMapping("/api/geocode")
 @Tag(name = "Geocoding Controller", description = "Операции геокодирования и обратного геокодирования")
 public class GeocodingController {
 
+    private static final String JSON_VARIANT = "j";
+    private static final String CBOR_VARIANT = "c";
+
     private final GeocodingService service;
+    private final BatchGeocodingService batchService;
+    private final StreamingGeocodingService streamingService;
+    private final SuggestIndex suggestIndex;
+    private final AddressNormalizer addressNormalizer;
+    private final int maxSuggestLimit;
+    private final CacheControl cacheControl;
 
-    public GeocodingController(GeocodingService service) {
+    public GeocodingController(GeocodingService service, BatchGeocodingService batchService,
+                               StreamingGeocodingService streamingService, SuggestIndex suggestIndex,
+                               AddressNormalizer addressNormalizer,
+                               @Value("${geocoding.suggest.max-limit}") int maxSuggestLimit,
+                               @Value("${geocoding.http.cache.max-age}") Duration cacheMaxAge) {
         this.service = service;
+        this.batchService = batchService;
+        this.streamingService = streamingService;
+        this.suggestIndex = suggestIndex;
+        this.addressNormalizer = addressNormalizer;
+        this.maxSuggestLimit = maxSuggestLimit;
+        this.cacheControl = cacheMaxAge.isZero() ? CacheControl.noCache() : CacheControl.maxAge(cacheMaxAge).cachePublic();
     }
 
     /**
@@ -35,12 +96,11 @@ public class GeocodingController {
      */
     @Operation(summary = "Прямое геокодирование", description = "Получение координат по адресу")
     @PostMapping("/direct")
-    public ResponseEntity<GeocodingResponse> direct(@Valid @RequestBody DirectGeocodingRequest request) {
+    public CompletableFuture<ResponseEntity<GeocodingResponse>> direct(@Valid @RequestBody DirectGeocodingRequest request) {
         if (request.getAddress() == null || request.getAddress().isBlank()) {
             throw new IllegalArgumentException("Поле 'address' обязательно для прямого геокодирования");
         }
-        GeocodingResponse response = service.geocode(request.getAddress());
-        return ResponseEntity.ok(response);
+        return service.geocodeAsync(request.getAddress(), UpstreamPriority.INTERACTIVE).thenApply(ResponseEntity::ok);
     }
 
     /**
@@ -51,11 +111,281 @@ public class GeocodingController {
      */
     @Operation(summary = "Обратное геокодирование", description = "Получение адреса по координатам")
     @PostMapping("/reverse")
-    public ResponseEntity<GeocodingResponse> reverse(@Valid @RequestBody ReverseGeocodingRequest request) {
+    public CompletableFuture<ResponseEntity<GeocodingResponse>> reverse(@Valid @RequestBody ReverseGeocodingRequest request) {
         if (request.getLat() == null || request.getLon() == null) {
             throw new IllegalArgumentException("Поля 'lat' и 'lon' обязательны для обратного геокодирования");
         }
-        GeocodingResponse response = service.reverseGeocode(request.getLat(), request.getLon());
-        return ResponseEntity.ok(response);
+        return service.reverseGeocodeAsync(request.getLat(), request.getLon(), UpstreamPriority.INTERACTIVE).thenApply(ResponseEntity::ok);
+    }
+
+    /**
+     * Прямое геокодирование GET-запросом, ответ которого можно кэшировать.
+     * <p>
+     * Адрес не в каноническом виде ({@link AddressNormalizer#canonical}) геокодируется в исходном написании,
+     * после чего запрос перенаправляется (301) на URL с каноническим адресом, поэтому все написания одного
+     * адреса кэшируются под одним URL, а канонический URL обслуживается из кэша. Запрос с совпадающим
+     * {@code If-None-Match} получает 304 без тела, не обращаясь к БД.
+     *
+     * @param address     Адрес.
+     * @param ifNoneMatch Заголовок {@code If-None-Match}.
+     * @return Ответ с координатами или перенаправление на канонический URL.
+     */
+    @Operation(summary = "Прямое геокодирование (GET)", description = "Получение координат по адресу с HTTP-кэшированием")
+    @GetMapping("/direct")
+    public CompletableFuture<ResponseEntity<GeocodingResponse>> directGet(
+            @RequestParam(required = false) String address,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return cacheableDirect(address, ifNoneMatch, JSON_VARIANT);
+    }
+
+    /**
+     * CBOR-вариант {@link #directGet(String, String)}.
+     *
+     * @param address     Адрес.
+     * @param ifNoneMatch Заголовок {@code If-None-Match}.
+     * @return Ответ с координатами или перенаправление на канонический URL.
+     */
+    @Operation(summary = "Прямое геокодирование (GET, CBOR)", description = "Ответ в CBOR по Accept: application/cbor")
+    @GetMapping(value = "/direct", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public CompletableFuture<ResponseEntity<GeocodingResponse>> directGetCbor(
+            @RequestParam(required = false) String address,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return cacheableDirect(address, ifNoneMatch, CBOR_VARIANT);
+    }
+
+    /**
+     * Обратное геокодирование GET-запросом, ответ которого можно кэшировать.
+     * <p>
+     * Координаты, записанные не в каноническом виде (округленные до точности кэша, без лишних нулей),
+     * перенаправляются (301) на канонический URL. Запрос с совпадающим {@code If-None-Match} получает 304
+     * без обращения к БД.
+     *
+     * @param request        Широта и долгота из параметров запроса.
+     * @param servletRequest Запрос, по которому проверяется написание координат.
+     * @return Ответ с адресом или перенаправление на канонический URL.
+     */
+    @Operation(summary = "Обратное геокодирование (GET)", description = "Получение адреса по координатам с HTTP-кэшированием")
+    @GetMapping("/reverse")
+    public CompletableFuture<ResponseEntity<GeocodingResponse>> reverseGet(@Valid ReverseGeocodingRequest request,
+                                                                           HttpServletRequest servletRequest) {
+        return cacheableReverse(request, servletRequest, JSON_VARIANT);
+    }
+
+    /**
+     * CBOR-вариант {@link #reverseGet(ReverseGeocodingRequest, HttpServletRequest)}.
+     *
+     * @param request        Широта и долгота из параметров запроса.
+     * @param servletRequest Запрос, по которому проверяется написание координат.
+     * @return Ответ с адресом или перенаправление на канонический URL.
+     */
+    @Operation(summary = "Обратное геокодирование (GET, CBOR)", description = "Ответ в CBOR по Accept: application/cbor")
+    @GetMapping(value = "/reverse", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public CompletableFuture<ResponseEntity<GeocodingResponse>> reverseGetCbor(@Valid ReverseGeocodingRequest request,
+                                                                               HttpServletRequest servletRequest) {
+        return cacheableReverse(request, servletRequest, CBOR_VARIANT);
+    }
+
+    /**
+     * Подсказки адресов для автодополнения: нечеткий поиск по уже закэшированным адресам
+     * без обращения к внешнему API.
+     *
+     * @param query Введенная часть адреса.
+     * @param limit Максимальное количество подсказок (не больше {@code geocoding.suggest.max-limit}).
+     * @return Подсказки по убыванию оценки; пустой список, если ничего похожего нет.
+     */
+    @Operation(summary = "Подсказки адресов", description = "Автодополнение по закэшированным адресам")
+    @GetMapping("/suggest")
+    public ResponseEntity<List<Suggestion>> suggest(@RequestParam("q") String query,
+                                                    @RequestParam(defaultValue = "10") int limit) {
+        if (query.isBlank()) {
+            throw new IllegalArgumentException("Параметр 'q' обязателен для подсказок");
+        }
+        if (limit < 1 || limit > maxSuggestLimit) {
+            throw new IllegalArgumentException("Параметр 'limit' должен быть от 1 до " + maxSuggestLimit);
+        }
+        return ResponseEntity.ok(suggestIndex.suggest(query, limit));
+    }
+
+    /**
+     * Пакетное прямое геокодирование.
+     * Ошибка в отдельном элементе возвращается в его результате и не влияет на остальные.
+     *
+     * @param request Запрос со списком адресов.
+     * @return Результаты в порядке элементов запроса.
+     */
+    @Operation(summary = "Пакетное прямое геокодирование", description = "Получение координат для списка адресов")
+    @PostMapping("/direct/batch")
+    public ResponseEntity<BatchGeocodingResponse> directBatch(@Valid @RequestBody BatchDirectGeocodingRequest request) {
+        return ResponseEntity.ok(batchService.geocodeBatch(request.getItems()));
+    }
+
+    /**
+     * Пакетное обратное геокодирование.
+     * Ошибка в отдельном элементе возвращается в его результате и не влияет на остальные.
+     *
+     * @param request Запрос со списком координат.
+     * @return Результаты в порядке элементов запроса.
+     */
+    @Operation(summary = "Пакетное обратное геокодирование", description = "Получение адресов для списка координат")
+    @PostMapping("/reverse/batch")
+    public ResponseEntity<BatchGeocodingResponse> reverseBatch(@Valid @RequestBody BatchReverseGeocodingRequest request) {
+        return ResponseEntity.ok(batchService.reverseGeocodeBatch(request.getItems()));
+    }
+
+    /**
+     * Потоковое геокодирование файла NDJSON.
+     * Каждая строка содержит {@code {"address": "..."}} или {@code {"lat": ..., "lon": ...}};
+     * результаты возвращаются в NDJSON по мере обработки, не дожидаясь окончания ввода.
+     *
+     * @param body     Тело запроса.
+     * @param response Ответ, в который пишутся результаты.
+     * @throws IOException при ошибке чтения запроса или записи ответа.
+     */
+    @Operation(summary = "Потоковое геокодирование NDJSON", description = "Построчная обработка файла NDJSON")
+    @PostMapping(value = "/stream", consumes = "application/x-ndjson")
+    public void streamNdjson(InputStream body, HttpServletResponse response) throws IOException {
+        stream(body, StreamingGeocodingService.Format.NDJSON, response);
+    }
+
+    /**
+     * Потоковое геокодирование файла CSV.
+     * Первая колонка каждой строки содержит адрес, либо строка состоит из широты и долготы;
+     * результаты возвращаются в NDJSON по мере обработки, не дожидаясь окончания ввода.
+     *
+     * @param body     Тело запроса.
+     * @param response Ответ, в который пишутся результаты.
+     * @throws IOException при ошибке чтения запроса или записи ответа.
+     */
+    @Operation(summary = "Потоковое геокодирование CSV", description = "Построчная обработка файла CSV")
+    @PostMapping(value = "/stream", consumes = "text/csv")
+    public void streamCsv(InputStream body, HttpServletResponse response) throws IOException {
+        stream(body, StreamingGeocodingService.Format.CSV, response);
+    }
+
+    private CompletableFuture<ResponseEntity<GeocodingResponse>> cacheableDirect(String address, String ifNoneMatch,
+                                                                                String variant) {
+        String canonical = address == null ? "" : addressNormalizer.canonical(address);
+        if (canonical.isEmpty()) {
+            throw new IllegalArgumentException("Параметр 'address' обязателен для прямого геокодирования");
+        }
+        if (!canonical.equals(address)) {
+            // канонический вид теряет регистр, знаки препинания и сокращения, поэтому внешний API получает
+            // исходное написание, а канонический URL затем отдается из кэша по общему ключу
+            URI location = ServletUriComponentsBuilder.fromCurrentRequestUri()
+                    .queryParam("address", canonical).encode().build().toUri();
+            return service.geocodeAsync(address, UpstreamPriority.INTERACTIVE)
+                    .thenApply(response -> this.<GeocodingResponse>redirect(location));
+        }
+        String etag = service.forwardInMemory(address)
+                .map(response -> etag(canonical, response, variant))
+                .orElse(null);
+        if (etag != null && matches(ifNoneMatch, etag)) {
+            return CompletableFuture.completedFuture(notModified(etag));
+        }
+        return service.geocodeAsync(address, UpstreamPriority.INTERACTIVE)
+                .thenApply(response -> cacheable(canonical, response, variant));
+    }
+
+    private CompletableFuture<ResponseEntity<GeocodingResponse>> cacheableReverse(ReverseGeocodingRequest request,
+                                                                                 HttpServletRequest servletRequest,
+                                                                                 String variant) {
+        CoordinateKey key = GeocodingService.toKey(request.getLat(), request.getLon());
+        String lat = canonical(key.lat());
+        String lon = canonical(key.lon());
+        if (!lat.equals(servletRequest.getParameter("lat")) || !lon.equals(servletRequest.getParameter("lon"))) {
+            return CompletableFuture.completedFuture(redirect(ServletUriComponentsBuilder.fromCurrentRequestUri()
+                    .queryParam("lat", lat).queryParam("lon", lon).build().toUri()));
+        }
+        String resource = lat + ',' + lon;
+        String etag = service.reverseInMemory(key)
+                .map(response -> etag(resource, response, variant))
+                .orElse(null);
+        if (etag != null && matches(servletRequest.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            return CompletableFuture.completedFuture(notModified(etag));
+        }
+        return service.reverseGeocodeAsync(key.lat(), key.lon(), UpstreamPriority.INTERACTIVE)
+                .thenApply(response -> cacheable(resource, response, variant));
+    }
+
+    /**
+     * Ответ с валидаторами кэширования. Если {@code If-None-Match} совпадает с {@code ETag}, Spring MVC
+     * заменяет его на 304 без тела.
+     */
+    private ResponseEntity<GeocodingResponse> cacheable(String resource, GeocodingResponse response, String variant) {
+        return ResponseEntity.ok()
+                .eTag(etag(resource, response, variant))
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(response);
+    }
+
+    private <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT)
+                .build();
+    }
+
+    private <T> ResponseEntity<T> redirect(URI location) {
+        return ResponseEntity.status(HttpStatus.MOVED_PERMANENTLY)
+                .location(location)
+                .cacheControl(cacheControl)
+                .build();
+    }
+
+    /**
+     * Проверяет, есть ли {@code etag} среди тегов {@code If-None-Match}.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            // при сжатии ответа Tomcat делает тег слабым
+            String trimmed = tag.strip().startsWith("W/") ? tag.strip().substring(2) : tag.strip();
+            if (trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Строгий {@code ETag}: тег ресурса и тег содержимого, каждый — первые 64 бита SHA-256. У JSON-
+     * и CBOR-представлений одного ответа теги разные, как того требует строгое сравнение.
+     *
+     * @param resource Канонический адрес или координаты.
+     * @param response Ответ.
+     * @param variant  Кодировка ответа.
+     * @return Значение {@code ETag} в кавычках.
+     */
+    static String etag(String resource, GeocodingResponse response, String variant) {
+        String content = variant + '|' + response.getAddress() + '|' + response.getLat() + '|' + response.getLon()
+                + '|' + response.getMatchType() + '|' + response.getDistanceMeters();
+        return '"' + digest(variant + '|' + resource) + '-' + digest(content) + '"';
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    /**
+     * Каноническое написание координаты: округленное значение без лишних нулей, например {@code 55.75}.
+     */
+    private static String canonical(double coordinate) {
+        return BigDecimal.valueOf(coordinate).stripTrailingZeros().toPlainString();
+    }
+
+    private void stream(InputStream body, StreamingGeocodingService.Format format,
+                        HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        streamingService.process(body, format, response.getOutputStream());
     }
 }
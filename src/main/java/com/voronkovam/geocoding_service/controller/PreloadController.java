@@ -0,0 +1,63 @@
+package com.voronkovam.geocoding_service.controller;
+
+import com.voronkovam.geocoding_service.model.PreloadRequest;
+import com.voronkovam.geocoding_service.model.PreloadStatus;
+import com.voronkovam.geocoding_service.service.PreloadService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Административные операции: массовая загрузка кэша из файла на сервере.
+ */
+@RestController
+@RequestMapping("/api/admin/preload")
+@Tag(name = "Preload Controller", description = "Массовая загрузка кэша из файла")
+public class PreloadController {
+
+    private final PreloadService preloadService;
+
+    public PreloadController(PreloadService preloadService) {
+        this.preloadService = preloadService;
+    }
+
+    /**
+     * Запускает загрузку файла из каталога {@code geocoding.preload.directory} в фоне.
+     *
+     * @param request Файл, формат и признак продолжения с контрольной точки.
+     * @return Состояние запущенной загрузки; {@code 409}, если другая загрузка еще выполняется.
+     */
+    @Operation(summary = "Запуск загрузки", description = "Загрузка адресов и координат из CSV или NDJSON в кэш")
+    @PostMapping
+    public ResponseEntity<PreloadStatus> start(@Valid @RequestBody PreloadRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(preloadService.start(request));
+    }
+
+    /**
+     * @return Состояние текущей или последней загрузки; {@code 404}, если загрузок не было.
+     */
+    @Operation(summary = "Состояние загрузки", description = "Прогресс текущей или последней загрузки")
+    @GetMapping
+    public ResponseEntity<PreloadStatus> status() {
+        return ResponseEntity.of(preloadService.status());
+    }
+
+    /**
+     * Останавливает текущую загрузку; продолжить ее можно повторным запуском того же файла.
+     *
+     * @return Состояние загрузки; {@code 404}, если загрузок не было.
+     */
+    @Operation(summary = "Остановка загрузки", description = "Остановка с сохранением контрольной точки")
+    @DeleteMapping
+    public ResponseEntity<PreloadStatus> cancel() {
+        return ResponseEntity.of(preloadService.cancel());
+    }
+}
@@ -0,0 +1,60 @@
+package com.voronkovam.geocoding_service.controller;
+
+import com.voronkovam.geocoding_service.client.CircuitBreaker;
+import com.voronkovam.geocoding_service.model.UpstreamStatus;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+
+/**
+ * Административные операции: состояние предохранителя внешнего API и режим только кэша.
+ */
+@RestController
+@RequestMapping("/api/admin/upstream")
+@Tag(name = "Upstream Controller", description = "Состояние внешнего API и режим только кэша")
+public class UpstreamController {
+
+    private final CircuitBreaker circuitBreaker;
+
+    public UpstreamController(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return Состояние предохранителя и режима только кэша.
+     */
+    @Operation(summary = "Состояние внешнего API", description = "Состояние предохранителя и доля ошибок")
+    @GetMapping
+    public UpstreamStatus status() {
+        UpstreamStatus status = new UpstreamStatus();
+        status.setState(circuitBreaker.state());
+        status.setFailureRate(circuitBreaker.failureRate());
+        status.setWindowCalls(circuitBreaker.windowCalls());
+        Duration retryAfter = circuitBreaker.retryAfter();
+        if (retryAfter != null) {
+            status.setRetryAfterSeconds(Math.max(1, retryAfter.toSeconds()));
+        }
+        status.setCachedOnly(circuitBreaker.isCachedOnly());
+        return status;
+    }
+
+    /**
+     * Включает или выключает режим только кэша: пока он включен, внешний API не вызывается,
+     * а запросы, которых нет в кэше, завершаются ответом {@code 503}.
+     *
+     * @param enabled Включить режим.
+     * @return Новое состояние.
+     */
+    @Operation(summary = "Режим только кэша", description = "Включение и выключение обращений к внешнему API")
+    @PutMapping("/cached-only")
+    public UpstreamStatus cachedOnly(@RequestParam boolean enabled) {
+        circuitBreaker.setCachedOnly(enabled);
+        return status();
+    }
+}
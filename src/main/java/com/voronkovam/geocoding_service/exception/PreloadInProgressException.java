@@ -0,0 +1,10 @@
+package com.voronkovam.geocoding_service.exception;
+
+/**
+ * Массовая загрузка кэша уже выполняется; одновременно допускается только одна.
+ */
+public class PreloadInProgressException extends RuntimeException {
+    public PreloadInProgressException(String message) {
+        super(message);
+    }
+}
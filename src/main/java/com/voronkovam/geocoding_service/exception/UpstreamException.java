@@ -0,0 +1,14 @@
+package com.voronkovam.geocoding_service.exception;
+
+/**
+ * Ошибка обращения к внешнему API геокодирования: таймаут, сетевая ошибка или неуспешный HTTP-статус.
+ */
+public class UpstreamException extends RuntimeException {
+    public UpstreamException(String message) {
+        super(message);
+    }
+
+    public UpstreamException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,10 @@
+package com.voronkovam.geocoding_service.exception;
+
+/**
+ * Запрос к внешнему API отклонен на стороне сервиса: очередь переполнена или время ожидания в ней истекло.
+ */
+public class UpstreamThrottledException extends UpstreamException {
+    public UpstreamThrottledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,28 @@
+package com.voronkovam.geocoding_service.exception;
+
+import java.time.Duration;
+
+/**
+ * Запрос к внешнему API не отправлялся: предохранитель разомкнут после серии ошибок
+ * или включен режим только кэша.
+ */
+public class UpstreamUnavailableException extends UpstreamException {
+
+    private final Duration retryAfter;
+
+    /**
+     * @param message    Сообщение.
+     * @param retryAfter Через сколько стоит повторить запрос; {@code null}, если неизвестно.
+     */
+    public UpstreamUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return Через сколько стоит повторить запрос; {@code null}, если неизвестно.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
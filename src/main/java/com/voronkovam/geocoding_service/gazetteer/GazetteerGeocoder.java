@@ -0,0 +1,148 @@
+package com.voronkovam.geocoding_service.gazetteer;
+
+import com.voronkovam.geocoding_service.model.NominatimResponse;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Локальный геокодер по справочнику адресов ({@link GazetteerIndex}) без обращений к внешнему API.
+ * <p>
+ * Режим задается свойством {@code geocoding.gazetteer.mode}:
+ * <ul>
+ *     <li>{@code off} — справочник не используется;</li>
+ *     <li>{@code only} — все запросы обслуживаются справочником, внешний API не вызывается
+ *     (площадки без доступа в интернет);</li>
+ *     <li>{@code primary} — сначала справочник, внешний API только для адресов, которых в нем нет;</li>
+ *     <li>{@code fallback} — сначала внешний API, справочник — если API вернул ошибку или не ответил
+ *     за {@code geocoding.gazetteer.fallback-after}.</li>
+ * </ul>
+ * Индекс открывается при старте из {@code geocoding.gazetteer.index}. Если задан
+ * {@code geocoding.gazetteer.source} и индекса нет или он старше источника, индекс сначала строится.
+ * Время поиска публикуется в метрике {@code geocoding.gazetteer.lookups{type, result}}.
+ */
+@Component
+public class GazetteerGeocoder implements InitializingBean, MeterBinder {
+
+    /** Режим использования справочника. */
+    public enum Mode { OFF, ONLY, PRIMARY, FALLBACK }
+
+    private final AddressNormalizer addressNormalizer;
+    private final Mode mode;
+    private final Path indexFile;
+    private final Path sourceFile;
+    private final double cellSize;
+    private final double maxDistanceMeters;
+    private final Duration fallbackAfter;
+    private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+    private final Logger logger = LoggerFactory.getLogger(GazetteerGeocoder.class);
+    private volatile GazetteerIndex index;
+
+    public GazetteerGeocoder(AddressNormalizer addressNormalizer,
+                             @Value("${geocoding.gazetteer.mode}") Mode mode,
+                             @Value("${geocoding.gazetteer.index}") Path indexFile,
+                             @Value("${geocoding.gazetteer.source:}") String sourceFile,
+                             @Value("${geocoding.gazetteer.cell-size}") double cellSize,
+                             @Value("${geocoding.gazetteer.reverse.max-distance-meters}") double maxDistanceMeters,
+                             @Value("${geocoding.gazetteer.fallback-after}") Duration fallbackAfter) {
+        this.addressNormalizer = addressNormalizer;
+        this.mode = mode;
+        this.indexFile = indexFile;
+        this.sourceFile = sourceFile.isBlank() ? null : Path.of(sourceFile);
+        this.cellSize = cellSize;
+        this.maxDistanceMeters = maxDistanceMeters;
+        this.fallbackAfter = fallbackAfter;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        if (sourceFile != null && (!Files.exists(indexFile)
+                || Files.getLastModifiedTime(sourceFile).compareTo(Files.getLastModifiedTime(indexFile)) > 0)) {
+            logger.info("Построение индекса справочника {} из {}", indexFile, sourceFile);
+            GazetteerIndexBuilder.build(sourceFile, indexFile, addressNormalizer, cellSize);
+        }
+        if (!Files.exists(indexFile)) {
+            throw new IllegalStateException("Индекс справочника не найден: " + indexFile
+                    + " (задайте geocoding.gazetteer.source или geocoding.gazetteer.mode=off)");
+        }
+        index = GazetteerIndex.open(indexFile);
+        logger.info("Справочник {} открыт в режиме {}: {} адресов", indexFile, mode, index.size());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        registry.add(meterRegistry);
+    }
+
+    /**
+     * @return Режим использования справочника.
+     */
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * @return Время ожидания внешнего API, после которого в режиме {@code fallback} отвечает справочник.
+     */
+    public Duration fallbackAfter() {
+        return fallbackAfter;
+    }
+
+    /**
+     * Ищет координаты по адресу.
+     *
+     * @param address Адрес.
+     * @return Найденный адрес в формате ответа Nominatim или пустое значение.
+     */
+    public Optional<NominatimResponse> search(String address) {
+        return timed("forward", () -> index().search(addressNormalizer.canonical(address)));
+    }
+
+    /**
+     * Ищет ближайший адрес в пределах {@code geocoding.gazetteer.reverse.max-distance-meters}.
+     *
+     * @param lat Широта.
+     * @param lon Долгота.
+     * @return Найденный адрес в формате ответа Nominatim или пустое значение.
+     */
+    public Optional<NominatimResponse> reverse(double lat, double lon) {
+        return timed("reverse", () -> index().nearest(lat, lon, maxDistanceMeters));
+    }
+
+    private GazetteerIndex index() {
+        GazetteerIndex current = index;
+        if (current == null) {
+            throw new IllegalStateException("Справочник не открыт");
+        }
+        return current;
+    }
+
+    private Optional<NominatimResponse> timed(String type, Supplier<Optional<GazetteerIndex.Match>> lookup) {
+        long start = System.nanoTime();
+        Optional<GazetteerIndex.Match> match = lookup.get();
+        Timer.builder("geocoding.gazetteer.lookups")
+                .description("Время поиска в локальном справочнике")
+                .tag("type", type)
+                .tag("result", match.isPresent() ? "hit" : "miss")
+                .register(registry)
+                .record(Duration.ofNanos(System.nanoTime() - start));
+        return match.map(m -> new NominatimResponse(m.address(), m.lat(), m.lon()));
+    }
+}
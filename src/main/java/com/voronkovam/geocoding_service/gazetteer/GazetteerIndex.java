@@ -0,0 +1,245 @@
+package com.voronkovam.geocoding_service.gazetteer;
+
+import com.voronkovam.geocoding_service.service.NearestLocationFinder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Индекс локального справочника адресов, отображенный в память только для чтения.
+ * <p>
+ * Файл строится {@link GazetteerIndexBuilder} и состоит из заголовка, таблицы записей, пространственной
+ * таблицы и пула строк:
+ * <ul>
+ *     <li>записи (по 16 байт: широта и долгота в единицах 1e-5 градуса, смещения канонического вида
+ *     и адреса в пуле строк) отсортированы по каноническому виду адреса в байтах UTF-8 — прямой поиск
+ *     точного совпадения идет двоичным поиском по ним;</li>
+ *     <li>пространственная таблица (по 12 байт: номер ячейки сетки и номер записи) отсортирована
+ *     по ячейке — обратный поиск просматривает ячейки вокруг точки;</li>
+ *     <li>строки хранятся как длина (2 байта) и байты UTF-8.</li>
+ * </ul>
+ * Чтение идет только абсолютными методами {@link ByteBuffer}, поэтому индекс безопасно использовать
+ * из нескольких потоков без блокировок. Размер файла ограничен 2 ГБ (одно отображение).
+ */
+public final class GazetteerIndex {
+
+    static final int MAGIC = 0x475A5431;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 16;
+    static final int CELL_BYTES = 12;
+    static final double SCALE = 1e5;
+
+    private static final double METERS_PER_DEGREE = Math.PI * 6_371_008.8 / 180;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int cellUnits;
+    private final int recordsOffset;
+    private final int cellsOffset;
+    private final int stringsOffset;
+
+    private GazetteerIndex(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Файл не является индексом справочника");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Неподдерживаемая версия индекса справочника: " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.cellUnits = buffer.getInt(12);
+        this.recordsOffset = buffer.getInt(16);
+        this.cellsOffset = buffer.getInt(20);
+        this.stringsOffset = buffer.getInt(24);
+    }
+
+    /**
+     * Отображает файл индекса в память.
+     *
+     * @param file Файл, построенный {@link GazetteerIndexBuilder}.
+     * @return Индекс.
+     * @throws IOException при ошибке чтения файла.
+     */
+    public static GazetteerIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Индекс справочника больше 2 ГБ не поддерживается");
+            }
+            // отображение остается действительным после закрытия канала
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new GazetteerIndex(mapped);
+        }
+    }
+
+    /**
+     * @return Количество адресов в индексе.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Ищет адрес с точно таким же каноническим видом. Адреса, которые только начинаются с запроса
+     * (например, {@code москва улица тверская 1} для {@code москва улица тверская}), не возвращаются:
+     * результат сохраняется в кэш как ответ на запрос и должен относиться именно к этому адресу.
+     *
+     * @param canonical Канонический вид адреса ({@code AddressNormalizer#canonical}).
+     * @return Найденный адрес.
+     */
+    public Optional<Match> search(String canonical) {
+        if (canonical.isEmpty() || count == 0) {
+            return Optional.empty();
+        }
+        byte[] query = canonical.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(canonicalOffset(mid), query);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid;
+            } else {
+                return Optional.of(match(mid, 0));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Ищет ближайший к точке адрес в пределах радиуса.
+     *
+     * @param lat          Широта.
+     * @param lon          Долгота.
+     * @param radiusMeters Радиус поиска в метрах.
+     * @return Ближайший адрес с расстоянием до него.
+     */
+    public Optional<Match> nearest(double lat, double lon, double radiusMeters) {
+        if (count == 0) {
+            return Optional.empty();
+        }
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double dLon = cosLat < 1e-6 ? 180 : Math.min(180, dLat / cosLat);
+        long minLatBand = latBand(toUnits(Math.max(-90, lat - dLat)), cellUnits);
+        long maxLatBand = latBand(toUnits(Math.min(90, lat + dLat)), cellUnits);
+        long minLonBand = lonBand(toUnits(Math.max(-180, lon - dLon)), cellUnits);
+        long maxLonBand = lonBand(toUnits(Math.min(180, lon + dLon)), cellUnits);
+
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (long latBand = minLatBand; latBand <= maxLatBand; latBand++) {
+            for (long lonBand = minLonBand; lonBand <= maxLonBand; lonBand++) {
+                long cell = cell(latBand, lonBand, cellUnits);
+                for (int i = firstCell(cell); i < count && cellAt(i) == cell; i++) {
+                    int record = buffer.getInt(cellsOffset + i * CELL_BYTES + 8);
+                    double distance = NearestLocationFinder.distanceMeters(lat, lon, latOf(record), lonOf(record));
+                    if (distance <= radiusMeters && distance < bestDistance) {
+                        best = record;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+        return best < 0 ? Optional.empty() : Optional.of(match(best, bestDistance));
+    }
+
+    private int firstCell(long cell) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cellAt(mid) < cell) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long cellAt(int i) {
+        return buffer.getLong(cellsOffset + i * CELL_BYTES);
+    }
+
+    private Match match(int record, double distanceMeters) {
+        return new Match(string(buffer.getInt(recordsOffset + record * RECORD_BYTES + 12)),
+                latOf(record), lonOf(record), distanceMeters);
+    }
+
+    private double latOf(int record) {
+        return buffer.getInt(recordsOffset + record * RECORD_BYTES) / SCALE;
+    }
+
+    private double lonOf(int record) {
+        return buffer.getInt(recordsOffset + record * RECORD_BYTES + 4) / SCALE;
+    }
+
+    private int canonicalOffset(int record) {
+        return stringsOffset + buffer.getInt(recordsOffset + record * RECORD_BYTES + 8);
+    }
+
+    private int stringLength(int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    private String string(int relativeOffset) {
+        int offset = stringsOffset + relativeOffset;
+        byte[] bytes = new byte[stringLength(offset)];
+        buffer.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Сравнивает строку из пула с запросом побайтно без знака, как при сортировке в {@link GazetteerIndexBuilder}.
+     */
+    private int compare(int offset, byte[] query) {
+        int length = stringLength(offset);
+        int common = Math.min(length, query.length);
+        for (int i = 0; i < common; i++) {
+            int diff = (buffer.get(offset + 2 + i) & 0xFF) - (query[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - query.length;
+    }
+
+    static int toUnits(double degrees) {
+        return (int) Math.round(degrees * SCALE);
+    }
+
+    static long latBand(int latUnits, int cellUnits) {
+        return Math.floorDiv(latUnits + 90 * (int) SCALE, cellUnits);
+    }
+
+    static long lonBand(int lonUnits, int cellUnits) {
+        return Math.floorDiv(lonUnits + 180 * (int) SCALE, cellUnits);
+    }
+
+    /**
+     * Номер ячейки сетки: полосы широты идут подряд, внутри полосы — ячейки по долготе.
+     */
+    static long cell(long latBand, long lonBand, int cellUnits) {
+        return latBand * (360L * (long) SCALE / cellUnits + 1) + lonBand;
+    }
+
+    /**
+     * Найденный адрес.
+     *
+     * @param address        Адрес в исходном написании.
+     * @param lat            Широта.
+     * @param lon            Долгота.
+     * @param distanceMeters Расстояние от запрошенной точки для обратного поиска, 0 для прямого.
+     */
+    public record Match(String address, double lat, double lon, double distanceMeters) {
+    }
+}
@@ -0,0 +1,193 @@
+package com.voronkovam.geocoding_service.gazetteer;
+
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import com.voronkovam.geocoding_service.service.StreamingGeocodingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Строит файл {@link GazetteerIndex} из CSV со строками {@code адрес,широта,долгота}
+ * (тот же формат, что и для массовой загрузки кэша; четвертая колонка и строка заголовка игнорируются).
+ * <p>
+ * Адреса с одинаковым каноническим видом сохраняются один раз (первый встреченный), строки
+ * с некорректными координатами пропускаются. Индекс пишется во временный файл и заменяет
+ * существующий целиком.
+ */
+public final class GazetteerIndexBuilder {
+
+    private static final Logger logger = LoggerFactory.getLogger(GazetteerIndexBuilder.class);
+
+    private GazetteerIndexBuilder() {
+    }
+
+    /**
+     * Строит индекс.
+     *
+     * @param source     CSV с адресами.
+     * @param index      Файл индекса.
+     * @param normalizer Нормализатор, которым будет приводиться запрос при поиске.
+     * @param cellSize   Размер ячейки пространственной сетки в градусах.
+     * @return Количество адресов в индексе.
+     * @throws IOException при ошибке чтения или записи.
+     */
+    public static int build(Path source, Path index, AddressNormalizer normalizer, double cellSize) throws IOException {
+        int cellUnits = Math.max(1, GazetteerIndex.toUnits(cellSize));
+        List<Entry> entries = new ArrayList<>();
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            String line;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                List<String> columns = StreamingGeocodingService.splitCsv(line);
+                if (first && columns.get(0).trim().equalsIgnoreCase("address")) {
+                    first = false;
+                    continue;
+                }
+                first = false;
+                Entry entry = parse(columns, normalizer);
+                if (entry == null) {
+                    skipped++;
+                } else {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        entries.sort(Comparator.comparing(Entry::canonical, Arrays::compareUnsigned));
+        List<Entry> unique = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (unique.isEmpty() || !Arrays.equals(unique.get(unique.size() - 1).canonical(), entry.canonical())) {
+                unique.add(entry);
+            }
+        }
+        write(unique, index, cellUnits);
+        logger.info("Индекс справочника {} построен: {} адресов, пропущено строк {}", index, unique.size(),
+                skipped + entries.size() - unique.size());
+        return unique.size();
+    }
+
+    private static Entry parse(List<String> columns, AddressNormalizer normalizer) {
+        if (columns.size() < 3) {
+            return null;
+        }
+        String address = columns.get(0).trim();
+        double lat;
+        double lon;
+        try {
+            lat = Double.parseDouble(columns.get(1).trim());
+            lon = Double.parseDouble(columns.get(2).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        byte[] canonical = normalizer.canonical(address).getBytes(StandardCharsets.UTF_8);
+        byte[] display = address.getBytes(StandardCharsets.UTF_8);
+        if (canonical.length == 0 || canonical.length > 0xFFFF || display.length > 0xFFFF
+                || lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            return null;
+        }
+        return new Entry(canonical, display, GazetteerIndex.toUnits(lat), GazetteerIndex.toUnits(lon));
+    }
+
+    private static void write(List<Entry> entries, Path index, int cellUnits) throws IOException {
+        int count = entries.size();
+        int recordsOffset = GazetteerIndex.HEADER_BYTES;
+        long cellsOffset = recordsOffset + (long) count * GazetteerIndex.RECORD_BYTES;
+        long stringsOffset = cellsOffset + (long) count * GazetteerIndex.CELL_BYTES;
+        long stringBytes = 0;
+        for (Entry entry : entries) {
+            stringBytes += 4L + entry.canonical().length + entry.display().length;
+        }
+        if (stringsOffset + stringBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Индекс справочника больше 2 ГБ не поддерживается");
+        }
+
+        Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+        if (index.getParent() != null) {
+            Files.createDirectories(index.getParent());
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            ByteBuffer header = ByteBuffer.allocate(GazetteerIndex.HEADER_BYTES);
+            header.putInt(GazetteerIndex.MAGIC).putInt(GazetteerIndex.VERSION).putInt(count).putInt(cellUnits)
+                    .putInt(recordsOffset).putInt((int) cellsOffset).putInt((int) stringsOffset);
+            out.write(header.array());
+
+            ByteBuffer records = ByteBuffer.allocate(count * GazetteerIndex.RECORD_BYTES);
+            int stringOffset = 0;
+            for (Entry entry : entries) {
+                records.putInt(entry.lat()).putInt(entry.lon()).putInt(stringOffset)
+                        .putInt(stringOffset + 2 + entry.canonical().length);
+                stringOffset += 4 + entry.canonical().length + entry.display().length;
+            }
+            out.write(records.array());
+
+            // номер ячейки при ячейке в 1e-5 градуса занимает до 50 бит, и вместе с номером записи в long
+            // не помещается: сортируются сами номера ячеек, а записи раскладываются по первой позиции своей
+            // ячейки в порядке возрастания номера, как при сортировке пар
+            long[] cellOf = new long[count];
+            for (int i = 0; i < count; i++) {
+                Entry entry = entries.get(i);
+                cellOf[i] = GazetteerIndex.cell(GazetteerIndex.latBand(entry.lat(), cellUnits),
+                        GazetteerIndex.lonBand(entry.lon(), cellUnits), cellUnits);
+            }
+            long[] cells = cellOf.clone();
+            Arrays.sort(cells);
+            int[] recordAt = new int[count];
+            int[] filled = new int[count];
+            for (int i = 0; i < count; i++) {
+                int first = firstIndex(cells, cellOf[i]);
+                recordAt[first + filled[first]++] = i;
+            }
+            ByteBuffer cellTable = ByteBuffer.allocate(count * GazetteerIndex.CELL_BYTES);
+            for (int i = 0; i < count; i++) {
+                cellTable.putLong(cells[i]).putInt(recordAt[i]);
+            }
+            out.write(cellTable.array());
+
+            ByteBuffer length = ByteBuffer.allocate(2);
+            for (Entry entry : entries) {
+                for (byte[] string : List.of(entry.canonical(), entry.display())) {
+                    out.write(length.clear().putShort((short) string.length).array());
+                    out.write(string);
+                }
+            }
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Первая позиция значения в отсортированном массиве, где оно заведомо есть.
+     */
+    private static int firstIndex(long[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private record Entry(byte[] canonical, byte[] display, int lat, int lon) {
+    }
+}
@@ -0,0 +1,142 @@
+package com.voronkovam.geocoding_service.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Метрики этапов геокодирования: откуда получен ответ, сколько заняли запросы к БД,
+ * обращения к внешнему API и разбор его ответа.
+ * <p>
+ * Метры регистрируются в собственном {@link CompositeMeterRegistry}, к которому при старте
+ * приложения подключается реестр Spring. Пока реестр не подключен (например, в unit-тестах),
+ * измерения ничего не стоят и никуда не попадают.
+ * <ul>
+ *     <li>{@code geocoding.lookups{type, source}} — откуда получен ответ: {@code l1}, {@code negative},
+ *     {@code db}, {@code nearest}, {@code upstream} или {@code coalesced} (присоединился к уже идущей загрузке);</li>
+ *     <li>{@code geocoding.db.queries{query, type}} — время запросов к БД;</li>
+ *     <li>{@code geocoding.upstream.requests{endpoint, status, outcome}} — время обращений к внешнему API;</li>
+ *     <li>{@code geocoding.upstream.parse{endpoint}} — время разбора JSON-ответа;</li>
+ *     <li>{@code geocoding.upstream.in-flight} — число обращений к внешнему API, ожидающих ответа.</li>
+ * </ul>
+ */
+@Component
+public class GeocodingMetrics implements MeterBinder {
+
+    /** Тип геокодирования. */
+    public enum Type {
+        FORWARD, REVERSE;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** Откуда получен ответ на запрос. */
+    public enum Source {
+        L1, NEGATIVE, DB, NEAREST, UPSTREAM, COALESCED
+    }
+
+    /** Значение тега {@code status}, если HTTP-ответа не было. */
+    public static final String NO_STATUS = "none";
+
+    private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+    private final AtomicInteger upstreamInFlight = new AtomicInteger();
+    private final Map<Type, Map<Source, Counter>> lookups = new EnumMap<>(Type.class);
+
+    public GeocodingMetrics() {
+        for (Type type : Type.values()) {
+            Map<Source, Counter> counters = new EnumMap<>(Source.class);
+            for (Source source : Source.values()) {
+                counters.put(source, Counter.builder("geocoding.lookups")
+                        .description("Ответы на запросы геокодирования по источнику")
+                        .tag("type", type.tag())
+                        .tag("source", source.name().toLowerCase())
+                        .register(registry));
+            }
+            lookups.put(type, counters);
+        }
+        Gauge.builder("geocoding.upstream.in-flight", upstreamInFlight, AtomicInteger::get)
+                .description("Обращения к внешнему API, ожидающие ответа")
+                .register(registry);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        registry.add(meterRegistry);
+    }
+
+    /**
+     * Учитывает, откуда получен ответ.
+     */
+    public void lookup(Type type, Source source) {
+        lookups.get(type).get(source).increment();
+    }
+
+    /**
+     * Выполняет запрос к БД и замеряет его время.
+     *
+     * @param query Название запроса для тега {@code query}, например {@code find} или {@code nearest}.
+     * @param type  Тип геокодирования.
+     * @param call  Запрос.
+     * @return Результат запроса.
+     */
+    public <T> T db(String query, Type type, Supplier<T> call) {
+        return Timer.builder("geocoding.db.queries")
+                .description("Время запросов к БД")
+                .tag("query", query)
+                .tag("type", type.tag())
+                .register(registry)
+                .record(call);
+    }
+
+    /**
+     * Разбирает ответ внешнего API и замеряет время разбора.
+     */
+    public <T> T parse(String endpoint, Supplier<T> parser) {
+        return Timer.builder("geocoding.upstream.parse")
+                .description("Время разбора ответа внешнего API")
+                .tag("endpoint", endpoint)
+                .register(registry)
+                .record(parser);
+    }
+
+    /**
+     * Отмечает начало обращения к внешнему API.
+     *
+     * @return Замер, который нужно завершить вызовом {@link #upstreamFinished}.
+     */
+    public Timer.Sample upstreamStarted() {
+        upstreamInFlight.incrementAndGet();
+        return Timer.start(registry);
+    }
+
+    /**
+     * Завершает замер обращения к внешнему API.
+     *
+     * @param sample   Замер из {@link #upstreamStarted()}.
+     * @param endpoint {@code search} или {@code reverse}.
+     * @param status   HTTP-статус или {@link #NO_STATUS}.
+     * @param outcome  Исход: {@code success}, {@code not_found}, {@code http_error}, {@code timeout},
+     *                 {@code io_error}, {@code invalid_response} или {@code cancelled} (ответ уже получен
+     *                 от другого экземпляра).
+     */
+    public void upstreamFinished(Timer.Sample sample, String endpoint, String status, String outcome) {
+        upstreamInFlight.decrementAndGet();
+        sample.stop(Timer.builder("geocoding.upstream.requests")
+                .description("Время обращений к внешнему API")
+                .tag("endpoint", endpoint)
+                .tag("status", status)
+                .tag("outcome", outcome)
+                .register(registry));
+    }
+}
@@ -0,0 +1,90 @@
+package com.voronkovam.geocoding_service.migration;
+
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+
+/**
+ * Миграция V3: заполняет {@code address_key} и {@code coord_key} у строк, сохраненных до их появления.
+ * <p>
+ * Ключи вычисляются тем же кодом, что и при работе сервиса, поэтому миграция написана на Java.
+ * До V3 строки прямого и обратного геокодирования не различались и находились поиском и по адресу,
+ * и по координатам, поэтому каждой старой строке заполняются оба ключа. Дубликаты ключей
+ * разбираются в следующей миграции перед созданием уникальных индексов.
+ */
+@Component
+public class BackfillLookupKeysMigration implements JavaMigration {
+
+    private static final int PAGE_SIZE = 10_000;
+
+    private final AddressNormalizer addressNormalizer;
+
+    public BackfillLookupKeysMigration(AddressNormalizer addressNormalizer) {
+        this.addressNormalizer = addressNormalizer;
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("3");
+    }
+
+    @Override
+    public String getDescription() {
+        return "backfill lookup keys";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return true;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, address, lat, lon FROM cached_location WHERE id > ? ORDER BY id LIMIT " + PAGE_SIZE);
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE cached_location SET address_key = ?, coord_key = ? WHERE id = ?")) {
+            long lastId = Long.MIN_VALUE;
+            boolean more = true;
+            while (more) {
+                more = false;
+                select.setLong(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        more = true;
+                        lastId = rs.getLong("id");
+                        String address = rs.getString("address");
+                        double lat = rs.getDouble("lat");
+                        boolean hasLat = !rs.wasNull();
+                        double lon = rs.getDouble("lon");
+                        boolean hasLon = !rs.wasNull();
+
+                        update.setString(1, address == null ? null : addressNormalizer.key(address));
+                        if (hasLat && hasLon) {
+                            update.setLong(2, new CoordinateKey(lat, lon).packed());
+                        } else {
+                            update.setNull(2, Types.BIGINT);
+                        }
+                        update.setLong(3, lastId);
+                        update.addBatch();
+                    }
+                }
+                update.executeBatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.voronkovam.geocoding_service.migration;
+
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Миграция V7: пересчитывает {@code address_key} строк прямого геокодирования по текущим правилам
+ * {@link AddressNormalizer} (каноническая форма и хеш фиксированной длины).
+ * <p>
+ * Строки обратного геокодирования ключа адреса не имеют и не затрагиваются. Уникальный индекс снят
+ * в V6, совпавшие после пересчета ключи разбираются в V8.
+ */
+@Component
+public class RehashAddressKeysMigration implements JavaMigration {
+
+    private static final int PAGE_SIZE = 10_000;
+
+    private final AddressNormalizer addressNormalizer;
+
+    public RehashAddressKeysMigration(AddressNormalizer addressNormalizer) {
+        this.addressNormalizer = addressNormalizer;
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("7");
+    }
+
+    @Override
+    public String getDescription() {
+        return "rehash address keys";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return true;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, address FROM cached_location WHERE id > ? AND address_key IS NOT NULL "
+                        + "ORDER BY id LIMIT " + PAGE_SIZE);
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE cached_location SET address_key = ? WHERE id = ?")) {
+            long lastId = Long.MIN_VALUE;
+            boolean more = true;
+            while (more) {
+                more = false;
+                select.setLong(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        more = true;
+                        lastId = rs.getLong("id");
+                        update.setString(1, addressNormalizer.key(rs.getString("address")));
+                        update.setLong(2, lastId);
+                        update.addBatch();
+                    }
+                }
+                update.executeBatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.voronkovam.geocoding_service.migration;
+
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Повторяемая миграция: пересчитывает {@code address_key} строк прямого геокодирования, когда меняются
+ * правила {@link AddressNormalizer} (например, {@code geocoding.normalizer.abbreviations}).
+ * <p>
+ * Контрольная сумма миграции — {@link AddressNormalizer#rulesChecksum()}; Flyway хранит ее
+ * в {@code flyway_schema_history} и выполняет миграцию заново при старте с другими правилами.
+ * <p>
+ * Сначала строкам, у которых ключ изменился, ставится временная метка {@code ~id}: она не совпадает
+ * ни с одним hex-ключом, поэтому уникальный индекс не мешает, а старые ключи освобождаются. Затем
+ * помеченные строки по порядку {@code id} получают новый ключ, если он свободен. Как и в V8, ключ
+ * остается у строки, которая уже его имела, или у самой ранней; у остальных он обнуляется, а строки
+ * без обоих ключей удаляются.
+ */
+@Component
+public class RekeyAddressesMigration implements JavaMigration {
+
+    private static final int PAGE_SIZE = 10_000;
+    private static final String MARK = "~";
+
+    private final AddressNormalizer addressNormalizer;
+
+    public RekeyAddressesMigration(AddressNormalizer addressNormalizer) {
+        this.addressNormalizer = addressNormalizer;
+    }
+
+    @Override
+    public MigrationVersion getVersion() {
+        return null;
+    }
+
+    @Override
+    public String getDescription() {
+        return "rekey address keys";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return addressNormalizer.rulesChecksum();
+    }
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return true;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        markChanged(connection);
+        rekeyMarked(connection);
+        try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM cached_location WHERE address_key IS NULL AND coord_key IS NULL")) {
+            delete.executeUpdate();
+        }
+    }
+
+    private void markChanged(Connection connection) throws Exception {
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, address, address_key FROM cached_location WHERE id > ? AND address_key IS NOT NULL "
+                        + "ORDER BY id LIMIT " + PAGE_SIZE);
+             PreparedStatement mark = connection.prepareStatement(
+                     "UPDATE cached_location SET address_key = ? WHERE id = ?")) {
+            long lastId = Long.MIN_VALUE;
+            boolean more = true;
+            while (more) {
+                more = false;
+                select.setLong(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        more = true;
+                        lastId = rs.getLong("id");
+                        String address = rs.getString("address");
+                        if (address == null || !addressNormalizer.key(address).equals(rs.getString("address_key"))) {
+                            mark.setString(1, MARK + lastId);
+                            mark.setLong(2, lastId);
+                            mark.addBatch();
+                        }
+                    }
+                }
+                mark.executeBatch();
+            }
+        }
+    }
+
+    private void rekeyMarked(Connection connection) throws Exception {
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, address FROM cached_location WHERE id > ? AND address_key LIKE '" + MARK + "%' "
+                        + "ORDER BY id LIMIT " + PAGE_SIZE);
+             PreparedStatement rekey = connection.prepareStatement(
+                     "UPDATE cached_location SET address_key = ? WHERE id = ? "
+                             + "AND NOT EXISTS (SELECT 1 FROM cached_location d WHERE d.address_key = ?)");
+             PreparedStatement clear = connection.prepareStatement(
+                     "UPDATE cached_location SET address_key = NULL WHERE id = ?")) {
+            long lastId = Long.MIN_VALUE;
+            boolean more = true;
+            while (more) {
+                more = false;
+                select.setLong(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        more = true;
+                        lastId = rs.getLong("id");
+                        String address = rs.getString("address");
+                        // по одной строке: следующая строка страницы может претендовать на тот же ключ
+                        if (address != null) {
+                            String key = addressNormalizer.key(address);
+                            rekey.setString(1, key);
+                            rekey.setLong(2, lastId);
+                            rekey.setString(3, key);
+                            if (rekey.executeUpdate() > 0) {
+                                continue;
+                            }
+                        }
+                        clear.setLong(1, lastId);
+                        clear.executeUpdate();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.voronkovam.geocoding_service.model;
+
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DTO для пакетного прямого геокодирования.
+ * Элементы проверяются по отдельности: ошибка в одном из них не отменяет обработку остальных.
+ */
+@Data
+public class BatchDirectGeocodingRequest {
+
+    /**
+     * Запросы прямого геокодирования.
+     * Не может быть пустым.
+     */
+    @NotEmpty(message = "Список запросов не должен быть пустым")
+    private List<DirectGeocodingRequest> items;
+
+    public BatchDirectGeocodingRequest() {}
+
+    public BatchDirectGeocodingRequest(List<DirectGeocodingRequest> items) {
+        this.items = items;
+    }
+}
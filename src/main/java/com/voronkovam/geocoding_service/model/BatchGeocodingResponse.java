@@ -0,0 +1,22 @@
+package com.voronkovam.geocoding_service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+//DTO класс для ответа на пакетный запрос, результаты идут в порядке элементов запроса
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchGeocodingResponse {
+    private List<BatchItemResult> results;
+    private int succeeded;
+    private int failed;
+
+    public static BatchGeocodingResponse of(List<BatchItemResult> results) {
+        int succeeded = (int) results.stream().filter(r -> r.getStatus() == BatchItemResult.Status.OK).count();
+        return new BatchGeocodingResponse(results, succeeded, results.size() - succeeded);
+    }
+}
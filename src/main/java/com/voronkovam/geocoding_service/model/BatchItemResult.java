@@ -0,0 +1,40 @@
+package com.voronkovam.geocoding_service.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * Результат обработки одного элемента пакетного запроса.
+ * Заполняется либо {@code result}, либо {@code error}.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+
+    public enum Status { OK, ERROR }
+
+    /** Позиция элемента в исходном запросе. */
+    private int index;
+
+    private Status status;
+
+    private GeocodingResponse result;
+
+    private String error;
+
+    public static BatchItemResult ok(int index, GeocodingResponse result) {
+        BatchItemResult item = new BatchItemResult();
+        item.setIndex(index);
+        item.setStatus(Status.OK);
+        item.setResult(result);
+        return item;
+    }
+
+    public static BatchItemResult error(int index, String error) {
+        BatchItemResult item = new BatchItemResult();
+        item.setIndex(index);
+        item.setStatus(Status.ERROR);
+        item.setError(error);
+        return item;
+    }
+}
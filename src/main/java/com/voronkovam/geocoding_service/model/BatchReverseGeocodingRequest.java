@@ -0,0 +1,27 @@
+package com.voronkovam.geocoding_service.model;
+
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DTO для пакетного обратного геокодирования.
+ * Элементы проверяются по отдельности: ошибка в одном из них не отменяет обработку остальных.
+ */
+@Data
+public class BatchReverseGeocodingRequest {
+
+    /**
+     * Запросы обратного геокодирования.
+     * Не может быть пустым.
+     */
+    @NotEmpty(message = "Список запросов не должен быть пустым")
+    private List<ReverseGeocodingRequest> items;
+
+    public BatchReverseGeocodingRequest() {}
+
+    public BatchReverseGeocodingRequest(List<ReverseGeocodingRequest> items) {
+        this.items = items;
+    }
+}
@@ -1,22 +1,59 @@
 package com.voronkovam.geocoding_service.model;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import lombok.Data;
 
+import java.time.Instant;
+
+/**
+ * Закэшированный результат геокодирования.
+ * <p>
+ * Строка прямого геокодирования идентифицируется хешем нормализованного адреса ({@code addressKey}),
+ * строка обратного геокодирования - упакованными округленными координатами ({@code coordKey}).
+ * Оба ключа уникальны; схема управляется миграциями Flyway ({@code db/migration}).
+ * <p>
+ * {@code fetchedAt} и {@code accessedAt} заполняются БД при вставке; {@code fetchedAt} обновляется при
+ * повторном получении результата от внешнего API, {@code accessedAt} — пакетами при обращениях к строке.
+ */
 @Entity
+@Table(name = "cached_location", indexes = {
+        @Index(name = "ux_cached_location_address_key", columnList = "address_key", unique = true),
+        @Index(name = "ux_cached_location_coord_key", columnList = "coord_key", unique = true),
+        @Index(name = "ix_cached_location_lat_lon", columnList = "lat, lon")
+})
 @Data
 public class CachedLocation {
+
+    /** Длина колонки {@code address} (V1); более длинные адреса не сохраняются. */
+    public static final int ADDRESS_LENGTH = 255;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    @Column(length = ADDRESS_LENGTH)
     private String address;
 
     private Double lat;
 
     private Double lon;
+
+    @Column(name = "address_key", length = 32)
+    private String addressKey;
+
+    @Column(name = "coord_key")
+    private Long coordKey;
+
+    @Column(name = "fetched_at", insertable = false)
+    private Instant fetchedAt;
+
+    @Column(name = "accessed_at", insertable = false)
+    private Instant accessedAt;
 }
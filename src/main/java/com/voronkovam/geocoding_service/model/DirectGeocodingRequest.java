@@ -1,6 +1,7 @@
 package com.voronkovam.geocoding_service.model;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 import lombok.Data;
 /**
  * DTO для прямого геокодирования.
@@ -11,9 +12,10 @@ public class DirectGeocodingRequest {
 
     /**
      * Адрес, который требуется преобразовать в координаты.
-     * Не может быть пустым.
+     * Не может быть пустым и длиннее колонки {@code address} в кэше.
      */
     @NotBlank(message = "Адрес не должен быть пустым")
+    @Size(max = CachedLocation.ADDRESS_LENGTH, message = "Адрес должен быть не длиннее {max} символов")
     private String address;
 
     public DirectGeocodingRequest() {}
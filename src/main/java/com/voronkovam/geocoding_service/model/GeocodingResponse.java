@@ -1,11 +1,15 @@
 package com.voronkovam.geocoding_service.model;
 
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
-//DTO класс для ответа
+//DTO класс для ответа; matchType и distanceMeters заполняются только для обратного геокодирования
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class GeocodingResponse {
     private String address;
     private Double lat;
     private Double lon;
+    private MatchType matchType;
+    private Double distanceMeters;
 }
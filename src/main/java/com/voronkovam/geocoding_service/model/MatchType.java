@@ -0,0 +1,11 @@
+package com.voronkovam.geocoding_service.model;
+
+/**
+ * Способ, которым найден результат обратного геокодирования.
+ */
+public enum MatchType {
+    /** Адрес найден для тех же округленных координат. */
+    EXACT,
+    /** Использован ближайший закэшированный адрес в пределах допустимого радиуса. */
+    NEAREST
+}
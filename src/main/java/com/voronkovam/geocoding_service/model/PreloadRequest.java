@@ -0,0 +1,30 @@
+package com.voronkovam.geocoding_service.model;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+/**
+ * DTO для запуска массовой загрузки кэша из файла.
+ */
+@Data
+public class PreloadRequest {
+
+    /** Формат файла. */
+    public enum Format { CSV, NDJSON }
+
+    /**
+     * Путь к файлу относительно каталога {@code geocoding.preload.directory}.
+     */
+    @NotBlank(message = "Путь к файлу не должен быть пустым")
+    private String file;
+
+    /**
+     * Формат файла; по умолчанию определяется по расширению ({@code .ndjson}, {@code .jsonl} или CSV).
+     */
+    private Format format;
+
+    /**
+     * Продолжить с сохраненной контрольной точки, если загрузка этого файла уже запускалась.
+     */
+    private boolean resume = true;
+}
@@ -0,0 +1,41 @@
+package com.voronkovam.geocoding_service.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Состояние массовой загрузки кэша.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PreloadStatus {
+
+    public enum State { RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    private String file;
+
+    private State state;
+
+    /** Строка файла, с которой начата загрузка (больше нуля при продолжении с контрольной точки). */
+    private long startLine;
+
+    /** Строки файла, полностью обработанные и записанные в БД (контрольная точка). */
+    private long linesDone;
+
+    /** Локации, отправленные в БД; уже существующие ключи при записи пропускаются. */
+    private long rowsWritten;
+
+    /** Строки, которые не удалось разобрать. */
+    private long rowsInvalid;
+
+    /** Средняя скорость с начала загрузки, строк в секунду. */
+    private double linesPerSecond;
+
+    private Instant startedAt;
+
+    private Instant finishedAt;
+
+    private String error;
+}
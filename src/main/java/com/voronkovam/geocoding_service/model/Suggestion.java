@@ -0,0 +1,20 @@
+package com.voronkovam.geocoding_service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Подсказка автодополнения: закэшированный адрес, похожий на введенную строку.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Suggestion {
+    private String address;
+    private Double lat;
+    private Double lon;
+
+    /** Оценка сходства с учетом популярности адреса; больше - лучше. */
+    private Double score;
+}
@@ -0,0 +1,27 @@
+package com.voronkovam.geocoding_service.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.voronkovam.geocoding_service.client.CircuitBreaker;
+import lombok.Data;
+
+/**
+ * Состояние обращений к внешнему API.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UpstreamStatus {
+
+    private CircuitBreaker.State state;
+
+    /** Доля ошибок среди последних обращений. */
+    private double failureRate;
+
+    /** Количество последних обращений, по которым считается доля ошибок. */
+    private int windowCalls;
+
+    /** Через сколько секунд будут отправлены пробные запросы, если предохранитель разомкнут. */
+    private Long retryAfterSeconds;
+
+    /** Включен ли режим только кэша. */
+    private boolean cachedOnly;
+}
@@ -1,15 +1,99 @@
 package com.voronkovam.geocoding_service.repository;
 
 import com.voronkovam.geocoding_service.model.CachedLocation;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
+/**
+ * Строки кэша геокодирования. Запросы на чтение выполняются в транзакциях только для чтения и при
+ * {@code geocoding.datasource.replica.enabled=true} уходят на реплику; изменения идут на основной сервер.
+ */
 @Repository
+@Transactional(readOnly = true)
 public interface CachedLocationRepository extends JpaRepository<CachedLocation, Long> {
     Optional<CachedLocation> findByAddress(String address);
     Optional<CachedLocation> findByLatAndLon(Double lat, Double lon);
 
+    Optional<CachedLocation> findByAddressKey(String addressKey);
+    Optional<CachedLocation> findByCoordKey(Long coordKey);
+    List<CachedLocation> findByAddressKeyIn(Collection<String> addressKeys);
+    List<CachedLocation> findByCoordKeyIn(Collection<Long> coordKeys);
 
+    /**
+     * Строки обратного геокодирования внутри прямоугольника, ближайшие к точке {@code (lat, lon)};
+     * использует индекс {@code (lat, lon)}. Порядок — по квадрату расстояния в плоском приближении,
+     * где разность долгот умножается на {@code lonScale} (квадрат косинуса широты), чтобы ограничение
+     * {@code limit} отбрасывало дальние строки, а не произвольные. Прямоугольник не переходит через ±180°.
+     */
+    @Query("SELECT c FROM CachedLocation c WHERE c.coordKey IS NOT NULL "
+            + "AND c.lat BETWEEN :minLat AND :maxLat AND c.lon BETWEEN :minLon AND :maxLon "
+            + "ORDER BY (c.lat - :lat) * (c.lat - :lat) + (c.lon - :lon) * (c.lon - :lon) * :lonScale")
+    List<CachedLocation> findReverseNearest(@Param("lat") double lat, @Param("lon") double lon,
+                                            @Param("lonScale") double lonScale,
+                                            @Param("minLat") double minLat, @Param("maxLat") double maxLat,
+                                            @Param("minLon") double minLon, @Param("maxLon") double maxLon,
+                                            Limit limit);
+
+    /**
+     * Сохраняет локацию, если строки с тем же {@code address_key} или {@code coord_key} еще нет.
+     * В отличие от {@code save}, не создает дубликатов при одновременной записи с нескольких узлов.
+     *
+     * @return 1, если строка вставлена, 0 - если такой ключ уже есть.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO cached_location (address, address_key, coord_key, lat, lon) "
+            + "VALUES (:address, :addressKey, :coordKey, :lat, :lon) ON CONFLICT DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("address") String address, @Param("addressKey") String addressKey,
+                       @Param("coordKey") Long coordKey, @Param("lat") Double lat, @Param("lon") Double lon);
+
+    /**
+     * Заменяет результат прямого геокодирования заново полученным от внешнего API.
+     *
+     * @return 1, если строка обновлена, 0 - если строки с таким ключом нет.
+     */
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("UPDATE CachedLocation c SET c.address = :address, c.lat = :lat, c.lon = :lon, c.fetchedAt = :fetchedAt "
+            + "WHERE c.addressKey = :addressKey")
+    int refreshForward(@Param("addressKey") String addressKey, @Param("address") String address,
+                       @Param("lat") Double lat, @Param("lon") Double lon, @Param("fetchedAt") Instant fetchedAt);
+
+    /**
+     * Заменяет результат обратного геокодирования заново полученным от внешнего API.
+     *
+     * @return 1, если строка обновлена, 0 - если строки с такими координатами нет.
+     */
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("UPDATE CachedLocation c SET c.address = :address, c.lat = :lat, c.lon = :lon, c.fetchedAt = :fetchedAt "
+            + "WHERE c.coordKey = :coordKey")
+    int refreshReverse(@Param("coordKey") Long coordKey, @Param("address") String address,
+                       @Param("lat") Double lat, @Param("lon") Double lon, @Param("fetchedAt") Instant fetchedAt);
+
+    /**
+     * @return 1, если строка прямого геокодирования удалена, 0 - если ее не было.
+     */
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("DELETE FROM CachedLocation c WHERE c.addressKey = :addressKey")
+    int deleteByAddressKey(@Param("addressKey") String addressKey);
+
+    /**
+     * @return 1, если строка обратного геокодирования удалена, 0 - если ее не было.
+     */
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("DELETE FROM CachedLocation c WHERE c.coordKey = :coordKey")
+    int deleteByCoordKey(@Param("coordKey") Long coordKey);
 }
@@ -0,0 +1,554 @@
+package com.voronkovam.geocoding_service.repository;
+
+import com.voronkovam.geocoding_service.cache.BoundedCache;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Отложенная запись новых результатов геокодирования в БД (write-behind).
+ * <p>
+ * {@link #write(CachedLocation)} только ставит локацию в очередь, а фоновый поток сбрасывает очередь
+ * пакетами JDBC ({@code INSERT ... ON CONFLICT DO NOTHING}) не реже раза в {@code flush-interval}
+ * или сразу, когда набрался пакет. Повторные записи одного ключа, пока предыдущая не сохранена,
+ * отбрасываются. Еще не сохраненные локации доступны через {@link #pendingForward(String)} и
+ * {@link #pendingReverse(long)}, чтобы промах по БД не уходил во внешний API повторно.
+ * <p>
+ * Если очередь заполнена, локация сохраняется синхронно в потоке вызывающего: это замедляет
+ * промахи до скорости БД. Если и это не удалось, локация остается ожидающей и записывается фоновым
+ * потоком; ошибка БД вызывающему не передается. При временной ошибке БД (в том числе потере соединения)
+ * пакет повторяется с растущей, но ограниченной паузой, пока не будет записан: очередь тем временем
+ * заполняется и замедляет промахи. Отбрасываются только строки, которые не записываются из-за самих данных:
+ * при постоянной ошибке (например, нарушении ограничения) пакет делится пополам, пока не останется одна
+ * строка, которая отбрасывается с записью в лог, и одна плохая строка не останавливает запись остальных.
+ * При остановке приложения очередь дописывается до конца (не дольше {@code shutdown-timeout}),
+ * пакет повторяется не больше {@link #SHUTDOWN_ATTEMPTS} раз.
+ * <p>
+ * Время обращений к строкам ({@code accessed_at}) копится в памяти через {@link #recordAccess(String)} и
+ * {@link #recordAccess(long)} и записывается тем же фоновым потоком не чаще раза в
+ * {@code geocoding.persistence.access-flush-interval}; ключи сверх {@code queue-capacity} за интервал отбрасываются.
+ * <p>
+ * При {@code geocoding.persistence.write-behind.enabled=false} каждая запись выполняется синхронно,
+ * а время обращений не записывается.
+ * <p>
+ * Запись идет через основной сервер БД. Если чтение вынесено на реплики, только что записанная строка
+ * может еще не дойти до реплики; {@link #findWrittenForward(String)} и {@link #findWrittenReverse(long)}
+ * перечитывают ключи, записанные этим узлом меньше {@code geocoding.datasource.read-your-writes-window}
+ * назад, с основного сервера.
+ */
+@Component
+public class CachedLocationWriter implements MeterBinder, InitializingBean, DisposableBean {
+
+    private static final String INSERT = "INSERT INTO cached_location (address, address_key, coord_key, lat, lon) "
+            + "VALUES (?, ?, ?, ?, ?) ON CONFLICT DO NOTHING";
+    private static final String TOUCH_FORWARD = "UPDATE cached_location SET accessed_at = ? WHERE address_key = ?";
+    private static final String TOUCH_REVERSE = "UPDATE cached_location SET accessed_at = ? WHERE coord_key = ?";
+    private static final String SELECT = "SELECT address, address_key, coord_key, lat, lon, fetched_at FROM cached_location ";
+    private static final long MAX_RETRY_DELAY_MILLIS = 5_000;
+    /** Сколько раз пакет пишется при временных ошибках БД во время остановки приложения. */
+    static final int SHUTDOWN_ATTEMPTS = 10;
+    private static final RowMapper<CachedLocation> ROW_MAPPER = (rs, rowNum) -> {
+        CachedLocation loc = new CachedLocation();
+        loc.setAddress(rs.getString("address"));
+        loc.setAddressKey(rs.getString("address_key"));
+        loc.setCoordKey(rs.getObject("coord_key") == null ? null : rs.getLong("coord_key"));
+        loc.setLat(rs.getDouble("lat"));
+        loc.setLon(rs.getDouble("lon"));
+        Timestamp fetchedAt = rs.getTimestamp("fetched_at");
+        loc.setFetchedAt(fetchedAt == null ? null : fetchedAt.toInstant());
+        return loc;
+    };
+
+    private final CachedLocationRepository repository;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration shutdownTimeout;
+    private final Duration accessFlushInterval;
+    private final int queueCapacity;
+    private final BlockingQueue<CachedLocation> queue;
+    /** Локации, которые не удалось записать в обход заполненной очереди или запись которых прервана. */
+    private final Queue<CachedLocation> deferred = new ConcurrentLinkedQueue<>();
+    private final Map<String, CachedLocation> pendingForward = new ConcurrentHashMap<>();
+    private final Map<Long, CachedLocation> pendingReverse = new ConcurrentHashMap<>();
+    private final Set<String> accessedForward = ConcurrentHashMap.newKeySet();
+    private final Set<Long> accessedReverse = ConcurrentHashMap.newKeySet();
+    /** Ключи, недавно записанные этим узлом; {@code null}, если перечитывание с основного сервера выключено. */
+    private final BoundedCache<Object, Boolean> recentlyWritten;
+    /**
+     * Держится на время сбора и записи пакета, чтобы {@link #flush()} дожидался уже взятых из очереди записей.
+     * Честная: иначе фоновый поток, сразу берущий ее снова, может надолго задержать {@link #flush()}.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock(true);
+    private final LongAdder written = new LongAdder();
+    private final LongAdder synchronous = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+    private final Logger logger = LoggerFactory.getLogger(CachedLocationWriter.class);
+    private volatile Timer flushTimer;
+    private volatile boolean running;
+    private long lastAccessFlush = System.nanoTime();
+    private Thread flusher;
+
+    public CachedLocationWriter(CachedLocationRepository repository, JdbcTemplate jdbcTemplate,
+                                @Value("${geocoding.persistence.write-behind.enabled}") boolean enabled,
+                                @Value("${geocoding.persistence.write-behind.batch-size}") int batchSize,
+                                @Value("${geocoding.persistence.write-behind.flush-interval}") Duration flushInterval,
+                                @Value("${geocoding.persistence.write-behind.queue-capacity}") int queueCapacity,
+                                @Value("${geocoding.persistence.write-behind.shutdown-timeout}") Duration shutdownTimeout,
+                                @Value("${geocoding.persistence.access-flush-interval}") Duration accessFlushInterval,
+                                @Value("${geocoding.datasource.read-your-writes-window}") Duration readYourWritesWindow) {
+        this.repository = repository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.shutdownTimeout = shutdownTimeout;
+        this.accessFlushInterval = accessFlushInterval;
+        this.queueCapacity = queueCapacity;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.recentlyWritten = readYourWritesWindow.isZero() ? null
+                : new BoundedCache<>(queueCapacity, queueCapacity, readYourWritesWindow, Duration.ZERO, (key, value) -> 1);
+    }
+
+    /**
+     * Сохраняет новую локацию: ставит в очередь или, если очередь заполнена или отложенная запись
+     * выключена, сразу пишет в БД. Если строка с тем же ключом уже есть, новая не записывается.
+     * Ошибки БД не выбрасываются.
+     *
+     * @param loc Локация с заполненным {@code addressKey} или {@code coordKey}.
+     */
+    public void write(CachedLocation loc) {
+        if (!enabled || !running) {
+            try {
+                insertNow(loc);
+            } catch (DataAccessException e) {
+                failures.increment();
+                dropped.increment();
+                logger.error("Локация не записана: адрес '{}': {}", loc.getAddress(), e.getMessage());
+            }
+            return;
+        }
+        CachedLocation previous = loc.getAddressKey() != null
+                ? pendingForward.putIfAbsent(loc.getAddressKey(), loc)
+                : pendingReverse.putIfAbsent(loc.getCoordKey(), loc);
+        if (previous != null) {
+            return;
+        }
+        if (!queue.offer(loc)) {
+            writeThrough(loc);
+        }
+    }
+
+    /**
+     * @return Еще не сохраненная локация прямого геокодирования по ключу адреса.
+     */
+    public Optional<CachedLocation> pendingForward(String addressKey) {
+        return Optional.ofNullable(pendingForward.get(addressKey));
+    }
+
+    /**
+     * @return Еще не сохраненная локация обратного геокодирования по упакованным координатам.
+     */
+    public Optional<CachedLocation> pendingReverse(long coordKey) {
+        return Optional.ofNullable(pendingReverse.get(coordKey));
+    }
+
+    /**
+     * Перечитывает строку прямого геокодирования с основного сервера БД, если этот узел недавно ее записал.
+     *
+     * @param addressKey Ключ адреса.
+     * @return Строка или пустой результат, если ключ давно не записывался этим узлом или строки нет.
+     */
+    public Optional<CachedLocation> findWrittenForward(String addressKey) {
+        if (recentlyWritten == null || recentlyWritten.get(addressKey) == null) {
+            return Optional.empty();
+        }
+        primaryReads.increment();
+        return jdbcTemplate.query(SELECT + "WHERE address_key = ?", ROW_MAPPER, addressKey).stream().findFirst();
+    }
+
+    /**
+     * Перечитывает строку обратного геокодирования с основного сервера БД, если этот узел недавно ее записал.
+     *
+     * @param coordKey Упакованные округленные координаты.
+     * @return Строка или пустой результат, если ключ давно не записывался этим узлом или строки нет.
+     */
+    public Optional<CachedLocation> findWrittenReverse(long coordKey) {
+        if (recentlyWritten == null || recentlyWritten.get(coordKey) == null) {
+            return Optional.empty();
+        }
+        primaryReads.increment();
+        return jdbcTemplate.query(SELECT + "WHERE coord_key = ?", ROW_MAPPER, coordKey).stream().findFirst();
+    }
+
+    /**
+     * Отмечает обращение к строке прямого геокодирования; время запишется при следующем сбросе.
+     *
+     * @param addressKey Ключ адреса.
+     */
+    public void recordAccess(String addressKey) {
+        if (running && accessedForward.size() < queueCapacity) {
+            accessedForward.add(addressKey);
+        }
+    }
+
+    /**
+     * Отмечает обращение к строке обратного геокодирования; время запишется при следующем сбросе.
+     *
+     * @param coordKey Упакованные округленные координаты.
+     */
+    public void recordAccess(long coordKey) {
+        if (running && accessedReverse.size() < queueCapacity) {
+            accessedReverse.add(coordKey);
+        }
+    }
+
+    /**
+     * @return Количество локаций, ожидающих записи.
+     */
+    public int queueSize() {
+        return queue.size() + deferred.size();
+    }
+
+    /**
+     * Синхронно записывает все локации, поставленные в очередь до вызова.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            writeDeferred();
+            List<CachedLocation> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+            flushAccesses();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "geocoding-write-behind");
+        // не держит JVM, если БД недоступна дольше shutdown-timeout
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        flusher.join(shutdownTimeout.toMillis());
+        if (flusher.isAlive()) {
+            logger.error("Не удалось дописать в БД {} локаций за {}", queue.size(), shutdownTimeout);
+            return;
+        }
+        // локации, поставленные в очередь одновременно с остановкой
+        flush();
+    }
+
+    private void flushLoop() {
+        while (running) {
+            // блокировка берется до извлечения из очереди: flush() не должен разминуться с уже взятым пакетом
+            flushLock.lock();
+            try {
+                writeDeferred();
+                CachedLocation first = queue.poll(flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    writeBatch(collectBatch(first));
+                }
+                if (System.nanoTime() - lastAccessFlush >= accessFlushInterval.toNanos()) {
+                    flushAccesses();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Добирает пакет до {@code batch-size}, ожидая новые записи не дольше {@code flush-interval} от первой.
+     */
+    private List<CachedLocation> collectBatch(CachedLocation first) throws InterruptedException {
+        List<CachedLocation> batch = new ArrayList<>(batchSize);
+        batch.add(first);
+        long deadline = System.nanoTime() + flushInterval.toNanos();
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long left = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || left <= 0) {
+                break;
+            }
+            CachedLocation next = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    /**
+     * Сразу записывает пакет локаций одним JDBC-пакетом, минуя очередь. Локации с повторяющимся
+     * ключом записываются один раз, уже существующие в БД ключи пропускаются.
+     * Используется при массовой загрузке, где повтор при ошибке выполняет вызывающий.
+     *
+     * @param batch Локации с заполненным {@code addressKey} или {@code coordKey}.
+     * @return Количество локаций, отправленных в БД (без повторов внутри пакета).
+     * @throws DataAccessException при ошибке БД.
+     */
+    public int insertBatch(List<CachedLocation> batch) {
+        Map<Object, CachedLocation> unique = new LinkedHashMap<>();
+        for (CachedLocation loc : batch) {
+            unique.putIfAbsent(loc.getAddressKey() != null ? loc.getAddressKey() : loc.getCoordKey(), loc);
+        }
+        List<CachedLocation> rows = new ArrayList<>(unique.values());
+        jdbcTemplate.batchUpdate(INSERT, rows, rows.size(), (ps, loc) -> {
+            ps.setString(1, loc.getAddress());
+            ps.setString(2, loc.getAddressKey());
+            ps.setObject(3, loc.getCoordKey(), Types.BIGINT);
+            ps.setDouble(4, loc.getLat());
+            ps.setDouble(5, loc.getLon());
+        });
+        return rows.size();
+    }
+
+    private void writeBatch(List<CachedLocation> batch) {
+        long retryDelay = 100;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long start = System.nanoTime();
+                int rows = insertBatch(batch);
+                Timer timer = flushTimer;
+                if (timer != null) {
+                    timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                written.add(rows);
+                markWritten(batch);
+                forget(batch);
+                return;
+            } catch (DataAccessException e) {
+                failures.increment();
+                if (!isTransient(e)) {
+                    rejectBatch(batch, e);
+                    return;
+                }
+                if (!running && attempt >= SHUTDOWN_ATTEMPTS) {
+                    logger.error("При остановке пакет из {} локаций не записан за {} попыток: {}",
+                            batch.size(), SHUTDOWN_ATTEMPTS, e.getMessage());
+                    dropped.add(batch.size());
+                    forget(batch);
+                    return;
+                }
+                logger.warn("Не удалось записать пакет из {} локаций, повтор через {} мс: {}",
+                        batch.size(), retryDelay, e.getMessage());
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    // локации остаются ожидающими, их запишет следующий сброс
+                    deferred.addAll(batch);
+                    return;
+                }
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Пакет не записывается из-за самих данных: делим его, чтобы сохранить остальные строки,
+     * и отбрасываем строку, которая не записывается по одной.
+     */
+    private void rejectBatch(List<CachedLocation> batch, DataAccessException e) {
+        if (batch.size() == 1) {
+            CachedLocation loc = batch.get(0);
+            logger.error("Локация не записана и отброшена: адрес '{}', ключ {}: {}", loc.getAddress(),
+                    loc.getAddressKey() != null ? loc.getAddressKey() : loc.getCoordKey(), e.getMessage());
+            dropped.increment();
+            forget(batch);
+            return;
+        }
+        int middle = batch.size() / 2;
+        writeBatch(new ArrayList<>(batch.subList(0, middle)));
+        writeBatch(new ArrayList<>(batch.subList(middle, batch.size())));
+    }
+
+    /**
+     * @return {@code true} для ошибок, которые могут пройти при повторе: временных и потери соединения с БД;
+     * {@code false} для ошибок в самих данных, например нарушения ограничения.
+     */
+    public static boolean isTransient(DataAccessException e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException;
+    }
+
+    /**
+     * Записывает накопленное время обращений. Ошибка БД не повторяется: время обращения справочное,
+     * а следующие обращения отметят строку снова.
+     */
+    private void flushAccesses() {
+        lastAccessFlush = System.nanoTime();
+        List<String> forward = drain(accessedForward);
+        List<Long> reverse = drain(accessedReverse);
+        if (forward.isEmpty() && reverse.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+        try {
+            jdbcTemplate.batchUpdate(TOUCH_FORWARD, forward, batchSize, (ps, key) -> {
+                ps.setTimestamp(1, now);
+                ps.setString(2, key);
+            });
+            jdbcTemplate.batchUpdate(TOUCH_REVERSE, reverse, batchSize, (ps, key) -> {
+                ps.setTimestamp(1, now);
+                ps.setLong(2, key);
+            });
+        } catch (DataAccessException e) {
+            failures.increment();
+            logger.warn("Не удалось записать время обращения к {} локациям: {}",
+                    forward.size() + reverse.size(), e.getMessage());
+        }
+    }
+
+    private static <K> List<K> drain(Set<K> keys) {
+        List<K> drained = new ArrayList<>(keys.size());
+        for (Iterator<K> it = keys.iterator(); it.hasNext(); ) {
+            drained.add(it.next());
+            it.remove();
+        }
+        return drained;
+    }
+
+    /**
+     * Записывает локацию в обход заполненной очереди; при ошибке БД оставляет ее фоновому потоку.
+     */
+    private void writeThrough(CachedLocation loc) {
+        try {
+            insertNow(loc);
+            forget(List.of(loc));
+        } catch (DataAccessException e) {
+            failures.increment();
+            logger.warn("Не удалось записать локацию в обход очереди, запись отложена: {}", e.getMessage());
+            deferred.add(loc);
+        }
+    }
+
+    private void writeDeferred() {
+        List<CachedLocation> batch = new ArrayList<>(batchSize);
+        // только накопленные до вызова: прерванная запись возвращает пакет в эту же очередь
+        for (int left = deferred.size(); left > 0; left--) {
+            CachedLocation loc = deferred.poll();
+            if (loc == null) {
+                break;
+            }
+            batch.add(loc);
+            if (batch.size() >= batchSize) {
+                writeBatch(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void insertNow(CachedLocation loc) {
+        synchronous.increment();
+        repository.insertIfAbsent(loc.getAddress(), loc.getAddressKey(), loc.getCoordKey(), loc.getLat(), loc.getLon());
+        markWritten(List.of(loc));
+    }
+
+    private void markWritten(List<CachedLocation> batch) {
+        if (recentlyWritten == null) {
+            return;
+        }
+        for (CachedLocation loc : batch) {
+            recentlyWritten.put(loc.getAddressKey() != null ? loc.getAddressKey() : loc.getCoordKey(), Boolean.TRUE);
+        }
+    }
+
+    private void forget(List<CachedLocation> batch) {
+        for (CachedLocation loc : batch) {
+            if (loc.getAddressKey() != null) {
+                pendingForward.remove(loc.getAddressKey(), loc);
+            } else {
+                pendingReverse.remove(loc.getCoordKey(), loc);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("geocoding.persistence.write-behind.queue.size", this, CachedLocationWriter::queueSize)
+                .description("Локации, ожидающие записи в БД")
+                .register(registry);
+        FunctionCounter.builder("geocoding.persistence.write-behind.written", written, LongAdder::sum)
+                .description("Локации, записанные пакетами")
+                .register(registry);
+        FunctionCounter.builder("geocoding.persistence.write-behind.synchronous", synchronous, LongAdder::sum)
+                .description("Локации, записанные синхронно (очередь заполнена или отложенная запись выключена)")
+                .register(registry);
+        FunctionCounter.builder("geocoding.persistence.write-behind.failures", failures, LongAdder::sum)
+                .description("Неудачные попытки записи пакета")
+                .register(registry);
+        FunctionCounter.builder("geocoding.persistence.write-behind.dropped", dropped, LongAdder::sum)
+                .description("Локации, отброшенные из-за постоянной ошибки или не записанные при остановке")
+                .register(registry);
+        FunctionCounter.builder("geocoding.persistence.read-your-writes", primaryReads, LongAdder::sum)
+                .description("Промахи по недавно записанным ключам, перечитанные с основного сервера БД")
+                .register(registry);
+        flushTimer = Timer.builder("geocoding.persistence.write-behind.flush")
+                .description("Время записи пакета в БД")
+                .register(registry);
+    }
+}
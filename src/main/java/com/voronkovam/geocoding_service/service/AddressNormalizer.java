@@ -0,0 +1,147 @@
+package com.voronkovam.geocoding_service.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Приводит адрес к ключу кэша: одинаковые по смыслу написания должны давать один ключ.
+ * <p>
+ * Адрес сначала приводится к каноническому виду: Unicode NFKC, нижний регистр, {@code ё} → {@code е},
+ * знаки препинания и дефисы заменяются пробелами, сокращения вроде {@code ул.} или {@code st} раскрываются.
+ * Ключом служат первые 128 бит SHA-256 от канонического вида в hex: ключ фиксированной длины
+ * компактно индексируется и не зависит от длины адреса.
+ * <p>
+ * Список сокращений дополняется или переопределяется свойством {@code geocoding.normalizer.abbreviations}
+ * в формате {@code сокращение=полная форма} через запятую. Правила входят в {@link #rulesChecksum()}:
+ * при их изменении ключи строк в БД пересчитываются повторяемой миграцией
+ * {@link com.voronkovam.geocoding_service.migration.RekeyAddressesMigration}.
+ */
+@Component
+public class AddressNormalizer {
+
+    /** Длина ключа в hex-символах. */
+    public static final int KEY_LENGTH = 32;
+
+    /** Версия алгоритма канонической формы; увеличивается при любом изменении {@link #canonical(String)}. */
+    private static final int RULES_REVISION = 1;
+
+    private static final Map<String, String> DEFAULT_ABBREVIATIONS = Map.ofEntries(
+            Map.entry("г", "город"),
+            Map.entry("обл", "область"),
+            Map.entry("ул", "улица"),
+            Map.entry("пр-т", "проспект"),
+            Map.entry("просп", "проспект"),
+            Map.entry("пер", "переулок"),
+            Map.entry("пл", "площадь"),
+            Map.entry("наб", "набережная"),
+            Map.entry("б-р", "бульвар"),
+            Map.entry("ш", "шоссе"),
+            Map.entry("д", "дом"),
+            Map.entry("st", "street"),
+            Map.entry("ave", "avenue"),
+            Map.entry("rd", "road"),
+            Map.entry("blvd", "boulevard"),
+            Map.entry("sq", "square"));
+
+    /** Знаки препинания и символы, кроме дефиса: дефис нужен сокращениям вроде {@code пр-т}. */
+    private static final Pattern PUNCTUATION = Pattern.compile("[\\p{P}\\p{S}&&[^-]]+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern HYPHENS = Pattern.compile("-+");
+
+    private final Map<String, String> abbreviations;
+
+    /**
+     * Создает нормализатор со встроенным списком сокращений.
+     */
+    public AddressNormalizer() {
+        this(List.of());
+    }
+
+    @Autowired
+    public AddressNormalizer(@Value("${geocoding.normalizer.abbreviations:}") List<String> extraAbbreviations) {
+        Map<String, String> merged = new HashMap<>(DEFAULT_ABBREVIATIONS);
+        for (String entry : extraAbbreviations) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            if (separator <= 0 || separator == entry.length() - 1) {
+                throw new IllegalArgumentException("Некорректное сокращение '" + entry + "', ожидается сокращение=полная форма");
+            }
+            merged.put(fold(entry.substring(0, separator).strip()), fold(entry.substring(separator + 1).strip()));
+        }
+        this.abbreviations = Map.copyOf(merged);
+    }
+
+    /**
+     * Строит ключ кэша для адреса.
+     *
+     * @param address Адрес в том виде, в котором его передал клиент.
+     * @return Ключ кэша длиной {@link #KEY_LENGTH} символов.
+     */
+    public String key(String address) {
+        byte[] digest = sha256().digest(canonical(address).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest, 0, KEY_LENGTH / 2);
+    }
+
+    /**
+     * @return Контрольная сумма правил нормализации: версии алгоритма и списка сокращений.
+     * Совпадает у узлов с одинаковыми настройками и меняется при изменении правил.
+     */
+    public int rulesChecksum() {
+        return 31 * RULES_REVISION + new TreeMap<>(abbreviations).toString().hashCode();
+    }
+
+    /**
+     * Приводит адрес к каноническому виду, от которого считается ключ.
+     *
+     * @param address Адрес.
+     * @return Слова адреса в нижнем регистре через один пробел, с раскрытыми сокращениями.
+     */
+    public String canonical(String address) {
+        String folded = PUNCTUATION.matcher(fold(address)).replaceAll(" ");
+        StringBuilder result = new StringBuilder(folded.length());
+        for (String token : WHITESPACE.split(folded.strip())) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            String word = abbreviations.getOrDefault(token, token);
+            for (String part : HYPHENS.split(word)) {
+                if (!part.isEmpty()) {
+                    if (!result.isEmpty()) {
+                        result.append(' ');
+                    }
+                    result.append(part);
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    private static String fold(String value) {
+        return Normalizer.normalize(value, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .replace('ё', 'е');
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
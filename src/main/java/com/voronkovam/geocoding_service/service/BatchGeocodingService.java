@@ -0,0 +1,212 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.cache.LocationEntry;
+import com.voronkovam.geocoding_service.client.UpstreamPriority;
+import com.voronkovam.geocoding_service.exception.GeocodingException;
+import com.voronkovam.geocoding_service.exception.UpstreamException;
+import com.voronkovam.geocoding_service.model.BatchGeocodingResponse;
+import com.voronkovam.geocoding_service.model.BatchItemResult;
+import com.voronkovam.geocoding_service.model.DirectGeocodingRequest;
+import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import com.voronkovam.geocoding_service.model.ReverseGeocodingRequest;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Сервис пакетного геокодирования.
+ * <p>
+ * Попадания в кэш разрешаются одним запросом к БД на весь пакет, промахи отправляются во внешний API
+ * параллельно через исполнитель {@code batchExecutor}, который ограничивает число одновременных
+ * запросов. Каждый элемент получает собственный результат или ошибку.
+ */
+@Service
+public class BatchGeocodingService {
+
+    private final GeocodingService geocodingService;
+    private final Executor batchExecutor;
+    private final Validator validator;
+    private final Logger logger = LoggerFactory.getLogger(BatchGeocodingService.class);
+
+    @Value("${geocoding.batch.max-items}")
+    private int maxItems;
+
+    public BatchGeocodingService(GeocodingService geocodingService,
+                                 @Qualifier("batchExecutor") Executor batchExecutor,
+                                 Validator validator) {
+        this.geocodingService = geocodingService;
+        this.batchExecutor = batchExecutor;
+        this.validator = validator;
+    }
+
+    /**
+     * Пакетное прямое геокодирование.
+     *
+     * @param items Запросы с адресами.
+     * @return Результаты в порядке запросов.
+     * @throws IllegalArgumentException если пакет больше допустимого размера.
+     */
+    public BatchGeocodingResponse geocodeBatch(List<DirectGeocodingRequest> items) {
+        checkSize(items);
+        BatchItemResult[] results = new BatchItemResult[items.size()];
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            String error = validate(items.get(i));
+            if (error != null) {
+                results[i] = BatchItemResult.error(i, error);
+            } else {
+                positions.computeIfAbsent(items.get(i).getAddress(), k -> new ArrayList<>()).add(i);
+            }
+        }
+        resolve(positions, results, geocodingService::findCachedForward,
+                address -> geocodingService.geocode(address, UpstreamPriority.BATCH));
+        return BatchGeocodingResponse.of(List.of(results));
+    }
+
+    /**
+     * Пакетное обратное геокодирование.
+     *
+     * @param items Запросы с координатами.
+     * @return Результаты в порядке запросов.
+     * @throws IllegalArgumentException если пакет больше допустимого размера.
+     */
+    public BatchGeocodingResponse reverseGeocodeBatch(List<ReverseGeocodingRequest> items) {
+        checkSize(items);
+        BatchItemResult[] results = new BatchItemResult[items.size()];
+        Map<CoordinateKey, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            ReverseGeocodingRequest item = items.get(i);
+            String error = validate(item);
+            if (error != null) {
+                results[i] = BatchItemResult.error(i, error);
+            } else {
+                positions.computeIfAbsent(GeocodingService.toKey(item.getLat(), item.getLon()),
+                        k -> new ArrayList<>()).add(i);
+            }
+        }
+        resolve(positions, results, geocodingService::findCachedReverse,
+                key -> geocodingService.reverseGeocode(key.lat(), key.lon(), UpstreamPriority.BATCH));
+        return BatchGeocodingResponse.of(List.of(results));
+    }
+
+    /**
+     * Прямое геокодирование одного элемента с проверкой и преобразованием ошибки в результат элемента.
+     *
+     * @param index Позиция элемента.
+     * @param item  Запрос с адресом.
+     * @return Результат или ошибка элемента.
+     */
+    public BatchItemResult geocodeItem(int index, DirectGeocodingRequest item) {
+        String error = validate(item);
+        if (error != null) {
+            return BatchItemResult.error(index, error);
+        }
+        try {
+            return BatchItemResult.ok(index, geocodingService.geocode(item.getAddress(), UpstreamPriority.BATCH));
+        } catch (RuntimeException e) {
+            return toError(index, e);
+        }
+    }
+
+    /**
+     * Обратное геокодирование одного элемента с проверкой и преобразованием ошибки в результат элемента.
+     *
+     * @param index Позиция элемента.
+     * @param item  Запрос с координатами.
+     * @return Результат или ошибка элемента.
+     */
+    public BatchItemResult reverseGeocodeItem(int index, ReverseGeocodingRequest item) {
+        String error = validate(item);
+        if (error != null) {
+            return BatchItemResult.error(index, error);
+        }
+        try {
+            return BatchItemResult.ok(index, geocodingService.reverseGeocode(item.getLat(), item.getLon(), UpstreamPriority.BATCH));
+        } catch (RuntimeException e) {
+            return toError(index, e);
+        }
+    }
+
+    /**
+     * Заполняет результаты: сначала из кэша одним обращением, затем параллельными запросами для промахов.
+     * Одинаковые ключи внутри пакета обрабатываются один раз.
+     */
+    private <K> void resolve(Map<K, List<Integer>> positions, BatchItemResult[] results,
+                             Function<Set<K>, Map<K, LocationEntry>> cacheLookup,
+                             Function<K, GeocodingResponse> geocoder) {
+        if (positions.isEmpty()) {
+            return;
+        }
+        Map<K, LocationEntry> cached = cacheLookup.apply(positions.keySet());
+        Map<K, CompletableFuture<GeocodingResponse>> pending = new LinkedHashMap<>();
+        positions.forEach((key, indexes) -> {
+            LocationEntry hit = cached.get(key);
+            if (hit != null) {
+                indexes.forEach(i -> results[i] = BatchItemResult.ok(i, GeocodingService.toResponse(hit)));
+            } else {
+                pending.put(key, CompletableFuture.supplyAsync(() -> geocoder.apply(key), batchExecutor));
+            }
+        });
+        pending.forEach((key, future) -> {
+            for (int i : positions.get(key)) {
+                results[i] = await(i, future);
+            }
+        });
+    }
+
+    private BatchItemResult await(int index, CompletableFuture<GeocodingResponse> future) {
+        try {
+            return BatchItemResult.ok(index, future.join());
+        } catch (CompletionException e) {
+            return toError(index, e.getCause());
+        }
+    }
+
+    private BatchItemResult toError(int index, Throwable cause) {
+        if (cause instanceof GeocodingException || cause instanceof IllegalArgumentException) {
+            return BatchItemResult.error(index, cause.getMessage());
+        }
+        if (cause instanceof UpstreamException) {
+            logger.warn("Внешний API недоступен для элемента пакета {}: {}", index, cause.getMessage());
+            return BatchItemResult.error(index, cause.getMessage());
+        }
+        logger.error("Ошибка геокодирования элемента пакета {}", index, cause);
+        return BatchItemResult.error(index, "Ошибка сервера");
+    }
+
+    private String validate(Object item) {
+        if (item == null) {
+            return "Элемент пакета не должен быть пустым";
+        }
+        Set<ConstraintViolation<Object>> violations = validator.validate(item);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining("; "));
+    }
+
+    private void checkSize(List<?> items) {
+        if (items.size() > maxItems) {
+            throw new IllegalArgumentException("Размер пакета не должен превышать " + maxItems);
+        }
+    }
+}
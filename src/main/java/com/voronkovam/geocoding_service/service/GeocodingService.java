@@ -1,106 +1,626 @@
 package com.voronkovam.geocoding_service.service;
 
+import com.voronkovam.geocoding_service.cache.ClusterCacheSync;
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.client.NominatimClient;
+import com.voronkovam.geocoding_service.client.UpstreamPriority;
+import com.voronkovam.geocoding_service.client.UpstreamScheduler;
+import com.voronkovam.geocoding_service.cache.LocationCache;
+import com.voronkovam.geocoding_service.cache.LocationEntry;
+import com.voronkovam.geocoding_service.cache.NegativeCache;
 import com.voronkovam.geocoding_service.exception.GeocodingException;
+import com.voronkovam.geocoding_service.exception.UpstreamException;
+import com.voronkovam.geocoding_service.exception.UpstreamUnavailableException;
+import com.voronkovam.geocoding_service.gazetteer.GazetteerGeocoder;
+import com.voronkovam.geocoding_service.metrics.GeocodingMetrics;
+import com.voronkovam.geocoding_service.metrics.GeocodingMetrics.Source;
+import com.voronkovam.geocoding_service.metrics.GeocodingMetrics.Type;
 import com.voronkovam.geocoding_service.model.CachedLocation;
 import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import com.voronkovam.geocoding_service.model.MatchType;
 import com.voronkovam.geocoding_service.model.NominatimResponse;
 import com.voronkovam.geocoding_service.repository.CachedLocationRepository;
+import com.voronkovam.geocoding_service.repository.CachedLocationWriter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
- * Сервис для геокодирования с кэшированием результатов в БД.
+ * Сервис для геокодирования с двухуровневым кэшированием результатов:
+ * в памяти процесса ({@link LocationCache}) и в БД. Адреса и координаты, которые внешний API
+ * не нашел, запоминаются в {@link NegativeCache} и до истечения его TTL сразу отклоняются.
+ * Одновременные промахи по одному ключу объединяются в один запрос к БД и внешнему API.
+ * <p>
+ * Асинхронные методы не держат поток вызывающего, пока идет запрос к внешнему API: кэш и БД
+ * проверяются в потоке вызывающего, а ответ внешнего API сохраняется в пуле {@code upstreamExecutor}.
+ * Запросы к внешнему API проходят через {@link UpstreamScheduler} с приоритетом вызывающего; при
+ * объединении одновременных промахов используется приоритет первого из них.
+ * <p>
+ * В зависимости от режима {@link GazetteerGeocoder} промахи обслуживаются локальным справочником вместо
+ * внешнего API, до него или при его недоступности; ответы справочника кэшируются так же.
+ * <p>
+ * Новые результаты внешнего API возвращаются вызывающему сразу, а в БД записываются отложенно
+ * через {@link CachedLocationWriter}; пока запись не выполнена, они находятся в его очереди.
+ * Результаты прямого геокодирования и обращения к ним передаются в {@link SuggestIndex} для подсказок.
+ * <p>
+ * Обращения к закэшированным результатам отмечаются в БД ({@code accessed_at}). Результаты старше
+ * {@code geocoding.cache.ttl} возвращаются сразу, а {@link LocationRefresher} обновляет их в фоне.
+ * <p>
+ * Если включен {@link ClusterCacheSync}, новые, обновленные и удаленные результаты рассылаются
+ * остальным узлам, и те обновляют свой L1.
+ * <p>
+ * Источник каждого ответа и время запросов к БД учитываются в {@link GeocodingMetrics}.
  */
 
 @Service
 public class GeocodingService {
 
-    private final RestTemplate restTemplate;
+    private final NominatimClient nominatimClient;
+    private final UpstreamScheduler upstreamScheduler;
     private final CachedLocationRepository repository;
+    private final CachedLocationWriter writer;
+    private final LocationCache locationCache;
+    private final NegativeCache negativeCache;
+    private final AddressNormalizer addressNormalizer;
+    private final NearestLocationFinder nearestLocationFinder;
+    private final GeocodingMetrics metrics;
+    private final GazetteerGeocoder gazetteer;
+    private final SuggestIndex suggestIndex;
+    private final LocationRefresher refresher;
+    private final ClusterCacheSync cacheSync;
+    private final SingleFlight<String, LocationEntry> forwardFlights = new SingleFlight<>();
+    private final SingleFlight<CoordinateKey, LocationEntry> reverseFlights = new SingleFlight<>();
     private final Logger logger = LoggerFactory.getLogger(GeocodingService.class);
 
-    @Value("${external.api.url}")
-    private String externalApiUrl;
-
-    public GeocodingService(RestTemplate restTemplate, CachedLocationRepository repository) {
-        this.restTemplate = restTemplate;
+    public GeocodingService(NominatimClient nominatimClient, UpstreamScheduler upstreamScheduler,
+                            CachedLocationRepository repository, CachedLocationWriter writer,
+                            LocationCache locationCache, NegativeCache negativeCache,
+                            AddressNormalizer addressNormalizer,
+                            NearestLocationFinder nearestLocationFinder,
+                            GeocodingMetrics metrics, GazetteerGeocoder gazetteer,
+                            SuggestIndex suggestIndex, LocationRefresher refresher,
+                            Optional<ClusterCacheSync> cacheSync) {
+        this.nominatimClient = nominatimClient;
+        this.upstreamScheduler = upstreamScheduler;
         this.repository = repository;
+        this.writer = writer;
+        this.locationCache = locationCache;
+        this.negativeCache = negativeCache;
+        this.addressNormalizer = addressNormalizer;
+        this.nearestLocationFinder = nearestLocationFinder;
+        this.metrics = metrics;
+        this.gazetteer = gazetteer;
+        this.suggestIndex = suggestIndex;
+        this.refresher = refresher;
+        this.cacheSync = cacheSync.orElse(null);
     }
 
     /**
      * Преобразует адрес в координаты.
-     * Сначала проверяет кэш, затем вызывает внешний API (если необходимо).
+     * Сначала проверяет кэш в памяти и в БД, затем вызывает внешний API (если необходимо).
      *
      * @param address Адрес для геокодирования.
      * @return Ответ с координатами.
      * @throws GeocodingException если адрес не найден.
+     * @throws com.voronkovam.geocoding_service.exception.UpstreamException если внешний API недоступен.
      */
     public GeocodingResponse geocode(String address) {
-        return repository.findByAddress(address).map(this::toResponse)
-                .orElseGet(() -> {
-                    logger.info("Отправка запроса к внешнему API: {}", address);
-                    String url = externalApiUrl + "/search?q=" + address + "&format=json&limit=1";
-                    // тут разбираем JSON, сохраняем в БД и возвращаем
-                    ResponseEntity<NominatimResponse[]> response = restTemplate.getForEntity(url, NominatimResponse[].class);
-                    if (response.getBody() != null && response.getBody().length > 0) {
-                        NominatimResponse nominatim = response.getBody()[0];
-                        Double lat = Double.parseDouble(String.valueOf(nominatim.getLat()));
-                        Double lon = Double.parseDouble(String.valueOf(nominatim.getLon()));
-
-                        CachedLocation saved = new CachedLocation();
-                        saved.setAddress(address);
-                        saved.setLat(round(lat, 5));
-                        saved.setLon(round(lon, 5));
-                        repository.save(saved);
-
-                        return toResponse(saved);
-                    } else {
-                        logger.warn("Ничего не найдено по адресу: {}", address);
-                        throw new GeocodingException("Адрес не найден");
-                    }
-                });
+        return geocode(address, UpstreamPriority.INTERACTIVE);
+    }
+
+    /**
+     * Вариант {@link #geocode(String)} с приоритетом запроса к внешнему API.
+     *
+     * @param address  Адрес для геокодирования.
+     * @param priority Приоритет в очереди к внешнему API.
+     * @return Ответ с координатами.
+     */
+    public GeocodingResponse geocode(String address, UpstreamPriority priority) {
+        return SingleFlight.await(geocodeAsync(address, priority));
+    }
+
+    /**
+     * Асинхронный вариант {@link #geocode(String, UpstreamPriority)}.
+     *
+     * @param address  Адрес для геокодирования.
+     * @param priority Приоритет в очереди к внешнему API.
+     * @return Ответ с координатами; при ошибке завершается теми же исключениями, что и {@link #geocode(String)}.
+     */
+    public CompletableFuture<GeocodingResponse> geocodeAsync(String address, UpstreamPriority priority) {
+        String key = addressNormalizer.key(address);
+        LocationEntry hot = locationCache.getForward(key);
+        if (hot != null) {
+            metrics.lookup(Type.FORWARD, Source.L1);
+            touchForward(key, hot);
+            return CompletableFuture.completedFuture(toResponse(hot));
+        }
+        if (negativeCache.isForwardMiss(key)) {
+            metrics.lookup(Type.FORWARD, Source.NEGATIVE);
+            return CompletableFuture.failedFuture(new GeocodingException("Адрес не найден"));
+        }
+        boolean[] leader = new boolean[1];
+        CompletableFuture<LocationEntry> flight = forwardFlights.execute(key, () -> {
+            leader[0] = true;
+            return loadForward(key, address, priority);
+        });
+        if (!leader[0]) {
+            metrics.lookup(Type.FORWARD, Source.COALESCED);
+        }
+        return flight.thenApply(GeocodingService::toResponse);
     }
 
     /**
      * Преобразует координаты в адрес.
-     * Сначала проверяет кэш, затем вызывает внешний API (если необходимо).
+     * Сначала проверяет кэш в памяти и в БД (точное совпадение, затем ближайшую известную точку
+     * в пределах радиуса), затем вызывает внешний API (если необходимо).
      *
      * @param lat Широта.
      * @param lon Долгота.
      * @return Ответ с адресом.
      * @throws GeocodingException если координаты не найдены.
+     * @throws com.voronkovam.geocoding_service.exception.UpstreamException если внешний API недоступен.
      */
     public GeocodingResponse reverseGeocode(Double lat, Double lon) {
-        double roundedLat = round(lat, 5);
-        double roundedLon = round(lon, 5);
-
-        return repository.findByLatAndLon(roundedLat, roundedLon).map(this::toResponse)
-                .orElseGet(() -> {
-                    logger.info("Обратный запрос по координатам: {}, {}", roundedLat, roundedLon);
-                    String url = externalApiUrl + "/reverse?lat=" + roundedLat + "&lon=" + roundedLon + "&format=json";
-                    ResponseEntity<NominatimResponse> response = restTemplate.getForEntity(url, NominatimResponse.class);
-
-                    NominatimResponse nominatim = response.getBody();
-                    if (nominatim != null && nominatim.getDisplay_name() != null) {
-                        CachedLocation saved = new CachedLocation();
-                        saved.setAddress(nominatim.getDisplay_name());
-                        saved.setLat(roundedLat);
-                        saved.setLon(roundedLon);
-                        repository.save(saved);
-
-                        return toResponse(saved);
-                    } else {
-                        logger.warn("Ничего не найдено по координатам: {}, {}", roundedLat, roundedLon);
-                        throw new GeocodingException("Координаты не найдены");
-                    }
+        return reverseGeocode(lat, lon, UpstreamPriority.INTERACTIVE);
+    }
+
+    /**
+     * Вариант {@link #reverseGeocode(Double, Double)} с приоритетом запроса к внешнему API.
+     *
+     * @param lat      Широта.
+     * @param lon      Долгота.
+     * @param priority Приоритет в очереди к внешнему API.
+     * @return Ответ с адресом.
+     */
+    public GeocodingResponse reverseGeocode(Double lat, Double lon, UpstreamPriority priority) {
+        return SingleFlight.await(reverseGeocodeAsync(lat, lon, priority));
+    }
+
+    /**
+     * Асинхронный вариант {@link #reverseGeocode(Double, Double, UpstreamPriority)}.
+     *
+     * @param lat      Широта.
+     * @param lon      Долгота.
+     * @param priority Приоритет в очереди к внешнему API.
+     * @return Ответ с адресом; при ошибке завершается теми же исключениями, что и
+     * {@link #reverseGeocode(Double, Double)}.
+     */
+    public CompletableFuture<GeocodingResponse> reverseGeocodeAsync(Double lat, Double lon, UpstreamPriority priority) {
+        CoordinateKey key = toKey(lat, lon);
+
+        LocationEntry hot = locationCache.getReverse(key);
+        if (hot != null) {
+            metrics.lookup(Type.REVERSE, Source.L1);
+            touchReverse(key, hot);
+            return CompletableFuture.completedFuture(toResponse(hot));
+        }
+        if (negativeCache.isReverseMiss(key)) {
+            metrics.lookup(Type.REVERSE, Source.NEGATIVE);
+            return CompletableFuture.failedFuture(new GeocodingException("Координаты не найдены"));
+        }
+        boolean[] leader = new boolean[1];
+        CompletableFuture<LocationEntry> flight = reverseFlights.execute(key, () -> {
+            leader[0] = true;
+            return loadReverse(key, priority);
+        });
+        if (!leader[0]) {
+            metrics.lookup(Type.REVERSE, Source.COALESCED);
+        }
+        return flight.thenApply(GeocodingService::toResponse);
+    }
+
+    /**
+     * Ищет результаты прямого геокодирования в кэше без обращения к внешнему API.
+     * Адреса, отсутствующие в памяти, запрашиваются из БД одним запросом.
+     *
+     * @param addresses Адреса.
+     * @return Найденные записи по адресам; отсутствующие адреса в карту не попадают.
+     */
+    public Map<String, LocationEntry> findCachedForward(Collection<String> addresses) {
+        Map<String, LocationEntry> found = new HashMap<>();
+        Map<String, List<String>> missing = new HashMap<>();
+        for (String address : addresses) {
+            String key = addressNormalizer.key(address);
+            LocationEntry hot = locationCache.getForward(key);
+            if (hot != null) {
+                touchForward(key, hot);
+                found.put(address, hot);
+            } else {
+                missing.computeIfAbsent(key, k -> new ArrayList<>()).add(address);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<CachedLocation> stored = metrics.db("find_batch", Type.FORWARD,
+                    () -> repository.findByAddressKeyIn(missing.keySet()));
+            for (CachedLocation loc : stored) {
+                LocationEntry entry = toEntry(loc);
+                locationCache.putForward(loc.getAddressKey(), entry);
+                suggestIndex.add(loc.getAddressKey(), loc.getAddress(), loc.getLat(), loc.getLon());
+                touchForward(loc.getAddressKey(), entry);
+                missing.get(loc.getAddressKey()).forEach(address -> found.put(address, entry));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Ищет результаты обратного геокодирования в кэше без обращения к внешнему API.
+     * Координаты, отсутствующие в памяти, запрашиваются из БД одним запросом.
+     *
+     * @param keys Округленные координаты.
+     * @return Найденные записи по координатам; отсутствующие координаты в карту не попадают.
+     */
+    public Map<CoordinateKey, LocationEntry> findCachedReverse(Collection<CoordinateKey> keys) {
+        Map<CoordinateKey, LocationEntry> found = new HashMap<>();
+        Set<CoordinateKey> missing = new HashSet<>();
+        for (CoordinateKey key : keys) {
+            LocationEntry hot = locationCache.getReverse(key);
+            if (hot != null) {
+                touchReverse(key, hot);
+                found.put(key, hot);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Set<Long> packed = missing.stream().map(CoordinateKey::packed).collect(Collectors.toSet());
+            List<CachedLocation> stored = metrics.db("find_batch", Type.REVERSE, () -> repository.findByCoordKeyIn(packed));
+            for (CachedLocation loc : stored) {
+                CoordinateKey key = CoordinateKey.unpack(loc.getCoordKey());
+                LocationEntry entry = toExactEntry(loc);
+                locationCache.putReverse(key, entry);
+                touchReverse(key, entry);
+                found.put(key, entry);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Ищет результат прямого геокодирования только в L1, не обращаясь к БД и внешнему API.
+     *
+     * @param address Адрес.
+     * @return Ответ или пустой результат, если его нет в памяти этого узла.
+     */
+    public Optional<GeocodingResponse> forwardInMemory(String address) {
+        return Optional.ofNullable(locationCache.getForward(addressNormalizer.key(address)))
+                .map(GeocodingService::toResponse);
+    }
+
+    /**
+     * Ищет результат обратного геокодирования только в L1, не обращаясь к БД и внешнему API.
+     *
+     * @param key Округленные координаты.
+     * @return Ответ или пустой результат, если его нет в памяти этого узла.
+     */
+    public Optional<GeocodingResponse> reverseInMemory(CoordinateKey key) {
+        return Optional.ofNullable(locationCache.getReverse(key)).map(GeocodingService::toResponse);
+    }
+
+    /**
+     * Удаляет результат прямого геокодирования из БД и L1 всех узлов; следующий запрос снова обратится
+     * к внешнему API.
+     *
+     * @param address Адрес.
+     * @return {@code true}, если результат был в БД.
+     */
+    public boolean evict(String address) {
+        String key = addressNormalizer.key(address);
+        int deleted = repository.deleteByAddressKey(key);
+        locationCache.invalidateForward(key);
+        if (cacheSync != null) {
+            cacheSync.publishEvict(key, null);
+        }
+        return deleted > 0;
+    }
+
+    /**
+     * Удаляет результат обратного геокодирования из БД и L1 всех узлов.
+     *
+     * @param lat Широта.
+     * @param lon Долгота.
+     * @return {@code true}, если результат был в БД.
+     */
+    public boolean evictReverse(double lat, double lon) {
+        CoordinateKey key = toKey(lat, lon);
+        int deleted = repository.deleteByCoordKey(key.packed());
+        locationCache.invalidateReverse(key);
+        if (cacheSync != null) {
+            cacheSync.publishEvict(null, key.packed());
+        }
+        return deleted > 0;
+    }
+
+    /**
+     * Округляет координаты до точности кэша.
+     *
+     * @param lat Широта.
+     * @param lon Долгота.
+     * @return Ключ обратного геокодирования.
+     */
+    public static CoordinateKey toKey(double lat, double lon) {
+        return new CoordinateKey(round(lat, 5), round(lon, 5));
+    }
+
+    /**
+     * Загружает результат прямого геокодирования из БД или внешнего API.
+     * Выполняется не более одного раза одновременно для одного ключа адреса.
+     */
+    private CompletableFuture<LocationEntry> loadForward(String key, String address, UpstreamPriority priority) {
+        // пока мы ждали очереди, предыдущий запрос мог уже положить результат в L1
+        LocationEntry hot = locationCache.getForward(key);
+        if (hot != null) {
+            metrics.lookup(Type.FORWARD, Source.L1);
+            touchForward(key, hot);
+            return CompletableFuture.completedFuture(hot);
+        }
+        // результат, еще не записанный в БД, берется из очереди записи
+        // реплика могла еще не получить строку, которую этот узел только что записал
+        Optional<CachedLocation> stored = writer.pendingForward(key)
+                .or(() -> metrics.db("find", Type.FORWARD, () -> repository.findByAddressKey(key)))
+                .or(() -> writer.findWrittenForward(key));
+        metrics.lookup(Type.FORWARD, stored.isPresent() ? Source.DB : Source.UPSTREAM);
+        CompletableFuture<CachedLocation> loc = stored.isPresent()
+                ? CompletableFuture.completedFuture(stored.get())
+                : fetchForward(key, address, priority);
+        return loc.thenApply(found -> {
+            LocationEntry entry = toEntry(found);
+            locationCache.putForward(key, entry);
+            suggestIndex.add(key, found.getAddress(), found.getLat(), found.getLon());
+            touchForward(key, entry);
+            return entry;
+        });
+    }
+
+    private CompletableFuture<CachedLocation> fetchForward(String key, String address, UpstreamPriority priority) {
+        return requestForward(key, address, priority).thenApply(found -> {
+            if (found.isEmpty()) {
+                logger.warn("Ничего не найдено по адресу: {}", address);
+                negativeCache.putForwardMiss(key);
+                throw new GeocodingException("Адрес не найден");
+            }
+            return persist(found.get());
+        });
+    }
+
+    /**
+     * Запрашивает адрес у справочника и (или) внешнего API, не сохраняя результат.
+     */
+    private CompletableFuture<Optional<CachedLocation>> requestForward(String key, String address,
+                                                                      UpstreamPriority priority) {
+        // тут разбираем JSON и возвращаем
+        return lookup(() -> gazetteer.search(address), () -> upstreamScheduler.submit(priority, () -> {
+            logger.info("Отправка запроса к внешнему API: {}", address);
+            return nominatimClient.searchAsync(address);
+        })).thenApply(response -> response.map(nominatim -> {
+            CachedLocation loc = new CachedLocation();
+            loc.setAddress(address);
+            loc.setAddressKey(key);
+            loc.setLat(round(nominatim.getLat(), 5));
+            loc.setLon(round(nominatim.getLon(), 5));
+            loc.setFetchedAt(Instant.now());
+            return loc;
+        }));
+    }
+
+    /**
+     * Загружает результат обратного геокодирования из БД или внешнего API.
+     * Выполняется не более одного раза одновременно для одних округленных координат.
+     */
+    private CompletableFuture<LocationEntry> loadReverse(CoordinateKey key, UpstreamPriority priority) {
+        LocationEntry hot = locationCache.getReverse(key);
+        if (hot != null) {
+            metrics.lookup(Type.REVERSE, Source.L1);
+            touchReverse(key, hot);
+            return CompletableFuture.completedFuture(hot);
+        }
+        Optional<LocationEntry> local = writer.pendingReverse(key.packed())
+                .or(() -> metrics.db("find", Type.REVERSE, () -> repository.findByCoordKey(key.packed())))
+                .or(() -> writer.findWrittenReverse(key.packed()))
+                .map(this::toExactEntry);
+        if (local.isPresent()) {
+            metrics.lookup(Type.REVERSE, Source.DB);
+            touchReverse(key, local.get());
+        } else {
+            local = metrics.db("nearest", Type.REVERSE, () -> nearestLocationFinder.findNearest(key));
+            metrics.lookup(Type.REVERSE, local.isPresent() ? Source.NEAREST : Source.UPSTREAM);
+        }
+        CompletableFuture<LocationEntry> loc = local.isPresent()
+                ? CompletableFuture.completedFuture(local.get())
+                : fetchReverse(key, priority).thenApply(this::toExactEntry);
+        return loc.thenApply(entry -> {
+            locationCache.putReverse(key, entry);
+            return entry;
+        }).exceptionallyCompose(error -> degradedReverse(key, error));
+    }
+
+    /**
+     * Если внешний API недоступен (разомкнут предохранитель или включен режим только кэша), отвечает ближайшей
+     * известной точкой в расширенном радиусе. Такой ответ не кладется в L1, чтобы после восстановления
+     * внешнего API запрос получил точный результат.
+     */
+    private CompletableFuture<LocationEntry> degradedReverse(CoordinateKey key, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof UpstreamUnavailableException) {
+            Optional<LocationEntry> nearest = metrics.db("nearest", Type.REVERSE,
+                    () -> nearestLocationFinder.findNearestDegraded(key));
+            if (nearest.isPresent()) {
+                logger.info("Внешний API недоступен, ответ по ближайшей точке в {} м", nearest.get().distanceMeters());
+                return CompletableFuture.completedFuture(nearest.get());
+            }
+        }
+        return CompletableFuture.failedFuture(cause);
+    }
+
+    private CompletableFuture<CachedLocation> fetchReverse(CoordinateKey key, UpstreamPriority priority) {
+        return requestReverse(key, priority).thenApply(found -> {
+            if (found.isEmpty()) {
+                logger.warn("Ничего не найдено по координатам: {}, {}", key.lat(), key.lon());
+                negativeCache.putReverseMiss(key);
+                throw new GeocodingException("Координаты не найдены");
+            }
+            return persist(found.get());
+        });
+    }
+
+    /**
+     * Запрашивает координаты у справочника и (или) внешнего API, не сохраняя результат.
+     */
+    private CompletableFuture<Optional<CachedLocation>> requestReverse(CoordinateKey key, UpstreamPriority priority) {
+        return lookup(() -> gazetteer.reverse(key.lat(), key.lon()), () -> upstreamScheduler.submit(priority, () -> {
+            logger.info("Обратный запрос по координатам: {}, {}", key.lat(), key.lon());
+            return nominatimClient.reverseAsync(key.lat(), key.lon());
+        })).thenApply(response -> response.map(nominatim -> {
+            CachedLocation loc = new CachedLocation();
+            loc.setAddress(nominatim.getDisplay_name());
+            loc.setLat(key.lat());
+            loc.setLon(key.lon());
+            loc.setCoordKey(key.packed());
+            loc.setFetchedAt(Instant.now());
+            return loc;
+        }));
+    }
+
+    /**
+     * Отмечает обращение к результату прямого геокодирования и, если он устарел, запускает его обновление в фоне.
+     */
+    private void touchForward(String key, LocationEntry entry) {
+        suggestIndex.touch(key);
+        writer.recordAccess(key);
+        if (!refresher.isStale(entry)) {
+            return;
+        }
+        refresher.refresh(key, () -> requestForward(key, entry.address(), UpstreamPriority.BACKGROUND)
+                .thenApply(found -> found.orElseGet(() -> {
+                    logger.info("Устаревший адрес больше не находится, оставлен прежний результат: {}", entry.address());
+                    return toLocation(entry, key, null);
+                })), loc -> {
+                    locationCache.putForward(key, toEntry(loc));
+                    publish(loc);
+                });
+    }
+
+    /**
+     * Отмечает обращение к результату обратного геокодирования и, если он устарел, запускает его обновление в фоне.
+     * Результаты по ближайшей точке не затрагиваются: они принадлежат строке с другими координатами.
+     */
+    private void touchReverse(CoordinateKey key, LocationEntry entry) {
+        if (entry.matchType() != MatchType.EXACT) {
+            return;
+        }
+        writer.recordAccess(key.packed());
+        if (!refresher.isStale(entry)) {
+            return;
+        }
+        refresher.refresh(key, () -> requestReverse(key, UpstreamPriority.BACKGROUND)
+                .thenApply(found -> found.orElseGet(() -> {
+                    logger.info("Устаревшие координаты больше не находятся, оставлен прежний результат: {}, {}",
+                            key.lat(), key.lon());
+                    return toLocation(entry, null, key.packed());
+                })), loc -> {
+                    locationCache.putReverse(key, toExactEntry(loc));
+                    publish(loc);
                 });
     }
 
+    /**
+     * Ищет ответ в локальном справочнике и (или) во внешнем API в зависимости от режима справочника.
+     *
+     * @param local    Поиск в справочнике.
+     * @param upstream Запрос к внешнему API.
+     * @return Найденный результат или пустое значение, если его нет ни в одном из источников.
+     */
+    private CompletableFuture<Optional<NominatimResponse>> lookup(
+            Supplier<Optional<NominatimResponse>> local,
+            Supplier<CompletableFuture<Optional<NominatimResponse>>> upstream) {
+        return switch (gazetteer.mode()) {
+            case OFF -> upstream.get();
+            case ONLY -> CompletableFuture.completedFuture(local.get());
+            case PRIMARY -> {
+                Optional<NominatimResponse> found = local.get();
+                yield found.isPresent() ? CompletableFuture.completedFuture(found) : upstream.get();
+            }
+            case FALLBACK -> withFallback(local, upstream.get());
+        };
+    }
+
+    /**
+     * Ответ внешнего API, а если он завершился ошибкой или не пришел за {@code fallback-after} —
+     * ответ справочника, если в справочнике что-то нашлось.
+     */
+    private CompletableFuture<Optional<NominatimResponse>> withFallback(
+            Supplier<Optional<NominatimResponse>> local, CompletableFuture<Optional<NominatimResponse>> upstream) {
+        CompletableFuture<Optional<NominatimResponse>> result = new CompletableFuture<>();
+        upstream.whenComplete((response, error) -> {
+            if (error == null) {
+                result.complete(response);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            Optional<NominatimResponse> found = cause instanceof UpstreamException ? local.get() : Optional.empty();
+            if (found.isPresent()) {
+                logger.warn("Внешний API недоступен ({}), ответ из локального справочника", cause.getMessage());
+                result.complete(found);
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+        long delay = gazetteer.fallbackAfter().toNanos();
+        if (delay > 0) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                Optional<NominatimResponse> found = local.get();
+                if (found.isPresent() && result.complete(found)) {
+                    logger.warn("Внешний API не ответил за {}, ответ из локального справочника",
+                            gazetteer.fallbackAfter());
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Передает новую локацию на запись в БД и остальным узлам и сразу возвращает ее, не дожидаясь записи.
+     * Адрес длиннее колонки {@code address} (например, длинный {@code display_name} от внешнего API)
+     * в БД не записывается: ответ остается только в L1 этого узла.
+     *
+     * @param loc Новая локация с заполненным {@code addressKey} или {@code coordKey}.
+     * @return Та же локация.
+     */
+    private CachedLocation persist(CachedLocation loc) {
+        if (loc.getAddress() != null && loc.getAddress().length() > CachedLocation.ADDRESS_LENGTH) {
+            logger.warn("Адрес длиннее {} символов не сохраняется в БД: {}", CachedLocation.ADDRESS_LENGTH,
+                    loc.getAddress());
+            return loc;
+        }
+        writer.write(loc);
+        publish(loc);
+        return loc;
+    }
+
+    private void publish(CachedLocation loc) {
+        if (cacheSync != null) {
+            cacheSync.publishPut(loc);
+        }
+    }
 
     /**
      * Округляет число до указанного количества знаков после запятой.
@@ -110,7 +630,7 @@ public class GeocodingService {
      * @return Округленное значение.
      * @throws IllegalArgumentException если {@code places} отрицательное.
      */
-    private double round(double value, int places) {
+    static double round(double value, int places) {
         if (places < 0) {
             throw new IllegalArgumentException("Places must be >= 0");
         }
@@ -118,17 +638,37 @@ public class GeocodingService {
         return Math.round(value * scale) / scale;
     }
 
+    private LocationEntry toEntry(CachedLocation loc) {
+        return new LocationEntry(loc.getAddress(), loc.getLat(), loc.getLon(), loc.getFetchedAt());
+    }
+
+    private LocationEntry toExactEntry(CachedLocation loc) {
+        return LocationEntry.exact(loc.getAddress(), loc.getLat(), loc.getLon(), loc.getFetchedAt());
+    }
+
+    private static CachedLocation toLocation(LocationEntry entry, String addressKey, Long coordKey) {
+        CachedLocation loc = new CachedLocation();
+        loc.setAddress(entry.address());
+        loc.setLat(entry.lat());
+        loc.setLon(entry.lon());
+        loc.setAddressKey(addressKey);
+        loc.setCoordKey(coordKey);
+        return loc;
+    }
+
     /**
-     * Конвертирует сущность {@link CachedLocation} в DTO {@link GeocodingResponse}.
+     * Конвертирует запись кэша {@link LocationEntry} в DTO {@link GeocodingResponse}.
      *
-     * @param loc Сущность с данными из кэша.
+     * @param entry Запись с данными из кэша.
      * @return DTO с адресом и координатами.
      */
-    private GeocodingResponse toResponse(CachedLocation loc) {
+    static GeocodingResponse toResponse(LocationEntry entry) {
         GeocodingResponse resp = new GeocodingResponse();
-        resp.setAddress(loc.getAddress());
-        resp.setLat(loc.getLat());
-        resp.setLon(loc.getLon());
+        resp.setAddress(entry.address());
+        resp.setLat(entry.lat());
+        resp.setLon(entry.lon());
+        resp.setMatchType(entry.matchType());
+        resp.setDistanceMeters(entry.distanceMeters());
         return resp;
     }
 }
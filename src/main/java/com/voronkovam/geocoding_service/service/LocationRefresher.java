@@ -0,0 +1,138 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.voronkovam.geocoding_service.cache.LocationEntry;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import com.voronkovam.geocoding_service.repository.CachedLocationRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Фоновое обновление устаревших результатов геокодирования (stale-while-revalidate).
+ * <p>
+ * Результат, полученный от внешнего API раньше чем {@code geocoding.cache.ttl} назад, по-прежнему сразу
+ * возвращается вызывающему, а {@link #refresh} заново запрашивает его в фоне и заменяет строку в БД.
+ * Запросы идут с приоритетом {@code BACKGROUND} и расходуют общий лимит запросов к внешнему API только
+ * тогда, когда в очереди нет запросов клиентов. Один ключ обновляется не больше чем одним запросом
+ * одновременно, всего одновременно обновляется не больше {@code geocoding.cache.refresh.max-in-flight}
+ * ключей; остальные устаревшие записи будут обновлены при следующих обращениях.
+ * <p>
+ * {@code geocoding.cache.ttl=0} отключает устаревание. Исходы обновлений публикуются в метрике
+ * {@code geocoding.refresh{outcome}}: {@code refreshed}, {@code failed} или {@code skipped}.
+ */
+@Component
+public class LocationRefresher implements MeterBinder {
+
+    private final CachedLocationRepository repository;
+    private final Duration ttl;
+    private final int maxInFlight;
+    private final Set<Object> inFlight = ConcurrentHashMap.newKeySet();
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final Logger logger = LoggerFactory.getLogger(LocationRefresher.class);
+
+    public LocationRefresher(CachedLocationRepository repository,
+                             @Value("${geocoding.cache.ttl}") Duration ttl,
+                             @Value("${geocoding.cache.refresh.max-in-flight}") int maxInFlight) {
+        this.repository = repository;
+        this.ttl = ttl;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param entry Запись кэша.
+     * @return {@code true}, если запись получена от внешнего API раньше чем {@code ttl} назад.
+     */
+    public boolean isStale(LocationEntry entry) {
+        return !ttl.isZero() && entry.fetchedAt() != null
+                && entry.fetchedAt().plus(ttl).isBefore(Instant.now());
+    }
+
+    /**
+     * Запускает обновление ключа в фоне, если он еще не обновляется и не превышен лимит одновременных обновлений.
+     *
+     * @param key         Ключ записи ({@code addressKey} или {@code CoordinateKey}).
+     * @param fetch       Новый запрос результата; если внешний API его больше не находит, возвращает прежний,
+     *                    чтобы ключ не запрашивался повторно до следующего истечения TTL.
+     * @param onRefreshed Вызывается с обновленной локацией после записи в БД.
+     */
+    public void refresh(Object key, Supplier<CompletableFuture<CachedLocation>> fetch,
+                        Consumer<CachedLocation> onRefreshed) {
+        if (inFlight.size() >= maxInFlight) {
+            skipped.increment();
+            return;
+        }
+        if (!inFlight.add(key)) {
+            return;
+        }
+        CompletableFuture<CachedLocation> result;
+        try {
+            result = fetch.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((loc, error) -> {
+            try {
+                if (error != null) {
+                    failed.increment();
+                    logger.debug("Не удалось обновить {}: {}", key, error.getMessage());
+                    return;
+                }
+                loc.setFetchedAt(Instant.now());
+                if (loc.getAddressKey() != null) {
+                    repository.refreshForward(loc.getAddressKey(), loc.getAddress(), loc.getLat(), loc.getLon(),
+                            loc.getFetchedAt());
+                } else {
+                    repository.refreshReverse(loc.getCoordKey(), loc.getAddress(), loc.getLat(), loc.getLon(),
+                            loc.getFetchedAt());
+                }
+                onRefreshed.accept(loc);
+                refreshed.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                logger.warn("Не удалось сохранить обновленный результат {}: {}", key, e.getMessage());
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+    }
+
+    /**
+     * @return Количество ключей, обновляемых в данный момент.
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "refreshed", refreshed);
+        bind(registry, "failed", failed);
+        bind(registry, "skipped", skipped);
+        Gauge.builder("geocoding.refresh.in-flight", inFlight, Set::size)
+                .description("Устаревшие записи, обновляемые в фоне")
+                .register(registry);
+    }
+
+    private static void bind(MeterRegistry registry, String outcome, LongAdder counter) {
+        FunctionCounter.builder("geocoding.refresh", counter, LongAdder::sum)
+                .description("Фоновые обновления устаревших записей")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -0,0 +1,131 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.cache.LocationEntry;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import com.voronkovam.geocoding_service.repository.CachedLocationRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Поиск ближайшего закэшированного результата обратного геокодирования.
+ * <p>
+ * Кандидаты выбираются из БД по ограничивающему прямоугольнику вокруг точки с помощью
+ * составного индекса {@code (lat, lon)}, не больше {@code geocoding.reverse.nearest.max-candidates}
+ * ближайших в плоском приближении; затем среди них выбирается ближайший по расстоянию на сфере.
+ * Прямоугольник, пересекающий ±180° долготы, разбивается на два запроса. Учитываются только строки обратного геокодирования: у них адрес - это
+ * {@code display_name} из Nominatim для этой точки.
+ * <p>
+ * Когда внешний API недоступен, вместо ошибки можно вернуть точку в расширенном радиусе
+ * {@code geocoding.reverse.nearest.degraded-radius-meters} ({@link #findNearestDegraded}).
+ */
+@Component
+public class NearestLocationFinder {
+
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+
+    private final CachedLocationRepository repository;
+    private final double radiusMeters;
+    private final double degradedRadiusMeters;
+    private final int maxCandidates;
+
+    public NearestLocationFinder(CachedLocationRepository repository,
+                                 @Value("${geocoding.reverse.nearest.radius-meters}") double radiusMeters,
+                                 @Value("${geocoding.reverse.nearest.degraded-radius-meters}") double degradedRadiusMeters,
+                                 @Value("${geocoding.reverse.nearest.max-candidates}") int maxCandidates) {
+        this.repository = repository;
+        this.radiusMeters = radiusMeters;
+        this.degradedRadiusMeters = degradedRadiusMeters;
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Ищет ближайшую известную точку в пределах радиуса.
+     *
+     * @param key Округленные координаты запроса.
+     * @return Запись с расстоянием до найденной точки или пустое значение, если поиск отключен
+     * или в радиусе ничего нет.
+     */
+    public Optional<LocationEntry> findNearest(CoordinateKey key) {
+        return findNearest(key, radiusMeters);
+    }
+
+    /**
+     * Ищет ближайшую известную точку в расширенном радиусе, когда внешний API недоступен.
+     *
+     * @param key Округленные координаты запроса.
+     * @return Запись с расстоянием до найденной точки или пустое значение, если расширенный радиус
+     * не больше обычного или в нем ничего нет.
+     */
+    public Optional<LocationEntry> findNearestDegraded(CoordinateKey key) {
+        if (degradedRadiusMeters <= radiusMeters) {
+            return Optional.empty();
+        }
+        return findNearest(key, degradedRadiusMeters);
+    }
+
+    private Optional<LocationEntry> findNearest(CoordinateKey key, double radiusMeters) {
+        if (radiusMeters <= 0) {
+            return Optional.empty();
+        }
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double cosLat = Math.cos(Math.toRadians(key.lat()));
+        double dLon = cosLat < 1e-6 ? 180 : Math.min(180, dLat / cosLat);
+
+        List<CachedLocation> candidates = new ArrayList<>();
+        if (dLon >= 180) {
+            candidates.addAll(candidates(key, key.lon(), cosLat, dLat, -180, 180));
+        } else {
+            double minLon = key.lon() - dLon;
+            double maxLon = key.lon() + dLon;
+            candidates.addAll(candidates(key, key.lon(), cosLat, dLat, Math.max(-180, minLon), Math.min(180, maxLon)));
+            if (minLon < -180) {
+                // часть прямоугольника за антимеридианом: долготы отсчитываются от точки, сдвинутой на 360°
+                candidates.addAll(candidates(key, key.lon() + 360, cosLat, dLat, minLon + 360, 180));
+            } else if (maxLon > 180) {
+                candidates.addAll(candidates(key, key.lon() - 360, cosLat, dLat, -180, maxLon - 360));
+            }
+        }
+
+        CachedLocation best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (CachedLocation candidate : candidates) {
+            double distance = distanceMeters(key.lat(), key.lon(), candidate.getLat(), candidate.getLon());
+            if (distance <= radiusMeters && distance < bestDistance) {
+                best = candidate;
+                bestDistance = distance;
+            }
+        }
+        if (best == null) {
+            return Optional.empty();
+        }
+        return Optional.of(LocationEntry.nearest(best.getAddress(), best.getLat(), best.getLon(), bestDistance));
+    }
+
+    private List<CachedLocation> candidates(CoordinateKey key, double lon, double cosLat, double dLat,
+                                            double minLon, double maxLon) {
+        return repository.findReverseNearest(key.lat(), lon, cosLat * cosLat,
+                key.lat() - dLat, key.lat() + dLat, minLon, maxLon, Limit.of(maxCandidates));
+    }
+
+    /**
+     * Расстояние между точками на сфере (формула гаверсинусов).
+     *
+     * @return Расстояние в метрах.
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,588 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.exception.PreloadInProgressException;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import com.voronkovam.geocoding_service.model.PreloadRequest;
+import com.voronkovam.geocoding_service.model.PreloadStatus;
+import com.voronkovam.geocoding_service.model.PreloadStatus.State;
+import com.voronkovam.geocoding_service.repository.CachedLocationWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Массовая загрузка кэша из локального файла: после развертывания или очистки БД кэш заполняется
+ * заранее, а не запросами к внешнему API.
+ * <p>
+ * Файл читается одним потоком и делится на порции по {@code geocoding.preload.chunk-size} строк; разбор,
+ * нормализация адресов и запись порции пакетом JDBC ({@code INSERT ... ON CONFLICT DO NOTHING})
+ * выполняются параллельно в {@code geocoding.preload.threads} потоках. Одновременно обрабатывается
+ * не больше двух порций на поток, поэтому память не зависит от размера файла.
+ * <p>
+ * Порции завершаются по порядку, и номер последней записанной строки вместе с ее смещением в байтах
+ * сохраняется в файле {@code <файл>.checkpoint} рядом с исходным. Прерванная загрузка продолжается
+ * с этого смещения без повторного чтения начала файла; повторно записанные строки пропускаются БД.
+ * После успешной загрузки контрольная точка удаляется.
+ * <p>
+ * Строка, которую нельзя сохранить (адрес длиннее колонки {@code address}, координаты вне диапазона,
+ * ошибка данных при записи), считается некорректной и пропускается, а не останавливает загрузку.
+ * Строка длиннее {@link #MAX_LINE_BYTES} байт не буферизуется целиком и тоже считается некорректной.
+ * <p>
+ * Форматы строк:
+ * <ul>
+ *     <li>CSV: {@code адрес,широта,долгота[,тип]}; строка заголовка, начинающаяся с {@code address}, пропускается;</li>
+ *     <li>NDJSON: {@code {"address": "...", "lat": ..., "lon": ..., "type": "..."}}.</li>
+ * </ul>
+ * Тип {@code forward} (по умолчанию) сохраняет результат прямого геокодирования по ключу адреса,
+ * {@code reverse} — обратного по округленным координатам. Адреса прямого геокодирования также
+ * добавляются в {@link SuggestIndex}.
+ */
+@Service
+public class PreloadService implements DisposableBean {
+
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final Duration CHECKPOINT_INTERVAL = Duration.ofSeconds(1);
+    /** Наибольшая длина строки файла в байтах: до четырех байт UTF-8 на символ строки потоковой обработки. */
+    static final int MAX_LINE_BYTES = 4 * StreamingGeocodingService.MAX_LINE_LENGTH;
+
+    private final CachedLocationWriter writer;
+    private final AddressNormalizer addressNormalizer;
+    private final SuggestIndex suggestIndex;
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final int threads;
+    private final int chunkSize;
+    private final Duration progressInterval;
+    private final Logger logger = LoggerFactory.getLogger(PreloadService.class);
+    private volatile Job current;
+
+    public PreloadService(CachedLocationWriter writer, AddressNormalizer addressNormalizer, SuggestIndex suggestIndex,
+                          ObjectMapper objectMapper,
+                          @Value("${geocoding.preload.directory}") Path directory,
+                          @Value("${geocoding.preload.threads}") int threads,
+                          @Value("${geocoding.preload.chunk-size}") int chunkSize,
+                          @Value("${geocoding.preload.progress-interval}") Duration progressInterval) {
+        this.writer = writer;
+        this.addressNormalizer = addressNormalizer;
+        this.suggestIndex = suggestIndex;
+        this.objectMapper = objectMapper;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Запускает загрузку файла в фоне.
+     *
+     * @param request Файл, формат и признак продолжения с контрольной точки.
+     * @return Состояние запущенной загрузки.
+     * @throws IllegalArgumentException если файл не найден или находится вне каталога загрузки.
+     * @throws PreloadInProgressException если другая загрузка еще выполняется.
+     */
+    public synchronized PreloadStatus start(PreloadRequest request) {
+        if (current != null && current.state == State.RUNNING) {
+            throw new PreloadInProgressException("Загрузка файла " + current.file.getFileName() + " уже выполняется");
+        }
+        Path file = resolve(request.getFile());
+        PreloadRequest.Format format = request.getFormat() != null ? request.getFormat() : formatOf(file);
+        Checkpoint checkpoint = request.isResume() ? readCheckpoint(file) : Checkpoint.START;
+        Job job = new Job(file, format, checkpoint);
+        current = job;
+        Thread thread = new Thread(() -> run(job), "geocoding-preload");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Загрузка кэша из {} ({}), начиная со строки {}", file, format, checkpoint.lines());
+        return job.status();
+    }
+
+    /**
+     * @return Состояние текущей или последней загрузки.
+     */
+    public Optional<PreloadStatus> status() {
+        Job job = current;
+        return job == null ? Optional.empty() : Optional.of(job.status());
+    }
+
+    /**
+     * Останавливает текущую загрузку после записи уже прочитанных порций; контрольная точка сохраняется.
+     *
+     * @return Состояние загрузки или пустой результат, если загрузок не было.
+     */
+    public Optional<PreloadStatus> cancel() {
+        Job job = current;
+        if (job == null) {
+            return Optional.empty();
+        }
+        job.cancelled = true;
+        return Optional.of(job.status());
+    }
+
+    /**
+     * Ожидает завершения текущей загрузки.
+     *
+     * @return {@code true}, если загрузка завершилась за отведенное время.
+     */
+    boolean await(Duration timeout) throws InterruptedException {
+        Job job = current;
+        return job == null || job.done.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        Job job = current;
+        if (job != null && job.state == State.RUNNING) {
+            job.cancelled = true;
+            job.done.await(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private void run(Job job) {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("geocoding-preload-"));
+        try (InputStream input = Files.newInputStream(job.file)) {
+            OffsetLineReader reader = new OffsetLineReader(input, MAX_LINE_BYTES);
+            long line = 0;
+            if (job.startOffset >= 0) {
+                input.skipNBytes(job.startOffset);
+                reader.offset = job.startOffset;
+                line = job.startLine;
+            } else {
+                // контрольная точка без смещения: пропускаем строки по одной
+                while (line < job.startLine && reader.readLine() != null) {
+                    line++;
+                }
+            }
+            Deque<CompletableFuture<Chunk>> window = new ArrayDeque<>(threads * 2);
+            List<String> lines = new ArrayList<>(chunkSize);
+            long chunkStart = line;
+            String text;
+            while (!job.cancelled && (text = reader.readLine()) != null) {
+                // слишком длинная строка передается как null и считается некорректной при разборе порции
+                lines.add(reader.tooLong() ? null : text);
+                if (lines.size() == chunkSize) {
+                    if (window.size() >= threads * 2) {
+                        complete(job, window.poll().join());
+                    }
+                    window.add(submit(chunkStart, reader.offset, lines, job.format, workers));
+                    chunkStart += lines.size();
+                    lines = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!job.cancelled && !lines.isEmpty()) {
+                window.add(submit(chunkStart, reader.offset, lines, job.format, workers));
+            }
+            while (!window.isEmpty()) {
+                complete(job, window.poll().join());
+            }
+            if (job.cancelled) {
+                writeCheckpoint(job.file, job.checkpoint());
+                job.finish(State.CANCELLED, null);
+                logger.info("Загрузка {} остановлена на строке {}", job.file, job.linesDone);
+            } else {
+                Files.deleteIfExists(checkpointOf(job.file));
+                job.finish(State.COMPLETED, null);
+                logger.info("Загрузка {} завершена: {} строк, записано {} локаций, ошибок разбора {}",
+                        job.file, job.linesDone, job.rowsWritten, job.rowsInvalid);
+            }
+        } catch (Exception e) {
+            logger.error("Загрузка {} прервана на строке {}", job.file, job.linesDone, e);
+            try {
+                writeCheckpoint(job.file, job.checkpoint());
+            } catch (IOException io) {
+                logger.error("Не удалось сохранить контрольную точку {}", checkpointOf(job.file), io);
+            }
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            job.finish(State.FAILED, cause.getMessage());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private CompletableFuture<Chunk> submit(long firstLine, long endOffset, List<String> lines,
+                                            PreloadRequest.Format format, ExecutorService workers) {
+        return CompletableFuture.supplyAsync(() -> load(firstLine, endOffset, lines, format), workers);
+    }
+
+    /**
+     * Разбирает порцию строк и записывает ее в БД. Выполняется в пуле загрузки.
+     */
+    private Chunk load(long firstLine, long endOffset, List<String> lines, PreloadRequest.Format format) {
+        List<CachedLocation> rows = new ArrayList<>(lines.size());
+        int invalid = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String text = lines.get(i);
+            if (text == null) {
+                invalid++;
+                logger.debug("Строка {} длиннее {} байт пропущена", firstLine + i + 1, MAX_LINE_BYTES);
+                continue;
+            }
+            if (text.isBlank() || (firstLine + i == 0 && format == PreloadRequest.Format.CSV && isCsvHeader(text))) {
+                continue;
+            }
+            try {
+                rows.add(format == PreloadRequest.Format.CSV ? parseCsv(text) : parseJson(text));
+            } catch (IllegalArgumentException e) {
+                invalid++;
+                logger.debug("Строка {} пропущена: {}", firstLine + i + 1, e.getMessage());
+            }
+        }
+        int written = 0;
+        if (!rows.isEmpty()) {
+            try {
+                written = writer.insertBatch(rows);
+            } catch (DataAccessException e) {
+                if (CachedLocationWriter.isTransient(e)) {
+                    throw e;
+                }
+                // ошибка в данных: пишем по одной строке, чтобы пропустить только плохие
+                List<CachedLocation> accepted = new ArrayList<>(rows.size());
+                for (CachedLocation row : rows) {
+                    try {
+                        written += writer.insertBatch(List.of(row));
+                        accepted.add(row);
+                    } catch (DataAccessException rowError) {
+                        if (CachedLocationWriter.isTransient(rowError)) {
+                            throw rowError;
+                        }
+                        invalid++;
+                        logger.debug("Строка с адресом '{}' не записана: {}", row.getAddress(), rowError.getMessage());
+                    }
+                }
+                rows = accepted;
+            }
+        }
+        for (CachedLocation row : rows) {
+            if (row.getAddressKey() != null) {
+                suggestIndex.add(row.getAddressKey(), row.getAddress(), row.getLat(), row.getLon());
+            }
+        }
+        return new Chunk(firstLine + lines.size(), endOffset, written, invalid);
+    }
+
+    private void complete(Job job, Chunk chunk) throws IOException {
+        job.linesDone = chunk.endLine();
+        job.offsetDone = chunk.endOffset();
+        job.rowsWritten += chunk.written();
+        job.rowsInvalid += chunk.invalid();
+        long now = System.nanoTime();
+        if (now - job.lastCheckpoint >= CHECKPOINT_INTERVAL.toNanos()) {
+            writeCheckpoint(job.file, job.checkpoint());
+            job.lastCheckpoint = now;
+        }
+        if (now - job.lastProgress >= progressInterval.toNanos()) {
+            PreloadStatus status = job.status();
+            logger.info("Загрузка {}: обработано {} строк ({} строк/с), записано {} локаций",
+                    job.file.getFileName(), status.getLinesDone(), Math.round(status.getLinesPerSecond()),
+                    status.getRowsWritten());
+            job.lastProgress = now;
+        }
+    }
+
+    private CachedLocation parseCsv(String text) {
+        List<String> columns = StreamingGeocodingService.splitCsv(text);
+        if (columns.size() < 3 || columns.size() > 4) {
+            throw new IllegalArgumentException("Ожидаются колонки адрес, широта, долгота и необязательный тип");
+        }
+        return toLocation(columns.get(0).trim(), number(columns.get(1)), number(columns.get(2)),
+                columns.size() == 4 ? columns.get(3).trim() : null);
+    }
+
+    private CachedLocation parseJson(String text) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(text);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Некорректный JSON");
+        }
+        JsonNode lat = node.get("lat");
+        JsonNode lon = node.get("lon");
+        if (lat == null || !lat.isNumber() || lon == null || !lon.isNumber()) {
+            throw new IllegalArgumentException("Поля 'lat' и 'lon' должны быть числами");
+        }
+        return toLocation(node.path("address").asText(""), lat.asDouble(), lon.asDouble(),
+                node.hasNonNull("type") ? node.get("type").asText() : null);
+    }
+
+    private CachedLocation toLocation(String address, double lat, double lon, String type) {
+        if (address.isBlank()) {
+            throw new IllegalArgumentException("Пустой адрес");
+        }
+        if (address.length() > CachedLocation.ADDRESS_LENGTH) {
+            throw new IllegalArgumentException("Адрес длиннее " + CachedLocation.ADDRESS_LENGTH + " символов");
+        }
+        if (!(lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180)) {
+            throw new IllegalArgumentException("Координаты вне допустимого диапазона");
+        }
+        CachedLocation loc = new CachedLocation();
+        loc.setAddress(address);
+        if (type == null || type.isEmpty() || type.equalsIgnoreCase("forward")) {
+            loc.setAddressKey(addressNormalizer.key(address));
+            loc.setLat(GeocodingService.round(lat, 5));
+            loc.setLon(GeocodingService.round(lon, 5));
+        } else if (type.equalsIgnoreCase("reverse")) {
+            CoordinateKey key = GeocodingService.toKey(lat, lon);
+            loc.setCoordKey(key.packed());
+            loc.setLat(key.lat());
+            loc.setLon(key.lon());
+        } else {
+            throw new IllegalArgumentException("Неизвестный тип: " + type);
+        }
+        return loc;
+    }
+
+    private static double number(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Координаты должны быть числами");
+        }
+    }
+
+    private static boolean isCsvHeader(String line) {
+        return StreamingGeocodingService.splitCsv(line).get(0).trim().equalsIgnoreCase("address");
+    }
+
+    private Path resolve(String name) {
+        Path file = directory.resolve(name).normalize();
+        if (!file.startsWith(directory)) {
+            throw new IllegalArgumentException("Файл должен находиться в каталоге загрузки");
+        }
+        if (!Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("Файл не найден: " + name);
+        }
+        return file;
+    }
+
+    private static PreloadRequest.Format formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl")
+                ? PreloadRequest.Format.NDJSON
+                : PreloadRequest.Format.CSV;
+    }
+
+    private static Path checkpointOf(Path file) {
+        return file.resolveSibling(file.getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Читает контрольную точку. Если файл изменился после ее сохранения, загрузка начинается сначала.
+     *
+     * @return Количество уже загруженных строк и их длина в байтах.
+     */
+    Checkpoint readCheckpoint(Path file) {
+        Path checkpoint = checkpointOf(file);
+        if (!Files.exists(checkpoint)) {
+            return Checkpoint.START;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            if (Long.parseLong(properties.getProperty("size", "-1")) != Files.size(file)
+                    || Long.parseLong(properties.getProperty("modified", "-1")) != Files.getLastModifiedTime(file).toMillis()) {
+                logger.warn("Файл {} изменился после сохранения контрольной точки, загрузка начнется сначала", file);
+                return Checkpoint.START;
+            }
+            return new Checkpoint(Long.parseLong(properties.getProperty("lines", "0")),
+                    Long.parseLong(properties.getProperty("offset", "-1")));
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Контрольная точка {} не прочитана, загрузка начнется сначала: {}", checkpoint, e.getMessage());
+            return Checkpoint.START;
+        }
+    }
+
+    void writeCheckpoint(Path file, Checkpoint position) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("lines", String.valueOf(position.lines()));
+        properties.setProperty("offset", String.valueOf(position.offset()));
+        properties.setProperty("size", String.valueOf(Files.size(file)));
+        properties.setProperty("modified", String.valueOf(Files.getLastModifiedTime(file).toMillis()));
+        Path checkpoint = checkpointOf(file);
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(out, null);
+        }
+        // заменяется целиком, чтобы сбой во время записи не оставил испорченную контрольную точку
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Позиция в файле: количество загруженных строк и их длина в байтах ({@code -1}, если неизвестна).
+     */
+    record Checkpoint(long lines, long offset) {
+        static final Checkpoint START = new Checkpoint(0, 0);
+    }
+
+    /** Результат обработки порции: номер строки и смещение после нее и счетчики. */
+    private record Chunk(long endLine, long endOffset, int written, int invalid) {
+    }
+
+    /**
+     * Читает строки UTF-8 и считает смещение в байтах после последней прочитанной строки. Байт {@code \n}
+     * не встречается внутри многобайтовых символов UTF-8, поэтому строки делятся по нему до декодирования.
+     */
+    private static final class OffsetLineReader {
+        private final InputStream input;
+        private final int maxLength;
+        private final byte[] buffer = new byte[64 * 1024];
+        private byte[] line = new byte[256];
+        private int position;
+        private int limit;
+        private long offset;
+        private boolean tooLong;
+
+        private OffsetLineReader(InputStream input, int maxLength) {
+            this.input = input;
+            this.maxLength = maxLength;
+        }
+
+        /**
+         * @return Строка без завершающих {@code \n} и {@code \r} (пустая, если она длиннее допустимой)
+         * или {@code null} в конце файла.
+         */
+        private String readLine() throws IOException {
+            int length = 0;
+            tooLong = false;
+            while (true) {
+                if (position == limit) {
+                    limit = Math.max(0, input.read(buffer));
+                    position = 0;
+                    if (limit == 0) {
+                        return length == 0 && !tooLong ? null : decode(length);
+                    }
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+                int count = position - start;
+                offset += count;
+                // один лишний байт — возможный '\r' перед '\n'
+                if (!tooLong && length + count > maxLength + 1) {
+                    tooLong = true;
+                }
+                if (!tooLong) {
+                    if (length + count > line.length) {
+                        line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+                    }
+                    System.arraycopy(buffer, start, line, length, count);
+                    length += count;
+                }
+                if (position < limit) {
+                    position++;
+                    offset++;
+                    return decode(length);
+                }
+            }
+        }
+
+        /**
+         * @return Была ли последняя прочитанная строка длиннее допустимой.
+         */
+        private boolean tooLong() {
+            return tooLong;
+        }
+
+        private String decode(int length) {
+            if (tooLong) {
+                return "";
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            tooLong = length > maxLength;
+            return tooLong ? "" : new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Одна загрузка. Счетчики изменяет только поток чтения, остальные потоки их только читают.
+     */
+    private static final class Job {
+        private final Path file;
+        private final PreloadRequest.Format format;
+        private final long startLine;
+        private final long startOffset;
+        private final Instant startedAt = Instant.now();
+        private final long startNanos = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile State state = State.RUNNING;
+        private volatile boolean cancelled;
+        private volatile long linesDone;
+        private volatile long offsetDone;
+        private volatile long rowsWritten;
+        private volatile long rowsInvalid;
+        private volatile Instant finishedAt;
+        private volatile String error;
+        private long lastCheckpoint = System.nanoTime();
+        private long lastProgress = System.nanoTime();
+        private volatile long finishNanos;
+
+        private Job(Path file, PreloadRequest.Format format, Checkpoint start) {
+            this.file = file;
+            this.format = format;
+            this.startLine = start.lines();
+            this.startOffset = start.offset();
+            this.linesDone = start.lines();
+            this.offsetDone = start.offset();
+        }
+
+        private Checkpoint checkpoint() {
+            return new Checkpoint(linesDone, offsetDone);
+        }
+
+        private void finish(State state, String error) {
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.finishNanos = System.nanoTime();
+            this.state = state;
+            done.countDown();
+        }
+
+        private PreloadStatus status() {
+            PreloadStatus status = new PreloadStatus();
+            status.setFile(file.getFileName().toString());
+            status.setState(state);
+            status.setStartLine(startLine);
+            status.setLinesDone(linesDone);
+            status.setRowsWritten(rowsWritten);
+            status.setRowsInvalid(rowsInvalid);
+            status.setStartedAt(startedAt);
+            status.setFinishedAt(finishedAt);
+            status.setError(error);
+            double seconds = ((finishedAt != null ? finishNanos : System.nanoTime()) - startNanos) / 1e9;
+            status.setLinesPerSecond(seconds > 0 ? (linesDone - startLine) / seconds : 0);
+            return status;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.voronkovam.geocoding_service.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Объединяет одновременные вычисления по одному ключу.
+ * <p>
+ * Первый вызов для ключа запускает загрузку, остальные вызовы, пришедшие до ее завершения,
+ * получают тот же результат или то же исключение. Загрузка асинхронная, поэтому ожидающие
+ * вызовы не занимают потоки. После завершения ключ освобождается, и следующий вызов снова
+ * выполнит загрузку.
+ *
+ * @param <K> тип ключа
+ * @param <V> тип результата
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Запускает загрузку или присоединяется к уже выполняющейся загрузке по тому же ключу.
+     *
+     * @param key    Ключ.
+     * @param loader Загрузка, запускаемая только первым вызовом.
+     * @return Результат загрузки. Каждый вызов получает свою копию, отмена которой не влияет на остальных.
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return existing.copy();
+        }
+        CompletableFuture<V> loading;
+        try {
+            loading = loader.get();
+        } catch (RuntimeException e) {
+            loading = CompletableFuture.failedFuture(e);
+        }
+        loading.whenComplete((value, error) -> {
+            inFlight.remove(key, flight);
+            if (error != null) {
+                flight.completeExceptionally(unwrap(error));
+            } else {
+                flight.complete(value);
+            }
+        });
+        return flight.copy();
+    }
+
+    /**
+     * @return Количество ключей, по которым сейчас выполняется загрузка.
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Ожидает результат и пробрасывает исходное исключение загрузки без обертки {@link CompletionException}.
+     *
+     * @param future Результат загрузки.
+     * @return Значение.
+     */
+    static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,278 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voronkovam.geocoding_service.model.BatchItemResult;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import com.voronkovam.geocoding_service.model.DirectGeocodingRequest;
+import com.voronkovam.geocoding_service.model.ReverseGeocodingRequest;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Потоковое геокодирование файлов в формате NDJSON или CSV.
+ * <p>
+ * Входные строки читаются по одной и обрабатываются параллельно через пул {@code batchExecutor},
+ * результаты пишутся в выходной поток в формате NDJSON в порядке входных строк, не дожидаясь
+ * окончания ввода. Количество одновременно обрабатываемых строк ограничено окном
+ * {@code geocoding.stream.max-in-flight}: пока самая старая строка не обработана, новые не читаются,
+ * поэтому потребление памяти не зависит от размера входа, а клиент притормаживается через TCP.
+ * Длина строки ограничена {@link #MAX_LINE_LENGTH}: более длинная строка не буферизуется целиком,
+ * а пропускается с ошибкой в результате.
+ */
+@Service
+public class StreamingGeocodingService {
+
+    /** Формат входных строк. */
+    public enum Format {
+        /** Объекты {@code {"address": "..."}} или {@code {"lat": ..., "lon": ...}}, по одному на строку. */
+        NDJSON,
+        /** Строки вида {@code адрес} или {@code широта,долгота}; строка заголовка пропускается. */
+        CSV
+    }
+
+    /**
+     * Наибольшая длина входной строки: адрес не длиннее колонки {@code address} с запасом на кавычки CSV
+     * и экранирование {@code \\uXXXX} в NDJSON.
+     */
+    static final int MAX_LINE_LENGTH = 8 * CachedLocation.ADDRESS_LENGTH;
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final BatchGeocodingService batchService;
+    private final Executor batchExecutor;
+    private final ObjectMapper objectMapper;
+
+    @Value("${geocoding.stream.max-in-flight}")
+    private int maxInFlight;
+
+    public StreamingGeocodingService(BatchGeocodingService batchService,
+                                     @Qualifier("batchExecutor") Executor batchExecutor,
+                                     ObjectMapper objectMapper) {
+        this.batchService = batchService;
+        this.batchExecutor = batchExecutor;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Обрабатывает входной поток построчно и пишет результаты в выходной поток.
+     * Результат каждой строки содержит ее номер (с нуля, без учета пустых строк и заголовка CSV).
+     *
+     * @param input  Входной поток.
+     * @param format Формат входных строк.
+     * @param output Выходной поток для NDJSON с результатами.
+     * @throws IOException при ошибке чтения или записи.
+     */
+    public void process(InputStream input, Format format, OutputStream output) throws IOException {
+        LineReader reader = new LineReader(new InputStreamReader(input, StandardCharsets.UTF_8), MAX_LINE_LENGTH);
+        Deque<CompletableFuture<BatchItemResult>> window = new ArrayDeque<>(maxInFlight);
+        int index = 0;
+        boolean first = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            CompletableFuture<BatchItemResult> result;
+            if (reader.tooLong()) {
+                result = CompletableFuture.completedFuture(
+                        BatchItemResult.error(index, "Строка длиннее " + MAX_LINE_LENGTH + " символов"));
+            } else if (line.isBlank()) {
+                continue;
+            } else if (first && format == Format.CSV && isCsvHeader(line)) {
+                first = false;
+                continue;
+            } else {
+                int position = index;
+                String record = line;
+                result = CompletableFuture.supplyAsync(() -> processLine(position, record, format), batchExecutor);
+            }
+            first = false;
+            index++;
+            if (window.size() >= maxInFlight) {
+                write(window.poll(), output);
+            }
+            window.add(result);
+        }
+        while (!window.isEmpty()) {
+            write(window.poll(), output);
+        }
+        output.flush();
+    }
+
+    private void write(CompletableFuture<BatchItemResult> result, OutputStream output) throws IOException {
+        if (!result.isDone()) {
+            // перед ожиданием отдаем клиенту уже готовые строки
+            output.flush();
+        }
+        output.write(objectMapper.writeValueAsBytes(result.join()));
+        output.write(NEWLINE);
+    }
+
+    private BatchItemResult processLine(int index, String line, Format format) {
+        try {
+            return format == Format.NDJSON ? processJson(index, line) : processCsv(index, line);
+        } catch (IllegalArgumentException e) {
+            return BatchItemResult.error(index, e.getMessage());
+        }
+    }
+
+    private BatchItemResult processJson(int index, String line) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Некорректный JSON");
+        }
+        if (node.hasNonNull("address")) {
+            return batchService.geocodeItem(index, new DirectGeocodingRequest(node.get("address").asText()));
+        }
+        if (node.has("lat") || node.has("lon")) {
+            return batchService.reverseGeocodeItem(index, new ReverseGeocodingRequest(
+                    coordinate(node.get("lat")), coordinate(node.get("lon"))));
+        }
+        throw new IllegalArgumentException("Ожидается поле 'address' или поля 'lat' и 'lon'");
+    }
+
+    private BatchItemResult processCsv(int index, String line) {
+        List<String> columns = splitCsv(line);
+        if (columns.size() == 2 && isNumber(columns.get(0)) && isNumber(columns.get(1))) {
+            return batchService.reverseGeocodeItem(index, new ReverseGeocodingRequest(
+                    Double.parseDouble(columns.get(0).trim()), Double.parseDouble(columns.get(1).trim())));
+        }
+        return batchService.geocodeItem(index, new DirectGeocodingRequest(columns.get(0).trim()));
+    }
+
+    private static Double coordinate(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        if (!node.isNumber()) {
+            throw new IllegalArgumentException("Координаты должны быть числами");
+        }
+        return node.asDouble();
+    }
+
+    private static boolean isCsvHeader(String line) {
+        String head = splitCsv(line).get(0).trim().toLowerCase();
+        return head.equals("address") || head.equals("lat");
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Double.parseDouble(value.trim());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Построчное чтение с ограничением длины строки. Остаток слишком длинной строки пропускается
+     * без буферизации, вместо нее возвращается пустая строка и {@link #tooLong()} возвращает {@code true}.
+     */
+    static final class LineReader {
+
+        private final Reader reader;
+        private final int maxLength;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int limit;
+        private boolean tooLong;
+
+        LineReader(Reader reader, int maxLength) {
+            this.reader = reader;
+            this.maxLength = maxLength;
+        }
+
+        /**
+         * @return Строка без завершающих {@code \n} и {@code \r} или {@code null} в конце потока.
+         */
+        String readLine() throws IOException {
+            line.setLength(0);
+            tooLong = false;
+            while (true) {
+                if (position == limit) {
+                    limit = Math.max(0, reader.read(buffer));
+                    position = 0;
+                    if (limit == 0) {
+                        return tooLong || !line.isEmpty() ? finish() : null;
+                    }
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+                if (!tooLong) {
+                    line.append(buffer, start, position - start);
+                    // один лишний символ — возможный '\r' перед '\n'
+                    tooLong = line.length() > maxLength + 1;
+                }
+                if (position < limit) {
+                    position++;
+                    return finish();
+                }
+            }
+        }
+
+        /**
+         * @return Была ли последняя прочитанная строка длиннее допустимой.
+         */
+        boolean tooLong() {
+            return tooLong;
+        }
+
+        private String finish() {
+            int length = line.length();
+            if (!tooLong && length > 0 && line.charAt(length - 1) == '\r') {
+                line.setLength(--length);
+            }
+            tooLong |= length > maxLength;
+            return tooLong ? "" : line.toString();
+        }
+    }
+
+    /**
+     * Разбивает строку CSV на колонки с учетом кавычек ({@code "a, b"} и {@code ""} внутри кавычек).
+     */
+    public static List<String> splitCsv(String line) {
+        List<String> columns = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                columns.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        columns.add(current.toString());
+        return columns;
+    }
+}
@@ -0,0 +1,357 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.voronkovam.geocoding_service.model.Suggestion;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Триграммный индекс уже закэшированных адресов для автодополнения и нечеткого поиска.
+ * <p>
+ * Канонический вид адреса ({@link AddressNormalizer#canonical}) разбивается на триграммы слов
+ * с отступом в начале слова, поэтому начало слова совпадает уже по первой букве, а опечатка портит
+ * лишь несколько триграмм. Для запроса последнее слово считается недописанным. Кандидаты набираются
+ * из списков самых редких триграмм запроса; из них остаются {@code geocoding.suggest.max-candidates}
+ * с наибольшим числом совпавших триграмм. Затем кандидаты ранжируются по доле триграмм запроса,
+ * найденных в адресе, с поправкой на популярность адреса (число обращений к нему через этот узел).
+ * <p>
+ * При старте индекс заполняется строками прямого геокодирования из БД в фоновом потоке, затем
+ * пополняется новыми результатами, которые проходят через этот узел. Строки, сохраненные другими узлами,
+ * попадают в индекс при первом обращении к ним или при перезапуске. Индекс живет в памяти процесса
+ * и ограничен {@code geocoding.suggest.max-entries} адресами.
+ */
+@Component
+public class SuggestIndex implements MeterBinder {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AddressNormalizer addressNormalizer;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final int maxCandidates;
+    private final double minSimilarity;
+    private final double popularityWeight;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> byKey = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(SuggestIndex.class);
+    private volatile Timer queryTimer;
+    private volatile boolean full;
+
+    public SuggestIndex(JdbcTemplate jdbcTemplate, AddressNormalizer addressNormalizer,
+                        @Value("${geocoding.suggest.enabled}") boolean enabled,
+                        @Value("${geocoding.suggest.max-entries}") int maxEntries,
+                        @Value("${geocoding.suggest.max-candidates}") int maxCandidates,
+                        @Value("${geocoding.suggest.min-similarity}") double minSimilarity,
+                        @Value("${geocoding.suggest.popularity-weight}") double popularityWeight) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.addressNormalizer = addressNormalizer;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxCandidates = maxCandidates;
+        this.minSimilarity = minSimilarity;
+        this.popularityWeight = popularityWeight;
+    }
+
+    /**
+     * Заполняет индекс из БД в фоне, чтобы не задерживать старт приложения; до окончания загрузки
+     * подсказки строятся по уже загруженной части.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadFromDatabase() {
+        if (!enabled) {
+            return;
+        }
+        Thread loader = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                jdbcTemplate.query("SELECT address, address_key, lat, lon FROM cached_location WHERE address_key IS NOT NULL",
+                        rs -> {
+                            add(rs.getString(2), rs.getString(1), rs.getDouble(3), rs.getDouble(4));
+                        });
+                logger.info("Индекс подсказок загружен: {} адресов за {} мс", size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (RuntimeException e) {
+                logger.error("Не удалось загрузить индекс подсказок из БД", e);
+            }
+        }, "geocoding-suggest-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Добавляет адрес в индекс; повторное добавление того же ключа ничего не меняет.
+     *
+     * @param addressKey Ключ адреса.
+     * @param address    Адрес в исходном написании.
+     * @param lat        Широта.
+     * @param lon        Долгота.
+     */
+    public void add(String addressKey, String address, double lat, double lon) {
+        if (!enabled || full) {
+            return;
+        }
+        String canonical = addressNormalizer.canonical(address);
+        if (canonical.isEmpty()) {
+            return;
+        }
+        long[] trigrams = trigrams(canonical, true);
+        lock.writeLock().lock();
+        try {
+            if (byKey.containsKey(addressKey)) {
+                return;
+            }
+            if (entries.size() >= maxEntries) {
+                full = true;
+                logger.warn("Индекс подсказок заполнен ({} адресов), новые адреса не добавляются", maxEntries);
+                return;
+            }
+            Entry entry = new Entry(entries.size(), address, canonical, lat, lon);
+            entries.add(entry);
+            byKey.put(addressKey, entry);
+            for (long trigram : trigrams) {
+                postings.computeIfAbsent(trigram, t -> new Postings()).add(entry.id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Учитывает обращение к адресу для ранжирования подсказок.
+     *
+     * @param addressKey Ключ адреса.
+     */
+    public void touch(String addressKey) {
+        if (!enabled) {
+            return;
+        }
+        Entry entry;
+        lock.readLock().lock();
+        try {
+            entry = byKey.get(addressKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (entry != null) {
+            entry.hits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Подбирает адреса, похожие на введенную строку.
+     *
+     * @param query Начало адреса или адрес с опечатками.
+     * @param limit Максимальное количество подсказок.
+     * @return Подсказки по убыванию оценки.
+     */
+    public List<Suggestion> suggest(String query, int limit) {
+        if (!enabled) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        String canonical = addressNormalizer.canonical(query);
+        if (canonical.isEmpty()) {
+            return List.of();
+        }
+        long[] queryTrigrams = trigrams(canonical, false);
+        List<Suggestion> result;
+        lock.readLock().lock();
+        try {
+            result = rank(canonical, queryTrigrams, candidates(queryTrigrams), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Timer timer = queryTimer;
+        if (timer != null) {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return result;
+    }
+
+    /**
+     * @return Количество адресов в индексе.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Набирает кандидатов из списков триграмм. Адрес с долей общих триграмм не ниже {@code min-similarity}
+     * есть хотя бы в одном из {@code n - k + 1} самых редких списков ({@code n} — триграмм в запросе,
+     * {@code k} — сколько из них должно совпасть), поэтому частые триграммы (например, начало названия
+     * города) просматривать не нужно. Если кандидатов больше {@code max-candidates}, остаются те,
+     * что встречаются в большем числе просмотренных списков, а при равенстве — более популярные.
+     */
+    private Collection<Integer> candidates(long[] queryTrigrams) {
+        List<Postings> lists = new ArrayList<>(queryTrigrams.length);
+        for (long trigram : queryTrigrams) {
+            Postings list = postings.get(trigram);
+            if (list != null) {
+                lists.add(list);
+            }
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+        int required = Math.max(1, (int) Math.ceil(minSimilarity * queryTrigrams.length - 1e-9));
+        // триграммы, которых нет в индексе, — самые редкие списки (пустые)
+        int scanned = Math.min(lists.size(), queryTrigrams.length - required + 1 - (queryTrigrams.length - lists.size()));
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (int l = 0; l < scanned; l++) {
+            Postings list = lists.get(l);
+            for (int i = 0; i < list.size; i++) {
+                shared.merge(list.ids[i], 1, Integer::sum);
+            }
+        }
+        if (shared.size() <= maxCandidates) {
+            return shared.keySet();
+        }
+        Comparator<Map.Entry<Integer, Integer>> order = Map.Entry.<Integer, Integer>comparingByValue()
+                .thenComparingInt(candidate -> entries.get(candidate.getKey()).hits.get());
+        PriorityQueue<Map.Entry<Integer, Integer>> top = new PriorityQueue<>(maxCandidates + 1, order);
+        for (Map.Entry<Integer, Integer> candidate : shared.entrySet()) {
+            top.add(candidate);
+            if (top.size() > maxCandidates) {
+                top.poll();
+            }
+        }
+        List<Integer> result = new ArrayList<>(top.size());
+        for (Map.Entry<Integer, Integer> candidate : top) {
+            result.add(candidate.getKey());
+        }
+        return result;
+    }
+
+    private List<Suggestion> rank(String canonical, long[] queryTrigrams, Collection<Integer> candidates, int limit) {
+        Comparator<Scored> order = Comparator.comparingDouble(Scored::score)
+                .thenComparing(scored -> -scored.entry().canonical.length());
+        PriorityQueue<Scored> top = new PriorityQueue<>(limit + 1, order);
+        for (int id : candidates) {
+            Entry entry = entries.get(id);
+            double similarity = similarity(queryTrigrams, trigrams(entry.canonical, true));
+            if (entry.canonical.startsWith(canonical)) {
+                similarity = 1;
+            }
+            if (similarity < minSimilarity) {
+                continue;
+            }
+            double score = similarity * (1 + popularityWeight * Math.log1p(entry.hits.get()));
+            top.add(new Scored(entry, score));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Suggestion> result = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            Scored scored = top.poll();
+            result.add(new Suggestion(scored.entry().address, scored.entry().lat, scored.entry().lon,
+                    Math.round(scored.score() * 1000) / 1000.0));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Доля триграмм запроса, которые есть в адресе; оба массива отсортированы.
+     */
+    private static double similarity(long[] query, long[] candidate) {
+        int shared = 0;
+        for (long trigram : query) {
+            if (Arrays.binarySearch(candidate, trigram) >= 0) {
+                shared++;
+            }
+        }
+        return (double) shared / query.length;
+    }
+
+    /**
+     * Триграммы слов канонического адреса с двумя пробелами в начале каждого слова и одним в конце.
+     *
+     * @param canonical        Канонический адрес.
+     * @param completeLastWord Считать ли последнее слово законченным (для запроса - нет).
+     * @return Отсортированные различные триграммы, каждая упакована в {@code long} по 16 бит на символ.
+     */
+    static long[] trigrams(String canonical, boolean completeLastWord) {
+        String[] words = canonical.split(" ");
+        long[] result = new long[canonical.length() + 3 * words.length];
+        int count = 0;
+        for (int w = 0; w < words.length; w++) {
+            String padded = "  " + words[w] + (w < words.length - 1 || completeLastWord ? " " : "");
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                result[count++] = (long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16 | padded.charAt(i + 2);
+            }
+        }
+        long[] sorted = Arrays.copyOf(result, count);
+        Arrays.sort(sorted);
+        return Arrays.stream(sorted).distinct().toArray();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("geocoding.suggest.entries", this, SuggestIndex::size)
+                .description("Адреса в индексе подсказок")
+                .register(registry);
+        queryTimer = Timer.builder("geocoding.suggest.queries")
+                .description("Время подбора подсказок")
+                .register(registry);
+    }
+
+    private static final class Entry {
+        private final int id;
+        private final String address;
+        private final String canonical;
+        private final double lat;
+        private final double lon;
+        private final AtomicInteger hits = new AtomicInteger();
+
+        private Entry(int id, String address, String canonical, double lat, double lon) {
+            this.id = id;
+            this.address = address;
+            this.canonical = canonical;
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+
+    /** Список номеров адресов с данной триграммой в порядке добавления. */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    private record Scored(Entry entry, double score) {
+    }
+}
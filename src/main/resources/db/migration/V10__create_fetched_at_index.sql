@@ -0,0 +1,3 @@
+-- Досинхронизация L1 между узлами (ClusterCacheSync.resync) читает строки, полученные от внешнего API
+-- после заданного момента; без индекса каждый пропуск уведомлений просматривает всю таблицу.
+CREATE INDEX IF NOT EXISTS ix_cached_location_fetched_at ON cached_location (fetched_at);
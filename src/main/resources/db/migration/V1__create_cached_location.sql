@@ -0,0 +1,8 @@
+-- Исходная схема, которую раньше создавал Hibernate (ddl-auto=update).
+-- На существующих БД эта версия считается базовой (spring.flyway.baseline-on-migrate).
+CREATE TABLE IF NOT EXISTS cached_location (
+    id      BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    address VARCHAR(255),
+    lat     DOUBLE PRECISION,
+    lon     DOUBLE PRECISION
+);
@@ -0,0 +1,5 @@
+-- Ключи поиска: нормализованный адрес для прямого геокодирования
+-- и упакованные округленные координаты для обратного.
+-- Существующие строки заполняются миграцией V3 (BackfillLookupKeysMigration).
+ALTER TABLE cached_location ADD COLUMN IF NOT EXISTS address_key VARCHAR(255);
+ALTER TABLE cached_location ADD COLUMN IF NOT EXISTS coord_key BIGINT;
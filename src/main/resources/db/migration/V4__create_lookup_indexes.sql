@@ -0,0 +1,24 @@
+-- До появления уникальных индексов одновременные промахи могли сохранить одну локацию несколько раз.
+-- Ключ оставляем у самой ранней строки, у дубликатов обнуляем.
+CREATE INDEX ix_cached_location_address_key_tmp ON cached_location (address_key);
+CREATE INDEX ix_cached_location_coord_key_tmp ON cached_location (coord_key);
+
+UPDATE cached_location SET address_key = NULL
+WHERE address_key IS NOT NULL
+  AND EXISTS (SELECT 1 FROM cached_location d
+              WHERE d.address_key = cached_location.address_key AND d.id < cached_location.id);
+
+UPDATE cached_location SET coord_key = NULL
+WHERE coord_key IS NOT NULL
+  AND EXISTS (SELECT 1 FROM cached_location d
+              WHERE d.coord_key = cached_location.coord_key AND d.id < cached_location.id);
+
+DROP INDEX ix_cached_location_address_key_tmp;
+DROP INDEX ix_cached_location_coord_key_tmp;
+
+-- Строки, не оставшиеся владельцем ни одного ключа, больше не находятся поиском.
+DELETE FROM cached_location WHERE address_key IS NULL AND coord_key IS NULL;
+
+CREATE UNIQUE INDEX ux_cached_location_address_key ON cached_location (address_key);
+CREATE UNIQUE INDEX ux_cached_location_coord_key ON cached_location (coord_key);
+CREATE INDEX ix_cached_location_lat_lon ON cached_location (lat, lon);
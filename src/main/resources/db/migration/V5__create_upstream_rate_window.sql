@@ -0,0 +1,6 @@
+-- Счетчики общего для всех узлов лимита запросов к внешнему API (ClusterRateLimiter).
+-- window_start — начало секундного окна в миллисекундах эпохи, permits — выданные в нем разрешения.
+CREATE TABLE IF NOT EXISTS upstream_rate_window (
+    window_start BIGINT PRIMARY KEY,
+    permits      INTEGER NOT NULL
+);
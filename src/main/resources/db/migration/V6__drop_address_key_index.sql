@@ -0,0 +1,3 @@
+-- Ключи адресов пересчитываются новым нормализатором (V7); после пересчета разные старые ключи
+-- могут совпасть, поэтому уникальный индекс снимаем до дедупликации в V8.
+DROP INDEX ux_cached_location_address_key;
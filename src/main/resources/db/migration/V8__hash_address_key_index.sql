@@ -0,0 +1,17 @@
+-- После пересчета в V7 несколько строк могут получить один ключ адреса.
+-- Ключ оставляем у самой ранней строки, у дубликатов обнуляем (как в V4).
+CREATE INDEX ix_cached_location_address_key_tmp ON cached_location (address_key);
+
+UPDATE cached_location SET address_key = NULL
+WHERE address_key IS NOT NULL
+  AND EXISTS (SELECT 1 FROM cached_location d
+              WHERE d.address_key = cached_location.address_key AND d.id < cached_location.id);
+
+DROP INDEX ix_cached_location_address_key_tmp;
+
+DELETE FROM cached_location WHERE address_key IS NULL AND coord_key IS NULL;
+
+-- Ключ теперь хеш фиксированной длины (AddressNormalizer.KEY_LENGTH).
+ALTER TABLE cached_location ALTER COLUMN address_key SET DATA TYPE VARCHAR(32);
+
+CREATE UNIQUE INDEX ux_cached_location_address_key ON cached_location (address_key);
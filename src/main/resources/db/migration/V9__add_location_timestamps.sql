@@ -0,0 +1,5 @@
+-- Время получения результата от внешнего API (для TTL и фонового обновления)
+-- и время последнего обращения к нему. Существующие строки считаются полученными в момент миграции,
+-- чтобы их обновление распределилось по обращениям, а не началось сразу для всей таблицы.
+ALTER TABLE cached_location ADD COLUMN IF NOT EXISTS fetched_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP NOT NULL;
+ALTER TABLE cached_location ADD COLUMN IF NOT EXISTS accessed_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP NOT NULL;
@@ -0,0 +1,146 @@
+package com.voronkovam.geocoding_service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private BoundedCache<String, String> cache(long maxEntries, long maxWeight, Duration ttl, Duration idle) {
+        return new BoundedCache<>(maxEntries, maxWeight, ttl, idle, (k, v) -> v.length(), now::get);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWhenEntryLimitExceeded() {
+        BoundedCache<String, String> cache = cache(1, 100, Duration.ZERO, Duration.ZERO);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testEvictsWhenWeightLimitExceeded() {
+        BoundedCache<String, String> cache = cache(1, 5, Duration.ZERO, Duration.ZERO);
+
+        cache.put("a", "1234");
+        cache.put("a", "12345");
+        cache.put("b", "123456");
+
+        assertEquals("12345", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(5, cache.weight());
+    }
+
+    @Test
+    public void testExpiresAfterTtlRegardlessOfAccess() {
+        BoundedCache<String, String> cache = cache(10, 100, Duration.ofNanos(10), Duration.ZERO);
+
+        cache.put("a", "1");
+        now.set(5);
+        assertEquals("1", cache.get("a"));
+        now.set(10);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiresAfterIdleTimeout() {
+        BoundedCache<String, String> cache = cache(10, 100, Duration.ZERO, Duration.ofNanos(10));
+
+        cache.put("a", "1");
+        now.set(9);
+        assertEquals("1", cache.get("a"));
+        now.set(18);
+        assertEquals("1", cache.get("a"));
+        now.set(28);
+
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsCurrentValue() {
+        BoundedCache<String, String> cache = cache(10, 100, Duration.ZERO, Duration.ZERO);
+
+        cache.put("a", "1");
+
+        assertEquals("1", cache.putIfAbsent("a", "2", Duration.ofNanos(10)));
+        assertNull(cache.putIfAbsent("b", "2", Duration.ofNanos(10)));
+        assertEquals("1", cache.get("a"));
+        assertEquals("2", cache.get("b"));
+    }
+
+    @Test
+    public void testPutIfAbsentExpiresWithinGivenLifetime() {
+        BoundedCache<String, String> cache = cache(10, 100, Duration.ofNanos(100), Duration.ZERO);
+
+        cache.putIfAbsent("a", "1", Duration.ofNanos(10));
+        cache.putIfAbsent("b", "2", Duration.ofNanos(1000));
+        cache.putIfAbsent("c", "3", Duration.ZERO);
+        now.set(10);
+
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertNull(cache.get("c"));
+        now.set(100);
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void testInvalidateOnlyExpectedValue() {
+        BoundedCache<String, String> cache = cache(10, 100, Duration.ZERO, Duration.ZERO);
+        String stale = "1";
+        cache.put("a", stale);
+        cache.put("a", "2");
+
+        cache.invalidate("a", stale);
+        assertEquals("2", cache.get("a"));
+
+        cache.invalidate("a", cache.get("a"));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        BoundedCache<String, String> cache = cache(10, 100, Duration.ZERO, Duration.ZERO);
+
+        cache.put("a", "1");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testHottestOrderedByLastAccess() {
+        BoundedCache<String, String> cache = cache(10, 100, Duration.ofNanos(100), Duration.ZERO);
+
+        cache.put("expired", "0");
+        now.set(50);
+        cache.put("a", "1");
+        now.set(60);
+        cache.put("b", "2");
+        now.set(70);
+        cache.put("c", "3");
+        now.set(80);
+        cache.get("a");
+        now.set(100);
+
+        List<BoundedCache.Hot<String, String>> hottest = cache.hottest(2);
+
+        assertEquals(List.of(new BoundedCache.Hot<>("a", "1", Duration.ofNanos(50)),
+                new BoundedCache.Hot<>("c", "3", Duration.ofNanos(70))), hottest);
+        assertEquals(3, cache.hottest(10).size());
+    }
+}
@@ -0,0 +1,132 @@
+package com.voronkovam.geocoding_service.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterCacheSyncTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+    private final LocationCache nodeA = cache();
+    private final LocationCache nodeB = cache();
+    private final ClusterCacheSync syncA = sync(nodeA, 100);
+    private final ClusterCacheSync syncB = sync(nodeB, 100);
+
+    @Test
+    public void testPublishedLocationAppearsInPeerCache() {
+        Instant fetchedAt = Instant.parse("2024-01-01T00:00:00Z");
+        syncA.publishPut(location("Москва", "москва", null, 55.75, 37.61, fetchedAt));
+        CoordinateKey key = new CoordinateKey(55.75, 37.62);
+        syncA.publishPut(location("Москва, Россия", null, key.packed(), 55.75, 37.62, fetchedAt));
+
+        syncA.drainPayloads().forEach(syncB::receive);
+
+        assertEquals(new LocationEntry("Москва", 55.75, 37.61, fetchedAt), nodeB.getForward("москва"));
+        assertEquals(LocationEntry.exact("Москва, Россия", 55.75, 37.62, fetchedAt), nodeB.getReverse(key));
+    }
+
+    @Test
+    public void testEvictRemovesEntryFromPeerCache() {
+        nodeB.putForward("москва", new LocationEntry("Москва", 55.75, 37.61));
+        syncA.publishEvict("москва", null);
+
+        syncA.drainPayloads().forEach(syncB::receive);
+
+        assertNull(nodeB.getForward("москва"));
+    }
+
+    @Test
+    public void testOwnNotificationsIgnored() {
+        nodeA.putForward("москва", new LocationEntry("Москва", 55.75, 37.61));
+        syncA.publishEvict("москва", null);
+
+        syncA.drainPayloads().forEach(syncA::receive);
+
+        assertNotNull(nodeA.getForward("москва"));
+    }
+
+    @Test
+    public void testLargeBatchSplitIntoBoundedPayloads() {
+        ClusterCacheSync large = sync(nodeA, 1000);
+        for (int i = 0; i < 500; i++) {
+            large.publishPut(location("Москва, улица " + i, "москва улица " + i, null, 55.75, 37.61, null));
+        }
+
+        List<String> payloads = large.drainPayloads();
+
+        assertTrue(payloads.size() > 1);
+        payloads.forEach(payload ->
+                assertTrue(payload.getBytes(StandardCharsets.UTF_8).length <= ClusterCacheSync.MAX_PAYLOAD_BYTES + 100));
+        payloads.forEach(syncB::receive);
+        assertNotNull(nodeB.getForward("москва улица 499"));
+        Mockito.verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMissedNotificationTriggersResync() {
+        ClusterCacheSync small = sync(nodeA, 1);
+        small.publishPut(location("Москва", "москва", null, 55.75, 37.61, null));
+        small.drainPayloads().forEach(syncB::receive);
+        Mockito.when(jdbcTemplate.query(Mockito.anyString(), Mockito.any(RowMapper.class), Mockito.any(), Mockito.any()))
+                .thenReturn(List.of(new ClusterCacheSync.Event(ClusterCacheSync.Op.PUT, "тверь", null, "Тверь",
+                        56.86, 35.9, null)));
+
+        // очередь на одно событие: второе теряется, и номер следующего уведомления пропускается
+        small.publishPut(location("Казань", "казань", null, 55.79, 49.12, null));
+        small.publishPut(location("Тверь", "тверь", null, 56.86, 35.9, null));
+        small.drainPayloads().forEach(syncB::receive);
+        small.publishPut(location("Сочи", "сочи", null, 43.6, 39.73, null));
+        small.drainPayloads().forEach(syncB::receive);
+
+        assertNotNull(nodeB.getForward("казань"));
+        assertEquals("Тверь", nodeB.getForward("тверь").address());
+        assertNotNull(nodeB.getForward("сочи"));
+        Mockito.verify(jdbcTemplate).query(Mockito.anyString(), Mockito.any(RowMapper.class), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testSilentPeerForgotten() {
+        syncA.publishPut(location("Москва", "москва", null, 55.75, 37.61, null));
+        syncA.drainPayloads().forEach(syncB::receive);
+        assertEquals(1, syncB.peerCount());
+
+        syncB.expirePeers(Instant.now().plusSeconds(20));
+        assertEquals(1, syncB.peerCount());
+
+        syncB.expirePeers(Instant.now().plusSeconds(31));
+        assertEquals(0, syncB.peerCount());
+    }
+
+    private ClusterCacheSync sync(LocationCache cache, int queueCapacity) {
+        return new ClusterCacheSync(null, jdbcTemplate, cache, objectMapper, Duration.ofMillis(100),
+                Duration.ofSeconds(1), Duration.ofSeconds(10), queueCapacity, 1000);
+    }
+
+    private static LocationCache cache() {
+        return new LocationCache(true, 1000, 1_000_000, Duration.ofMinutes(5), Duration.ZERO);
+    }
+
+    private static CachedLocation location(String address, String addressKey, Long coordKey, double lat, double lon,
+                                           Instant fetchedAt) {
+        CachedLocation loc = new CachedLocation();
+        loc.setAddress(address);
+        loc.setAddressKey(addressKey);
+        loc.setCoordKey(coordKey);
+        loc.setLat(lat);
+        loc.setLon(lon);
+        loc.setFetchedAt(fetchedAt);
+        return loc;
+    }
+}
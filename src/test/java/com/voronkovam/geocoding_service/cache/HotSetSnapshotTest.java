@@ -0,0 +1,267 @@
+package com.voronkovam.geocoding_service.cache;
+
+import com.voronkovam.geocoding_service.model.MatchType;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotSetSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private final AddressNormalizer normalizer = new AddressNormalizer();
+    private final Instant fetchedAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+    @Test
+    public void testFileRoundTrip() throws IOException {
+        Path path = dir.resolve("hot-set.bin");
+        Instant expiresAt = fetchedAt.plus(1, ChronoUnit.HOURS);
+        List<HotSetFile.Item<String>> forward = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            forward.add(new HotSetFile.Item<>(normalizer.key("Москва, улица Тверская, " + i),
+                    new LocationEntry("Москва, улица Тверская, " + i, 55.757 + i / 1e5, 37.613, fetchedAt), expiresAt));
+        }
+        forward.add(item("not-a-key", new LocationEntry("Старый ключ", 1, 2)));
+        CoordinateKey exactKey = new CoordinateKey(55.75, 37.62);
+        CoordinateKey nearestKey = new CoordinateKey(55.75001, 37.62001);
+        List<HotSetFile.Item<CoordinateKey>> reverse = List.of(
+                new HotSetFile.Item<>(exactKey, LocationEntry.exact("Москва, Россия", 55.75, 37.62, fetchedAt),
+                        expiresAt),
+                item(nearestKey, LocationEntry.nearest("Москва, Россия", 55.75, 37.62, 1.3)));
+
+        assertEquals(1002, HotSetFile.write(path, forward, reverse));
+        HotSetFile file = HotSetFile.open(path);
+
+        assertEquals(1000, file.forwardCount());
+        assertEquals(2, file.reverseCount());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(forward.get(i), file.findForward(forward.get(i).key()));
+        }
+        assertNull(file.findForward(normalizer.key("Санкт-Петербург")));
+        assertNull(file.findForward("not-a-key"));
+        assertEquals(reverse.get(0), file.findReverse(exactKey));
+        LocationEntry nearest = file.findReverse(nearestKey).entry();
+        assertNull(file.findReverse(nearestKey).expiresAt());
+        assertEquals(MatchType.NEAREST, nearest.matchType());
+        assertEquals(1.3, nearest.distanceMeters());
+        assertNull(nearest.fetchedAt());
+        assertNull(file.findReverse(new CoordinateKey(10, 10)));
+        assertEquals(1000, file.forwardEntries().size());
+        assertEquals(reverse.size(), file.reverseEntries().size());
+    }
+
+    @Test
+    public void testOpenRejectsForeignFile() throws IOException {
+        Path path = dir.resolve("hot-set.bin");
+        Files.write(path, new byte[100]);
+
+        assertThrows(IOException.class, () -> HotSetFile.open(path));
+    }
+
+    @Test
+    public void testCorruptSlotsTreatedAsMiss() throws IOException {
+        String key = normalizer.key("Москва");
+        Path path = dir.resolve("hot-set.bin");
+        HotSetFile.write(path, List.of(item(key, new LocationEntry("Москва", 55.7558, 37.6173, fetchedAt))),
+                List.of());
+        // в таблице из двух ячеек занята одна: смещение адреса за пределами файла в обеих ячейках
+        // делает таблицу заполненной и запись нечитаемой
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int slot = 0; slot < 2; slot++) {
+            bytes.putInt(48 + slot * 56 + 48, Integer.MAX_VALUE);
+        }
+        Files.write(path, bytes.array());
+        HotSetFile file = HotSetFile.open(path);
+
+        assertNull(file.findForward(key));
+        assertNull(file.findForward(normalizer.key("Тверь")));
+        assertTrue(file.forwardEntries().isEmpty());
+    }
+
+    @Test
+    public void testRestartServesHotEntriesFromSnapshot() throws Exception {
+        String key = normalizer.key("Москва");
+        LocationEntry entry = new LocationEntry("Москва", 55.7558, 37.6173, fetchedAt);
+        CoordinateKey coordinates = new CoordinateKey(55.75, 37.62);
+        LocationEntry reverseEntry = LocationEntry.exact("Москва, Россия", 55.75, 37.62, fetchedAt);
+        LocationCache before = cache();
+        before.putForward(key, entry);
+        before.putReverse(coordinates, reverseEntry);
+        HotSetSnapshot writer = snapshot(before);
+        writer.afterPropertiesSet();
+        writer.destroy();
+
+        LocationCache after = cache();
+        HotSetSnapshot reader = snapshot(after);
+        assertTrue(reader.load());
+
+        assertEquals(entry, after.getForward(key));
+        assertEquals(reverseEntry, after.getReverse(coordinates));
+        assertNull(after.getForward(normalizer.key("Тверь")));
+    }
+
+    @Test
+    public void testReplacedAndEvictedEntriesNotServedFromSnapshot() throws IOException {
+        String moscow = normalizer.key("Москва");
+        String tver = normalizer.key("Тверь");
+        Path path = dir.resolve("hot-set.bin");
+        HotSetFile.write(path, List.of(
+                item(moscow, new LocationEntry("Москва", 55.7558, 37.6173, fetchedAt)),
+                item(tver, new LocationEntry("Тверь", 56.8587, 35.9176, fetchedAt))), List.of());
+        LocationCache cache = cache();
+        cache.attachSnapshot(HotSetFile.open(path), Duration.ofHours(1));
+
+        LocationEntry refreshed = new LocationEntry("Москва", 55.7559, 37.6174, Instant.now());
+        cache.putForward(moscow, refreshed);
+        cache.invalidateForward(moscow);
+        cache.invalidateForward(tver);
+
+        assertNull(cache.getForward(moscow));
+        assertNull(cache.getForward(tver));
+        assertTrue(cache.hottestForward(10).isEmpty());
+    }
+
+    @Test
+    public void testNextSnapshotKeepsEntriesNotYetRequested() throws Exception {
+        String moscow = normalizer.key("Москва");
+        String tver = normalizer.key("Тверь");
+        Path path = dir.resolve("hot-set.bin");
+        HotSetFile.write(path, List.of(
+                item(moscow, new LocationEntry("Москва", 55.7558, 37.6173, fetchedAt)),
+                item(tver, new LocationEntry("Тверь", 56.8587, 35.9176, fetchedAt))), List.of());
+        LocationCache cache = cache();
+        HotSetSnapshot snapshot = snapshot(cache);
+        assertTrue(snapshot.load());
+        String kazan = normalizer.key("Казань");
+        cache.putForward(kazan, new LocationEntry("Казань", 55.7963, 49.1088, fetchedAt));
+        cache.getForward(tver);
+
+        assertEquals(3, snapshot.write());
+
+        List<HotSetFile.Item<String>> written = HotSetFile.open(path).forwardEntries();
+        assertEquals(3, written.size());
+        assertEquals(List.of(tver, kazan), cache.hottestForward(2).stream().map(HotSetFile.Item::key).toList());
+    }
+
+    @Test
+    public void testExpiredSnapshotIgnored() throws IOException {
+        String key = normalizer.key("Москва");
+        Path path = dir.resolve("hot-set.bin");
+        HotSetFile.write(path, List.of(item(key, new LocationEntry("Москва", 55.7558, 37.6173, fetchedAt))),
+                List.of());
+        LocationCache cache = cache();
+
+        cache.attachSnapshot(HotSetFile.open(path), Duration.ofMillis(-1));
+
+        assertNull(cache.getForward(key));
+        assertFalse(new HotSetSnapshot(cache(), Optional.empty(), true, path.toString(), Duration.ofMinutes(5), 100, Duration.ofMillis(-1))
+                .load());
+    }
+
+    @Test
+    public void testEntriesFromSnapshotExpireWithSnapshot() throws Exception {
+        String key = normalizer.key("Москва");
+        Path path = dir.resolve("hot-set.bin");
+        HotSetFile.write(path, List.of(item(key, new LocationEntry("Москва", 55.7558, 37.6173, fetchedAt))),
+                List.of());
+        HotSetFile file = HotSetFile.open(path);
+        LocationCache cache = cache();
+        cache.attachSnapshot(file, Duration.between(file.createdAt(), Instant.now()).plusMillis(200));
+
+        assertNotNull(cache.getForward(key));
+        Thread.sleep(300);
+
+        assertNull(cache.getForward(key));
+    }
+
+    @Test
+    public void testLoadResyncsClusterChangesSinceSnapshot() throws IOException {
+        Path path = dir.resolve("hot-set.bin");
+        HotSetFile.write(path, List.of(), List.of());
+        Instant createdAt = HotSetFile.open(path).createdAt();
+        ClusterCacheSync clusterSync = Mockito.mock(ClusterCacheSync.class);
+        HotSetSnapshot snapshot = new HotSetSnapshot(cache(), Optional.of(clusterSync), true, path.toString(),
+                Duration.ofMinutes(5), 100, Duration.ofHours(1));
+
+        assertTrue(snapshot.load());
+
+        Mockito.verify(clusterSync).resync(createdAt.minus(ClusterCacheSync.RESYNC_MARGIN));
+    }
+
+    @Test
+    public void testRewriteKeepsEntryExpiry() throws Exception {
+        String moscow = normalizer.key("Москва");
+        String tver = normalizer.key("Тверь");
+        Instant soon = Instant.now().plusMillis(300);
+        Path path = dir.resolve("hot-set.bin");
+        HotSetFile.write(path, List.of(
+                new HotSetFile.Item<>(moscow, new LocationEntry("Москва", 55.7558, 37.6173, fetchedAt), soon),
+                new HotSetFile.Item<>(tver, new LocationEntry("Тверь", 56.8587, 35.9176, fetchedAt), soon)), List.of());
+        LocationCache cache = cache();
+        HotSetSnapshot snapshot = snapshot(cache);
+        assertTrue(snapshot.load());
+        cache.getForward(moscow);
+
+        assertEquals(2, snapshot.write());
+
+        // перезапуск: ни прочитанная, ни не тронутая запись не получают новый срок вместе с новым снимком
+        LocationCache restarted = cache();
+        assertTrue(snapshot(restarted).load());
+        for (HotSetFile.Item<String> written : HotSetFile.open(path).forwardEntries()) {
+            assertFalse(written.expiresAt().isAfter(soon), written.key());
+        }
+        assertNotNull(restarted.getForward(tver));
+        Thread.sleep(400);
+        assertNull(restarted.getForward(moscow));
+        assertNull(restarted.getForward(tver));
+        assertTrue(restarted.hottestForward(10).isEmpty());
+    }
+
+    @Test
+    public void testClearDetachesSnapshot() throws IOException {
+        String key = normalizer.key("Москва");
+        Path path = dir.resolve("hot-set.bin");
+        HotSetFile.write(path, List.of(item(key, new LocationEntry("Москва", 55.7558, 37.6173, fetchedAt))),
+                List.of());
+        LocationCache cache = cache();
+        cache.attachSnapshot(HotSetFile.open(path), Duration.ofHours(1));
+
+        cache.clear();
+
+        assertNull(cache.getForward(key));
+    }
+
+    @Test
+    public void testMissingFile() {
+        assertFalse(snapshot(cache()).load());
+    }
+
+    private static LocationCache cache() {
+        return new LocationCache(true, 1000, 1 << 20, Duration.ofHours(1), Duration.ZERO);
+    }
+
+    private HotSetSnapshot snapshot(LocationCache cache) {
+        return new HotSetSnapshot(cache, Optional.empty(), true, dir.resolve("hot-set.bin").toString(), Duration.ofMinutes(5), 100,
+                Duration.ofHours(1));
+    }
+
+    private static <K> HotSetFile.Item<K> item(K key, LocationEntry entry) {
+        return new HotSetFile.Item<>(key, entry, null);
+    }
+}
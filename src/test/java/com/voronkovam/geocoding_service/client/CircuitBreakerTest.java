@@ -0,0 +1,130 @@
+package com.voronkovam.geocoding_service.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker(true, 10, 4, 0.5, Duration.ofSeconds(30), 2, false,
+            now::get);
+
+    @Test
+    public void testOpensWhenFailureRateReachesThreshold() {
+        call(false);
+        call(true);
+        call(true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        call(false);
+        call(true);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.isCallPermitted());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(Duration.ofSeconds(30), breaker.retryAfter());
+    }
+
+    @Test
+    public void testNotOpenedBeforeMinimumCalls() {
+        call(true);
+        call(true);
+        call(true);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.isCallPermitted());
+    }
+
+    @Test
+    public void testHalfOpenClosesAfterSuccessfulProbes() {
+        open();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        assertTrue(breaker.isCallPermitted());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        breaker.onSuccess();
+        breaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.windowCalls());
+    }
+
+    @Test
+    public void testHalfOpenReopensOnFailedProbe() {
+        open();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    public void testHalfOpenReleaseFreesProbe() {
+        open();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.release();
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+    }
+
+    @Test
+    public void testCachedOnlyRejectsCallsUntilDisabled() {
+        breaker.setCachedOnly(true);
+
+        assertEquals(CircuitBreaker.State.FORCED_OPEN, breaker.state());
+        assertFalse(breaker.isCallPermitted());
+        assertFalse(breaker.tryAcquire());
+        assertNull(breaker.retryAfter());
+
+        breaker.setCachedOnly(false);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testDisabledBreakerNeverOpens() {
+        CircuitBreaker disabled = new CircuitBreaker(false, 10, 4, 0.5, Duration.ofSeconds(30), 2, false, now::get);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(disabled.tryAcquire());
+            disabled.onFailure();
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, disabled.state());
+        assertEquals(1.0, disabled.failureRate());
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private void call(boolean failure) {
+        assertTrue(breaker.tryAcquire());
+        if (failure) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+}
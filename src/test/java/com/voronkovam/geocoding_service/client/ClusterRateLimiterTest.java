@@ -0,0 +1,48 @@
+package com.voronkovam.geocoding_service.client;
+
+import com.voronkovam.geocoding_service.migration.BackfillLookupKeysMigration;
+import com.voronkovam.geocoding_service.migration.RehashAddressKeysMigration;
+import com.voronkovam.geocoding_service.migration.RekeyAddressesMigration;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ AddressNormalizer.class, BackfillLookupKeysMigration.class, RehashAddressKeysMigration.class,
+        RekeyAddressesMigration.class })
+class ClusterRateLimiterTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testTryAcquire_SharedLimitPerWindow() {
+        ClusterRateLimiter node1 = new ClusterRateLimiter(jdbcTemplate, 2);
+        ClusterRateLimiter node2 = new ClusterRateLimiter(jdbcTemplate, 2);
+
+        assertEquals(0, node1.tryAcquire(10_000));
+        assertEquals(0, node2.tryAcquire(10_100));
+        assertEquals(600, node1.tryAcquire(10_400));
+
+        assertEquals(0, node2.tryAcquire(11_000));
+    }
+
+    @Test
+    void testTryAcquire_RemovesOldWindows() {
+        ClusterRateLimiter limiter = new ClusterRateLimiter(jdbcTemplate, 1);
+
+        limiter.tryAcquire(1_000);
+        limiter.tryAcquire(120_000);
+
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM upstream_rate_window", Integer.class));
+    }
+}
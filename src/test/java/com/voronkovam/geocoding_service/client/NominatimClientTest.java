@@ -0,0 +1,311 @@
+package com.voronkovam.geocoding_service.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.voronkovam.geocoding_service.exception.UpstreamException;
+import com.voronkovam.geocoding_service.metrics.GeocodingMetrics;
+import com.voronkovam.geocoding_service.model.NominatimResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NominatimClientTest {
+
+    private HttpServer server;
+    private HttpServer secondServer;
+    private NominatimClient client;
+    private GeocodingMetrics metrics;
+    private HttpClient httpClient;
+    private final AtomicReference<String> lastQuery = new AtomicReference<>();
+    private final AtomicReference<String> lastUserAgent = new AtomicReference<>();
+    private volatile int status = 200;
+    private volatile String body = "[]";
+    private volatile long delayMillis = 0;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            lastQuery.set(exchange.getRequestURI().getRawQuery());
+            lastUserAgent.set(exchange.getRequestHeaders().getFirst("User-Agent"));
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+
+        metrics = new GeocodingMetrics();
+        metrics.bindTo(meterRegistry);
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+        client = new NominatimClient(httpClient, new ObjectMapper(), metrics, List.of(url(server)),
+                Duration.ofSeconds(1), "geocoding-service/test", false, 0.95, Duration.ofSeconds(1), Duration.ZERO,
+                0, 256, () -> 0, () -> true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+        if (secondServer != null) {
+            secondServer.stop(0);
+        }
+    }
+
+    @Test
+    public void testSearch_ParsesFirstResultAndEncodesQuery() {
+        body = """
+                [{"place_id": 1, "display_name": "Москва, Россия", "lat": "55.7558", "lon": "37.6173"}]
+                """;
+
+        Optional<NominatimResponse> response = client.searchAsync("Москва, Тверская 1").join();
+
+        assertTrue(response.isPresent());
+        assertEquals(55.7558, response.get().getLat());
+        assertEquals(37.6173, response.get().getLon());
+        assertTrue(lastQuery.get().startsWith("q=%D0%9C%D0%BE%D1%81%D0%BA%D0%B2%D0%B0%2C+"));
+        assertEquals("geocoding-service/test", lastUserAgent.get());
+    }
+
+    @Test
+    public void testSearch_EmptyResult() {
+        body = "[]";
+
+        assertTrue(client.searchAsync("несуществующий адрес").join().isEmpty());
+    }
+
+    @Test
+    public void testReverse_ErrorBodyMeansNotFound() {
+        body = """
+                {"error": "Unable to geocode"}
+                """;
+
+        assertTrue(client.reverseAsync(0.0, 0.0).join().isEmpty());
+    }
+
+    @Test
+    public void testReverse_ServerErrorFailsWithUpstreamException() {
+        status = 503;
+        body = "";
+
+        CompletionException e = assertThrows(CompletionException.class, () -> client.reverseAsync(55.75, 37.62).join());
+        assertInstanceOf(UpstreamException.class, e.getCause());
+    }
+
+    @Test
+    public void testMetrics_RecordOutcomeAndInFlight() {
+        body = "[]";
+        client.searchAsync("Москва").join();
+        status = 503;
+        assertThrows(CompletionException.class, () -> client.searchAsync("Москва").join());
+
+        assertEquals(1, meterRegistry.get("geocoding.upstream.requests")
+                .tags("endpoint", "search", "status", "200", "outcome", "not_found").timer().count());
+        assertEquals(1, meterRegistry.get("geocoding.upstream.requests")
+                .tags("endpoint", "search", "status", "503", "outcome", "http_error").timer().count());
+        assertEquals(1, meterRegistry.get("geocoding.upstream.parse").tags("endpoint", "search").timer().count());
+        assertEquals(0, meterRegistry.get("geocoding.upstream.in-flight").gauge().value());
+    }
+
+    @Test
+    public void testSearch_SlowUpstreamTimesOut() {
+        delayMillis = 2_000;
+
+        CompletionException e = assertThrows(CompletionException.class, () -> client.searchAsync("Москва").join());
+        assertInstanceOf(UpstreamException.class, e.getCause());
+        assertTrue(e.getCause().getMessage().startsWith("Превышено время ожидания"));
+    }
+
+    @Test
+    public void testHedge_SlowEndpointAnsweredBySecond() throws IOException, InterruptedException {
+        delayMillis = 1_500;
+        body = "[]";
+        AtomicInteger secondRequests = new AtomicInteger();
+        secondServer = startServer(secondRequests, 200, """
+                [{"place_id": 1, "display_name": "Москва, Россия", "lat": "55.7558", "lon": "37.6173"}]
+                """);
+        NominatimClient hedging = twoEndpointClient(true);
+
+        long start = System.nanoTime();
+        Optional<NominatimResponse> response = hedging.searchAsync("Москва").join();
+
+        assertTrue(response.isPresent());
+        assertTrue(System.nanoTime() - start < 1_000_000_000L, "ответ должен прийти от второго экземпляра");
+        assertEquals(1, secondRequests.get());
+        assertEquals(1, meterRegistry.get("geocoding.upstream.hedge").tag("outcome", "sent").functionCounter().count());
+        assertEquals(1, meterRegistry.get("geocoding.upstream.hedge").tag("outcome", "won").functionCounter().count());
+        for (int i = 0; i < 100 && meterRegistry.find("geocoding.upstream.requests").tag("outcome", "cancelled").timer() == null; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, meterRegistry.get("geocoding.upstream.requests").tag("outcome", "cancelled").timer().count());
+    }
+
+    @Test
+    public void testHedge_FastEndpointNotDuplicated() throws IOException {
+        body = "[]";
+        AtomicInteger secondRequests = new AtomicInteger();
+        secondServer = startServer(secondRequests, 200, "[]");
+        NominatimClient hedging = twoEndpointClient(true);
+
+        assertTrue(hedging.searchAsync("Москва").join().isEmpty());
+
+        assertEquals(0, secondRequests.get());
+    }
+
+    @Test
+    public void testFailover_ServerErrorRetriedOnNextEndpoint() throws IOException {
+        status = 503;
+        body = "";
+        AtomicInteger secondRequests = new AtomicInteger();
+        secondServer = startServer(secondRequests, 200, """
+                {"display_name": "Москва, Россия", "lat": "55.75", "lon": "37.62"}
+                """);
+        NominatimClient failover = twoEndpointClient(false);
+
+        Optional<NominatimResponse> response = failover.reverseAsync(55.75, 37.62).join();
+
+        assertEquals("Москва, Россия", response.orElseThrow().getDisplay_name());
+        assertEquals(1, secondRequests.get());
+    }
+
+    @Test
+    public void testHedge_SkippedWhenRateLimited() throws IOException {
+        delayMillis = 500;
+        body = "[]";
+        AtomicInteger secondRequests = new AtomicInteger();
+        secondServer = startServer(secondRequests, 200, "[]");
+        NominatimClient hedging = twoEndpointClient(true, () -> false);
+
+        assertTrue(hedging.searchAsync("Москва").join().isEmpty());
+
+        assertEquals(0, secondRequests.get());
+        assertEquals(0, meterRegistry.get("geocoding.upstream.hedge").tag("outcome", "sent").functionCounter().count());
+        assertEquals(1, meterRegistry.get("geocoding.upstream.hedge").tag("outcome", "throttled").functionCounter().count());
+    }
+
+    @Test
+    public void testFailover_SkippedWhenRateLimited() throws IOException {
+        status = 503;
+        body = "";
+        AtomicInteger secondRequests = new AtomicInteger();
+        secondServer = startServer(secondRequests, 200, "[]");
+        NominatimClient failover = twoEndpointClient(false, () -> false);
+
+        CompletionException e = assertThrows(CompletionException.class, () -> failover.searchAsync("Москва").join());
+
+        assertInstanceOf(UpstreamException.class, e.getCause());
+        assertEquals(0, secondRequests.get());
+    }
+
+    @Test
+    public void testFailover_AllEndpointsFail() throws IOException {
+        status = 503;
+        body = "";
+        secondServer = startServer(new AtomicInteger(), 502, "");
+        NominatimClient failover = twoEndpointClient(false);
+
+        CompletionException e = assertThrows(CompletionException.class, () -> failover.reverseAsync(55.75, 37.62).join());
+        assertInstanceOf(UpstreamException.class, e.getCause());
+    }
+
+    @Test
+    public void testHedgeDelay_FollowsLatencyPercentile() {
+        UpstreamEndpoint endpoint = new UpstreamEndpoint("http://nominatim", 100);
+        assertEquals(Duration.ofSeconds(1), client.hedgeDelay(endpoint));
+
+        for (int millis = 1; millis <= 100; millis++) {
+            endpoint.recordSuccess(Duration.ofMillis(millis).toNanos());
+        }
+
+        assertEquals(Duration.ofMillis(95), client.hedgeDelay(endpoint));
+        assertEquals(Duration.ofMillis(50).toNanos(), endpoint.latency(0.5));
+    }
+
+    @Test
+    public void testLatency_CancelledAttemptCountsAsLowerBound() {
+        UpstreamEndpoint endpoint = new UpstreamEndpoint("http://nominatim", 100);
+        for (int i = 0; i < 10; i++) {
+            endpoint.recordSuccess(Duration.ofMillis(10).toNanos());
+        }
+        endpoint.recordFailure();
+        double errorRate = endpoint.errorRate();
+        for (int i = 0; i < 10; i++) {
+            endpoint.recordCancelled(Duration.ofSeconds(2).toNanos());
+        }
+
+        assertEquals(Duration.ofSeconds(2).toNanos(), endpoint.latency(0.95));
+        assertEquals(errorRate, endpoint.errorRate());
+    }
+
+    @Test
+    public void testWeight_PrefersHealthyAndFastEndpoint() {
+        UpstreamEndpoint fast = new UpstreamEndpoint("http://fast", 100);
+        UpstreamEndpoint slow = new UpstreamEndpoint("http://slow", 100);
+        UpstreamEndpoint failing = new UpstreamEndpoint("http://failing", 100);
+        for (int i = 0; i < 20; i++) {
+            fast.recordSuccess(Duration.ofMillis(20).toNanos());
+            slow.recordSuccess(Duration.ofMillis(400).toNanos());
+            failing.recordSuccess(Duration.ofMillis(20).toNanos());
+            failing.recordFailure();
+        }
+        long defaultLatency = Duration.ofSeconds(1).toNanos();
+
+        assertTrue(fast.weight(defaultLatency) > slow.weight(defaultLatency));
+        assertTrue(fast.weight(defaultLatency) > failing.weight(defaultLatency));
+        assertTrue(failing.weight(defaultLatency) > 0);
+    }
+
+    private NominatimClient twoEndpointClient(boolean hedge) {
+        return twoEndpointClient(hedge, () -> true);
+    }
+
+    private NominatimClient twoEndpointClient(boolean hedge, BooleanSupplier extraPermits) {
+        NominatimClient twoEndpoints = new NominatimClient(httpClient, new ObjectMapper(), metrics,
+                List.of(url(server), url(secondServer)), Duration.ofSeconds(3), "geocoding-service/test", hedge, 0.95,
+                Duration.ofMillis(100), Duration.ZERO, 1, 256, () -> 0, extraPermits);
+        twoEndpoints.bindTo(meterRegistry);
+        return twoEndpoints;
+    }
+
+    private static HttpServer startServer(AtomicInteger requests, int status, String body) throws IOException {
+        HttpServer started = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        started.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        started.start();
+        return started;
+    }
+
+    private static String url(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
@@ -0,0 +1,239 @@
+package com.voronkovam.geocoding_service.client;
+
+import com.voronkovam.geocoding_service.exception.UpstreamException;
+import com.voronkovam.geocoding_service.exception.UpstreamThrottledException;
+import com.voronkovam.geocoding_service.exception.UpstreamUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpstreamSchedulerTest {
+
+    private UpstreamScheduler scheduler;
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (scheduler != null) {
+            scheduler.destroy();
+        }
+    }
+
+    @Test
+    public void testTokenBucket_RefillsAtConfiguredRate() {
+        AtomicLong now = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(2, 2, now::get);
+
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.tryAcquire());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, bucket.tryAcquire());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    public void testTokenBucket_ReleaseReturnsToken() {
+        AtomicLong now = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(1, 1, now::get);
+
+        assertEquals(0, bucket.tryAcquire());
+        bucket.release();
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+
+        bucket.release();
+        bucket.release();
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    public void testSubmit_ClusterDelayKeepsLocalToken() throws Exception {
+        ClusterRateLimiter clusterLimiter = Mockito.mock(ClusterRateLimiter.class);
+        Mockito.when(clusterLimiter.tryAcquire()).thenReturn(10L, 0L);
+        // часы узла стоят: новых токенов нет, хватит только двух исходных
+        scheduler = new UpstreamScheduler(1, 2, 10, Duration.ofSeconds(5), Duration.ofSeconds(5), clusterLimiter,
+                new CircuitBreaker(false, 10, 5, 0.5, Duration.ofSeconds(30), 1, false), () -> 0L);
+        scheduler.afterPropertiesSet();
+
+        CompletableFuture<String> first = scheduler.submit(UpstreamPriority.BATCH,
+                () -> CompletableFuture.completedFuture("first"));
+        CompletableFuture<String> second = scheduler.submit(UpstreamPriority.BATCH,
+                () -> CompletableFuture.completedFuture("second"));
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        Mockito.verify(clusterLimiter, Mockito.times(3)).tryAcquire();
+    }
+
+    @Test
+    public void testTryAcquireExtra_SharesLimitWithQueuedRequests() {
+        ClusterRateLimiter clusterLimiter = Mockito.mock(ClusterRateLimiter.class);
+        Mockito.when(clusterLimiter.tryAcquire()).thenReturn(0L, 10L, 0L);
+        scheduler = new UpstreamScheduler(1, 2, 10, Duration.ofSeconds(5), Duration.ofSeconds(5), clusterLimiter,
+                new CircuitBreaker(false, 10, 5, 0.5, Duration.ofSeconds(30), 1, false), () -> 0L);
+
+        assertTrue(scheduler.tryAcquireExtra());
+        // общий лимит исчерпан: токен узла возвращается
+        assertFalse(scheduler.tryAcquireExtra());
+        assertTrue(scheduler.tryAcquireExtra());
+        // токенов узла больше нет, общий лимит не запрашивается
+        assertFalse(scheduler.tryAcquireExtra());
+        Mockito.verify(clusterLimiter, Mockito.times(3)).tryAcquire();
+    }
+
+    @Test
+    public void testSubmit_InteractiveGoesAheadOfBatch() throws Exception {
+        scheduler = start(10, 100, Duration.ofSeconds(5));
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        // первый запрос забирает токен, остальные ждут следующего в очереди
+        scheduler.submit(UpstreamPriority.BATCH, () -> record(order, "batch-1")).get(5, TimeUnit.SECONDS);
+        CompletableFuture<String> second = scheduler.submit(UpstreamPriority.BATCH, () -> record(order, "batch-2"));
+        CompletableFuture<String> third = scheduler.submit(UpstreamPriority.BATCH, () -> record(order, "batch-3"));
+        CompletableFuture<String> interactive = scheduler.submit(UpstreamPriority.INTERACTIVE,
+                () -> record(order, "interactive"));
+
+        CompletableFuture.allOf(second, third, interactive).get(5, TimeUnit.SECONDS);
+        assertEquals("batch-1", order.get(0));
+        assertEquals("interactive", order.get(1));
+        assertEquals(List.of("batch-2", "batch-3"), order.subList(2, 4));
+    }
+
+    @Test
+    public void testSubmit_FullQueueFailsFast() throws Exception {
+        scheduler = start(0.1, 2, Duration.ofSeconds(5));
+        // первый запрос забирает единственный токен, остальные ждут следующего через 10 секунд
+        scheduler.submit(UpstreamPriority.BATCH, () -> CompletableFuture.completedFuture("ok")).join();
+        scheduler.submit(UpstreamPriority.BATCH, () -> CompletableFuture.completedFuture("ok"));
+        scheduler.submit(UpstreamPriority.BATCH, () -> CompletableFuture.completedFuture("ok"));
+        // диспетчер ненадолго забирает голову очереди, пока проверяет токен
+        for (int i = 0; i < 100 && scheduler.queueSize() < 2; i++) {
+            Thread.sleep(10);
+        }
+
+        CompletableFuture<String> rejected = scheduler.submit(UpstreamPriority.INTERACTIVE,
+                () -> CompletableFuture.completedFuture("ok"));
+
+        assertTrue(rejected.isCompletedExceptionally());
+        CompletionException e = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(UpstreamThrottledException.class, e.getCause());
+    }
+
+    @Test
+    public void testSubmit_QueueTimeout() {
+        scheduler = start(0.1, 10, Duration.ofMillis(200));
+        scheduler.submit(UpstreamPriority.INTERACTIVE, () -> CompletableFuture.completedFuture("ok")).join();
+
+        CompletableFuture<String> waiting = scheduler.submit(UpstreamPriority.INTERACTIVE,
+                () -> CompletableFuture.completedFuture("ok"));
+
+        CompletionException e = assertThrows(CompletionException.class, waiting::join);
+        assertInstanceOf(UpstreamThrottledException.class, e.getCause());
+        assertEquals(0, scheduler.queueSize());
+    }
+
+    @Test
+    public void testSubmit_FailsFastWhenCircuitOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(true, 2, 2, 0.5, Duration.ofMinutes(1), 1, false);
+        scheduler = start(1000, 10, Duration.ofSeconds(5), breaker);
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<String> failing = scheduler.submit(UpstreamPriority.INTERACTIVE,
+                    () -> CompletableFuture.failedFuture(new UpstreamException("Ошибка внешнего API")));
+            assertThrows(CompletionException.class, failing::join);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        AtomicLong calls = new AtomicLong();
+        CompletableFuture<String> rejected = scheduler.submit(UpstreamPriority.INTERACTIVE, () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("ok");
+        });
+
+        CompletionException e = assertThrows(CompletionException.class, rejected::join);
+        UpstreamUnavailableException unavailable = assertInstanceOf(UpstreamUnavailableException.class, e.getCause());
+        assertNotNull(unavailable.getRetryAfter());
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testSubmit_RejectedProbeKeepsToken() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(true, 2, 2, 0.5, Duration.ZERO, 1, false);
+        // часы узла стоят: токенов ровно четыре
+        scheduler = new UpstreamScheduler(1, 4, 10, Duration.ofSeconds(5), Duration.ofSeconds(5), null, breaker,
+                () -> 0L);
+        scheduler.afterPropertiesSet();
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<String> failing = scheduler.submit(UpstreamPriority.INTERACTIVE,
+                    () -> CompletableFuture.failedFuture(new UpstreamException("Ошибка внешнего API")));
+            assertThrows(CompletionException.class, failing::join);
+        }
+        CompletableFuture<String> probeResponse = new CompletableFuture<>();
+        CompletableFuture<String> probe = scheduler.submit(UpstreamPriority.INTERACTIVE, () -> probeResponse);
+        for (int i = 0; i < 100 && breaker.state() != CircuitBreaker.State.HALF_OPEN; i++) {
+            Thread.sleep(10);
+        }
+
+        // пробный запрос уже отправлен, второй отклоняется, не расходуя токен
+        CompletableFuture<String> rejected = scheduler.submit(UpstreamPriority.INTERACTIVE,
+                () -> CompletableFuture.completedFuture("ok"));
+        CompletionException e = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(UpstreamUnavailableException.class, e.getCause());
+        probeResponse.complete("probe");
+        assertEquals("probe", probe.get(5, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        assertEquals("ok", scheduler.submit(UpstreamPriority.INTERACTIVE,
+                () -> CompletableFuture.completedFuture("ok")).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSubmit_CachedOnlySkipsUpstream() {
+        CircuitBreaker breaker = new CircuitBreaker(true, 10, 5, 0.5, Duration.ofMinutes(1), 1, false);
+        scheduler = start(1000, 10, Duration.ofSeconds(5), breaker);
+        breaker.setCachedOnly(true);
+
+        CompletableFuture<String> rejected = scheduler.submit(UpstreamPriority.INTERACTIVE,
+                () -> CompletableFuture.completedFuture("ok"));
+
+        CompletionException e = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(UpstreamUnavailableException.class, e.getCause());
+
+        breaker.setCachedOnly(false);
+        assertEquals("ok", scheduler.submit(UpstreamPriority.INTERACTIVE,
+                () -> CompletableFuture.completedFuture("ok")).join());
+    }
+
+    private static UpstreamScheduler start(double permitsPerSecond, int capacity, Duration timeout) {
+        return start(permitsPerSecond, capacity, timeout,
+                new CircuitBreaker(false, 10, 5, 0.5, Duration.ofSeconds(30), 1, false));
+    }
+
+    private static UpstreamScheduler start(double permitsPerSecond, int capacity, Duration timeout,
+                                           CircuitBreaker breaker) {
+        UpstreamScheduler scheduler = new UpstreamScheduler(permitsPerSecond, 1, capacity, timeout, timeout,
+                null, breaker, System::nanoTime);
+        scheduler.afterPropertiesSet();
+        return scheduler;
+    }
+
+    private static CompletableFuture<String> record(List<String> order, String name) {
+        order.add(name);
+        return CompletableFuture.completedFuture(name);
+    }
+}
@@ -0,0 +1,40 @@
+package com.voronkovam.geocoding_service.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataSourceConfigTest {
+
+    @Test
+    public void testReadOnlyTransactionsGoToReplica() {
+        DataSource dataSource = new DataSourceConfig().dataSource(database("primary"), database("replica"));
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        TransactionTemplate readOnly = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        readOnly.setReadOnly(true);
+        TransactionTemplate readWrite = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        assertEquals("replica", readOnly.execute(status -> server(jdbcTemplate)));
+        assertEquals("primary", readWrite.execute(status -> server(jdbcTemplate)));
+        assertEquals("primary", server(jdbcTemplate));
+    }
+
+    private static String server(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.queryForObject("SELECT name FROM server", String.class);
+    }
+
+    private static DataSource database(String name) {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS server (name VARCHAR(16))");
+        jdbcTemplate.update("DELETE FROM server");
+        jdbcTemplate.update("INSERT INTO server (name) VALUES (?)", name);
+        return dataSource;
+    }
+}
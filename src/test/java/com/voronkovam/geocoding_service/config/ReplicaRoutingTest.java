@@ -0,0 +1,87 @@
+package com.voronkovam.geocoding_service.config;
+
+import com.voronkovam.geocoding_service.migration.BackfillLookupKeysMigration;
+import com.voronkovam.geocoding_service.migration.RehashAddressKeysMigration;
+import com.voronkovam.geocoding_service.migration.RekeyAddressesMigration;
+import com.voronkovam.geocoding_service.repository.CachedLocationRepository;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Маршрутизация запросов репозитория через {@code JpaTransactionManager}: реплика — отдельная база H2
+ * с той же схемой, поэтому по содержимому видно, на какой сервер ушел запрос.
+ */
+@DataJpaTest(properties = {
+        "geocoding.datasource.replica.enabled=true",
+        "geocoding.datasource.replica.jdbc-url=" + ReplicaRoutingTest.REPLICA_URL,
+        "geocoding.datasource.replica.username=sa",
+        "geocoding.datasource.replica.password="
+})
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ DataSourceConfig.class, AddressNormalizer.class, BackfillLookupKeysMigration.class,
+        RehashAddressKeysMigration.class, RekeyAddressesMigration.class })
+// тестовая транзакция на запись привязала бы все запросы к основному серверу
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ReplicaRoutingTest {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:jpa-replica;DB_CLOSE_DELAY=-1;MODE=PostgreSQL";
+
+    private static final DataSource replica = new DriverManagerDataSource(REPLICA_URL, "sa", "");
+
+    @Autowired
+    private CachedLocationRepository repository;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primary;
+
+    @BeforeAll
+    static void createReplicaSchema() {
+        Flyway.configure().dataSource(replica).locations("classpath:db/migration").load().migrate();
+    }
+
+    @AfterEach
+    void tearDown() {
+        new JdbcTemplate(primary).update("DELETE FROM cached_location");
+        new JdbcTemplate(replica).update("DELETE FROM cached_location");
+    }
+
+    @Test
+    public void testRepositoryReadsFromReplicaAndWritesToPrimary() {
+        new JdbcTemplate(replica).update(
+                "INSERT INTO cached_location (address, address_key, lat, lon) VALUES (?, ?, ?, ?)",
+                "Москва (реплика)", "москва", 55.75, 37.61);
+
+        assertEquals("Москва (реплика)", repository.findByAddressKey("москва").orElseThrow().getAddress());
+
+        assertEquals(1, repository.insertIfAbsent("Казань", "казань", null, 55.79, 49.12));
+
+        assertEquals(1, count(primary, "казань"));
+        assertEquals(0, count(replica, "казань"));
+        assertEquals(0, count(primary, "москва"));
+        assertTrue(repository.findByAddressKey("казань").isEmpty(), "чтение идет с реплики, куда строка не дошла");
+    }
+
+    private static int count(DataSource dataSource, String addressKey) {
+        return new JdbcTemplate(dataSource).queryForObject(
+                "SELECT COUNT(*) FROM cached_location WHERE address_key = ?", Integer.class, addressKey);
+    }
+}
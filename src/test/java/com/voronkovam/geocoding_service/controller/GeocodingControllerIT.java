@@ -1,14 +1,19 @@
 package com.voronkovam.geocoding_service.controller;
 
+import com.voronkovam.geocoding_service.cache.LocationCache;
+import com.voronkovam.geocoding_service.cache.NegativeCache;
 import com.voronkovam.geocoding_service.model.CachedLocation;
 import com.voronkovam.geocoding_service.model.DirectGeocodingRequest;
 import com.voronkovam.geocoding_service.model.GeocodingResponse;
 import com.voronkovam.geocoding_service.model.ReverseGeocodingRequest;
 import com.voronkovam.geocoding_service.repository.CachedLocationRepository;
+import com.voronkovam.geocoding_service.repository.CachedLocationWriter;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpStatus;
@@ -21,6 +26,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
+@AutoConfigureObservability(tracing = false)
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class GeocodingControllerIT {
     @Autowired
@@ -29,9 +35,23 @@ class GeocodingControllerIT {
     @Autowired
     private CachedLocationRepository repository;
 
+    @Autowired
+    private CachedLocationWriter writer;
+
+    @Autowired
+    private LocationCache locationCache;
+
+    @Autowired
+    private NegativeCache negativeCache;
+
+    @Autowired
+    private AddressNormalizer addressNormalizer;
+
     @BeforeEach
     void setUp() {
         repository.deleteAll();
+        locationCache.clear();
+        negativeCache.clear();
     }
 
     @Test
@@ -53,10 +73,28 @@ class GeocodingControllerIT {
         assertNotNull(body.getLon());
 
         // Проверка на кэш
+        writer.flush();
         Optional<CachedLocation> cached = repository.findByAddress("Москва");
         assertTrue(cached.isPresent());
     }
 
+    @Test
+    void testPrometheus_ExposesStageMetrics() {
+        repository.insertIfAbsent("Казань", addressNormalizer.key("Казань"), null, 55.79, 49.12);
+        DirectGeocodingRequest request = new DirectGeocodingRequest();
+        request.setAddress("Казань");
+        restTemplate.postForEntity("/api/geocode/direct", request, GeocodingResponse.class);
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/actuator/prometheus", String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String metrics = response.getBody();
+        assertNotNull(metrics);
+        assertTrue(metrics.contains("geocoding_lookups_total{application=\"geocoding-service\",source=\"db\",type=\"forward\"}"));
+        assertTrue(metrics.contains("geocoding_db_queries_seconds_bucket{"));
+        assertTrue(metrics.contains("geocoding_upstream_in_flight"));
+    }
+
     @Test
     void testReverseGeocode_FromExternalApi() {
         ReverseGeocodingRequest request = new ReverseGeocodingRequest();
@@ -76,6 +114,7 @@ class GeocodingControllerIT {
         assertEquals(55.75, body.getLat());
         assertEquals(37.62, body.getLon());
 
+        writer.flush();
         Optional<CachedLocation> cached = repository.findByLatAndLon(55.75, 37.62);
         assertTrue(cached.isPresent());
     }
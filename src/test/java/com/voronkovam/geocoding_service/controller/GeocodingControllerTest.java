@@ -0,0 +1,275 @@
+package com.voronkovam.geocoding_service.controller;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.client.UpstreamPriority;
+import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import com.voronkovam.geocoding_service.model.MatchType;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import com.voronkovam.geocoding_service.service.BatchGeocodingService;
+import com.voronkovam.geocoding_service.service.GeocodingService;
+import com.voronkovam.geocoding_service.service.StreamingGeocodingService;
+import com.voronkovam.geocoding_service.service.SuggestIndex;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(GeocodingController.class)
+@Import(AddressNormalizer.class)
+class GeocodingControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private GeocodingService service;
+
+    @MockitoBean
+    private BatchGeocodingService batchService;
+
+    @MockitoBean
+    private StreamingGeocodingService streamingService;
+
+    @MockitoBean
+    private SuggestIndex suggestIndex;
+
+    @Test
+    public void testDirectGet_CacheHeaders() throws Exception {
+        when(service.geocodeAsync("москва улица тверская 1", UpstreamPriority.INTERACTIVE))
+                .thenReturn(CompletableFuture.completedFuture(response("Москва, улица Тверская, 1", 55.757, 37.613)));
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/direct").param("address", "москва улица тверская 1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.lat").value(55.757))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600, public"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andReturn();
+
+        String etag = result.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        assertFalse(etag.startsWith("W/"), "ETag должен быть строгим");
+    }
+
+    @Test
+    public void testDirectGet_NotModified() throws Exception {
+        GeocodingResponse response = response("Москва", 55.7558, 37.6173);
+        when(service.geocodeAsync("москва", UpstreamPriority.INTERACTIVE))
+                .thenReturn(CompletableFuture.completedFuture(response));
+        String etag = GeocodingController.etag("москва", response, "j");
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/direct").param("address", "москва")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    public void testDirectGet_ChangedResultInMemory() throws Exception {
+        GeocodingResponse response = response("Москва", 55.7558, 37.6173);
+        String stale = GeocodingController.etag("москва", response("Москва", 55.75, 37.61), "j");
+        when(service.forwardInMemory("москва")).thenReturn(Optional.of(response));
+        when(service.geocodeAsync("москва", UpstreamPriority.INTERACTIVE))
+                .thenReturn(CompletableFuture.completedFuture(response));
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/direct").param("address", "москва")
+                        .header(HttpHeaders.IF_NONE_MATCH, stale))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, GeocodingController.etag("москва", response, "j")));
+    }
+
+    @Test
+    public void testDirectGet_NotModifiedWithoutLookup() throws Exception {
+        GeocodingResponse response = response("Москва", 55.7558, 37.6173);
+        when(service.forwardInMemory("москва")).thenReturn(Optional.of(response));
+        String etag = GeocodingController.etag("москва", response, "j");
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/direct").param("address", "москва")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"0123456789abcdef-0123456789abcdef\", " + etag))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+
+        verify(service, never()).geocodeAsync(anyString(), any());
+    }
+
+    @Test
+    public void testDirectGet_StaleTagLooksUpWhenNotInMemory() throws Exception {
+        GeocodingResponse response = response("Москва", 55.7558, 37.6173);
+        String stale = GeocodingController.etag("москва", response("Москва", 55.75, 37.61), "j");
+        when(service.forwardInMemory("москва")).thenReturn(Optional.empty());
+        when(service.geocodeAsync("москва", UpstreamPriority.INTERACTIVE))
+                .thenReturn(CompletableFuture.completedFuture(response));
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/direct").param("address", "москва")
+                        .header(HttpHeaders.IF_NONE_MATCH, stale))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, GeocodingController.etag("москва", response, "j")));
+    }
+
+    @Test
+    public void testDirectGet_RedirectsToCanonicalAddress() throws Exception {
+        when(service.geocodeAsync("Москва, ул. Тверская, 1", UpstreamPriority.INTERACTIVE))
+                .thenReturn(CompletableFuture.completedFuture(response("Москва, улица Тверская, 1", 55.757, 37.613)));
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/direct").param("address", "Москва, ул. Тверская, 1"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isMovedPermanently())
+                .andExpect(header().string(HttpHeaders.LOCATION,
+                        "http://localhost/api/geocode/direct?address=%D0%BC%D0%BE%D1%81%D0%BA%D0%B2%D0%B0"
+                                + "%20%D1%83%D0%BB%D0%B8%D1%86%D0%B0%20%D1%82%D0%B2%D0%B5%D1%80%D1%81%D0%BA%D0%B0"
+                                + "%D1%8F%201"));
+
+        // внешний API получает исходное написание, а не канонический вид
+        verify(service).geocodeAsync("Москва, ул. Тверская, 1", UpstreamPriority.INTERACTIVE);
+        verify(service, never()).geocodeAsync(eq("москва улица тверская 1"), any());
+    }
+
+    @Test
+    public void testDirectGet_MissingAddress() throws Exception {
+        mockMvc.perform(get("/api/geocode/direct"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testDirectGet_BlankAddress() throws Exception {
+        mockMvc.perform(get("/api/geocode/direct").param("address", " ,. "))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testDirectGet_Cbor() throws Exception {
+        GeocodingResponse response = response("Москва", 55.7558, 37.6173);
+        when(service.geocodeAsync("москва", UpstreamPriority.INTERACTIVE))
+                .thenReturn(CompletableFuture.completedFuture(response));
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/direct").param("address", "москва")
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string(HttpHeaders.ETAG, GeocodingController.etag("москва", response, "c")))
+                .andReturn();
+
+        byte[] body = result.getResponse().getContentAsByteArray();
+        GeocodingResponse decoded = new CBORMapper().readValue(body, GeocodingResponse.class);
+        assertEquals(response, decoded);
+        assertNotEquals(GeocodingController.etag("москва", response, "j"), GeocodingController.etag("москва", response, "c"));
+    }
+
+    @Test
+    public void testDirectGet_DefaultsToJson() throws Exception {
+        when(service.geocodeAsync("москва", UpstreamPriority.INTERACTIVE))
+                .thenReturn(CompletableFuture.completedFuture(response("Москва", 55.7558, 37.6173)));
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/direct").param("address", "москва")
+                        .accept(MediaType.ALL))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON));
+    }
+
+    @Test
+    public void testReverseGet_CanonicalCoordinates() throws Exception {
+        GeocodingResponse response = response("Москва, Россия", 55.75, 37.62);
+        response.setMatchType(MatchType.EXACT);
+        response.setDistanceMeters(0.0);
+        when(service.reverseGeocodeAsync(55.75, 37.62, UpstreamPriority.INTERACTIVE))
+                .thenReturn(CompletableFuture.completedFuture(response));
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/reverse").param("lat", "55.75").param("lon", "37.62"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.address").value("Москва, Россия"))
+                .andExpect(header().string(HttpHeaders.ETAG, GeocodingController.etag("55.75,37.62", response, "j")));
+    }
+
+    @Test
+    public void testReverseGet_NotModifiedWithoutLookup() throws Exception {
+        GeocodingResponse response = response("Москва, Россия", 55.75, 37.62);
+        when(service.reverseInMemory(new CoordinateKey(55.75, 37.62))).thenReturn(Optional.of(response));
+        String etag = GeocodingController.etag("55.75,37.62", response, "j");
+
+        MvcResult started = mockMvc.perform(get("/api/geocode/reverse").param("lat", "55.75").param("lon", "37.62")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+
+        verify(service, never()).reverseGeocodeAsync(anyDouble(), anyDouble(), any());
+    }
+
+    @Test
+    public void testReverseGet_RedirectsToRoundedCoordinates() throws Exception {
+        MvcResult started = mockMvc.perform(get("/api/geocode/reverse").param("lat", "55.750001").param("lon", "37.6200"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isMovedPermanently())
+                .andExpect(header().string(HttpHeaders.LOCATION, "http://localhost/api/geocode/reverse?lat=55.75&lon=37.62"));
+
+        verify(service, never()).reverseGeocodeAsync(anyDouble(), anyDouble(), any());
+    }
+
+    @Test
+    public void testReverseGet_OutOfRange() throws Exception {
+        mockMvc.perform(get("/api/geocode/reverse").param("lat", "91").param("lon", "37.62"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testSuggest_MissingQuery() throws Exception {
+        mockMvc.perform(get("/api/geocode/suggest"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Параметр 'q' обязателен"));
+    }
+
+    @Test
+    public void testSuggest_NonNumericLimit() throws Exception {
+        mockMvc.perform(get("/api/geocode/suggest").param("q", "моск").param("limit", "ten"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Некорректное значение параметра 'limit': ten"));
+    }
+
+    private static GeocodingResponse response(String address, double lat, double lon) {
+        GeocodingResponse response = new GeocodingResponse();
+        response.setAddress(address);
+        response.setLat(lat);
+        response.setLon(lon);
+        return response;
+    }
+}
@@ -0,0 +1,82 @@
+package com.voronkovam.geocoding_service.gazetteer;
+
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GazetteerIndexTest {
+
+    private final AddressNormalizer normalizer = new AddressNormalizer();
+
+    @TempDir
+    private Path directory;
+
+    private GazetteerIndex index;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        Path source = directory.resolve("addresses.csv");
+        Files.writeString(source, """
+                address,lat,lon
+                "Москва, улица Тверская, 1",55.757,37.613
+                "Москва, улица Тверская, 2",55.7575,37.6125
+                "Москва, ул. Тверская, 1",10,10
+                "Казань, улица Баумана, 1",55.7887,49.1221
+                "Без координат",abc,1
+                "Полюс",90,0
+                """);
+        Path file = directory.resolve("gazetteer.idx");
+
+        assertEquals(4, GazetteerIndexBuilder.build(source, file, normalizer, 0.001));
+        index = GazetteerIndex.open(file);
+    }
+
+    @Test
+    public void testSearch_ExactCanonicalMatch() {
+        GazetteerIndex.Match match = index.search(normalizer.canonical("москва тверская ул 1")).orElse(null);
+        assertNull(match);
+
+        match = index.search(normalizer.canonical("МОСКВА,  ул. Тверская, 1")).orElseThrow();
+        assertEquals("Москва, улица Тверская, 1", match.address());
+        assertEquals(55.757, match.lat());
+        assertEquals(37.613, match.lon());
+    }
+
+    @Test
+    public void testSearch_IgnoresPrefixMatches() {
+        assertTrue(index.search(normalizer.canonical("Казань, ул. Баумана")).isEmpty());
+        assertTrue(index.search(normalizer.canonical("Казань")).isEmpty());
+        assertTrue(index.search(normalizer.canonical("Казань, улица Баумана, 1, кв 5")).isEmpty());
+        assertEquals("Казань, улица Баумана, 1",
+                index.search(normalizer.canonical("Казань, ул. Баумана, 1")).orElseThrow().address());
+        assertTrue(index.search(normalizer.canonical("Самара")).isEmpty());
+    }
+
+    @Test
+    public void testNearest_WithinRadius() {
+        GazetteerIndex.Match match = index.nearest(55.7574, 37.6126, 100).orElseThrow();
+
+        assertEquals("Москва, улица Тверская, 2", match.address());
+        assertTrue(match.distanceMeters() < 20);
+        assertTrue(index.nearest(55.77, 37.613, 100).isEmpty());
+        assertEquals("Полюс", index.nearest(89.9995, 10, 100).orElseThrow().address());
+    }
+
+    @Test
+    public void testNearest_FineCellSize() throws Exception {
+        Path file = directory.resolve("fine.idx");
+
+        assertEquals(4, GazetteerIndexBuilder.build(directory.resolve("addresses.csv"), file, normalizer, 0.00001));
+        GazetteerIndex fine = GazetteerIndex.open(file);
+
+        assertEquals("Москва, улица Тверская, 2", fine.nearest(55.7574, 37.6126, 100).orElseThrow().address());
+        assertEquals("Казань, улица Баумана, 1", fine.nearest(55.78871, 49.12211, 10).orElseThrow().address());
+        assertTrue(fine.nearest(55.77, 37.613, 100).isEmpty());
+    }
+}
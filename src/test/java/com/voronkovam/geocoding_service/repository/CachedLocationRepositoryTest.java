@@ -0,0 +1,182 @@
+package com.voronkovam.geocoding_service.repository;
+
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.cache.LocationEntry;
+import com.voronkovam.geocoding_service.migration.BackfillLookupKeysMigration;
+import com.voronkovam.geocoding_service.migration.RehashAddressKeysMigration;
+import com.voronkovam.geocoding_service.migration.RekeyAddressesMigration;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import com.voronkovam.geocoding_service.service.NearestLocationFinder;
+import org.flywaydb.core.api.configuration.Configuration;
+import org.flywaydb.core.api.migration.Context;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ AddressNormalizer.class, BackfillLookupKeysMigration.class, RehashAddressKeysMigration.class,
+        RekeyAddressesMigration.class })
+class CachedLocationRepositoryTest {
+
+    @Autowired
+    private CachedLocationRepository repository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void testInsertIfAbsent_IgnoresDuplicateAddressKey() {
+        assertEquals(1, repository.insertIfAbsent("Москва", "москва", null, 55.75, 37.61));
+        assertEquals(0, repository.insertIfAbsent("МОСКВА", "москва", null, 55.76, 37.62));
+
+        Optional<CachedLocation> stored = repository.findByAddressKey("москва");
+        assertTrue(stored.isPresent());
+        assertEquals("Москва", stored.get().getAddress());
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    void testInsertIfAbsent_IgnoresDuplicateCoordKey() {
+        long key = new CoordinateKey(55.75, 37.62).packed();
+
+        assertEquals(1, repository.insertIfAbsent("Москва, Россия", null, key, 55.75, 37.62));
+        assertEquals(0, repository.insertIfAbsent("Россия, Москва", null, key, 55.75, 37.62));
+
+        assertEquals("Москва, Россия", repository.findByCoordKey(key).orElseThrow().getAddress());
+    }
+
+    @Test
+    void testFindByKeysIn() {
+        long key = new CoordinateKey(55.75, 37.62).packed();
+        repository.insertIfAbsent("Москва", "москва", null, 55.75, 37.61);
+        repository.insertIfAbsent("Москва, Россия", null, key, 55.75, 37.62);
+
+        List<CachedLocation> forward = repository.findByAddressKeyIn(List.of("москва", "казань"));
+        List<CachedLocation> reverse = repository.findByCoordKeyIn(List.of(key));
+
+        assertEquals(1, forward.size());
+        assertEquals(1, reverse.size());
+        assertEquals(55.75, CoordinateKey.unpack(reverse.get(0).getCoordKey()).lat());
+    }
+
+    @Test
+    void testRefresh_ReplacesResultAndFetchedAt() {
+        long key = new CoordinateKey(55.75, 37.62).packed();
+        repository.insertIfAbsent("Москва", "москва", null, 55.75, 37.61);
+        repository.insertIfAbsent("Москва, Россия", null, key, 55.75, 37.62);
+        Instant fetchedAt = repository.findByAddressKey("москва").orElseThrow().getFetchedAt();
+        assertNotNull(fetchedAt);
+        Instant refreshedAt = fetchedAt.plus(Duration.ofDays(1));
+
+        assertEquals(1, repository.refreshForward("москва", "Москва", 55.76, 37.62, refreshedAt));
+        assertEquals(1, repository.refreshReverse(key, "Россия, Москва", 55.75, 37.62, refreshedAt));
+        assertEquals(0, repository.refreshForward("казань", "Казань", 55.79, 49.12, refreshedAt));
+
+        CachedLocation forward = repository.findByAddressKey("москва").orElseThrow();
+        assertEquals(55.76, forward.getLat());
+        assertEquals(refreshedAt, forward.getFetchedAt());
+        assertEquals("Россия, Москва", repository.findByCoordKey(key).orElseThrow().getAddress());
+    }
+
+    @Test
+    void testDelete_RemovesOnlyMatchingRow() {
+        long key = new CoordinateKey(55.75, 37.62).packed();
+        repository.insertIfAbsent("Москва", "москва", null, 55.75, 37.61);
+        repository.insertIfAbsent("Москва, Россия", null, key, 55.75, 37.62);
+
+        assertEquals(1, repository.deleteByAddressKey("москва"));
+        assertEquals(0, repository.deleteByAddressKey("москва"));
+
+        assertTrue(repository.findByAddressKey("москва").isEmpty());
+        assertTrue(repository.findByCoordKey(key).isPresent());
+        assertEquals(1, repository.deleteByCoordKey(key));
+        assertTrue(repository.findByCoordKey(key).isEmpty());
+    }
+
+    @Test
+    void testFindReverseRowsWithinBoundingBox() {
+        repository.insertIfAbsent("Москва, Россия", null, new CoordinateKey(55.75, 37.62).packed(), 55.75, 37.62);
+        repository.insertIfAbsent("Казань, Россия", null, new CoordinateKey(55.79, 49.12).packed(), 55.79, 49.12);
+        repository.insertIfAbsent("Москва", "москва", null, 55.7501, 37.6201);
+
+        List<CachedLocation> found = repository.findReverseNearest(55.75, 37.62, 0.32,
+                55.749, 55.751, 37.619, 37.621, Limit.of(10));
+
+        assertEquals(1, found.size());
+        assertEquals("Москва, Россия", found.get(0).getAddress());
+    }
+
+    @Test
+    void testFindReverseNearest_LimitKeepsClosestRows() {
+        for (int i = 10; i >= 1; i--) {
+            double lon = 37.62 + i * 0.00001;
+            repository.insertIfAbsent("Точка " + i, null, new CoordinateKey(55.75, lon).packed(), 55.75, lon);
+        }
+
+        List<CachedLocation> found = repository.findReverseNearest(55.75, 37.62, 0.32,
+                55.749, 55.751, 37.619, 37.621, Limit.of(3));
+
+        assertEquals(List.of("Точка 1", "Точка 2", "Точка 3"), found.stream().map(CachedLocation::getAddress).toList());
+    }
+
+    @Test
+    void testFindNearest_AcrossAntimeridian() {
+        repository.insertIfAbsent("Чукотка", null, new CoordinateKey(65.0, -179.9999).packed(), 65.0, -179.9999);
+        NearestLocationFinder finder = new NearestLocationFinder(repository, 25, 500, 100);
+
+        LocationEntry nearest = finder.findNearest(new CoordinateKey(65.0, 179.9999)).orElseThrow();
+
+        assertEquals("Чукотка", nearest.address());
+        assertEquals(9.4, nearest.distanceMeters(), 0.1);
+    }
+
+    @Test
+    void testRekeyMigration_AppliesChangedRules() throws Exception {
+        AddressNormalizer defaults = new AddressNormalizer();
+        AddressNormalizer custom = new AddressNormalizer(List.of("мкр=микрорайон"));
+        long coordKey = new CoordinateKey(55.75, 37.62).packed();
+        repository.insertIfAbsent("Москва, мкр Северный", defaults.key("Москва, мкр Северный"), null, 55.87, 37.59);
+        repository.insertIfAbsent("москва микрорайон северный", defaults.key("москва микрорайон северный"), null,
+                55.88, 37.6);
+        repository.insertIfAbsent("Тверь, мкр Южный", defaults.key("Тверь, мкр Южный"), coordKey, 56.86, 35.9);
+
+        RekeyAddressesMigration migration = new RekeyAddressesMigration(custom);
+        migration.migrate(new Context() {
+            @Override
+            public Configuration getConfiguration() {
+                return null;
+            }
+
+            @Override
+            public Connection getConnection() {
+                return DataSourceUtils.getConnection(dataSource);
+            }
+        });
+
+        assertNotEquals(new RekeyAddressesMigration(defaults).getChecksum(), migration.getChecksum());
+        // ключ остается у строки, которая уже имела его по новым правилам; дубликат удаляется
+        assertEquals("москва микрорайон северный",
+                repository.findByAddressKey(custom.key("Москва, мкр Северный")).orElseThrow().getAddress());
+        assertEquals("Тверь, мкр Южный", repository.findByAddressKey(custom.key("Тверь, мкр Южный")).orElseThrow()
+                .getAddress());
+        assertTrue(repository.findByAddressKey(defaults.key("Тверь, мкр Южный")).isEmpty());
+        assertEquals(2, repository.count());
+    }
+}
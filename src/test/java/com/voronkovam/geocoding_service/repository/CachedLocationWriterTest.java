@@ -0,0 +1,244 @@
+package com.voronkovam.geocoding_service.repository;
+
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.migration.BackfillLookupKeysMigration;
+import com.voronkovam.geocoding_service.migration.RehashAddressKeysMigration;
+import com.voronkovam.geocoding_service.migration.RekeyAddressesMigration;
+import com.voronkovam.geocoding_service.model.CachedLocation;
+import com.voronkovam.geocoding_service.service.AddressNormalizer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ AddressNormalizer.class, BackfillLookupKeysMigration.class, RehashAddressKeysMigration.class,
+        RekeyAddressesMigration.class })
+// фоновый поток пишет в своей транзакции, поэтому тестовая транзакция не нужна
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CachedLocationWriterTest {
+
+    @Autowired
+    private CachedLocationRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private CachedLocationWriter writer;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (writer != null) {
+            writer.destroy();
+        }
+        repository.deleteAll();
+    }
+
+    @Test
+    void testWrite_PendingUntilFlushedAndDeduplicated() {
+        writer = start(true, 10);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        writer.bindTo(meterRegistry);
+        long key = new CoordinateKey(55.75, 37.62).packed();
+
+        writer.write(forward("Москва", "москва"));
+        writer.write(forward("МОСКВА", "москва"));
+        writer.write(reverse("Москва, Россия", key));
+
+        assertEquals("Москва", writer.pendingForward("москва").orElseThrow().getAddress());
+        writer.flush();
+
+        assertEquals(2, repository.count());
+        assertEquals("Москва", repository.findByAddressKey("москва").orElseThrow().getAddress());
+        assertTrue(repository.findByCoordKey(key).isPresent());
+        assertTrue(writer.pendingForward("москва").isEmpty());
+        assertTrue(writer.pendingReverse(key).isEmpty());
+        assertEquals(2, meterRegistry.get("geocoding.persistence.write-behind.written").functionCounter().count());
+    }
+
+    @Test
+    void testWrite_InvalidRowDroppedWithoutBlockingBatch() {
+        writer = start(true, 10);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        writer.bindTo(meterRegistry);
+
+        writer.write(forward("Москва", "москва"));
+        writer.write(forward("д".repeat(CachedLocation.ADDRESS_LENGTH + 1), "длинный"));
+        writer.write(forward("Казань", "казань"));
+        writer.flush();
+
+        assertEquals(2, repository.count());
+        assertTrue(repository.findByAddressKey("казань").isPresent());
+        assertTrue(writer.pendingForward("длинный").isEmpty());
+        assertEquals(1, meterRegistry.get("geocoding.persistence.write-behind.dropped").functionCounter().count());
+
+        writer.write(forward("Тверь", "тверь"));
+        writer.flush();
+        assertTrue(repository.findByAddressKey("тверь").isPresent());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testWrite_QueueFullAndDatabaseDownKeepsLocationPending() throws Exception {
+        CachedLocationRepository failingRepository = Mockito.mock(CachedLocationRepository.class);
+        JdbcTemplate failingJdbc = Mockito.mock(JdbcTemplate.class);
+        AtomicBoolean databaseDown = new AtomicBoolean(true);
+        Mockito.when(failingRepository.insertIfAbsent(any(), any(), any(), any(), any()))
+                .thenThrow(new DataAccessResourceFailureException("connection refused"));
+        Mockito.when(failingJdbc.batchUpdate(anyString(), anyCollection(), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class))).thenAnswer(invocation -> {
+            if (databaseDown.get()) {
+                throw new DataAccessResourceFailureException("connection refused");
+            }
+            return new int[0][];
+        });
+        writer = new CachedLocationWriter(failingRepository, failingJdbc, true, 1, Duration.ofMillis(50), 1,
+                Duration.ofSeconds(5), Duration.ofMinutes(1), Duration.ZERO);
+        writer.afterPropertiesSet();
+
+        writer.write(forward("Москва", "москва"));
+        while (writer.queueSize() > 0) {
+            Thread.sleep(10);
+        }
+        writer.write(forward("Тверь", "тверь"));
+        assertDoesNotThrow(() -> writer.write(forward("Казань", "казань")));
+
+        assertTrue(writer.pendingForward("казань").isPresent());
+        Thread.sleep(500);
+        assertTrue(writer.pendingForward("москва").isPresent());
+
+        databaseDown.set(false);
+        writer.flush();
+
+        assertTrue(writer.pendingForward("москва").isEmpty());
+        assertTrue(writer.pendingForward("тверь").isEmpty());
+        assertTrue(writer.pendingForward("казань").isEmpty());
+        assertEquals(0, writer.queueSize());
+    }
+
+    @Test
+    void testWrite_ExistingRowIsKept() {
+        repository.insertIfAbsent("Казань", "казань", null, 55.79, 49.12);
+        writer = start(true, 10);
+
+        writer.write(forward("КАЗАНЬ", "казань"));
+        writer.flush();
+
+        assertEquals(1, repository.count());
+        assertEquals("Казань", repository.findByAddressKey("казань").orElseThrow().getAddress());
+    }
+
+    @Test
+    void testDestroy_DrainsQueue() throws Exception {
+        writer = start(true, 3);
+        for (int i = 0; i < 10; i++) {
+            writer.write(forward("Адрес " + i, "адрес " + i));
+        }
+
+        writer.destroy();
+        writer = null;
+
+        assertEquals(10, repository.count());
+    }
+
+    @Test
+    void testWrite_DisabledWritesImmediately() {
+        writer = start(false, 10);
+
+        writer.write(forward("Москва", "москва"));
+
+        assertEquals(1, repository.count());
+        assertTrue(writer.pendingForward("москва").isEmpty());
+        assertEquals(0, writer.queueSize());
+    }
+
+    @Test
+    void testRecordAccess_UpdatesAccessedAt() {
+        long key = new CoordinateKey(55.75, 37.62).packed();
+        repository.insertIfAbsent("Москва", "москва", null, 55.75, 37.61);
+        repository.insertIfAbsent("Москва, Россия", null, key, 55.75, 37.62);
+        jdbcTemplate.update("UPDATE cached_location SET accessed_at = ?", Timestamp.from(Instant.EPOCH));
+        writer = start(true, 10);
+
+        writer.recordAccess("москва");
+        writer.recordAccess(key);
+        writer.flush();
+
+        assertTrue(repository.findByAddressKey("москва").orElseThrow().getAccessedAt().isAfter(Instant.EPOCH));
+        assertTrue(repository.findByCoordKey(key).orElseThrow().getAccessedAt().isAfter(Instant.EPOCH));
+    }
+
+    @Test
+    void testFindWritten_RereadsOnlyRecentlyWrittenKeys() throws Exception {
+        writer = start(true, 10, Duration.ofMillis(300));
+        long key = new CoordinateKey(55.75, 37.62).packed();
+        repository.insertIfAbsent("Казань", "казань", null, 55.79, 49.12);
+
+        writer.write(forward("Москва", "москва"));
+        writer.write(reverse("Москва, Россия", key));
+        assertTrue(writer.findWrittenForward("москва").isEmpty());
+        writer.flush();
+
+        CachedLocation written = writer.findWrittenForward("москва").orElseThrow();
+        assertEquals("Москва", written.getAddress());
+        assertNotNull(written.getFetchedAt());
+        assertEquals("Москва, Россия", writer.findWrittenReverse(key).orElseThrow().getAddress());
+        // строку записал другой узел или загрузка: ее перечитывать незачем
+        assertTrue(writer.findWrittenForward("казань").isEmpty());
+
+        Thread.sleep(400);
+        assertTrue(writer.findWrittenForward("москва").isEmpty());
+    }
+
+    private CachedLocationWriter start(boolean enabled, int batchSize) {
+        return start(enabled, batchSize, Duration.ZERO);
+    }
+
+    private CachedLocationWriter start(boolean enabled, int batchSize, Duration readYourWritesWindow) {
+        CachedLocationWriter started = new CachedLocationWriter(repository, jdbcTemplate, enabled, batchSize,
+                Duration.ofMillis(50), 100, Duration.ofSeconds(5), Duration.ofMillis(50), readYourWritesWindow);
+        started.afterPropertiesSet();
+        return started;
+    }
+
+    private static CachedLocation forward(String address, String key) {
+        CachedLocation loc = new CachedLocation();
+        loc.setAddress(address);
+        loc.setAddressKey(key);
+        loc.setLat(55.75);
+        loc.setLon(37.61);
+        return loc;
+    }
+
+    private static CachedLocation reverse(String address, long key) {
+        CachedLocation loc = new CachedLocation();
+        loc.setAddress(address);
+        loc.setCoordKey(key);
+        loc.setLat(55.75);
+        loc.setLon(37.62);
+        return loc;
+    }
+}
@@ -0,0 +1,41 @@
+package com.voronkovam.geocoding_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AddressNormalizerTest {
+
+    private final AddressNormalizer normalizer = new AddressNormalizer();
+
+    @Test
+    public void testCanonical_CollapsesCasePunctuationAndAbbreviations() {
+        assertEquals("москва улица тверская 1", normalizer.canonical("Москва, ул. Тверская, 1"));
+        assertEquals("москва улица тверская 1", normalizer.canonical("  москва   УЛИЦА тверская 1 "));
+        assertEquals("санкт петербург невский проспект 28", normalizer.canonical("Санкт-Петербург, Невский пр-т, 28"));
+        assertEquals("королев", normalizer.canonical("Королёв"));
+        // NFKC: полноширинные цифры и лигатуры приводятся к обычным символам
+        assertEquals("5 street", normalizer.canonical("５ St."));
+    }
+
+    @Test
+    public void testKey_SameForEquivalentSpellingsAndFixedWidth() {
+        String key = normalizer.key("Москва, Тверская, 1");
+
+        assertEquals(key, normalizer.key("москва тверская 1 "));
+        assertEquals(key, normalizer.key("МОСКВА;  Тверская - 1"));
+        assertNotEquals(key, normalizer.key("Москва, Тверская, 2"));
+        assertEquals(AddressNormalizer.KEY_LENGTH, key.length());
+        assertEquals(AddressNormalizer.KEY_LENGTH, normalizer.key("очень длинный адрес ".repeat(50)).length());
+    }
+
+    @Test
+    public void testAbbreviations_Configurable() {
+        AddressNormalizer custom = new AddressNormalizer(List.of("мкр=микрорайон", "ул=ул"));
+
+        assertEquals("микрорайон северный ул 5", custom.canonical("мкр. Северный, ул 5"));
+        assertThrows(IllegalArgumentException.class, () -> new AddressNormalizer(List.of("мкр")));
+    }
+}
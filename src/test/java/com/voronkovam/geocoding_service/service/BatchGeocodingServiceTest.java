@@ -0,0 +1,101 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.cache.LocationEntry;
+import com.voronkovam.geocoding_service.client.UpstreamPriority;
+import com.voronkovam.geocoding_service.exception.GeocodingException;
+import com.voronkovam.geocoding_service.model.BatchGeocodingResponse;
+import com.voronkovam.geocoding_service.model.BatchItemResult;
+import com.voronkovam.geocoding_service.model.DirectGeocodingRequest;
+import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import com.voronkovam.geocoding_service.model.ReverseGeocodingRequest;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class BatchGeocodingServiceTest {
+
+    @Mock
+    private GeocodingService geocodingService;
+    private ExecutorService executor;
+    private BatchGeocodingService service;
+
+    @BeforeEach
+    public void setup() {
+        executor = Executors.newFixedThreadPool(2);
+        service = new BatchGeocodingService(geocodingService, executor,
+                Validation.buildDefaultValidatorFactory().getValidator());
+        ReflectionTestUtils.setField(service, "maxItems", 3);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testGeocodeBatch_MixesCacheHitsMissesAndErrors() {
+        Mockito.when(geocodingService.findCachedForward(Mockito.anyCollection()))
+                .thenReturn(Map.of("Москва", new LocationEntry("Москва", 55.7558, 37.6173)));
+        Mockito.when(geocodingService.geocode("несуществующий адрес", UpstreamPriority.BATCH))
+                .thenThrow(new GeocodingException("Адрес не найден"));
+
+        BatchGeocodingResponse response = service.geocodeBatch(List.of(
+                new DirectGeocodingRequest("Москва"),
+                new DirectGeocodingRequest(" "),
+                new DirectGeocodingRequest("несуществующий адрес")));
+
+        List<BatchItemResult> results = response.getResults();
+        assertEquals(BatchItemResult.Status.OK, results.get(0).getStatus());
+        assertEquals(55.7558, results.get(0).getResult().getLat());
+        assertEquals("Адрес не должен быть пустым", results.get(1).getError());
+        assertEquals("Адрес не найден", results.get(2).getError());
+        assertEquals(1, response.getSucceeded());
+        assertEquals(2, response.getFailed());
+        Mockito.verify(geocodingService, Mockito.never()).geocode(Mockito.eq("Москва"), Mockito.any());
+    }
+
+    @Test
+    public void testReverseGeocodeBatch_DuplicateCoordinatesResolvedOnce() {
+        GeocodingResponse upstream = new GeocodingResponse();
+        upstream.setAddress("Москва, Россия");
+        upstream.setLat(55.75);
+        upstream.setLon(37.62);
+        Mockito.when(geocodingService.findCachedReverse(Mockito.anyCollection())).thenReturn(Collections.emptyMap());
+        Mockito.when(geocodingService.reverseGeocode(55.75, 37.62, UpstreamPriority.BATCH)).thenReturn(upstream);
+
+        BatchGeocodingResponse response = service.reverseGeocodeBatch(List.of(
+                new ReverseGeocodingRequest(55.75, 37.62),
+                new ReverseGeocodingRequest(55.750001, 37.619999),
+                new ReverseGeocodingRequest(91.0, 37.62)));
+
+        assertEquals("Москва, Россия", response.getResults().get(0).getResult().getAddress());
+        assertEquals("Москва, Россия", response.getResults().get(1).getResult().getAddress());
+        assertEquals("Широта должна быть не более 90.0", response.getResults().get(2).getError());
+        Mockito.verify(geocodingService, Mockito.times(1)).reverseGeocode(55.75, 37.62, UpstreamPriority.BATCH);
+        Mockito.verify(geocodingService).findCachedReverse(Mockito.eq(Set.of(new CoordinateKey(55.75, 37.62))));
+    }
+
+    @Test
+    public void testBatch_TooLarge() {
+        List<DirectGeocodingRequest> items = Collections.nCopies(4, new DirectGeocodingRequest("Москва"));
+
+        assertThrows(IllegalArgumentException.class, () -> service.geocodeBatch(items));
+    }
+}
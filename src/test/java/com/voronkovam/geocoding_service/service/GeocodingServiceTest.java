@@ -1,23 +1,47 @@
 package com.voronkovam.geocoding_service.service;
 
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.cache.LocationCache;
+import com.voronkovam.geocoding_service.cache.NegativeCache;
+import com.voronkovam.geocoding_service.client.CircuitBreaker;
+import com.voronkovam.geocoding_service.client.NominatimClient;
+import com.voronkovam.geocoding_service.client.UpstreamPriority;
+import com.voronkovam.geocoding_service.client.UpstreamScheduler;
 import com.voronkovam.geocoding_service.exception.GeocodingException;
+import com.voronkovam.geocoding_service.exception.UpstreamException;
+import com.voronkovam.geocoding_service.exception.UpstreamUnavailableException;
+import com.voronkovam.geocoding_service.gazetteer.GazetteerGeocoder;
+import com.voronkovam.geocoding_service.metrics.GeocodingMetrics;
 import com.voronkovam.geocoding_service.model.CachedLocation;
 import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import com.voronkovam.geocoding_service.model.MatchType;
 import com.voronkovam.geocoding_service.model.NominatimResponse;
+import com.voronkovam.geocoding_service.model.Suggestion;
 import com.voronkovam.geocoding_service.repository.CachedLocationRepository;
+import com.voronkovam.geocoding_service.repository.CachedLocationWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.test.util.ReflectionTestUtils;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.data.domain.Limit;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,14 +52,43 @@ class GeocodingServiceTest {
     @Mock
     private CachedLocationRepository repository;
     @Mock
-    private RestTemplate restTemplate;
-    @InjectMocks
+    private NominatimClient nominatimClient;
+    private UpstreamScheduler upstreamScheduler;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(true, 20, 10, 0.5, Duration.ofSeconds(30), 3, false);
+    private final AddressNormalizer normalizer = new AddressNormalizer();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private LocationCache locationCache;
+    private NegativeCache negativeCache;
+    private CachedLocationWriter writer;
+    private GeocodingMetrics metrics;
+    private SuggestIndex suggestIndex;
+    private LocationRefresher refresher;
     private GeocodingService service;
-    private final String apiUrl = "https://nominatim.openstreetmap.org";
+    @TempDir
+    private Path gazetteerDir;
 
     @BeforeEach
     public void setup() {
-        ReflectionTestUtils.setField(service, "externalApiUrl", apiUrl);
+        locationCache = new LocationCache(true, 1000, 1_000_000, Duration.ofMinutes(5), Duration.ZERO);
+        upstreamScheduler = new UpstreamScheduler(1000, 1000, 100, Duration.ofSeconds(5), Duration.ofSeconds(5),
+                Optional.empty(), circuitBreaker);
+        upstreamScheduler.afterPropertiesSet();
+        negativeCache = new NegativeCache(true, 1000, Duration.ofMinutes(1));
+        metrics = new GeocodingMetrics();
+        metrics.bindTo(meterRegistry);
+        // отложенная запись выключена: сохранение проверяется по вызовам insertIfAbsent
+        writer = new CachedLocationWriter(repository, null, false, 100, Duration.ofMillis(200),
+                100, Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ZERO);
+        suggestIndex = new SuggestIndex(null, normalizer, true, 1000, 1000, 0.5, 0.1);
+        refresher = new LocationRefresher(repository, Duration.ofDays(1), 16);
+        service = new GeocodingService(nominatimClient, upstreamScheduler, repository, writer, locationCache, negativeCache,
+                normalizer, new NearestLocationFinder(repository, 25, 500, 100), metrics,
+                gazetteer(GazetteerGeocoder.Mode.OFF, null), suggestIndex, refresher, Optional.empty());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        upstreamScheduler.destroy();
     }
 
     @Test
@@ -46,7 +99,7 @@ class GeocodingServiceTest {
         cached.setLat(55.62558);
         cached.setLon(37.60639);
 
-        Mockito.when(repository.findByAddress(address)).thenReturn(Optional.of(cached));
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.of(cached));
 
         GeocodingResponse response = service.geocode(address);
 
@@ -58,17 +111,16 @@ class GeocodingServiceTest {
     @Test
     public void testGeocode_FromExternalApi() {
         String address = "Москва";
-        String url = apiUrl + "/search?q=" + address + "&format=json&limit=1";
 
         NominatimResponse[] nominatimResponses = {
                 new NominatimResponse("Москва, Россия", 55.7558, 37.6173)
         };
 
-        Mockito.when(repository.findByAddress(address)).thenReturn(Optional.empty());
-        Mockito.when(restTemplate.getForEntity(url, NominatimResponse[].class))
-                .thenReturn(new ResponseEntity<>(nominatimResponses, HttpStatus.OK));
-        Mockito.when(repository.save(Mockito.any(CachedLocation.class)))
-                .thenAnswer(invocation -> invocation.getArgument(0));
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.searchAsync(address))
+                .thenReturn(found(nominatimResponses[0]));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
 
         GeocodingResponse response = service.geocode(address);
 
@@ -77,20 +129,237 @@ class GeocodingServiceTest {
         assertEquals(37.6173, response.getLon());
     }
 
+    @Test
+    public void testGeocode_RepeatedLookupServedFromMemory() {
+        String address = "Москва";
+        CachedLocation cached = new CachedLocation();
+        cached.setAddress(address);
+        cached.setLat(55.62558);
+        cached.setLon(37.60639);
+
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.of(cached));
+
+        service.geocode(address);
+        GeocodingResponse response = service.geocode(address);
+
+        assertEquals(55.62558, response.getLat());
+        Mockito.verify(repository, Mockito.times(1)).findByAddressKey(normalizer.key("москва"));
+    }
+
+    @Test
+    public void testGeocode_MetricsCountSourcesAndTimeDbStages() {
+        Mockito.when(repository.findByAddressKey(normalizer.key("Москва"))).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.searchAsync("Москва"))
+                .thenReturn(found(new NominatimResponse("Москва, Россия", 55.7558, 37.6173)));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
+        service.geocode("Москва");
+        service.geocode("москва");
+
+        assertEquals(1, lookups("forward", "upstream"));
+        assertEquals(1, lookups("forward", "l1"));
+        assertEquals(0, lookups("forward", "db"));
+        assertEquals(1, meterRegistry.get("geocoding.db.queries").tags("query", "find", "type", "forward").timer().count());
+        Mockito.verify(repository, Mockito.times(1))
+                .insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testGeocode_StaleEntryServedAndRefreshedInBackground() {
+        String address = "Москва";
+        String key = normalizer.key(address);
+        CachedLocation cached = new CachedLocation();
+        cached.setAddress(address);
+        cached.setAddressKey(key);
+        cached.setLat(55.6);
+        cached.setLon(37.6);
+        cached.setFetchedAt(Instant.now().minus(Duration.ofDays(2)));
+        CompletableFuture<Optional<NominatimResponse>> upstream = new CompletableFuture<>();
+
+        Mockito.when(repository.findByAddressKey(key)).thenReturn(Optional.of(cached));
+        Mockito.when(nominatimClient.searchAsync(address)).thenReturn(upstream);
+
+        // устаревшая запись возвращается сразу, не дожидаясь внешнего API
+        assertEquals(55.6, service.geocode(address).getLat());
+        assertEquals(55.6, service.geocode(address).getLat());
+
+        upstream.complete(Optional.of(new NominatimResponse("Москва, Россия", 55.7558, 37.6173)));
+
+        Mockito.verify(repository, Mockito.timeout(5000))
+                .refreshForward(Mockito.eq(key), Mockito.eq(address), Mockito.eq(55.7558), Mockito.eq(37.6173), Mockito.any());
+        awaitRefreshes();
+        assertEquals(55.7558, service.geocode(address).getLat());
+        Mockito.verify(nominatimClient, Mockito.times(1)).searchAsync(address);
+    }
+
+    @Test
+    public void testReverseGeocode_StaleEntryKeptWhenNoLongerFound() {
+        CoordinateKey key = new CoordinateKey(55.75, 37.62);
+        CachedLocation cached = new CachedLocation();
+        cached.setAddress("Москва, Россия");
+        cached.setCoordKey(key.packed());
+        cached.setLat(55.75);
+        cached.setLon(37.62);
+        cached.setFetchedAt(Instant.now().minus(Duration.ofDays(2)));
+
+        Mockito.when(repository.findByCoordKey(key.packed())).thenReturn(Optional.of(cached));
+        Mockito.when(nominatimClient.reverseAsync(55.75, 37.62)).thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        assertEquals("Москва, Россия", service.reverseGeocode(55.75, 37.62).getAddress());
+
+        Mockito.verify(repository, Mockito.timeout(5000)).refreshReverse(Mockito.eq(key.packed()),
+                Mockito.eq("Москва, Россия"), Mockito.eq(55.75), Mockito.eq(37.62), Mockito.any());
+        awaitRefreshes();
+        assertEquals("Москва, Россия", service.reverseGeocode(55.75, 37.62).getAddress());
+        assertFalse(refresher.isStale(locationCache.getReverse(key)));
+    }
+
+    @Test
+    public void testGeocode_ConcurrentMissesShareOneUpstreamCall() throws Exception {
+        String address = "Москва";
+        CountDownLatch upstreamStarted = new CountDownLatch(1);
+        CompletableFuture<Optional<NominatimResponse>> upstream = new CompletableFuture<>();
+
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+        Mockito.when(nominatimClient.searchAsync(address)).thenAnswer(invocation -> {
+            upstreamStarted.countDown();
+            return upstream;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<GeocodingResponse> leader = executor.submit(() -> service.geocode(address));
+            assertTrue(upstreamStarted.await(5, TimeUnit.SECONDS));
+            Future<GeocodingResponse> follower1 = executor.submit(() -> service.geocode(address));
+            Future<GeocodingResponse> follower2 = executor.submit(() -> service.geocode(address));
+            Thread.sleep(100);
+            upstream.complete(Optional.of(new NominatimResponse("Москва, Россия", 55.7558, 37.6173)));
+
+            assertEquals(55.7558, leader.get(5, TimeUnit.SECONDS).getLat());
+            assertEquals(55.7558, follower1.get(5, TimeUnit.SECONDS).getLat());
+            assertEquals(55.7558, follower2.get(5, TimeUnit.SECONDS).getLat());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Mockito.verify(nominatimClient, Mockito.times(1)).searchAsync(address);
+        Mockito.verify(repository, Mockito.times(1))
+                .insertIfAbsent(Mockito.eq(address), Mockito.eq(normalizer.key("москва")), Mockito.isNull(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testGeocode_DifferentSpellingsShareCacheKey() {
+        CachedLocation cached = new CachedLocation();
+        cached.setAddress("Москва");
+        cached.setLat(55.62558);
+        cached.setLon(37.60639);
+
+        Mockito.when(repository.findByAddressKey(normalizer.key("москва"))).thenReturn(Optional.of(cached));
+
+        service.geocode("  МОСКВА ");
+        GeocodingResponse response = service.geocode("москва");
+
+        assertEquals("Москва", response.getAddress());
+        Mockito.verify(repository, Mockito.times(1)).findByAddressKey(normalizer.key("москва"));
+    }
+
+    @Test
+    public void testGeocode_RowInsertedConcurrentlyElsewhereDoesNotFailRequest() {
+        String address = "Москва";
+
+        Mockito.when(repository.findByAddressKey(normalizer.key("москва"))).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.searchAsync(address))
+                .thenReturn(found(new NominatimResponse("Москва, Россия", 55.7558, 37.6173)));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(0);
+
+        GeocodingResponse response = service.geocode(address);
+
+        // ответ не ждет записи в БД и не перечитывает строку, сохраненную другим узлом
+        assertEquals(55.7558, response.getLat());
+        assertEquals(37.6173, response.getLon());
+        Mockito.verify(repository, Mockito.times(1)).findByAddressKey(normalizer.key("москва"));
+    }
+
     @Test
     public void testGeocode_NotFound() {
         String address = "Несуществующий адрес";
-        String url = apiUrl + "/search?q=" + address + "&format=json&limit=1";
 
-        Mockito.when(repository.findByAddress(address)).thenReturn(Optional.empty());
-        Mockito.when(restTemplate.getForEntity(url, NominatimResponse[].class))
-                .thenReturn(new ResponseEntity<>(new NominatimResponse[0], HttpStatus.OK));
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.searchAsync(address))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
 
         assertThrows(GeocodingException.class, () -> service.geocode(address));
     }
 
 
 
+    @Test
+    public void testGeocode_NotFoundRepeatServedFromNegativeCache() {
+        String address = "Несуществующий адрес";
+
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.searchAsync(address))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        assertThrows(GeocodingException.class, () -> service.geocode(address));
+        GeocodingException e = assertThrows(GeocodingException.class, () -> service.geocode("  несуществующий АДРЕС"));
+
+        assertEquals("Адрес не найден", e.getMessage());
+        Mockito.verify(nominatimClient, Mockito.times(1)).searchAsync(Mockito.anyString());
+        Mockito.verify(repository, Mockito.times(1)).findByAddressKey(Mockito.anyString());
+    }
+
+    @Test
+    public void testReverseGeocode_NotFoundRepeatServedFromNegativeCache() {
+        double lat = 0.0;
+        double lon = 0.0;
+
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.reverseAsync(lat, lon))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        assertThrows(GeocodingException.class, () -> service.reverseGeocode(lat, lon));
+        assertThrows(GeocodingException.class, () -> service.reverseGeocode(0.000001, 0.0));
+
+        Mockito.verify(nominatimClient, Mockito.times(1)).reverseAsync(Mockito.anyDouble(), Mockito.anyDouble());
+    }
+
+    @Test
+    public void testGeocode_UpstreamFailureNotCached() {
+        String address = "Москва";
+
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.searchAsync(address))
+                .thenReturn(CompletableFuture.failedFuture(new UpstreamException("Превышено время ожидания")))
+                .thenReturn(found(new NominatimResponse("Москва, Россия", 55.7558, 37.6173)));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
+        assertThrows(UpstreamException.class, () -> service.geocode(address));
+        assertEquals(55.7558, service.geocode(address).getLat());
+    }
+
+    @Test
+    public void testGeocodeAsync_DoesNotWaitForUpstream() throws Exception {
+        String address = "Москва";
+        CompletableFuture<Optional<NominatimResponse>> upstream = new CompletableFuture<>();
+
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.searchAsync(address)).thenReturn(upstream);
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
+        CompletableFuture<GeocodingResponse> response = service.geocodeAsync(address, UpstreamPriority.INTERACTIVE);
+        assertFalse(response.isDone());
+
+        upstream.complete(Optional.of(new NominatimResponse("Москва, Россия", 55.7558, 37.6173)));
+        assertEquals(55.7558, response.get(5, TimeUnit.SECONDS).getLat());
+    }
+
     @Test
     public void testReverseGeocode_FromCache() {
         double lat = 55.75;
@@ -101,7 +370,7 @@ class GeocodingServiceTest {
         cached.setLat(lat);
         cached.setLon(lon);
 
-        Mockito.when(repository.findByLatAndLon(lat, lon)).thenReturn(Optional.of(cached));
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.of(cached));
 
         GeocodingResponse response = service.reverseGeocode(lat, lon);
 
@@ -114,18 +383,17 @@ class GeocodingServiceTest {
     public void testReverseGeocode_FromExternalApi() {
         double lat = 55.75;
         double lon = 37.62;
-        String url = apiUrl + "/reverse?lat=" + lat + "&lon=" + lon + "&format=json";
 
         NominatimResponse nominatimResponse = new NominatimResponse();
         nominatimResponse.setDisplay_name("Москва, Россия");
         nominatimResponse.setLat(lat);
         nominatimResponse.setLon(lon);
 
-        Mockito.when(repository.findByLatAndLon(lat, lon)).thenReturn(Optional.empty());
-        Mockito.when(restTemplate.getForEntity(url, NominatimResponse.class))
-                .thenReturn(new ResponseEntity<>(nominatimResponse, HttpStatus.OK));
-        Mockito.when(repository.save(Mockito.any(CachedLocation.class)))
-                .thenAnswer(invocation -> invocation.getArgument(0));
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.reverseAsync(lat, lon))
+                .thenReturn(found(nominatimResponse));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
 
         GeocodingResponse response = service.reverseGeocode(lat, lon);
 
@@ -134,20 +402,269 @@ class GeocodingServiceTest {
         assertEquals(lon, response.getLon());
     }
 
+    @Test
+    public void testReverseGeocode_RepeatedLookupServedFromMemory() {
+        double lat = 55.75;
+        double lon = 37.62;
+
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.reverseAsync(lat, lon))
+                .thenReturn(found(new NominatimResponse("Москва, Россия", lat, lon)));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
+        service.reverseGeocode(lat, lon);
+        GeocodingResponse response = service.reverseGeocode(55.750001, 37.619999);
+
+        assertEquals("Москва, Россия", response.getAddress());
+        Mockito.verify(nominatimClient, Mockito.times(1)).reverseAsync(lat, lon);
+        Mockito.verify(repository, Mockito.times(1)).findByCoordKey(new CoordinateKey(lat, lon).packed());
+    }
+
     @Test
     public void testReverseGeocode_NotFound() {
         double lat = 0.0;
         double lon = 0.0;
-        String url = apiUrl + "/reverse?lat=" + lat + "&lon=" + lon + "&format=json";
-
-        NominatimResponse nominatimResponse = new NominatimResponse(); // display_name = null
 
-        Mockito.when(repository.findByLatAndLon(lat, lon)).thenReturn(Optional.empty());
-        Mockito.when(restTemplate.getForEntity(url, NominatimResponse.class))
-                .thenReturn(new ResponseEntity<>(nominatimResponse, HttpStatus.OK));
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.reverseAsync(lat, lon))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
 
         assertThrows(GeocodingException.class, () -> service.reverseGeocode(lat, lon));
     }
 
+    @Test
+    public void testReverseGeocode_NearbyCachedPointAnsweredLocally() {
+        double lat = 55.75;
+        double lon = 37.62;
+        CachedLocation neighbour = new CachedLocation();
+        neighbour.setAddress("Москва, Россия");
+        neighbour.setLat(55.75005);
+        neighbour.setLon(37.62);
+        neighbour.setCoordKey(new CoordinateKey(55.75005, 37.62).packed());
+
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.empty());
+        Mockito.when(repository.findReverseNearest(Mockito.anyDouble(), Mockito.anyDouble(),
+                        Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyDouble(),
+                        Mockito.anyDouble(), Mockito.any(Limit.class)))
+                .thenReturn(List.of(neighbour));
+
+        GeocodingResponse response = service.reverseGeocode(lat, lon);
+
+        assertEquals("Москва, Россия", response.getAddress());
+        assertEquals(MatchType.NEAREST, response.getMatchType());
+        assertEquals(5.56, response.getDistanceMeters(), 0.01);
+        Mockito.verifyNoInteractions(nominatimClient);
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void testReverseGeocode_LongDisplayNameNotPersisted() {
+        double lat = 55.75;
+        double lon = 37.62;
+        String displayName = "Москва, Россия, ".repeat(20);
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.reverseAsync(lat, lon))
+                .thenReturn(found(new NominatimResponse(displayName, lat, lon)));
+
+        GeocodingResponse response = service.reverseGeocode(lat, lon);
+
+        assertEquals(displayName, response.getAddress());
+        Mockito.verify(repository, Mockito.never())
+                .insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        assertEquals(displayName, service.reverseGeocode(lat, lon).getAddress());
+        Mockito.verify(nominatimClient, Mockito.times(1)).reverseAsync(lat, lon);
+    }
+
+    @Test
+    public void testReverseGeocode_NeighbourOutsideRadiusGoesUpstream() {
+        double lat = 55.75;
+        double lon = 37.62;
+        CachedLocation farAway = new CachedLocation();
+        farAway.setAddress("Москва, Кремль");
+        farAway.setLat(55.7502);
+        farAway.setLon(37.6202);
+
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.empty());
+        Mockito.when(repository.findReverseNearest(Mockito.anyDouble(), Mockito.anyDouble(),
+                        Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyDouble(),
+                        Mockito.anyDouble(), Mockito.any(Limit.class)))
+                .thenReturn(List.of(farAway));
+        Mockito.when(nominatimClient.reverseAsync(lat, lon))
+                .thenReturn(found(new NominatimResponse("Москва, Россия", lat, lon)));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
+        GeocodingResponse response = service.reverseGeocode(lat, lon);
+
+        assertEquals("Москва, Россия", response.getAddress());
+        assertEquals(MatchType.EXACT, response.getMatchType());
+        assertEquals(0.0, response.getDistanceMeters());
+    }
+
+    @Test
+    public void testReverseGeocode_CachedOnlyAnswersWithDistantNeighbour() {
+        double lat = 55.75;
+        double lon = 37.62;
+        CachedLocation neighbour = new CachedLocation();
+        neighbour.setAddress("Москва, Кремль");
+        neighbour.setLat(55.751);
+        neighbour.setLon(37.62);
+        neighbour.setCoordKey(new CoordinateKey(55.751, 37.62).packed());
+        circuitBreaker.setCachedOnly(true);
+
+        Mockito.when(repository.findByCoordKey(new CoordinateKey(lat, lon).packed())).thenReturn(Optional.empty());
+        Mockito.when(repository.findReverseNearest(Mockito.anyDouble(), Mockito.anyDouble(),
+                        Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyDouble(),
+                        Mockito.anyDouble(), Mockito.any(Limit.class)))
+                .thenReturn(List.of(neighbour));
+
+        GeocodingResponse response = service.reverseGeocode(lat, lon);
+
+        assertEquals("Москва, Кремль", response.getAddress());
+        assertEquals(MatchType.NEAREST, response.getMatchType());
+        assertEquals(111.2, response.getDistanceMeters(), 0.1);
+        Mockito.verifyNoInteractions(nominatimClient);
+    }
+
+    @Test
+    public void testGeocode_CachedOnlyFailsFastOnMiss() {
+        String address = "Москва";
+        circuitBreaker.setCachedOnly(true);
+
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+
+        assertThrows(UpstreamUnavailableException.class, () -> service.geocode(address));
+        Mockito.verifyNoInteractions(nominatimClient);
+        // отказ внешнего API не попадает в негативный кэш
+        circuitBreaker.setCachedOnly(false);
+        Mockito.when(nominatimClient.searchAsync(address))
+                .thenReturn(found(new NominatimResponse(address, 55.62558, 37.60639)));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+        assertEquals(55.62558, service.geocode(address).getLat());
+    }
+
+    @Test
+    public void testEvict_RemovesResultFromMemoryAndDatabase() {
+        String address = "Москва";
+        CachedLocation cached = new CachedLocation();
+        cached.setAddress(address);
+        cached.setLat(55.62558);
+        cached.setLon(37.60639);
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.of(cached));
+        service.geocode(address);
+        Mockito.when(repository.deleteByAddressKey(normalizer.key(address))).thenReturn(1);
+
+        assertTrue(service.evict(address));
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+        Mockito.when(nominatimClient.searchAsync(address))
+                .thenReturn(found(new NominatimResponse(address, 55.7558, 37.6173)));
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
+        assertEquals(55.7558, service.geocode(address).getLat());
+    }
+
+    @Test
+    public void testGeocode_GazetteerOnlyNeverCallsUpstream() throws Exception {
+        service = withGazetteer(GazetteerGeocoder.Mode.ONLY);
+        Mockito.when(repository.findByAddressKey(Mockito.any())).thenReturn(Optional.empty());
+        Mockito.when(repository.findByCoordKey(Mockito.any())).thenReturn(Optional.empty());
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
+        GeocodingResponse direct = service.geocode("москва ул. тверская, 1");
+        GeocodingResponse reverse = service.reverseGeocode(55.75701, 37.61301);
+
+        assertEquals(55.757, direct.getLat());
+        assertEquals(37.613, direct.getLon());
+        assertEquals("Москва, улица Тверская, 1", reverse.getAddress());
+        assertThrows(GeocodingException.class, () -> service.geocode("Казань"));
+        Mockito.verifyNoInteractions(nominatimClient);
+    }
+
+    @Test
+    public void testGeocode_GazetteerFallbackWhenUpstreamFails() throws Exception {
+        service = withGazetteer(GazetteerGeocoder.Mode.FALLBACK);
+        Mockito.when(repository.findByAddressKey(Mockito.any())).thenReturn(Optional.empty());
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+        Mockito.when(nominatimClient.searchAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.failedFuture(new UpstreamException("Внешний API вернул статус 503")));
+
+        GeocodingResponse response = service.geocode("Москва, ул. Тверская, 1");
+
+        assertEquals(55.757, response.getLat());
+        assertThrows(UpstreamException.class, () -> service.geocode("Казань"));
+    }
+
+    @Test
+    public void testGeocode_GazetteerFallbackWhenUpstreamSlow() throws Exception {
+        service = withGazetteer(GazetteerGeocoder.Mode.FALLBACK);
+        Mockito.when(repository.findByAddressKey(Mockito.any())).thenReturn(Optional.empty());
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+        Mockito.when(nominatimClient.searchAsync(Mockito.any())).thenReturn(new CompletableFuture<>());
+
+        GeocodingResponse response = service.geocodeAsync("Москва, ул. Тверская, 1", UpstreamPriority.INTERACTIVE)
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(55.757, response.getLat());
+    }
+
+    @Test
+    public void testGeocode_ResultAddedToSuggestIndex() {
+        String address = "Москва, ул. Тверская, 1";
+        Mockito.when(repository.findByAddressKey(normalizer.key(address))).thenReturn(Optional.empty());
+        Mockito.when(repository.insertIfAbsent(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+        Mockito.when(nominatimClient.searchAsync(address))
+                .thenReturn(found(new NominatimResponse("Тверская улица, 1, Москва", 55.757, 37.613)));
+
+        service.geocode(address);
+
+        List<Suggestion> suggestions = suggestIndex.suggest("москва тверс", 5);
+        assertEquals(1, suggestions.size());
+        assertEquals(address, suggestions.get(0).getAddress());
+        assertEquals(55.757, suggestions.get(0).getLat());
+    }
+
+    private GeocodingService withGazetteer(GazetteerGeocoder.Mode mode) throws Exception {
+        Path source = gazetteerDir.resolve("gazetteer.csv");
+        Files.writeString(source, "\"Москва, улица Тверская, 1\",55.757,37.613\n");
+        return new GeocodingService(nominatimClient, upstreamScheduler, repository, writer, locationCache, negativeCache,
+                normalizer, new NearestLocationFinder(repository, 25, 500, 100), metrics, gazetteer(mode, source),
+                suggestIndex, refresher, Optional.empty());
+    }
+
+    private GazetteerGeocoder gazetteer(GazetteerGeocoder.Mode mode, Path source) {
+        GazetteerGeocoder gazetteer = new GazetteerGeocoder(normalizer, mode,
+                gazetteerDir.resolve("gazetteer.idx"), source == null ? "" : source.toString(),
+                0.001, 100, Duration.ofMillis(100));
+        try {
+            gazetteer.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return gazetteer;
+    }
+
+    /**
+     * Обновленная запись попадает в L1 уже после записи в БД, поэтому ждем завершения обновления целиком.
+     */
+    private void awaitRefreshes() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (refresher.inFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(0, refresher.inFlight());
+    }
+
+    private static CompletableFuture<Optional<NominatimResponse>> found(NominatimResponse response) {
+        return CompletableFuture.completedFuture(Optional.of(response));
+    }
+
+    private double lookups(String type, String source) {
+        return meterRegistry.get("geocoding.lookups").tags("type", type, "source", source).counter().count();
+    }
+}
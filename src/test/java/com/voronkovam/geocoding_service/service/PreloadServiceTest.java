@@ -0,0 +1,231 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voronkovam.geocoding_service.cache.CoordinateKey;
+import com.voronkovam.geocoding_service.exception.PreloadInProgressException;
+import com.voronkovam.geocoding_service.migration.BackfillLookupKeysMigration;
+import com.voronkovam.geocoding_service.migration.RehashAddressKeysMigration;
+import com.voronkovam.geocoding_service.migration.RekeyAddressesMigration;
+import com.voronkovam.geocoding_service.model.PreloadRequest;
+import com.voronkovam.geocoding_service.model.PreloadStatus;
+import com.voronkovam.geocoding_service.repository.CachedLocationRepository;
+import com.voronkovam.geocoding_service.repository.CachedLocationWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ AddressNormalizer.class, BackfillLookupKeysMigration.class, RehashAddressKeysMigration.class,
+        RekeyAddressesMigration.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PreloadServiceTest {
+
+    @Autowired
+    private CachedLocationRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private AddressNormalizer normalizer;
+
+    @TempDir
+    private Path directory;
+
+    private SuggestIndex suggestIndex;
+
+    private PreloadService preloadService;
+
+    @BeforeEach
+    void setUp() {
+        CachedLocationWriter writer = new CachedLocationWriter(repository, jdbcTemplate, false, 100,
+                Duration.ofMillis(50), 100, Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ZERO);
+        suggestIndex = new SuggestIndex(jdbcTemplate, normalizer, true, 1000, 1000, 0.5, 0.1);
+        preloadService = new PreloadService(writer, normalizer, suggestIndex, new ObjectMapper(), directory, 2, 2,
+                Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        preloadService.destroy();
+        repository.deleteAll();
+    }
+
+    @Test
+    public void testStart_LoadsCsvWithHeaderAndSkipsInvalidRows() throws Exception {
+        Files.writeString(directory.resolve("dump.csv"), """
+                address,lat,lon,type
+                "Москва, ул. Тверская, 1",55.757,37.613
+                Казань,55.79,49.12,forward
+                Казань,55.79,49.12
+                "Москва, Россия",55.75,37.62,reverse
+                Нет координат,abc,37.6
+
+                Вне диапазона,95,37.6
+                """);
+
+        PreloadStatus status = run(request("dump.csv"));
+
+        assertEquals(PreloadStatus.State.COMPLETED, status.getState());
+        assertEquals(8, status.getLinesDone());
+        assertEquals(2, status.getRowsInvalid());
+        assertEquals(3, repository.count());
+        assertEquals(55.757, repository.findByAddressKey(normalizer.key("москва улица тверская 1")).orElseThrow().getLat());
+        assertTrue(repository.findByCoordKey(new CoordinateKey(55.75, 37.62).packed()).isPresent());
+        assertFalse(Files.exists(directory.resolve("dump.csv.checkpoint")));
+        // в подсказки попадают только адреса прямого геокодирования
+        assertEquals(2, suggestIndex.size());
+    }
+
+    @Test
+    public void testStart_LoadsNdjson() throws Exception {
+        Files.writeString(directory.resolve("dump.ndjson"), """
+                {"address": "Москва", "lat": 55.75, "lon": 37.61}
+                {"address": "Москва, Россия", "lat": 55.75, "lon": 37.62, "type": "reverse"}
+                {"address": "Казань"}
+                """);
+
+        PreloadStatus status = run(request("dump.ndjson"));
+
+        assertEquals(PreloadStatus.State.COMPLETED, status.getState());
+        assertEquals(1, status.getRowsInvalid());
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    public void testStart_ResumesFromCheckpoint() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lines.add("Адрес " + i + ",55.75,37.61");
+        }
+        Path file = directory.resolve("dump.csv");
+        Files.write(file, lines);
+        long offset = String.join("\n", lines.subList(0, 6)).getBytes(StandardCharsets.UTF_8).length + 1;
+        preloadService.writeCheckpoint(file, new PreloadService.Checkpoint(6, offset));
+
+        PreloadStatus status = run(request("dump.csv"));
+
+        assertEquals(6, status.getStartLine());
+        assertEquals(10, status.getLinesDone());
+        assertEquals(4, repository.count());
+        assertTrue(repository.findByAddressKey(normalizer.key("Адрес 6")).isPresent());
+        assertTrue(repository.findByAddressKey(normalizer.key("Адрес 5")).isEmpty());
+    }
+
+    @Test
+    public void testStart_ResumesFromCheckpointWithoutOffset() throws Exception {
+        Path file = directory.resolve("dump.csv");
+        Files.writeString(file, "Москва,55.75,37.61\nКазань,55.79,49.12\n");
+        preloadService.writeCheckpoint(file, new PreloadService.Checkpoint(1, -1));
+
+        PreloadStatus status = run(request("dump.csv"));
+
+        assertEquals(2, status.getLinesDone());
+        assertEquals(1, repository.count());
+        assertTrue(repository.findByAddressKey(normalizer.key("Казань")).isPresent());
+    }
+
+    @Test
+    public void testStart_CountsRowsExceedingColumnLimitsAsInvalid() throws Exception {
+        Files.writeString(directory.resolve("dump.csv"), "Москва,55.75,37.61\n"
+                + "Дом ".repeat(80) + ",55.75,37.61\n"
+                + "Казань,NaN,49.12\n"
+                + "Самара,53.2,Infinity\n"
+                + "Казань,55.79,49.12\n");
+
+        PreloadStatus status = run(request("dump.csv"));
+
+        assertEquals(PreloadStatus.State.COMPLETED, status.getState());
+        assertEquals(3, status.getRowsInvalid());
+        assertEquals(2, status.getRowsWritten());
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    public void testStart_CountsOverlongLinesAsInvalid() throws Exception {
+        String huge = "ж".repeat(PreloadService.MAX_LINE_BYTES);
+        Files.writeString(directory.resolve("dump.csv"), "Москва,55.75,37.61\n"
+                + huge + ",55.75,37.61\n"
+                + "Казань,55.79,49.12\n"
+                + huge);
+
+        PreloadStatus status = run(request("dump.csv"));
+
+        assertEquals(PreloadStatus.State.COMPLETED, status.getState());
+        assertEquals(4, status.getLinesDone());
+        assertEquals(2, status.getRowsInvalid());
+        assertEquals(2, status.getRowsWritten());
+    }
+
+    @Test
+    public void testStart_CheckpointIgnoredWhenFileChanged() throws Exception {
+        Path file = directory.resolve("dump.csv");
+        Files.writeString(file, "Москва,55.75,37.61\n");
+        preloadService.writeCheckpoint(file, new PreloadService.Checkpoint(1, 19));
+        Files.writeString(file, "Москва,55.75,37.61\nКазань,55.79,49.12\n");
+
+        assertEquals(PreloadService.Checkpoint.START, preloadService.readCheckpoint(file));
+    }
+
+    @Test
+    public void testStart_RejectsFileOutsideDirectory() {
+        assertThrows(IllegalArgumentException.class, () -> preloadService.start(request("../etc/passwd")));
+        assertThrows(IllegalArgumentException.class, () -> preloadService.start(request("missing.csv")));
+    }
+
+    @Test
+    public void testStart_OneJobAtATime() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            content.append("Адрес ").append(i).append(",55.75,37.61\n");
+        }
+        Files.writeString(directory.resolve("big.csv"), content);
+
+        preloadService.start(request("big.csv"));
+        assertThrows(PreloadInProgressException.class, () -> preloadService.start(request("big.csv")));
+        preloadService.cancel();
+
+        assertTrue(preloadService.await(Duration.ofSeconds(30)));
+        PreloadStatus status = preloadService.status().orElseThrow();
+        if (status.getState() == PreloadStatus.State.CANCELLED) {
+            assertTrue(Files.exists(directory.resolve("big.csv.checkpoint")));
+            PreloadService.Checkpoint checkpoint = preloadService.readCheckpoint(directory.resolve("big.csv"));
+            assertEquals(status.getLinesDone(), checkpoint.lines());
+            long offset = Files.readAllLines(directory.resolve("big.csv")).stream().limit(checkpoint.lines())
+                    .mapToLong(line -> line.getBytes(StandardCharsets.UTF_8).length + 1).sum();
+            assertEquals(offset, checkpoint.offset());
+        }
+    }
+
+    private PreloadStatus run(PreloadRequest request) throws InterruptedException {
+        preloadService.start(request);
+        assertTrue(preloadService.await(Duration.ofSeconds(30)));
+        return preloadService.status().orElseThrow();
+    }
+
+    private static PreloadRequest request(String file) {
+        PreloadRequest request = new PreloadRequest();
+        request.setFile(file);
+        return request;
+    }
+}
@@ -0,0 +1,148 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voronkovam.geocoding_service.client.UpstreamPriority;
+import com.voronkovam.geocoding_service.exception.GeocodingException;
+import com.voronkovam.geocoding_service.model.GeocodingResponse;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class StreamingGeocodingServiceTest {
+
+    @Mock
+    private GeocodingService geocodingService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ExecutorService executor;
+    private StreamingGeocodingService service;
+
+    @BeforeEach
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+        BatchGeocodingService batchService = new BatchGeocodingService(geocodingService, executor,
+                Validation.buildDefaultValidatorFactory().getValidator());
+        service = new StreamingGeocodingService(batchService, executor, objectMapper);
+        ReflectionTestUtils.setField(service, "maxInFlight", 2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testProcessNdjson_ResultsInInputOrder() throws Exception {
+        Mockito.when(geocodingService.geocode("Москва", UpstreamPriority.BATCH)).thenReturn(response("Москва", 55.7558, 37.6173));
+        Mockito.when(geocodingService.geocode("несуществующий адрес", UpstreamPriority.BATCH)).thenThrow(new GeocodingException("Адрес не найден"));
+        Mockito.when(geocodingService.reverseGeocode(55.75, 37.62, UpstreamPriority.BATCH)).thenReturn(response("Москва, Россия", 55.75, 37.62));
+
+        List<JsonNode> results = process(StreamingGeocodingService.Format.NDJSON, """
+                {"address": "Москва"}
+                {"address": "несуществующий адрес"}
+
+                not json
+                {"lat": 55.75, "lon": 37.62}
+                {"lat": 95.0, "lon": 37.62}
+                """);
+
+        assertEquals(5, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).get("index").asInt());
+        }
+        assertEquals(55.7558, results.get(0).get("result").get("lat").asDouble());
+        assertEquals("Адрес не найден", results.get(1).get("error").asText());
+        assertEquals("Некорректный JSON", results.get(2).get("error").asText());
+        assertEquals("Москва, Россия", results.get(3).get("result").get("address").asText());
+        assertEquals("Широта должна быть не более 90.0", results.get(4).get("error").asText());
+    }
+
+    @Test
+    public void testProcessCsv_SkipsHeaderAndHandlesQuotedAddresses() throws Exception {
+        Mockito.when(geocodingService.geocode("Москва, Тверская 1", UpstreamPriority.BATCH)).thenReturn(response("Москва, Тверская 1", 55.76, 37.61));
+        Mockito.when(geocodingService.reverseGeocode(55.75, 37.62, UpstreamPriority.BATCH)).thenReturn(response("Москва, Россия", 55.75, 37.62));
+
+        List<JsonNode> results = process(StreamingGeocodingService.Format.CSV, """
+                address
+                "Москва, Тверская 1"
+                55.75,37.62
+                """);
+
+        assertEquals(2, results.size());
+        assertEquals("OK", results.get(0).get("status").asText());
+        assertEquals("Москва, Россия", results.get(1).get("result").get("address").asText());
+    }
+
+    @Test
+    public void testProcess_RejectsTooLongLines() throws Exception {
+        Mockito.when(geocodingService.geocode("Москва", UpstreamPriority.BATCH)).thenReturn(response("Москва", 55.7558, 37.6173));
+
+        List<JsonNode> results = process(StreamingGeocodingService.Format.CSV,
+                "x".repeat(StreamingGeocodingService.MAX_LINE_LENGTH * 10) + "\r\n"
+                        + "y".repeat(300) + "\r\n"
+                        + "Москва\r\n");
+
+        assertEquals(3, results.size());
+        assertEquals("Строка длиннее " + StreamingGeocodingService.MAX_LINE_LENGTH + " символов",
+                results.get(0).get("error").asText());
+        assertEquals("Адрес должен быть не длиннее 255 символов", results.get(1).get("error").asText());
+        assertEquals(2, results.get(2).get("index").asInt());
+        assertEquals("OK", results.get(2).get("status").asText());
+    }
+
+    @Test
+    public void testLineReader_SplitsLinesAtLimit() throws Exception {
+        StreamingGeocodingService.LineReader reader = new StreamingGeocodingService.LineReader(
+                new StringReader("abc\r\nabcd\nab\r\n\nabcde"), 3);
+
+        assertEquals("abc", reader.readLine());
+        assertFalse(reader.tooLong());
+        assertEquals("", reader.readLine());
+        assertTrue(reader.tooLong());
+        assertEquals("ab", reader.readLine());
+        assertEquals("", reader.readLine());
+        assertFalse(reader.tooLong());
+        assertEquals("", reader.readLine());
+        assertTrue(reader.tooLong());
+        assertNull(reader.readLine());
+    }
+
+    private List<JsonNode> process(StreamingGeocodingService.Format format, String input) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        service.process(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), format, output);
+        return output.toString(StandardCharsets.UTF_8).lines()
+                .map(line -> {
+                    try {
+                        return objectMapper.readTree(line);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                })
+                .toList();
+    }
+
+    private static GeocodingResponse response(String address, double lat, double lon) {
+        GeocodingResponse response = new GeocodingResponse();
+        response.setAddress(address);
+        response.setLat(lat);
+        response.setLon(lon);
+        return response;
+    }
+}
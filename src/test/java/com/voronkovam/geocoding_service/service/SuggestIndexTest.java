@@ -0,0 +1,87 @@
+package com.voronkovam.geocoding_service.service;
+
+import com.voronkovam.geocoding_service.model.Suggestion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SuggestIndexTest {
+
+    private final AddressNormalizer normalizer = new AddressNormalizer();
+
+    private SuggestIndex index;
+
+    @BeforeEach
+    public void setup() {
+        index = new SuggestIndex(null, normalizer, true, 100, 1000, 0.5, 0.1);
+        add("Москва, улица Тверская, 1", 55.757, 37.613);
+        add("Москва, улица Тверская, 12", 55.763, 37.606);
+        add("Москва, Тверской бульвар, 5", 55.758, 37.601);
+        add("Казань, улица Баумана, 1", 55.7887, 49.1221);
+    }
+
+    @Test
+    public void testSuggest_PrefixOfLastWord() {
+        List<Suggestion> suggestions = index.suggest("Москва, ул. Тверс", 10);
+
+        assertEquals(3, suggestions.size());
+        assertTrue(suggestions.stream().allMatch(s -> s.getAddress().startsWith("Москва")));
+        assertEquals("Москва, улица Тверская, 1", suggestions.get(0).getAddress());
+        assertEquals(1, index.suggest("Москва, ул. Тверс", 1).size());
+    }
+
+    @Test
+    public void testSuggest_ToleratesTypos() {
+        List<Suggestion> suggestions = index.suggest("казнь баумана", 10);
+
+        assertFalse(suggestions.isEmpty());
+        assertEquals("Казань, улица Баумана, 1", suggestions.get(0).getAddress());
+        assertTrue(index.suggest("Самара", 10).isEmpty());
+    }
+
+    @Test
+    public void testSuggest_PopularAddressRankedFirst() {
+        for (int i = 0; i < 20; i++) {
+            index.touch(normalizer.key("Москва, улица Тверская, 12"));
+        }
+
+        List<Suggestion> suggestions = index.suggest("москва тверская", 10);
+
+        assertEquals("Москва, улица Тверская, 12", suggestions.get(0).getAddress());
+        assertTrue(suggestions.get(0).getScore() > suggestions.get(1).getScore());
+    }
+
+    @Test
+    public void testSuggest_CandidatesLimitKeepsPopularAddresses() {
+        SuggestIndex small = new SuggestIndex(null, normalizer, true, 100, 2, 0.5, 0.1);
+        for (int i = 1; i <= 10; i++) {
+            String address = "Москва, улица Тверская, " + i;
+            small.add(normalizer.key(address), address, 55.75, 37.61);
+        }
+        for (int i = 0; i < 5; i++) {
+            small.touch(normalizer.key("Москва, улица Тверская, 9"));
+        }
+
+        List<Suggestion> suggestions = small.suggest("москва тверская", 1);
+
+        assertEquals("Москва, улица Тверская, 9", suggestions.get(0).getAddress());
+    }
+
+    @Test
+    public void testAdd_DuplicateKeyAndLimit() {
+        add("москва улица тверская 1", 0, 0);
+        assertEquals(4, index.size());
+
+        SuggestIndex small = new SuggestIndex(null, normalizer, true, 1, 1000, 0.5, 0.1);
+        small.add("a", "Москва", 55.75, 37.61);
+        small.add("b", "Казань", 55.79, 49.12);
+        assertEquals(1, small.size());
+    }
+
+    private void add(String address, double lat, double lon) {
+        index.add(normalizer.key(address), address, lat, lon);
+    }
+}